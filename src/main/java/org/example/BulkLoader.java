@@ -0,0 +1,137 @@
+package org.example;
+
+import org.example.exception.CannotWriteException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Loads a stream of rows into a table. Rows are routed to their partition as they arrive and buffered per partition;
+ * a partition is written with a single batched insert once it holds enough rows, so loading many rows costs one call
+ * per replica per batch instead of one per row. Not thread-safe: a loader serves a single stream.
+ */
+public class BulkLoader {
+    public static final int DEFAULT_BATCH_ROWS = 10_000;
+    private final DatabaseNodeClient client;
+    private final boolean sql;
+    private final int batchRows;
+    // partition id -> rows waiting to be written to it
+    private final Map<Integer, Batch> batches = new TreeMap<>();
+    private long rows = 0;
+    // rows of the batches every replica of their partition acknowledged
+    private long written = 0;
+    private long flushes = 0;
+
+    /**
+     * Rows buffered for a partition. The rows of a SQL batch all insert the same columns.
+     */
+    private static class Batch {
+        private List<String> columns;
+        private List<List<String>> rows = new ArrayList<>();
+    }
+
+    /**
+     * Constructs a BulkLoader for a table.
+     *
+     * @param client the client of the table.
+     * @param sql whether the table is a SQL table, false for NoSQL.
+     * @param batchRows the number of rows buffered for a partition before they are written.
+     * @throws IllegalArgumentException if batchRows is not positive.
+     */
+    public BulkLoader(DatabaseNodeClient client, boolean sql, int batchRows) {
+        if (batchRows <= 0) {
+            throw new IllegalArgumentException("batch size must be positive: " + batchRows);
+        }
+        this.client = client;
+        this.sql = sql;
+        this.batchRows = batchRows;
+    }
+
+    /**
+     * Adds a SQL row, writing the batch of its partition if it is full. A row inserting other columns than the rows
+     * buffered for its partition writes them first.
+     *
+     * @param columns the inserted columns, the first one being the id column.
+     * @param values the values of the columns as SQL literals.
+     * @throws CannotWriteException if a batch cannot be written due to replica failures.
+     * @throws IllegalArgumentException if the id is not valid for the type of the id column.
+     */
+    public void addSQL(List<String> columns, List<String> values) throws CannotWriteException {
+        Batch batch = batches.computeIfAbsent(client.insertPartitionOf(values.get(0)), id -> new Batch());
+        if (batch.columns != null && !batch.columns.equals(columns)) {
+            flush(batch);
+        }
+        batch.columns = columns;
+        add(batch, values);
+    }
+
+    /**
+     * Adds a NoSQL row, writing the batch of its partition if it is full.
+     *
+     * @param kvPairs the key-value pairs of the row, the first value being its id.
+     * @throws CannotWriteException if a batch cannot be written due to replica failures.
+     * @throws IllegalArgumentException if the row has no id.
+     */
+    public void addNoSQL(List<String> kvPairs) throws CannotWriteException {
+        if (kvPairs.size() < 2) {
+            throw new IllegalArgumentException("a row needs at least one key-value pair");
+        }
+        add(batches.computeIfAbsent(client.insertPartitionOf(kvPairs.get(1)), id -> new Batch()), kvPairs);
+    }
+
+    private void add(Batch batch, List<String> row) throws CannotWriteException {
+        batch.rows.add(row);
+        rows++;
+        if (batch.rows.size() >= batchRows) {
+            flush(batch);
+        }
+    }
+
+    /**
+     * Writes the rows still buffered for every partition. Call once the stream ends.
+     *
+     * @throws CannotWriteException if a batch cannot be written due to replica failures.
+     */
+    public void finish() throws CannotWriteException {
+        for (Batch batch : batches.values()) {
+            flush(batch);
+        }
+    }
+
+    /**
+     * Writes the rows buffered for a partition with a single batched insert.
+     *
+     * @param batch the rows of the partition.
+     * @throws CannotWriteException if the batch cannot be written due to replica failures.
+     */
+    private void flush(Batch batch) throws CannotWriteException {
+        if (batch.rows.isEmpty()) {
+            return;
+        }
+        List<List<String>> batchRows = batch.rows;
+        batch.rows = new ArrayList<>();
+        if (sql) {
+            client.insertBatchSQL(batch.columns, batchRows);
+        } else {
+            client.insertBatchNoSQL(batchRows);
+        }
+        written += batchRows.size();
+        flushes++;
+    }
+
+    /**
+     * Get the counters of the load: {@code rows} (rows added), {@code written} (rows of the batches written to every
+     * replica of their partition, the rows a failed load kept) and {@code batches} (batched inserts written).
+     *
+     * @return the counters by name.
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new TreeMap<>();
+        stats.put("rows", rows);
+        stats.put("written", written);
+        stats.put("batches", flushes);
+        return stats;
+    }
+}
@@ -1,15 +1,23 @@
 package org.example;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DatabindException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sun.net.httpserver.*;
 import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.expression.operators.relational.ParenthesedExpressionList;
 import net.sf.jsqlparser.schema.Table;
 import net.sf.jsqlparser.statement.delete.Delete;
+import net.sf.jsqlparser.statement.select.AllColumns;
 import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.SelectItem;
 import net.sf.jsqlparser.statement.update.Update;
 import net.sf.jsqlparser.statement.update.UpdateSet;
 import org.example.config.HorizontalPartitionConfig;
 import org.example.config.PartitionConfig;
+import org.example.config.StorageConfig;
 import org.example.config.VerticalPartitionConfig;
 import org.example.dto.*;
 import net.sf.jsqlparser.JSQLParserException;
@@ -20,19 +28,35 @@ import net.sf.jsqlparser.statement.create.table.ColumnDefinition;
 import net.sf.jsqlparser.statement.create.table.CreateTable;
 import net.sf.jsqlparser.statement.insert.Insert;
 import org.example.exception.CannotWriteException;
+import org.example.storage.Aggregation;
+import org.example.storage.ColumnType;
+import org.example.storage.PartialAggregates;
+import org.example.storage.RowOrder;
+import org.example.storage.RowPredicate;
+import org.example.storage.SortedRows;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -55,10 +79,58 @@ public class Coordinator {
                 System.err.println("Invalid port number provided, using default port " + serverPort);
             }
         }
-        Coordinator coordinator = new Coordinator();
+        String executorMode = System.getProperty(EXECUTOR_PROPERTY, "cached");
+        int maxConcurrentRequests = Integer.getInteger(MAX_CONCURRENT_REQUESTS_PROPERTY, DEFAULT_MAX_CONCURRENT_REQUESTS);
+        Coordinator coordinator = new Coordinator(executorMode, maxConcurrentRequests);
         coordinator.run(serverPort);
     }
 
+    // system properties selecting how requests are run, e.g. -Dcoordinator.executor=virtual
+    static final String EXECUTOR_PROPERTY = "coordinator.executor";
+    static final String MAX_CONCURRENT_REQUESTS_PROPERTY = "coordinator.maxConcurrentRequests";
+    static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 256;
+    // a request waits at most this long for one of the running requests to finish before it is rejected
+    static final long LIMIT_WAIT_MILLIS = 10_000;
+    // connections waiting to be accepted, so bursts of clients are queued instead of refused
+    private static final int BACKLOG = 1024;
+    // read buffer of a bulk load request body
+    private static final int BULK_READ_BUFFER = 64 * 1024;
+
+    private final String executorMode;
+    private final ConcurrencyLimitFilter limiter;
+    private ExecutorService requestExecutor;
+    private boolean virtualThreads;
+
+    /**
+     * Constructs a coordinator that runs every request on a cached thread pool, at most
+     * {@value #DEFAULT_MAX_CONCURRENT_REQUESTS} at the same time.
+     */
+    public Coordinator() {
+        this("cached", DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+    /**
+     * Constructs a coordinator.
+     *
+     * @param executorMode "cached" to run requests on a cached pool of platform threads, "virtual" to run every
+     * request on its own virtual thread, which needs Java 21 and falls back to "cached" on older runtimes.
+     * @param maxConcurrentRequests the most requests handled at the same time, the others wait for a running one to
+     * finish, 0 for no limit.
+     */
+    public Coordinator(String executorMode, int maxConcurrentRequests) {
+        if (!executorMode.equals("cached") && !executorMode.equals("virtual")) {
+            throw new IllegalArgumentException("invalid executor " + executorMode);
+        }
+        if (maxConcurrentRequests < 0) {
+            throw new IllegalArgumentException("invalid max concurrent requests " + maxConcurrentRequests);
+        }
+        this.executorMode = executorMode;
+        this.limiter = maxConcurrentRequests == 0 ? null : new ConcurrencyLimitFilter(maxConcurrentRequests);
+    }
+
+    // create requests of every table, one JSON object per line, replayed to reopen the tables on startup
+    private static final String CATALOG_FILE = "tables.catalog";
+
     private ObjectMapper mapper = new ObjectMapper();
     // tablename-"SQL | NoSQL" -> DatabaseNodeClient
     private Map<String, DatabaseNodeClient> databases = new ConcurrentHashMap<>();
@@ -69,37 +141,158 @@ public class Coordinator {
     private HttpServer server;
     private Registry registry;
 
-    private ConcurrentHashMap<String, String> cache = new ConcurrentHashMap<>();
+    // bound and time to live of the SELECT result cache
+    private static final long CACHE_MAX_BYTES = 64L * 1024 * 1024;
+    private static final long CACHE_TTL_MILLIS = 10 * 60_000;
+
+    // results are stamped with the version of their partition, so a long time to live does not serve stale rows
+    private QueryCache cache = new QueryCache(CACHE_MAX_BYTES, CACHE_TTL_MILLIS, partitionKey -> {
+        int separator = partitionKey.lastIndexOf('-');
+        return databases.get(partitionKey.substring(0, separator))
+                .getPartitionVersion(Integer.parseInt(partitionKey.substring(separator + 1)));
+    });
     // for test
-    public ConcurrentHashMap<String, String> getCache() {
+    public QueryCache getCache() {
         return cache;
     }
+    // reads of the partitions missing from the cache, shared by identical selects running at the same time
+    private SingleFlight<List<String>> selectReads = new SingleFlight<>();
+    // for test
+    public SingleFlight<List<String>> getSelectReads() {
+        return selectReads;
+    }
     /**
      * Coordinates the creation, insertion, selection, update, and deletion of tables.
+     * The tables created by a previous run are reopened from their data files before the server starts listening.
      * @param port the server to listen on
-     * @throws IOException if an error occurs while creating the server
+     * @throws IOException if an error occurs while creating the server or reading the table catalog
      */
     public void run(int port) throws IOException {
-        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
 
-        server.createContext("/create", new CreateHandler());
-        server.createContext("/insert", new InsertHandler());
-        server.createContext("/select", new SelectHandler());
-        server.createContext("/update", new UpdateHandler());
-        server.createContext("/delete", new DeleteHandler());
+        List<HttpContext> contexts = List.of(
+                server.createContext("/create", new CreateHandler()),
+                server.createContext("/insert", new InsertHandler()),
+                server.createContext("/select", new SelectHandler()),
+                server.createContext("/update", new UpdateHandler()),
+                server.createContext("/delete", new DeleteHandler()),
+                server.createContext("/bulkload", new BulkLoadHandler()));
+        if (limiter != null) {
+            for (HttpContext context : contexts) {
+                context.getFilters().add(limiter);
+            }
+        }
 
-        server.setExecutor(Executors.newCachedThreadPool()); // to avoid creating and destroying thread every request
-        server.start();
+        requestExecutor = newRequestExecutor();
+        server.setExecutor(requestExecutor);
         registry = LocateRegistry.createRegistry(1099); // for RMI
+        restoreTables();
+        server.start();
+    }
 
+    /**
+     * Creates the executor that runs the requests, as selected by the executor mode.
+     *
+     * @return a cached thread pool, to avoid creating and destroying a thread every request, or an executor starting
+     * a virtual thread per request.
+     */
+    private ExecutorService newRequestExecutor() {
+        if (executorMode.equals("virtual")) {
+            try {
+                // looked up at runtime, the build targets Java 17
+                ExecutorService executor =
+                        (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                virtualThreads = true;
+                return executor;
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Virtual threads need Java 21, running requests on a cached thread pool");
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Get how requests are run.
+     *
+     * @return "virtual" if every request runs on its own virtual thread, "cached" otherwise.
+     */
+    public String getExecutorMode() {
+        return virtualThreads ? "virtual" : "cached";
     }
 
     /**
-     * Stops the server and unregisters the RMI registry.
+     * Get the counters of the concurrency limit: {@code maxConcurrentRequests}, {@code inFlight}, {@code peakInFlight},
+     * {@code admitted}, {@code waited} (requests that waited for a running one to finish) and {@code rejected}
+     * (requests that waited longer than {@value #LIMIT_WAIT_MILLIS} ms and were answered with 503).
+     *
+     * @return the counters by name, empty without a limit.
+     */
+    public Map<String, Long> getLimiterStats() {
+        return limiter == null ? new TreeMap<>() : limiter.getStats();
+    }
+
+    /**
+     * Reopens the tables listed in the catalog by a previous run. Tables are loaded in parallel, every replica
+     * reopening its own data files and reporting how long it took.
+     *
+     * @throws IOException if the catalog cannot be read.
+     */
+    private void restoreTables() throws IOException {
+        Path catalog = Paths.get(CATALOG_FILE);
+        if (!Files.exists(catalog)) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<String> entries = Files.readAllLines(catalog);
+        ExecutorService loader = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(entries.size(), Runtime.getRuntime().availableProcessors())));
+        for (String entry : entries) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            loader.execute(() -> {
+                try {
+                    CreateRequestDto createRequestDto = mapper.readValue(entry, CreateRequestDto.class);
+                    String error = createTable(createRequestDto, true);
+                    if (error != null) {
+                        System.err.println("Cannot restore " + createRequestDto.getStatement() + ": " + error);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+        loader.shutdown();
+        try {
+            loader.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("Restored " + databases.size() + " tables in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
+    /**
+     * Appends the create request of a new table to the catalog, so the next run reopens the table.
+     *
+     * @param createRequestDto the create request of the table.
+     * @throws IOException if the catalog cannot be written.
+     */
+    private synchronized void addToCatalog(CreateRequestDto createRequestDto) throws IOException {
+        Files.writeString(Paths.get(CATALOG_FILE), mapper.writeValueAsString(createRequestDto) + "\n",
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Stops the server, closes every table so the next run can reopen its data files, and unregisters the RMI registry.
      */
     // for test
     public void stop() {
         server.stop(1);
+        requestExecutor.shutdown();
+        for (DatabaseNodeClient database : databases.values()) {
+            database.close();
+        }
         try {
             UnicastRemoteObject.unexportObject(registry, true);
         } catch (NoSuchObjectException e) {
@@ -120,68 +313,21 @@ public class Coordinator {
                 try {
                     CreateRequestDto createRequestDto = mapper.readValue(exchange.getRequestBody(), CreateRequestDto.class);
                     createRequestDto.validate();
-                    String databaseType = createRequestDto.getDatabaseType();
-                    String statementString = createRequestDto.getStatement();
-                    int replicaCount = createRequestDto.getReplicaCount();
-                    String partitionType = createRequestDto.getPartitionType();
-                    int numPartitions = createRequestDto.getNumPartitions();
-                    List<List<String>> verticalPartitionColumns = createRequestDto.getVerticalPartitionColumns();
-                    PartitionConfig partitionConfig = partitionType.equals("horizontal") ?
-                            new HorizontalPartitionConfig(numPartitions) : partitionType.equals("vertical") ?
-                            new VerticalPartitionConfig(numPartitions, verticalPartitionColumns) : null;
-                    if (databaseType.equals("SQL")) {
-                        // get the statement from the request body
-                        Statement statement = CCJSqlParserUtil.parse(statementString);
-                        if (statement instanceof CreateTable) {
-                            CreateTable create = (CreateTable) statement;
-                            String tableName = create.getTable().getName();
-                            List<String> columnNames = create.getColumnDefinitions().stream().map(ColumnDefinition::getColumnName).toList();
-                            DatabaseNodeClient node = new DatabaseNodeClient(
-                                    tableName,
-                                    columnNames,
-                                    replicaCount,
-                                    partitionConfig
-                            );
-                            String key = tableName + "-SQL";
-                            if (databases.containsKey(key)) {
-                                handleBadRequest(exchange, "table already exists");
-                                return;
-                            }
-                            databases.put(key, node);
-                        } else {
-                            handleBadRequest(exchange, "invalid create statement");
-                            return;
-                        }
-                    } else if (databaseType.equals("NoSQL")) {
-                        // handle NoSQL
-                        // CREATE TABLE users
-                        // schema is not needed
-                        if (statementString.trim().startsWith("CREATE TABLE")) {
-                            String[] split = statementString.split(" ");
-                            if (split.length != 3) {
-                                handleBadRequest(exchange, "invalid create statement");
-                                return;
-                            }
-                            String tableName = split[2];
-                            String key = tableName + "-NoSQL";
-                            if (databases.containsKey(key)) {
-                                handleBadRequest(exchange, "table already exists");
-                                return;
-                            }
-                            databases.put(key, new DatabaseNodeClient(tableName, null, replicaCount, partitionConfig));
-                        } else {
-                            handleBadRequest(exchange);
-                            return;
-                        }
-                    } else {
-                        handleBadRequest(exchange);
+                    String error = createTable(createRequestDto, false);
+                    if (error != null) {
+                        handleBadRequest(exchange, error);
                         return;
                     }
-
                 } catch (DatabindException | JSQLParserException | IllegalArgumentException e) {
                     e.printStackTrace();
                     handleBadRequest(exchange);
                     return;
+                } catch (IOException e) {
+                    // the replicas or the catalog entry could not be written, the table was not created
+                    e.printStackTrace();
+                    handleResponse(exchange, 500,
+                            mapper.writeValueAsString(new BadRequestResponse("cannot create table: " + e.getMessage())));
+                    return;
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
@@ -190,6 +336,291 @@ public class Coordinator {
         }
     }
 
+    /**
+     * Creates the client and the replicas of a table from its create request.
+     *
+     * @param createRequestDto the validated create request.
+     * @param reopen whether the replicas reopen the data files left by a previous run instead of creating empty ones.
+     * @return null if the table was created, otherwise the reason the request is rejected.
+     * @throws JSQLParserException if the SQL statement cannot be parsed.
+     * @throws RemoteException if the replicas cannot be set up.
+     * @throws IOException if a new table cannot be added to the catalog, in which case it is not created.
+     */
+    private String createTable(CreateRequestDto createRequestDto, boolean reopen) throws JSQLParserException, IOException {
+        String databaseType = createRequestDto.getDatabaseType();
+        String statementString = createRequestDto.getStatement();
+        int replicaCount = createRequestDto.getReplicaCount();
+        String partitionType = createRequestDto.getPartitionType();
+        int numPartitions = createRequestDto.getNumPartitions();
+        List<List<String>> verticalPartitionColumns = createRequestDto.getVerticalPartitionColumns();
+        PartitionConfig partitionConfig = partitionType.equals("horizontal") ?
+                new HorizontalPartitionConfig(numPartitions) : partitionType.equals("vertical") ?
+                new VerticalPartitionConfig(numPartitions, verticalPartitionColumns) : null;
+        StorageConfig storageConfig = new StorageConfig(createRequestDto.getStorageEngine(),
+                createRequestDto.getBufferPoolSize(), createRequestDto.getDurability());
+        if (databaseType.equals("SQL")) {
+            // get the statement from the request body
+            Statement statement = CCJSqlParserUtil.parse(statementString);
+            if (statement instanceof CreateTable) {
+                CreateTable create = (CreateTable) statement;
+                String tableName = create.getTable().getName();
+                List<String> columnNames = create.getColumnDefinitions().stream().map(ColumnDefinition::getColumnName).toList();
+                List<ColumnType> columnTypes = create.getColumnDefinitions().stream()
+                        .map(definition -> ColumnType.fromSqlType(definition.getColDataType().getDataType())).toList();
+                String key = tableName + "-SQL";
+                if (databases.containsKey(key)) {
+                    return "table already exists";
+                }
+                DatabaseNodeClient node = new DatabaseNodeClient(
+                        tableName,
+                        columnNames,
+                        columnTypes,
+                        replicaCount,
+                        partitionConfig,
+                        storageConfig,
+                        reopen
+                );
+                addTable(key, node, createRequestDto, reopen);
+            } else {
+                return "invalid create statement";
+            }
+        } else if (databaseType.equals("NoSQL")) {
+            // handle NoSQL
+            // CREATE TABLE users
+            // schema is not needed
+            if (statementString.trim().startsWith("CREATE TABLE")) {
+                String[] split = statementString.split(" ");
+                if (split.length != 3) {
+                    return "invalid create statement";
+                }
+                String tableName = split[2];
+                String key = tableName + "-NoSQL";
+                if (databases.containsKey(key)) {
+                    return "table already exists";
+                }
+                addTable(key, new DatabaseNodeClient(tableName, null, null, replicaCount, partitionConfig,
+                        storageConfig, reopen), createRequestDto, reopen);
+            } else {
+                return "invalid post body";
+            }
+        } else {
+            return "invalid post body";
+        }
+        return null;
+    }
+
+    /**
+     * Adds a table, keeping the cached results of its partitions current as it is written. A new table is first
+     * added to the catalog; if that fails, its replicas are closed and the table is not added.
+     *
+     * @param key tablename-"SQL | NoSQL"
+     * @param node the client of the table.
+     * @param createRequestDto the create request of the table.
+     * @param reopen whether the table was reopened from the catalog rather than created.
+     * @throws IOException if the catalog cannot be written.
+     */
+    private void addTable(String key, DatabaseNodeClient node, CreateRequestDto createRequestDto, boolean reopen)
+            throws IOException {
+        if (!reopen) {
+            try {
+                addToCatalog(createRequestDto);
+            } catch (IOException e) {
+                node.close();
+                throw e;
+            }
+        }
+        node.setWriteListener((partitionId, fromVersion, toVersion, delta) ->
+                cache.update(key + "-" + partitionId, fromVersion, toVersion, delta));
+        databases.put(key, node);
+    }
+
+    /**
+     * Reads a table through the cache. Every result partition that is cached is answered from the cache, and the
+     * others are read from the replicas at the same time and cached. Selects of the same table that miss the same
+     * partitions at the same versions share one read of the replicas, see {@link SingleFlight}; while a write to a
+     * missing partition is running, its version is unknown and the select reads the replicas on its own.
+     *
+     * @param key tablename-"SQL | NoSQL"
+     * @return the result of SELECT on the table.
+     */
+    private String selectThroughCache(String key) {
+        DatabaseNodeClient node = databases.get(key);
+        List<String> resultList = new ArrayList<>();
+        List<Integer> missing = new ArrayList<>();
+        List<Long> versions = new ArrayList<>();
+        for (int i = 0; i < node.getResultPartitions(); i++) {
+            String partitionKey = key + "-" + i;
+            String result = cache.get(partitionKey);
+            resultList.add(result);
+            if (result == null) {
+                missing.add(i);
+                versions.add(cache.version(partitionKey));
+            }
+        }
+        if (missing.isEmpty()) {
+            return DatabaseNodeClient.joinResults(resultList);
+        }
+        Supplier<List<String>> readMissing = () -> {
+            List<String> read = key.endsWith("-SQL") ? node.selectSQL(missing) : node.selectNoSQL(missing);
+            for (int i = 0; i < missing.size(); i++) {
+                // partitions no replica could answer are left out, and not cached
+                if (read.get(i) != null) {
+                    cache.put(key + "-" + missing.get(i), read.get(i), versions.get(i));
+                }
+            }
+            return read;
+        };
+        List<String> read;
+        if (versions.contains(-1L)) {
+            read = readMissing.get();
+        } else {
+            // e.g. students-SQL 0@3 2@5
+            StringBuilder flightKey = new StringBuilder(key);
+            for (int i = 0; i < missing.size(); i++) {
+                flightKey.append(' ').append(missing.get(i)).append('@').append(versions.get(i));
+            }
+            read = selectReads.run(flightKey.toString(), readMissing);
+        }
+        for (int i = 0; i < missing.size(); i++) {
+            resultList.set(missing.get(i), read.get(i));
+        }
+        return DatabaseNodeClient.joinResults(resultList);
+    }
+
+    /**
+     * Reads some columns of the rows of a SQL table matching a condition. Only the result partitions that can hold
+     * matching rows are read, see {@link DatabaseNodeClient#resultPartitionsOf(RowPredicate)}. A partition whose full
+     * result is cached is filtered from the cache, unless the table is vertically partitioned; the others are read
+     * from the replicas, which check the condition themselves and only return the requested fields of the matching
+     * rows. Filtered results are not cached, since they only answer this query.
+     *
+     * @param key tablename-"SQL"
+     * @param columns the columns to return, null for every column.
+     * @param where the condition, null for every row.
+     * @return the requested fields of the matching rows.
+     */
+    private String selectFiltered(String key, List<String> columns, RowPredicate where) {
+        DatabaseNodeClient node = databases.get(key);
+        List<Integer> partitionIds = node.resultPartitionsOf(where);
+        List<String> resultList = new ArrayList<>();
+        List<Integer> missing = new ArrayList<>();
+        // the joined rows of a vertically partitioned table have no separator, so its cached result is not split
+        boolean filterCached = !node.getPartitionType().equals("vertical");
+        for (int partitionId : partitionIds) {
+            String cached = filterCached ? cache.get(key + "-" + partitionId) : null;
+            if (cached == null) {
+                missing.add(partitionId);
+            }
+            resultList.add(cached == null ? null : node.filterResult(cached, columns, where));
+        }
+        if (!missing.isEmpty()) {
+            List<String> read = node.selectSQL(missing, columns, where);
+            for (int i = 0; i < missing.size(); i++) {
+                resultList.set(partitionIds.indexOf(missing.get(i)), read.get(i));
+            }
+        }
+        return DatabaseNodeClient.joinResults(resultList);
+    }
+
+    /**
+     * Computes the aggregates of the rows of a SQL table matching a condition. Each result partition that can hold
+     * matching rows is aggregated on its own: from its cached full result if there is one, unless the table is
+     * vertically partitioned, otherwise by the replicas, which only return their partial aggregates. The partial
+     * aggregates of every partition are then merged here, e.g. the sums and counts of an AVG are added before
+     * dividing.
+     *
+     * @param key tablename-"SQL"
+     * @param aggregation the aggregates.
+     * @param where the condition, null for every row.
+     * @return one row per group, or a single row without GROUP BY.
+     */
+    private String selectAggregate(String key, Aggregation aggregation, RowPredicate where) {
+        DatabaseNodeClient node = databases.get(key);
+        List<Integer> partitionIds = node.resultPartitionsOf(where);
+        PartialAggregates result = new PartialAggregates(aggregation);
+        List<Integer> missing = new ArrayList<>();
+        boolean aggregateCached = !node.getPartitionType().equals("vertical");
+        for (int partitionId : partitionIds) {
+            String cached = aggregateCached ? cache.get(key + "-" + partitionId) : null;
+            if (cached == null) {
+                missing.add(partitionId);
+            } else {
+                result.merge(aggregation.aggregate(node.filterResult(cached, aggregation.getColumns(), where)));
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (PartialAggregates partial : node.aggregateSQL(missing, aggregation, where)) {
+                // leave out the partitions no replica could answer, like joinResults
+                if (partial != null) {
+                    result.merge(partial);
+                }
+            }
+        }
+        return result.format();
+    }
+
+    /**
+     * Reads some columns of the first rows of a SQL table matching a condition in the order of an ORDER BY clause, at
+     * most as many as its LIMIT. Each result partition that can hold matching rows returns its own first rows: from
+     * its cached full result if there is one, unless the table is vertically partitioned, otherwise from the
+     * replicas, which keep only the best rows while they scan. The sorted rows of the partitions are then merged
+     * here, stopping once there are enough of them.
+     *
+     * @param key tablename-"SQL"
+     * @param columns the columns to return, null for every column.
+     * @param where the condition, null for every row.
+     * @param order the sort key and the limit.
+     * @return the requested fields of the first matching rows in order, each row followed by a newline.
+     */
+    private String selectSorted(String key, List<String> columns, RowPredicate where, RowOrder order) {
+        DatabaseNodeClient node = databases.get(key);
+        List<Integer> partitionIds = node.resultPartitionsOf(where);
+        List<SortedRows> resultList = new ArrayList<>();
+        List<Integer> missing = new ArrayList<>();
+        boolean sortCached = !node.getPartitionType().equals("vertical");
+        for (int partitionId : partitionIds) {
+            String cached = sortCached ? cache.get(key + "-" + partitionId) : null;
+            if (cached == null) {
+                missing.add(partitionId);
+            }
+            resultList.add(cached == null ? null : node.sortResult(cached, columns, where, order));
+        }
+        if (!missing.isEmpty()) {
+            List<SortedRows> read = node.selectSortedSQL(missing, columns, where, order);
+            for (int i = 0; i < missing.size(); i++) {
+                resultList.set(partitionIds.indexOf(missing.get(i)), read.get(i));
+            }
+        }
+        return order.merge(resultList).format();
+    }
+
+    /**
+     * Reads the column list of a SELECT.
+     *
+     * @param select the statement.
+     * @param tableColumns the columns of the table.
+     * @return the selected columns in order, null for SELECT *.
+     * @throws IllegalArgumentException if an item is not a column of the table.
+     */
+    private static List<String> selectedColumns(PlainSelect select, List<String> tableColumns) {
+        List<SelectItem<?>> items = select.getSelectItems();
+        if (items.size() == 1 && items.get(0).getExpression() instanceof AllColumns) {
+            return null;
+        }
+        List<String> columns = new ArrayList<>();
+        for (SelectItem<?> item : items) {
+            if (!(item.getExpression() instanceof Column)) {
+                throw new IllegalArgumentException("unsupported select item " + item);
+            }
+            String column = ((Column) item.getExpression()).getColumnName();
+            if (!tableColumns.contains(column)) {
+                throw new IllegalArgumentException("unknown column " + column);
+            }
+            columns.add(column);
+        }
+        return columns;
+    }
+
     /**
      * Insert Handler
      */
@@ -227,9 +658,19 @@ public class Coordinator {
                                 handleBadRequest(exchange, "invalid columns");
                                 return;
                             }
-                            List<String> values = insert.getValues().getExpressions().stream().map(Expression::toString).toList();
-                            databases.get(key).insertSQL(insertCols, values);
-                            cache.remove(key);
+                            List<List<String>> rows = rowsOf(insert.getValues().getExpressions());
+                            for (List<String> values : rows) {
+                                if (values.size() != insertCols.size()) {
+                                    handleBadRequest(exchange, "invalid values");
+                                    return;
+                                }
+                            }
+                            if (rows.size() == 1) {
+                                databases.get(key).insertSQL(insertCols, rows.get(0));
+                            } else {
+                                // VALUES (...), (...): every partition gets its rows in one batch
+                                databases.get(key).insertBatchSQL(insertCols, rows);
+                            }
                         } else {
                             handleBadRequest(exchange, "invalid insert statement");
                             return;
@@ -257,12 +698,11 @@ public class Coordinator {
                         }
                         List<String> kvPairs = statementList.subList(2, statementList.size());
                         databases.get(key).insertNoSQL(kvPairs);
-                        cache.remove(key);
                     } else {
                         handleBadRequest(exchange);
                         return;
                     }
-                } catch(DatabindException | JSQLParserException e) {
+                } catch(DatabindException | JSQLParserException | IllegalArgumentException e) {
                     e.printStackTrace();
                     handleBadRequest(exchange);
                     return;
@@ -278,6 +718,214 @@ public class Coordinator {
         }
     }
 
+    /**
+     * Bulk Load Handler
+     */
+    private class BulkLoadHandler implements HttpHandler {
+        /**
+         * Handles HTTP POST requests loading rows into a table from the request body, which is read line by line as
+         * it arrives. The table, its database type and the format of the body are query parameters, e.g.
+         * {@code /bulkload?table=students&databaseType=SQL&format=csv}:
+         * <ul>
+         * <li>"ndjson" (default): one JSON object per line, mapping each column, or key for NoSQL, to its value.</li>
+         * <li>"csv": for SQL, a header line naming the columns followed by one line per row with the values written
+         * as SQL literals; for NoSQL, one line of alternating keys and values per row.</li>
+         * </ul>
+         * Rows are routed to their partition as they are read and written in batches, see {@link BulkLoader}. A
+         * malformed row or a failed write fails the request, with the batches written before it kept; the response
+         * always reports the number of rows written.
+         *
+         * @param exchange the HTTP exchange
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if ("POST".equals(exchange.getRequestMethod())) {
+                Map<String, String> params = queryParams(exchange.getRequestURI().getRawQuery());
+                String tableName = params.get("table");
+                String databaseType = params.get("databaseType");
+                String format = params.getOrDefault("format", "ndjson");
+                if (tableName == null || !("SQL".equals(databaseType) || "NoSQL".equals(databaseType))
+                        || !(format.equals("ndjson") || format.equals("csv"))) {
+                    handleBadRequest(exchange);
+                    return;
+                }
+                String key = tableName + "-" + databaseType;
+                if (!databases.containsKey(key)) {
+                    handleBadRequest(exchange, "table not exist");
+                    return;
+                }
+                boolean sql = databaseType.equals("SQL");
+                List<String> tableCols = databases.get(key).getColumns();
+                BulkLoader loader = new BulkLoader(databases.get(key), sql, BulkLoader.DEFAULT_BATCH_ROWS);
+                long lineNumber = 0;
+                int status = 200;
+                String message = "ok";
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8), BULK_READ_BUFFER)) {
+                    List<String> header = null;
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        lineNumber++;
+                        if (line.isBlank()) {
+                            continue;
+                        }
+                        List<String> columns = new ArrayList<>();
+                        List<String> values = new ArrayList<>();
+                        if (format.equals("csv")) {
+                            String[] fields = line.split(",", -1);
+                            if (sql && header == null) {
+                                header = Arrays.stream(fields).map(String::trim).toList();
+                                continue;
+                            }
+                            if (sql) {
+                                if (fields.length != header.size()) {
+                                    throw new IllegalArgumentException("expected " + header.size() + " values");
+                                }
+                                columns.addAll(header);
+                                values.addAll(Arrays.asList(fields));
+                            } else {
+                                // key, value, key, value, with the trailing comma of the stored rows allowed
+                                int length = fields.length % 2 == 1 && fields[fields.length - 1].isEmpty()
+                                        ? fields.length - 1 : fields.length;
+                                if (length % 2 == 1) {
+                                    throw new IllegalArgumentException("a key has no value");
+                                }
+                                for (int i = 0; i < length; i += 2) {
+                                    columns.add(fields[i]);
+                                    values.add(fields[i + 1]);
+                                }
+                            }
+                        } else {
+                            JsonNode row = mapper.readTree(line);
+                            if (row == null || !row.isObject()) {
+                                throw new IllegalArgumentException("a row must be a JSON object");
+                            }
+                            for (Iterator<Map.Entry<String, JsonNode>> it = row.fields(); it.hasNext(); ) {
+                                Map.Entry<String, JsonNode> field = it.next();
+                                columns.add(field.getKey());
+                                values.add(literalOf(field.getValue()));
+                            }
+                        }
+                        if (sql) {
+                            if (!tableCols.containsAll(columns)) {
+                                throw new IllegalArgumentException("invalid columns");
+                            }
+                            // the id column first, since rows are routed by their first value
+                            List<String> ordered = new ArrayList<>(columns);
+                            ordered.sort(Comparator.comparingInt(tableCols::indexOf));
+                            List<String> orderedValues = new ArrayList<>();
+                            for (String column : ordered) {
+                                orderedValues.add(values.get(columns.indexOf(column)));
+                            }
+                            loader.addSQL(ordered, orderedValues);
+                        } else {
+                            List<String> kvPairs = new ArrayList<>();
+                            for (int i = 0; i < columns.size(); i++) {
+                                kvPairs.add(columns.get(i));
+                                kvPairs.add(values.get(i));
+                            }
+                            loader.addNoSQL(kvPairs);
+                        }
+                    }
+                    loader.finish();
+                } catch (JsonProcessingException e) {
+                    e.printStackTrace();
+                    status = 400;
+                    message = "invalid row at line " + lineNumber;
+                } catch (IllegalArgumentException e) {
+                    e.printStackTrace();
+                    status = 400;
+                    message = "invalid row at line " + lineNumber + ": " + e.getMessage();
+                } catch (CannotWriteException e) {
+                    status = 400;
+                    message = "database in read-only mode due to failure";
+                } catch (Exception e) {
+                    // e.g. the body could not be read, the rows buffered but not written yet are dropped
+                    e.printStackTrace();
+                    status = 500;
+                    message = "cannot load rows: " + e.getMessage();
+                }
+                handleResponse(exchange, status,
+                        mapper.writeValueAsString(new BulkLoadResponse(message, loader.getStats().get("written"))));
+            }
+        }
+    }
+    /**
+     * Encapsulates the response of a bulk load.
+     */
+    private class BulkLoadResponse {
+        public String message;
+        public long rows;
+        public BulkLoadResponse(String message, long rows) {
+            this.message = message;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Writes a JSON value as a SQL literal: strings are quoted, null is empty.
+     *
+     * @param value the JSON value.
+     * @return the literal.
+     */
+    private static String literalOf(JsonNode value) {
+        if (value.isNull()) {
+            return "";
+        }
+        if (value.isTextual()) {
+            return "'" + value.asText().replace("'", "''") + "'";
+        }
+        return value.asText();
+    }
+
+    /**
+     * Parses the query string of a request URI.
+     *
+     * @param rawQuery the raw query string, null if there is none.
+     * @return the decoded value of each parameter.
+     */
+    private static Map<String, String> queryParams(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String param : rawQuery.split("&")) {
+            int eq = param.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(param.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(param.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Reads the rows of the VALUES clause of an INSERT statement.
+     *
+     * @param expressions the expressions of the VALUES clause: the values of a single row, or one list per row.
+     * @return the values of each row as SQL literals.
+     */
+    private static List<List<String>> rowsOf(ExpressionList<?> expressions) {
+        List<List<String>> rows = new ArrayList<>();
+        if (expressions instanceof ParenthesedExpressionList) {
+            // VALUES (1, 'a')
+            rows.add(expressions.stream().map(Expression::toString).toList());
+            return rows;
+        }
+        // VALUES (1, 'a'), (2, 'b'), where a row of a single value is parsed as a parenthesis
+        for (Expression row : expressions) {
+            if (row instanceof ExpressionList) {
+                rows.add(((ExpressionList<?>) row).stream().map(Expression::toString).toList());
+            } else if (row instanceof Parenthesis) {
+                rows.add(List.of(((Parenthesis) row).getExpression().toString()));
+            } else {
+                rows.add(List.of(row.toString()));
+            }
+        }
+        return rows;
+    }
+
     /**
      * Select Handler
      */
@@ -309,9 +957,45 @@ public class Coordinator {
                                 handleBadRequest(exchange, "table not exist");
                                 return;
                             }
-                            // will just support select * for now
-                            String result = databases.get(key).selectSQL();
-                            cache.put(key, result);
+                            DatabaseNodeClient node = databases.get(key);
+                            Aggregation aggregation;
+                            RowOrder order;
+                            List<String> columns = null;
+                            try {
+                                aggregation = Aggregation.compile(select, node.getColumns(),
+                                        node.typesOf(node.getColumns()));
+                                if (aggregation == null) {
+                                    columns = selectedColumns(select, node.getColumns());
+                                }
+                                order = RowOrder.compile(select, node.getColumns(), node.typesOf(node.getColumns()));
+                                if (aggregation != null && order != null) {
+                                    throw new IllegalArgumentException(
+                                            "ORDER BY and LIMIT are not supported with aggregates");
+                                }
+                            } catch (IllegalArgumentException e) {
+                                handleBadRequest(exchange, "invalid select statement: " + e.getMessage());
+                                return;
+                            }
+                            RowPredicate where = null;
+                            if (select.getWhere() != null) {
+                                try {
+                                    where = RowPredicate.compile(select.getWhere(), node.getColumns(),
+                                            node.typesOf(node.getColumns()));
+                                } catch (IllegalArgumentException e) {
+                                    handleBadRequest(exchange, "invalid where clause: " + e.getMessage());
+                                    return;
+                                }
+                            }
+                            String result;
+                            if (aggregation != null) {
+                                result = selectAggregate(key, aggregation, where);
+                            } else if (order != null) {
+                                result = selectSorted(key, columns, where, order);
+                            } else if (columns == null && where == null) {
+                                result = selectThroughCache(key);
+                            } else {
+                                result = selectFiltered(key, columns, where);
+                            }
                             handleResponse(exchange, 200, result);
                         } else {
                             handleBadRequest(exchange, "invalid select statement");
@@ -332,9 +1016,8 @@ public class Coordinator {
                             return;
                         }
                         // will just support select * for now
-                        String result = databases.get(key).selectNoSQL();
+                        String result = selectThroughCache(key);
                         handleResponse(exchange, 200, result);
-                        cache.put(key, result);
                     } else {
                         handleBadRequest(exchange);
                     }
@@ -389,7 +1072,6 @@ public class Coordinator {
                             // just support simple where now
                             Expression where = update.getWhere();
                             databases.get(key).updateSQL(cols, values, where.toString());
-                            cache.remove(key);
                         } else {
                             handleBadRequest(exchange, "invalid update statement");
                             return;
@@ -424,13 +1106,12 @@ public class Coordinator {
                         List<String> kvPairs = statementList.subList(2, whereIndex);
                         List<String> where = statementList.subList(whereIndex + 1, statementList.size()); // only support simple where for now
                         databases.get(key).updateNoSQL(kvPairs, where);
-                        cache.remove(key);
                     } else {
                         handleBadRequest(exchange);
                         return;
                     }
 
-                } catch (DatabindException | JSQLParserException e) {
+                } catch (DatabindException | JSQLParserException | IllegalArgumentException e) {
                     e.printStackTrace();
                     handleBadRequest(exchange);
                     return;
@@ -479,7 +1160,6 @@ public class Coordinator {
                             // just support simple where now
                             Expression where = delete.getWhere();
                             databases.get(key).deleteSQL(where.toString());
-                            cache.remove(key);
                         } else {
                             handleBadRequest(exchange);
                             return;
@@ -513,13 +1193,12 @@ public class Coordinator {
                         }
                         List<String> where = statementList.subList(whereIndex + 1, statementList.size());
                         databases.get(key).deleteNoSQL(where);
-                        cache.remove(key);
                     } else {
                         handleBadRequest(exchange);
                         return;
                     }
 
-                } catch (DatabindException | JSQLParserException e) {
+                } catch (DatabindException | JSQLParserException | IllegalArgumentException e) {
                     e.printStackTrace();
                     handleBadRequest(exchange);
                     return;
@@ -608,24 +1287,123 @@ public class Coordinator {
     }
 
     /**
-     * Deletes all CSV files in the current directory and its subdirectories.
+     * Limits the number of requests handled at the same time, so bursts of clients do not overload the replicas. A
+     * request over the limit waits for a running one to finish, and is answered with 503 if it waits too long.
+     */
+    private class ConcurrencyLimitFilter extends Filter {
+        private final int maxConcurrentRequests;
+        private final Semaphore permits;
+        private final AtomicLong admitted = new AtomicLong();
+        private final AtomicLong waited = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong peakInFlight = new AtomicLong();
+
+        ConcurrencyLimitFilter(int maxConcurrentRequests) {
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            this.permits = new Semaphore(maxConcurrentRequests, true);
+        }
+
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            boolean acquired = permits.tryAcquire();
+            if (!acquired) {
+                waited.incrementAndGet();
+                try {
+                    acquired = permits.tryAcquire(LIMIT_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (!acquired) {
+                rejected.incrementAndGet();
+                String jsonResponse = mapper.writeValueAsString(new BadRequestResponse("too many concurrent requests"));
+                handleResponse(exchange, 503, jsonResponse);
+                return;
+            }
+            admitted.incrementAndGet();
+            peakInFlight.accumulateAndGet(maxConcurrentRequests - permits.availablePermits(), Math::max);
+            try {
+                chain.doFilter(exchange);
+            } finally {
+                permits.release();
+            }
+        }
+
+        @Override
+        public String description() {
+            return "at most " + maxConcurrentRequests + " concurrent requests";
+        }
+
+        Map<String, Long> getStats() {
+            Map<String, Long> stats = new TreeMap<>();
+            stats.put("maxConcurrentRequests", (long) maxConcurrentRequests);
+            stats.put("inFlight", (long) (maxConcurrentRequests - permits.availablePermits()));
+            stats.put("peakInFlight", peakInFlight.get());
+            stats.put("admitted", admitted.get());
+            stats.put("waited", waited.get());
+            stats.put("rejected", rejected.get());
+            return stats;
+        }
+    }
+
+    /**
+     * Deletes the data files of the tables of this coordinator and of the tables listed in the catalog, and the
+     * catalog, in the current directory: every file named after a replica of one of these tables, such as its CSV
+     * file, write-ahead log or checkpoint, including the temporary copies of its CSV file. Other files are left
+     * alone.
      */
     public void deleteCsvFiles() {
-        Path directory = Paths.get("").toAbsolutePath();
+        Set<String> keys = new HashSet<>(databases.keySet());
+        Path catalog = Paths.get(CATALOG_FILE);
         try {
-            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    if (file.toString().endsWith(".csv")) {
-                        Files.delete(file);
+            if (Files.exists(catalog)) {
+                for (String entry : Files.readAllLines(catalog)) {
+                    if (!entry.isBlank()) {
+                        String key = keyOf(mapper.readValue(entry, CreateRequestDto.class));
+                        if (key != null) {
+                            keys.add(key);
+                        }
                     }
-                    return FileVisitResult.CONTINUE;
                 }
-            });
+            }
+            List<Pattern> replicaFiles = new ArrayList<>();
+            for (String key : keys) {
+                // table-DBType-partitionId-replicaId, followed by the extensions of the files of its engine
+                replicaFiles.add(Pattern.compile(
+                        "(temp-|compact-|snapshot-)?" + Pattern.quote(key) + "-\\d+-\\d+[.-].*"));
+            }
+            try (Stream<Path> files = Files.list(Paths.get("").toAbsolutePath())) {
+                for (Path file : files.toList()) {
+                    String name = file.getFileName().toString();
+                    if (name.equals(CATALOG_FILE)
+                            || replicaFiles.stream().anyMatch(pattern -> pattern.matcher(name).matches())) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
+    /**
+     * Tells the key a table is known by from its create request, without creating it.
+     *
+     * @param createRequestDto the create request of the table.
+     * @return tablename-"SQL | NoSQL", null if the request does not create a table.
+     */
+    private static String keyOf(CreateRequestDto createRequestDto) {
+        String statement = createRequestDto.getStatement();
+        if ("SQL".equals(createRequestDto.getDatabaseType())) {
+            try {
+                Statement parsed = CCJSqlParserUtil.parse(statement);
+                return parsed instanceof CreateTable ? ((CreateTable) parsed).getTable().getName() + "-SQL" : null;
+            } catch (JSQLParserException e) {
+                return null;
+            }
+        }
+        String[] split = statement == null ? new String[0] : statement.split(" ");
+        return "NoSQL".equals(createRequestDto.getDatabaseType()) && split.length == 3 ? split[2] + "-NoSQL" : null;
+    }
     /**
      * Lists all CSV files in the current directory.
      *
@@ -1,14 +1,34 @@
 package org.example;
 
 import org.example.config.PartitionConfig;
+import org.example.config.StorageConfig;
 import org.example.config.VerticalPartitionConfig;
 import org.example.exception.CannotWriteException;
+import org.example.storage.Aggregation;
+import org.example.storage.ColumnType;
+import org.example.storage.CsvScanDelta;
+import org.example.storage.IdentifiedRows;
+import org.example.storage.PartialAggregates;
+import org.example.storage.RowOrder;
+import org.example.storage.RowPredicate;
+import org.example.storage.SortedRows;
+import org.example.storage.StorageEngine;
 
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntFunction;
+import java.util.function.UnaryOperator;
 /**
  * Constructs a client for managing a distributed database system with partitioning and replication.
  * The client can handle both SQL and NoSQL databases with horizontal or vertical partitioning.
@@ -16,6 +36,7 @@ import java.util.*;
 public class DatabaseNodeClient {
     private String tableName;
     private List<String> columns;
+    private Map<String, ColumnType> columnTypes = new HashMap<>();
     private int replicaCount;
     private int numPartitions;
     private String partitionType;
@@ -23,6 +44,85 @@ public class DatabaseNodeClient {
 
     // partitionId -> list of replicas
     private Map<Integer, List<DatabaseNodeReplica>> reps = new HashMap<>();
+    // writes to the replicas of a table wait at most this long for every replica
+    static final long WRITE_TIMEOUT_MILLIS = 30_000;
+    // sends writes to all replicas and reads to all partitions at the same time, shared by every table
+    private static final ExecutorService REPLICA_CALLS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "replica-call");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Interface for a read or write sent to one replica.
+     */
+    private interface ReplicaCall<T> {
+        T apply(DatabaseNodeInterface stub) throws RemoteException;
+    }
+
+    // writes of each result partition, see getResultPartitions()
+    private PartitionWrites[] partitionWrites;
+    // whether writes report how they change the result of a SELECT, only for unjoined CSV partitions
+    private boolean scanDeltas;
+    private volatile PartitionWriteListener writeListener;
+
+    /**
+     * Interface for a listener told about every write to a result partition once its replicas answered, to keep a
+     * cached result of the partition current.
+     */
+    public interface PartitionWriteListener {
+        /**
+         * Called after a write to a result partition, whether it succeeded or not.
+         *
+         * @param partitionId the result partition.
+         * @param fromVersion the version of the partition before the write.
+         * @param toVersion the version of the partition after the write.
+         * @param delta the change the write made to the result of the partition at fromVersion, null if the change
+         * cannot be expressed, e.g. because the write failed or overlapped another write to the partition.
+         */
+        void partitionWritten(int partitionId, long fromVersion, long toVersion, UnaryOperator<String> delta);
+    }
+
+    /**
+     * Counts the writes to a result partition, to tell a reader whether the partition changed while it was read and
+     * a writer whether it was the only write to the partition while it ran.
+     */
+    private static class PartitionWrites {
+        private long started;
+        private int inFlight;
+
+        /**
+         * Records the start of a write.
+         *
+         * @return the version of the partition before the write.
+         */
+        synchronized long begin() {
+            inFlight++;
+            return started++;
+        }
+
+        /**
+         * Records the end of a write.
+         *
+         * @param fromVersion the version returned by {@link #begin()}.
+         * @return true if no other write to the partition ran at the same time.
+         */
+        synchronized boolean end(long fromVersion) {
+            inFlight--;
+            return inFlight == 0 && started == fromVersion + 1;
+        }
+
+        /**
+         * Get the version of the partition, the number of writes started on it.
+         *
+         * @return the version, -1 while a write is running.
+         */
+        synchronized long version() {
+            return inFlight == 0 ? started : -1;
+        }
+    }
+    // replica name -> RMI stub, looked up once instead of on every operation, refreshed by the heartbeat
+    private final Map<String, DatabaseNodeInterface> stubs = new ConcurrentHashMap<>();
     /**
      * Stops a replica of a database node by unbinding it from the RMI registry.
      *
@@ -35,6 +135,7 @@ public class DatabaseNodeClient {
             // boolean r = UnicastRemoteObject.unexportObject(replica, true);
             Registry registry = LocateRegistry.getRegistry(1099);
             registry.unbind(replica.getTableName());
+            stubs.remove(replica.getTableName());
         } catch (RemoteException | NotBoundException e) {
             e.printStackTrace();
         }
@@ -50,26 +151,63 @@ public class DatabaseNodeClient {
             DatabaseNodeReplica replica = reps.get(partitionId).get(replicaId);
             Registry registry = LocateRegistry.getRegistry(1099);
             registry.rebind(replica.getTableName(), replica);
+            stubs.remove(replica.getTableName());
             // replica.setServerAlive(true);
         } catch (RemoteException e) {
             e.printStackTrace();
         }
     }
     private Map<String, Integer> columnToPartition = new HashMap<>(); // for vertical partitioning
+    // columns of each column group of a vertically partitioned table, in group order
+    private List<List<String>> columnGroups = new ArrayList<>();
+    // row id of the next row of a vertically partitioned table, shared by all its column groups
+    private long nextRowId = 0;
+    // vertical inserts reach every column group in row id order
+    private final Object rowIdLock = new Object();
+    // stops the heartbeat once the table is closed
+    private volatile boolean closed = false;
     /**
      * Constructs a client for managing a distributed database system with partitioning and replication.
      * The client can handle both SQL and NoSQL databases with horizontal or vertical partitioning.
      *
      * @param tableName the name of the table.
      * @param columns the list of column names if it's a SQL type database, null for NoSQL.
+     * @param columnTypes the declared type of each column if it's a SQL type database, null for NoSQL.
      * @param replicaCount the number of replicas per partition.
      * @param partitionConfig the configuration object specifying the partition type and number.
+     * @param storageConfig the storage engine used by every replica, null for the default CSV engine.
      * @throws RemoteException if there is an issue with remote method invocation during setup.
      */
-    public DatabaseNodeClient(String tableName, List<String> columns,
-                              int replicaCount, PartitionConfig partitionConfig) throws RemoteException {
+    public DatabaseNodeClient(String tableName, List<String> columns, List<ColumnType> columnTypes,
+                              int replicaCount, PartitionConfig partitionConfig,
+                              StorageConfig storageConfig) throws RemoteException {
+        this(tableName, columns, columnTypes, replicaCount, partitionConfig, storageConfig, false);
+    }
+    /**
+     * Constructs a client for a table whose replicas either start empty or reopen the data files left by a previous
+     * run. A reopened vertically partitioned table resumes numbering its rows after the highest row id of its
+     * column groups.
+     *
+     * @param tableName the name of the table.
+     * @param columns the list of column names if it's a SQL type database, null for NoSQL.
+     * @param columnTypes the declared type of each column if it's a SQL type database, null for NoSQL.
+     * @param replicaCount the number of replicas per partition.
+     * @param partitionConfig the configuration object specifying the partition type and number.
+     * @param storageConfig the storage engine used by every replica, null for the default CSV engine.
+     * @param reopen whether the replicas reopen their existing data files.
+     * @throws RemoteException if there is an issue with remote method invocation during setup, or the data files of
+     * a replica cannot be opened.
+     */
+    public DatabaseNodeClient(String tableName, List<String> columns, List<ColumnType> columnTypes,
+                              int replicaCount, PartitionConfig partitionConfig,
+                              StorageConfig storageConfig, boolean reopen) throws RemoteException {
         this.tableName = tableName;
         this.columns = columns;
+        if (columns != null) {
+            for (int i = 0; i < columns.size(); i++) {
+                this.columnTypes.put(columns.get(i), columnTypes.get(i));
+            }
+        }
         this.replicaCount = replicaCount;
 
         this.dbType = columns == null ? "NoSQL" : "SQL";
@@ -88,7 +226,8 @@ public class DatabaseNodeClient {
                 for (int j = 0; j < replicaCount; j++) {
                     // table-DBType-partitionId-replicaId
                     String uniqueName = tableName + "-" + this.dbType + "-" + i + "-" + j;
-                    DatabaseNodeReplica dbReplica = new DatabaseNodeReplica(uniqueName, columns);
+                    DatabaseNodeReplica dbReplica = new DatabaseNodeReplica(uniqueName, columns, columnTypes, storageConfig,
+                            reopen);
                     registry.rebind(uniqueName, dbReplica);
                     replicas.add(dbReplica);
                 }
@@ -97,6 +236,7 @@ public class DatabaseNodeClient {
         } else if (partitionType.equals("vertical")) {
             VerticalPartitionConfig verticalPartitionConfig = (VerticalPartitionConfig) partitionConfig;
             List<List<String>> colGroup = verticalPartitionConfig.getColumns();
+            this.columnGroups = colGroup;
             // [[a,b,c], [d,e,f], [g,h,i]]
             for (int i = 0; i < colGroup.size(); i++) {
                 // add column to partition map
@@ -110,34 +250,177 @@ public class DatabaseNodeClient {
                 for (int j = 0; j < replicaCount; j++) {
                     String uniqueName = tableName + "-" + this.dbType + "-" + i + "-" + j;
                     // create columns by different groups
-                    DatabaseNodeReplica dbReplica = new DatabaseNodeReplica(uniqueName, colGroup.get(i));
+                    DatabaseNodeReplica dbReplica = new DatabaseNodeReplica(uniqueName, colGroup.get(i),
+                            typesOf(colGroup.get(i)), storageConfig, reopen);
                     registry.rebind(uniqueName, dbReplica);
                     replicas.add(dbReplica);
+                    nextRowId = Math.max(nextRowId, dbReplica.getNextRowId());
                 }
                 reps.put(i, replicas);
             }
         }
+        this.partitionWrites = new PartitionWrites[getResultPartitions()];
+        for (int i = 0; i < partitionWrites.length; i++) {
+            partitionWrites[i] = new PartitionWrites();
+        }
+        String engineType = storageConfig == null ? "csv" : storageConfig.getEngineType();
+        this.scanDeltas = engineType.equals("csv") && !partitionType.equals("vertical");
         this.startHeartbeat();
     }
 
     public List<String> getColumns() {
         return columns;
     }
+
+    public String getPartitionType() {
+        return partitionType;
+    }
+
+    /**
+     * Get the columns of the rows a SELECT returns: the columns of the table, or for a vertically partitioned table
+     * the columns of each column group in group order, the order its groups are joined in.
+     *
+     * @return the columns of the result, in field order
+     */
+    public List<String> getResultColumns() {
+        if (!partitionType.equals("vertical")) {
+            return columns;
+        }
+        List<String> resultColumns = new ArrayList<>();
+        for (List<String> group : columnGroups) {
+            resultColumns.addAll(group);
+        }
+        return resultColumns;
+    }
+
+    /**
+     * Picks the result partitions that can hold rows matching a condition. A condition restricting the id column to
+     * a list of values only needs the partitions of those ids, e.g. {@code WHERE id = 7} reads a single partition;
+     * any other condition needs every result partition.
+     *
+     * @param where the condition, null for none.
+     * @return the result partitions, in ascending order.
+     */
+    public List<Integer> resultPartitionsOf(RowPredicate where) {
+        List<String> ids = columns == null || where == null ? null : where.valuesOf(columns.get(0));
+        if (!partitionType.equals("horizontal") || ids == null) {
+            return allResultPartitions();
+        }
+        Set<Integer> partitionIds = new TreeSet<>();
+        for (String id : ids) {
+            partitionIds.add(partitionOf(id));
+        }
+        return new ArrayList<>(partitionIds);
+    }
+
+    /**
+     * Get the number of parts the result of a SELECT is made of: one per partition, in partition order, or a single
+     * one for a vertically partitioned table, whose column groups are joined.
+     *
+     * @return the number of result partitions
+     */
+    public int getResultPartitions() {
+        return partitionType.equals("vertical") ? 1 : numPartitions;
+    }
+
+    /**
+     * Get the version of a result partition, which changes every time a write to it starts. A result read after the
+     * version was taken is current as long as the version has not changed.
+     *
+     * @param partitionId the result partition.
+     * @return the version, -1 while a write to the partition is running.
+     */
+    public long getPartitionVersion(int partitionId) {
+        return partitionWrites[partitionId].version();
+    }
+
+    /**
+     * Sets the listener told about every write to a result partition.
+     *
+     * @param writeListener the listener, null for none.
+     */
+    public void setWriteListener(PartitionWriteListener writeListener) {
+        this.writeListener = writeListener;
+    }
+
+    /**
+     * Looks up the declared types of columns.
+     *
+     * @param columns the column names.
+     * @return the type of each column.
+     */
+    public List<ColumnType> typesOf(List<String> columns) {
+        List<ColumnType> types = new ArrayList<>();
+        for (String column : columns) {
+            types.add(columnTypes.getOrDefault(column, ColumnType.VARCHAR));
+        }
+        return types;
+    }
+
+    /**
+     * Rewrites values in the canonical form of their column type, so every replica stores and compares the same text.
+     * Values of unknown columns are left as they are.
+     *
+     * @param columns the column of each value.
+     * @param values the values as SQL literals.
+     * @return the canonical values.
+     * @throws IllegalArgumentException if a value is not valid for the type of its column.
+     */
+    private List<String> canonicalize(List<String> columns, List<String> values) {
+        List<String> canonical = new ArrayList<>();
+        for (int i = 0; i < values.size(); i++) {
+            ColumnType type = i < columns.size() ? columnTypes.get(columns.get(i)) : null;
+            canonical.add(type == null ? values.get(i) : type.canonicalize(values.get(i)));
+        }
+        return canonical;
+    }
+
+    /**
+     * Picks the partition of a row from its id. SQL ids are parsed once with the type of the id column; integer ids
+     * go to {@code id mod numPartitions}, other ids by hash. NoSQL ids are routed as integers when they are numeric.
+     *
+     * @param id the id of the row as literal text.
+     * @return the partition id.
+     * @throws IllegalArgumentException if the id is empty or not valid for the type of the id column.
+     */
+    private int partitionOf(String id) {
+        ColumnType type = columns == null ? null : columnTypes.get(columns.get(0));
+        Object key;
+        if (type != null) {
+            key = type.parse(id);
+        } else {
+            try {
+                key = Long.parseLong(id.trim());
+            } catch (NumberFormatException e) {
+                key = id;
+            }
+        }
+        if (key == null) {
+            throw new IllegalArgumentException("id cannot be empty");
+        }
+        long hash = key instanceof Integer || key instanceof Long ? ((Number) key).longValue() : key.hashCode();
+        return (int) Math.floorMod(hash, (long) this.numPartitions);
+    }
     /**
      * Periodically checks the health of all replicas in all partitions and updates their alive status.
      * This method starts a heartbeat thread that continuously monitors the status of each replica.
+     * The heartbeat looks every replica up in the registry, since a stopped replica is only unbound from it, and
+     * refreshes the stubs that are still cached with the result; a stub dropped meanwhile, e.g. by
+     * {@link #stopReplica(int, int)}, stays dropped, so a lookup made before the replica was stopped cannot bring it
+     * back.
      */
     public void startHeartbeat() {
         new Thread(() -> {
-            while (true) {
+            while (!closed) {
                 for (List<DatabaseNodeReplica> replicas : reps.values()) {
                     for (DatabaseNodeReplica replica : replicas) {
                         try {
-                            DatabaseNodeInterface stub = getReplicaStub(replica.getTableName()); // this can throw
+                            DatabaseNodeInterface stub = lookupReplicaStub(replica.getTableName()); // this can throw
                             if (stub == null) {
                                 replica.setServerAlive(false);
                                 continue;
                             }
+                            stubs.replace(replica.getTableName(), stub);
                             if (!stub.heartbeatRequest()){
                                 replica.setServerAlive(false);
                             } else {
@@ -159,7 +442,20 @@ public class DatabaseNodeClient {
         }).start();
     }
     /**
-     * Retrieves the stub for communication with a database node replica using RMI.
+     * Stops the heartbeat and closes every replica, so the data files of the table can be reopened by the next run.
+     */
+    public void close() {
+        closed = true;
+        for (List<DatabaseNodeReplica> replicas : reps.values()) {
+            for (DatabaseNodeReplica replica : replicas) {
+                replica.close();
+            }
+        }
+    }
+    /**
+     * Retrieves the stub for communication with a database node replica using RMI. The stub is looked up in the
+     * registry once and cached until the replica is stopped or started, or a lookup for it or a call through it
+     * fails.
      *
      * @param tableName the name of the table to access the stub.
      * @return the remote interface for the database node.
@@ -167,8 +463,29 @@ public class DatabaseNodeClient {
      * @throws NotBoundException if the replica is not bound in the RMI registry.
      */
     private DatabaseNodeInterface getReplicaStub(String tableName) throws RemoteException, NotBoundException {
-        Registry registry = LocateRegistry.getRegistry(1099);
-        return (DatabaseNodeInterface) registry.lookup(tableName);
+        DatabaseNodeInterface stub = stubs.get(tableName);
+        if (stub == null) {
+            stub = lookupReplicaStub(tableName);
+            stubs.put(tableName, stub);
+        }
+        return stub;
+    }
+    /**
+     * Looks up the stub of a replica in the RMI registry, dropping the cached stub if the lookup fails.
+     *
+     * @param tableName the name of the table to access the stub.
+     * @return the remote interface for the database node.
+     * @throws RemoteException if the registry cannot be reached.
+     * @throws NotBoundException if the replica is not bound in the RMI registry.
+     */
+    private DatabaseNodeInterface lookupReplicaStub(String tableName) throws RemoteException, NotBoundException {
+        try {
+            Registry registry = LocateRegistry.getRegistry(1099);
+            return (DatabaseNodeInterface) registry.lookup(tableName);
+        } catch (RemoteException | NotBoundException e) {
+            stubs.remove(tableName);
+            throw e;
+        }
     }
     /**
      * Inserts data into a SQL database, considering the partitioning and replica details.
@@ -178,22 +495,20 @@ public class DatabaseNodeClient {
      * @throws CannotWriteException if the operation cannot be completed due to replica failures.
      */
     public void insertSQL(List<String> columns, List<String> values) throws CannotWriteException {
+        List<String> canonicalValues = canonicalize(columns, values);
+        UnaryOperator<String> delta = scanDeltas ? CsvScanDelta.insertSQL(this.columns, columns, canonicalValues) : null;
         if (this.partitionType.equals("horizontal")) {
             // insert by key % numPartitions
-            int partitionId = Integer.parseInt(values.get(0)) % this.numPartitions;
+            int partitionId = partitionOf(canonicalValues.get(0));
             checkAlive(partitionId);
-            for (DatabaseNodeReplica replica : reps.get(partitionId)) {
-                try {
-                    DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
-                    stub.insertSQL(columns, values);
-                } catch (RemoteException | NotBoundException e) {
-                    e.printStackTrace();
-                }
-            }
+            writeToPartition(partitionId, delta, stub -> {
+                stub.insertSQL(columns, canonicalValues);
+                return null;
+            });
         } else if (this.partitionType.equals("vertical")) {
             Map<String, String> kvMap = new HashMap<>();
             for (int i = 0; i < columns.size(); i++) {
-                kvMap.put(columns.get(i), values.get(i));
+                kvMap.put(columns.get(i), canonicalValues.get(i));
             }
             List<List<String>> rearrangedColumns = new ArrayList<>();
             for (int i = 0; i < numPartitions; i++) {
@@ -207,36 +522,34 @@ public class DatabaseNodeClient {
             for (int i = 0; i < numPartitions; i++) {
                 checkAlive(i);
             }
-            for (int i = 0; i < numPartitions; i++) {
-                List<String> rearrangedValues = new ArrayList<>();
-                for (String col : rearrangedColumns.get(i)) {
-                    rearrangedValues.add(kvMap.get(col));
-                }
-                for (DatabaseNodeReplica replica : reps.get(i)) {
-                    try {
-                        DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
-                        stub.insertSQL(rearrangedColumns.get(i), rearrangedValues);
-                    } catch (RemoteException | NotBoundException e) {
-                        e.printStackTrace();
+            // every part of the row is stored under the same row id, so partitions are joined on it
+            synchronized (rowIdLock) {
+                long rowId = nextRowId++;
+                // every replica of every column group is written at the same time
+                Map<DatabaseNodeReplica, ReplicaCall<Void>> writes = new LinkedHashMap<>();
+                for (int i = 0; i < numPartitions; i++) {
+                    List<String> partitionColumns = rearrangedColumns.get(i);
+                    List<String> rearrangedValues = new ArrayList<>();
+                    for (String col : partitionColumns) {
+                        rearrangedValues.add(kvMap.get(col));
+                    }
+                    for (DatabaseNodeReplica replica : reps.get(i)) {
+                        writes.put(replica, stub -> {
+                            stub.insertSQL(rowId, partitionColumns, rearrangedValues);
+                            return null;
+                        });
                     }
                 }
+                writeToReplicas(0, null, writes);
             }
         } else if (this.partitionType.equals("none")) {
             // insert into all replicas
             int partitionId = 0;
             checkAlive(partitionId);
-            for (DatabaseNodeReplica replica : reps.get(partitionId)) {
-                try {
-                    if (!replica.isServerAlive()) {
-                        // one of replicas is down, should not able to insert
-                        throw new CannotWriteException("One of the replicas is down");
-                    }
-                    DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
-                    stub.insertSQL(columns, values);
-                } catch (RemoteException | NotBoundException e) {
-                    e.printStackTrace();
-                }
-            }
+            writeToPartition(partitionId, delta, stub -> {
+                stub.insertSQL(columns, canonicalValues);
+                return null;
+            });
         }
     }
 
@@ -247,142 +560,374 @@ public class DatabaseNodeClient {
      * @throws CannotWriteException if the operation cannot proceed due to replica failures.
      */
     public void insertNoSQL(List<String> kvPairs) throws CannotWriteException {
+        List<String> serializableList = new ArrayList<>(kvPairs);
+        UnaryOperator<String> delta = scanDeltas ? CsvScanDelta.insertNoSQL(serializableList) : null;
         if (this.partitionType.equals("horizontal")) {
             // insert by key % numPartitions
             // example [id, 1, name, "John"]
-            int partitionId = Integer.parseInt(kvPairs.get(1)) % this.numPartitions;
+            int partitionId = partitionOf(kvPairs.get(1));
             checkAlive(partitionId);
-            for (DatabaseNodeReplica replica : reps.get(partitionId)) {
-                try {
-                    DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
-                    List<String> serializableList = new ArrayList<>(kvPairs);
-                    stub.insertNoSQL(serializableList);
-                } catch (RemoteException | NotBoundException e) {
-                    e.printStackTrace();
-                }
-            }
+            writeToPartition(partitionId, delta, stub -> {
+                stub.insertNoSQL(serializableList);
+                return null;
+            });
         } else if (this.partitionType.equals("none")) {
             // insert into all replicas
             int partitionId = 0;
             checkAlive(partitionId);
-            for (DatabaseNodeReplica replica : reps.get(partitionId)) {
-                try {
-                    DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
-                    List<String> serializableList = new ArrayList<>(kvPairs);
-                    stub.insertNoSQL(serializableList);
-                } catch (RemoteException | NotBoundException e) {
-                    e.printStackTrace();
-                }
-            }
+            writeToPartition(partitionId, delta, stub -> {
+                stub.insertNoSQL(serializableList);
+                return null;
+            });
         }
     }
     /**
-     * Retrieves data from a SQL database, handling horizontal or vertical partitioning.
+     * Retrieves data from a SQL database, handling horizontal or vertical partitioning. Partitions are read at the
+     * same time, see {@link #readPartitions(List, ReplicaCall)}.
      *
      * @return the concatenated string of results from all replicas and partitions.
      */
     public String selectSQL() {
-        if (this.partitionType.equals("horizontal") || this.partitionType.equals("vertical")) {
-            // read from all partitions and aggregate
+        return joinResults(selectSQL(allResultPartitions()));
+    }
+    /**
+     * Retrieves the result of some result partitions of a SQL database, see {@link #getResultPartitions()}.
+     * Partitions are read at the same time.
+     *
+     * @param partitionIds the result partitions to read.
+     * @return the result of each of them, in the same order, null for a partition no replica could answer.
+     */
+    public List<String> selectSQL(List<Integer> partitionIds) {
+        if (this.partitionType.equals("vertical")) {
+            // need to read from all partitions and join the parts of each row on its row id
+            List<IdentifiedRows> partitionResults = readPartitions(new ArrayList<>(reps.keySet()),
+                    DatabaseNodeInterface::selectRowsSQL);
             List<String> resultList = new ArrayList<>();
-            try {
-                if (this.partitionType.equals("horizontal")) {
-                    for (int i = 0; i < numPartitions; i++) {
-                        // read from the first replica with isServerAlive = true
-                        for (DatabaseNodeReplica replica : reps.get(i)) {
-                            if (replica.isServerAlive()) {
-                                DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
-                                resultList.add(stub.selectSQL());
-                                break;
-                            }
-                        }
-                    }
-                } else {
-                    // vertical: need to read from all partitions and aggregate the result
-                    Map<Integer, List<String>> partitionResults = new HashMap<>();
-                    for (int i = 0; i < numPartitions; i++) {
-                        for (DatabaseNodeReplica replica : reps.get(i)) {
-                            if (replica.isServerAlive()) {
-                                DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
-                                String res = stub.selectSQL();
-                                // split by \n to array list
-                                List<String> resList = new ArrayList<>(Arrays.asList(res.split("\n")));
-                                if (!partitionResults.containsKey(i)) {
-                                    partitionResults.put(i, resList);
-                                }
-                                break;
-                            }
-                        }
-                    }
-                    int rowCount = partitionResults.get(0).size();
-                    for (int i = 0; i < rowCount; i++) {
-                        List<String> row = new ArrayList<>();
-                        for (int j = 0; j < numPartitions; j++) {
-                            row.add(partitionResults.get(j).get(i));
-                        }
-                        resultList.add(String.join("",row));
-                    }
+            resultList.add(partitionResults.contains(null) ? null : joinOnRowId(partitionResults));
+            return resultList;
+        }
+        return readPartitions(partitionIds, DatabaseNodeInterface::selectSQL);
+    }
+    /**
+     * Retrieves some columns of the rows of a SQL database matching a condition, see
+     * {@link #resultPartitionsOf(RowPredicate)}.
+     *
+     * @param selectColumns the columns to return, null for every column.
+     * @param where the condition, null for every row.
+     * @return the concatenated results of the partitions that can hold matching rows.
+     */
+    public String selectSQL(List<String> selectColumns, RowPredicate where) {
+        return joinResults(selectSQL(resultPartitionsOf(where), selectColumns, where));
+    }
+    /**
+     * Retrieves some columns of the rows of some result partitions of a SQL database matching a condition. The
+     * columns and the condition are sent to the replicas, which check the condition while they scan and only return
+     * the requested fields of the matching rows, each row followed by a newline.
+     * <p>
+     * For a vertically partitioned table, only the column groups holding a requested column or a column of the
+     * condition are read, each for those columns only, and joined on the row id; when they are all in one group,
+     * that group alone answers the query. The condition is checked by the group holding all of its columns, or on
+     * the joined rows if it spans several groups. Like {@link #selectSQL(List)}, the rows of every column are joined
+     * without separator.
+     *
+     * @param partitionIds the result partitions to read.
+     * @param selectColumns the columns to return, null for every column.
+     * @param where the condition, null for every row.
+     * @return the result of each of them, in the same order, null for a partition no replica could answer.
+     */
+    public List<String> selectSQL(List<Integer> partitionIds, List<String> selectColumns, RowPredicate where) {
+        if (!this.partitionType.equals("vertical")) {
+            return readPartitions(partitionIds, stub -> stub.selectSQL(selectColumns, where));
+        }
+        Set<String> whereColumns = where == null ? Collections.emptySet() : where.getColumns();
+        Set<Integer> whereGroups = new HashSet<>();
+        for (String column : whereColumns) {
+            whereGroups.add(columnToPartition.get(column));
+        }
+        // -1 if the condition has to be checked on the joined rows
+        int whereGroup = whereGroups.size() == 1 && !whereGroups.contains(null) ? whereGroups.iterator().next() : -1;
+        // column group -> columns read from it, in group order
+        Map<Integer, List<String>> groupColumns = new TreeMap<>();
+        if (whereGroup != -1) {
+            groupColumns.put(whereGroup, new ArrayList<>());
+        }
+        for (int i = 0; i < columnGroups.size(); i++) {
+            for (String column : columnGroups.get(i)) {
+                boolean requested = selectColumns == null || selectColumns.contains(column);
+                if (requested || (whereGroup == -1 && whereColumns.contains(column))) {
+                    groupColumns.computeIfAbsent(i, group -> new ArrayList<>()).add(column);
                 }
-            } catch (RemoteException | NotBoundException e) {
-                e.printStackTrace();
             }
-            // convert the result array to a string with newlines
-            return String.join("", resultList);
-        } else if (this.partitionType.equals("none")) {
-            // read from first replica
-            try {
-                // only one partition
-                for (DatabaseNodeReplica replica : reps.get(0)) {
-                    if (replica.isServerAlive()) {
-                        DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
-                        return stub.selectSQL();
+        }
+        List<String> resultList = new ArrayList<>();
+        if (groupColumns.size() == 1) {
+            // every column is in one group, no join needed
+            int group = groupColumns.keySet().iterator().next();
+            List<String> columns = selectColumns == null ? columnGroups.get(group) : selectColumns;
+            resultList.add(readPartitions(Collections.singletonList(group),
+                    stub -> stub.selectSQL(columns, where)).get(0));
+            return resultList;
+        }
+        List<String> joinedColumns = new ArrayList<>();
+        for (List<String> columns : groupColumns.values()) {
+            joinedColumns.addAll(columns);
+        }
+        List<IdentifiedRows> partitionResults = readEachPartition(new ArrayList<>(groupColumns.keySet()),
+                partitionId -> stub -> stub.selectRowsSQL(groupColumns.get(partitionId),
+                        partitionId == whereGroup ? where : null));
+        RowPredicate.Matcher matcher = where != null && whereGroup == -1 ? where.bind(joinedColumns) : null;
+        int[] fields = StorageEngine.fieldsOf(joinedColumns, selectColumns);
+        resultList.add(partitionResults.contains(null) ? null : joinOnRowId(partitionResults, matcher, fields));
+        return resultList;
+    }
+    /**
+     * Aggregates the rows of some result partitions of a SQL database matching a condition. The aggregation and the
+     * condition are sent to the replicas, which fold the matching rows of their partition as they scan and only
+     * return one state per group and aggregate, merged by the caller.
+     * <p>
+     * For a vertically partitioned table, the column group holding every aggregated column and every column of the
+     * condition aggregates its rows on its own. If these columns span several groups, the needed columns are read
+     * and joined, see {@link #selectSQL(List, List, RowPredicate)}, and the joined rows are aggregated here.
+     *
+     * @param partitionIds the result partitions to read.
+     * @param aggregation the aggregates.
+     * @param where the condition, null for every row.
+     * @return the partial aggregates of each of them, in the same order, null for a partition no replica could
+     * answer.
+     */
+    public List<PartialAggregates> aggregateSQL(List<Integer> partitionIds, Aggregation aggregation,
+                                                RowPredicate where) {
+        if (!this.partitionType.equals("vertical")) {
+            return readPartitions(partitionIds, stub -> stub.aggregateSQL(aggregation, where));
+        }
+        Set<Integer> groups = new HashSet<>();
+        for (String column : aggregation.getColumns()) {
+            groups.add(columnToPartition.get(column));
+        }
+        if (where != null) {
+            for (String column : where.getColumns()) {
+                groups.add(columnToPartition.get(column));
+            }
+        }
+        if (groups.size() <= 1 && !groups.contains(null)) {
+            // COUNT(*) without condition reads no column, any group has every row
+            int group = groups.isEmpty() ? 0 : groups.iterator().next();
+            return readPartitions(Collections.singletonList(group), stub -> stub.aggregateSQL(aggregation, where));
+        }
+        List<PartialAggregates> resultList = new ArrayList<>();
+        for (String rows : selectSQL(partitionIds, aggregation.getColumns(), where)) {
+            resultList.add(rows == null ? null : aggregation.aggregate(rows));
+        }
+        return resultList;
+    }
+    /**
+     * Retrieves some columns of the first rows of some result partitions of a SQL database matching a condition, in
+     * the order of an ORDER BY clause and at most as many as its LIMIT. The columns, the condition and the order are
+     * sent to the replicas, which only return the first matching rows of their partition, merged by the caller, see
+     * {@link RowOrder#merge(List)}.
+     * <p>
+     * For a vertically partitioned table, the column group holding every requested column and every column of the
+     * condition and of the sort key sorts its rows on its own. If these columns span several groups, they are read
+     * and joined, see {@link #selectSQL(List, List, RowPredicate)}, and the joined rows are sorted here.
+     *
+     * @param partitionIds the result partitions to read.
+     * @param selectColumns the columns to return, null for every column.
+     * @param where the condition, null for every row.
+     * @param order the sort key and the limit.
+     * @return the sorted rows of each of them, in the same order, null for a partition no replica could answer.
+     */
+    public List<SortedRows> selectSortedSQL(List<Integer> partitionIds, List<String> selectColumns,
+                                            RowPredicate where, RowOrder order) {
+        if (!this.partitionType.equals("vertical")) {
+            return readPartitions(partitionIds, stub -> stub.selectSortedSQL(selectColumns, where, order));
+        }
+        List<String> returned = selectColumns == null ? columns : selectColumns;
+        // the returned columns followed by the sort columns that are not returned
+        List<String> rowColumns = new ArrayList<>(returned);
+        for (String column : order.getColumns()) {
+            if (!rowColumns.contains(column)) {
+                rowColumns.add(column);
+            }
+        }
+        Set<Integer> groups = new HashSet<>();
+        for (String column : rowColumns) {
+            groups.add(columnToPartition.get(column));
+        }
+        if (where != null) {
+            for (String column : where.getColumns()) {
+                groups.add(columnToPartition.get(column));
+            }
+        }
+        if (groups.size() == 1 && !groups.contains(null)) {
+            return readPartitions(Collections.singletonList(groups.iterator().next()),
+                    stub -> stub.selectSortedSQL(returned, where, order));
+        }
+        int[] fields = StorageEngine.fieldsOf(rowColumns, returned);
+        List<SortedRows> resultList = new ArrayList<>();
+        for (String rows : selectSQL(partitionIds, rowColumns, where)) {
+            resultList.add(rows == null ? null : order.sort(rows, rowColumns, null, fields));
+        }
+        return resultList;
+    }
+    /**
+     * Sorts the full result of a result partition the same way the replicas would, used to answer a query with an
+     * ORDER BY or LIMIT clause from a cached result. The rows of a vertically partitioned table are joined without
+     * separator, so its results cannot be sorted.
+     *
+     * @param result the result of SELECT * on the partition.
+     * @param selectColumns the columns to return, null for every column.
+     * @param where the condition, null for every row.
+     * @param order the sort key and the limit.
+     * @return the requested fields of the first matching rows and their sort key, in order.
+     * @throws IllegalArgumentException if the columns, the condition or the sort key use an unknown column.
+     */
+    public SortedRows sortResult(String result, List<String> selectColumns, RowPredicate where, RowOrder order) {
+        return order.sort(result, columns, where == null ? null : where.bind(columns),
+                StorageEngine.fieldsOf(columns, selectColumns));
+    }
+    /**
+     * Applies a projection and a condition to the full result of a result partition, the same way the replicas
+     * would, used to answer a query from a cached result. The rows of a vertically partitioned table are joined
+     * without separator, so its results cannot be filtered.
+     *
+     * @param result the result of SELECT * on the partition.
+     * @param selectColumns the columns to return, null for every column.
+     * @param where the condition, null for every row.
+     * @return the requested fields of the matching rows, each row followed by a newline.
+     * @throws IllegalArgumentException if the columns or the condition use an unknown column.
+     */
+    public String filterResult(String result, List<String> selectColumns, RowPredicate where) {
+        RowPredicate.Matcher matcher = where == null ? null : where.bind(columns);
+        int[] fields = StorageEngine.fieldsOf(columns, selectColumns);
+        StringBuilder filtered = new StringBuilder();
+        int from = 0;
+        while (from < result.length()) {
+            int to = result.indexOf('\n', from);
+            if (to == -1) {
+                to = result.length();
+            }
+            String[] values = result.substring(from, to).split(",", -1);
+            if (matcher == null || matcher.matches(i -> i < values.length ? values[i] : "")) {
+                if (fields == null) {
+                    filtered.append(result, from, to).append('\n');
+                } else {
+                    for (int i : fields) {
+                        filtered.append(i < values.length ? values[i] : "").append(',');
                     }
+                    filtered.append('\n');
                 }
-            } catch (RemoteException | NotBoundException e) {
-                e.printStackTrace();
             }
+            from = to + 1;
         }
-        return "";
+        return filtered.toString();
     }
     /**
-     * Retrieves data from a NoSQL database, considering all active replicas across partitions.
+     * Joins the column groups of a vertically partitioned table with a sorted merge on the row id. A row is
+     * returned only if every column group holds a part of it.
      *
-     * @return the concatenated string of results from all replicas.
+     * @param partitionResults the rows of each column group, in ascending row id order.
+     * @return the parts of each row concatenated, rows concatenated as well.
      */
-    public String selectNoSQL() {
-        if (this.partitionType.equals("horizontal")){
-            // read from all partitions and aggregate
-            List<String> resultList = new ArrayList<>();
-            try {
-                for (int i = 0; i < numPartitions; i++) {
-                    // read from the first replica with isServerAlive = true
-                    for (DatabaseNodeReplica replica : reps.get(i)) {
-                        if (replica.isServerAlive()) {
-                            DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
-                            resultList.add(stub.selectNoSQL());
-                            break;
-                        }
-                    }
+    private String joinOnRowId(List<IdentifiedRows> partitionResults) {
+        return joinOnRowId(partitionResults, null, null);
+    }
+    /**
+     * Joins column groups of a vertically partitioned table, keeping some fields of the joined rows matching a
+     * condition.
+     *
+     * @param partitionResults the rows of each column group, in ascending row id order.
+     * @param matcher the condition bound to the columns of the joined rows, null to keep every row.
+     * @param fields the indexes of the fields of the joined rows to keep, null for every field.
+     * @return the parts of each matching row concatenated, rows concatenated as well unless fields are picked, in
+     * which case each row is followed by a newline.
+     */
+    private String joinOnRowId(List<IdentifiedRows> partitionResults, RowPredicate.Matcher matcher, int[] fields) {
+        StringBuilder result = new StringBuilder();
+        int[] cursors = new int[partitionResults.size()];
+        while (true) {
+            // the largest row id at the cursors is the first one that can be in every column group
+            long rowId = -1;
+            for (int j = 0; j < cursors.length; j++) {
+                IdentifiedRows rows = partitionResults.get(j);
+                if (cursors[j] == rows.size()) {
+                    return result.toString();
                 }
-            } catch (RemoteException | NotBoundException e) {
-                e.printStackTrace();
+                rowId = Math.max(rowId, rows.getRowId(cursors[j]));
             }
-            // convert the result array to a string with newlines
-            return String.join("", resultList);
-        } else if (this.partitionType.equals("none")) {
-            // read from first replica
-            try {
-                for (DatabaseNodeReplica replica : reps.get(0)) {
-                    if (replica.isServerAlive()) {
-                        DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
-                        return stub.selectNoSQL();
+            boolean aligned = true;
+            for (int j = 0; j < cursors.length; j++) {
+                IdentifiedRows rows = partitionResults.get(j);
+                while (cursors[j] < rows.size() && rows.getRowId(cursors[j]) < rowId) {
+                    cursors[j]++;
+                }
+                if (cursors[j] == rows.size()) {
+                    return result.toString();
+                }
+                aligned &= rows.getRowId(cursors[j]) == rowId;
+            }
+            if (aligned) {
+                int rowStart = result.length();
+                for (int j = 0; j < cursors.length; j++) {
+                    result.append(partitionResults.get(j).getRow(cursors[j]++));
+                }
+                if (matcher != null || fields != null) {
+                    String[] values = result.substring(rowStart).split(",", -1);
+                    result.setLength(rowStart);
+                    if (matcher == null || matcher.matches(i -> i < values.length ? values[i] : "")) {
+                        if (fields == null) {
+                            for (int i = 0; i < values.length - 1; i++) {
+                                result.append(values[i]).append(',');
+                            }
+                        } else {
+                            for (int i : fields) {
+                                result.append(values[i]).append(',');
+                            }
+                            result.append('\n');
+                        }
                     }
                 }
-            } catch (RemoteException | NotBoundException e) {
-                e.printStackTrace();
             }
         }
-        return "";
+    }
+    /**
+     * Retrieves data from a NoSQL database, considering all active replicas across partitions. Partitions are read
+     * at the same time, see {@link #readPartitions(List, ReplicaCall)}.
+     *
+     * @return the concatenated string of results from all replicas.
+     */
+    public String selectNoSQL() {
+        return joinResults(selectNoSQL(allResultPartitions()));
+    }
+    /**
+     * Retrieves the result of some partitions of a NoSQL database. Partitions are read at the same time.
+     *
+     * @param partitionIds the partitions to read.
+     * @return the result of each of them, in the same order, null for a partition no replica could answer.
+     */
+    public List<String> selectNoSQL(List<Integer> partitionIds) {
+        return readPartitions(partitionIds, DatabaseNodeInterface::selectNoSQL);
+    }
+    /**
+     * Concatenates the results of result partitions, leaving out the partitions no replica could answer.
+     *
+     * @param resultList the result of each partition, in partition order.
+     * @return the concatenated results.
+     */
+    public static String joinResults(List<String> resultList) {
+        StringBuilder result = new StringBuilder();
+        for (String partitionResult : resultList) {
+            if (partitionResult != null) {
+                result.append(partitionResult);
+            }
+        }
+        return result.toString();
+    }
+    private List<Integer> allResultPartitions() {
+        List<Integer> partitionIds = new ArrayList<>();
+        for (int i = 0; i < getResultPartitions(); i++) {
+            partitionIds.add(i);
+        }
+        return partitionIds;
     }
     /**
      * Updates data in a SQL database, considering partitioning and ensuring all relevant replicas are updated.
@@ -395,26 +940,18 @@ public class DatabaseNodeClient {
     public void updateSQL(List<String> columns, List<String> values, String where) throws CannotWriteException {
         String[] whereParts = where.split("=");
         String[] whereArr = {whereParts[0].trim(), whereParts[1].trim()};
+        List<String> serializableColumns = new ArrayList<>(columns);
+        List<String> serializableValues = canonicalize(columns, values);
+        whereArr[1] = canonicalize(List.of(whereArr[0]), List.of(whereArr[1])).get(0);
+        UnaryOperator<String> delta = scanDeltas
+                ? CsvScanDelta.updateSQL(this.columns, serializableColumns, serializableValues, whereArr) : null;
 
         if (this.partitionType.equals("horizontal")) {
             // update by key % numPartitions
             // need to be WHERE id = xxx to delete by key
-            int partitionId = Integer.parseInt(whereArr[1]) % this.numPartitions;
+            int partitionId = partitionOf(whereArr[1]);
             checkAlive(partitionId);
-            for (DatabaseNodeReplica replica : reps.get(partitionId)) {
-                try {
-                    if (!replica.isServerAlive()) {
-                        // one of replicas is down, should not able to update
-                        throw new CannotWriteException("One of the replicas is down");
-                    }
-                    DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
-                    List<String> serializableColumns = new ArrayList<>(columns);
-                    List<String> serializableValues = new ArrayList<>(values);
-                    stub.updateSQL(serializableColumns, serializableValues, whereArr);
-                } catch (RemoteException | NotBoundException e) {
-                    e.printStackTrace();
-                }
-            }
+            writeToPartition(partitionId, delta, stub -> stub.updateSQL(serializableColumns, serializableValues, whereArr));
         } else if (this.partitionType.equals("vertical")) {
             // only support same partition update, so if the where clause and update columns are
             // not in the same partition, it will not work
@@ -422,32 +959,14 @@ public class DatabaseNodeClient {
             checkAlive(partitionId);
             // should locate the partition by the column in the where clause
             // update all the replicas in the partition
-            for (DatabaseNodeReplica replica : reps.get(partitionId)) {
-                try {
-                    DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
-                    List<String> serializableColumns = new ArrayList<>(columns);
-                    List<String> serializableValues = new ArrayList<>(values);
-                    stub.updateSQL(serializableColumns, serializableValues, whereArr);
-                } catch (RemoteException | NotBoundException e) {
-                    e.printStackTrace();
-                }
-            }
+            writeToPartition(partitionId, delta, stub -> stub.updateSQL(serializableColumns, serializableValues, whereArr));
         } else if (this.partitionType.equals("none")) {
             // update all replicas
             int partitionId = 0;
             checkAlive(partitionId);
-            for (DatabaseNodeReplica replica : reps.get(0)) {
-                try {
-                    // where clause is now FirstName = 'John'
-                    // convert to ["FirstName", "John"]
-                    DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
-                    List<String> serializableColumns = new ArrayList<>(columns);
-                    List<String> serializableValues = new ArrayList<>(values);
-                    stub.updateSQL(serializableColumns, serializableValues, whereArr);
-                } catch (RemoteException | NotBoundException e) {
-                    e.printStackTrace();
-                }
-            }
+            // where clause is now FirstName = 'John'
+            // convert to ["FirstName", "John"]
+            writeToPartition(partitionId, delta, stub -> stub.updateSQL(serializableColumns, serializableValues, whereArr));
         }
     }
     /**
@@ -458,35 +977,26 @@ public class DatabaseNodeClient {
      * @throws CannotWriteException if the update cannot be completed due to inactive replicas.
      */
     public void updateNoSQL(List<String> kvPairs, List<String> where) throws CannotWriteException {
+        List<String> serializableList = new ArrayList<>(kvPairs);
+        List<String> serializableWhere = new ArrayList<>(where);
+        UnaryOperator<String> delta = scanDeltas ? CsvScanDelta.updateNoSQL(serializableList, serializableWhere) : null;
         if (this.partitionType.equals("horizontal")) {
             // update by key % numPartitions
             // need to be WHERE id = xxx to update by key
-            int partitionId = Integer.parseInt(where.get(1)) % this.numPartitions;
+            int partitionId = partitionOf(where.get(1));
             checkAlive(partitionId);
-            for (DatabaseNodeReplica replica : reps.get(partitionId)) {
-                try {
-                    DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
-                    List<String> serializableList = new ArrayList<>(kvPairs);
-                    List<String> serializableWhere = new ArrayList<>(where);
-                    stub.updateNoSQL(serializableList, serializableWhere);
-                } catch (RemoteException | NotBoundException e) {
-                    e.printStackTrace();
-                }
-            }
+            writeToPartition(partitionId, delta, stub -> {
+                stub.updateNoSQL(serializableList, serializableWhere);
+                return null;
+            });
         } else if (this.partitionType.equals("none")) {
             // update all replicas
             int partitionId = 0;
             checkAlive(partitionId);
-            for (DatabaseNodeReplica replica : reps.get(0)) {
-                try {
-                    DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
-                    List<String> serializableList = new ArrayList<>(kvPairs);
-                    List<String> serializableWhere = new ArrayList<>(where);
-                    stub.updateNoSQL(serializableList, serializableWhere);
-                } catch (RemoteException | NotBoundException e) {
-                    e.printStackTrace();
-                }
-            }
+            writeToPartition(partitionId, delta, stub -> {
+                stub.updateNoSQL(serializableList, serializableWhere);
+                return null;
+            });
         }
     }
     /**
@@ -498,63 +1008,43 @@ public class DatabaseNodeClient {
     public void deleteSQL(String where) throws CannotWriteException {
         String[] whereSplit = where.split("=");
         String[] whereArr = {whereSplit[0].trim(), whereSplit[1].trim()};
+        whereArr[1] = canonicalize(List.of(whereArr[0]), List.of(whereArr[1])).get(0);
+        UnaryOperator<String> delta = scanDeltas ? CsvScanDelta.deleteSQL(this.columns, whereArr) : null;
         if (this.partitionType.equals("horizontal")) {
             // delete by key % numPartitions
             // need to be WHERE id = xxx to delete by key
-            int partitionId = Integer.parseInt(whereArr[1]) % this.numPartitions;
+            int partitionId = partitionOf(whereArr[1]);
             checkAlive(partitionId);
-            for (DatabaseNodeReplica replica : reps.get(partitionId)) {
-                try {
-                    DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
-                    stub.deleteSQL(whereArr);
-                } catch (RemoteException | NotBoundException e) {
-                    e.printStackTrace();
-                }
-            }
+            writeToPartition(partitionId, delta, stub -> stub.deleteSQL(whereArr));
         } else if (this.partitionType.equals("vertical")) {
             int partitionId = columnToPartition.get(whereArr[0]);
             checkAlive(partitionId);
             // delete from all replicas in the partition
             // should delete the same rows from all partitions
-            List<Integer> deletedRows = new ArrayList<>();
-            for (DatabaseNodeReplica replica : reps.get(partitionId)) {
-                try {
-                    if (!replica.isServerAlive()) {
-                        // one of replicas is down, should not able to delete
-                        throw new CannotWriteException("One of the replicas is down");
-                    }
-                    DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
-                    deletedRows = stub.deleteSQL(whereArr);
-                } catch (RemoteException | NotBoundException e) {
-                    e.printStackTrace();
-                }
+            List<BitSet> deleted = writeToPartition(partitionId, delta, stub -> stub.deleteSQL(whereArr));
+            BitSet deletedRows = deleted.get(deleted.size() - 1);
+            if (deletedRows.isEmpty()) {
+                return;
             }
-            // delete the same rows from all partitions
+            // delete the same rows from all partitions, every replica at the same time
+            Map<DatabaseNodeReplica, ReplicaCall<Void>> writes = new LinkedHashMap<>();
             for (int i = 0; i < numPartitions; i++) {
                 if (i == partitionId) {
                     continue;
                 }
                 for (DatabaseNodeReplica replica : reps.get(i)) {
-                    try {
-                        DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
+                    writes.put(replica, stub -> {
                         stub.deleteByRowSQL(deletedRows);
-                    } catch (RemoteException | NotBoundException e) {
-                        e.printStackTrace();
-                    }
+                        return null;
+                    });
                 }
             }
+            writeToReplicas(0, null, writes);
         } else if (this.partitionType.equals("none")) {
             // delete from all replicas
             int partitionId = 0;
             checkAlive(partitionId);
-            for (DatabaseNodeReplica replica : reps.get(0)) {
-                try {
-                    DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
-                    stub.deleteSQL(whereArr);
-                } catch (RemoteException | NotBoundException e) {
-                    e.printStackTrace();
-                }
-            }
+            writeToPartition(partitionId, delta, stub -> stub.deleteSQL(whereArr));
         }
     }
     /**
@@ -564,34 +1054,447 @@ public class DatabaseNodeClient {
      * @throws CannotWriteException if the deletion cannot be executed due to inactive replicas.
      */
     public void deleteNoSQL(List<String> where) throws CannotWriteException {
+        List<String> serializableWhere = new ArrayList<>(where);
+        UnaryOperator<String> delta = scanDeltas ? CsvScanDelta.deleteNoSQL(serializableWhere) : null;
         if (this.partitionType.equals("horizontal")) {
             // delete by key % numPartitions
             // need to be WHERE id = xxx to delete by key
-            int partitionId = Integer.parseInt(where.get(1)) % this.numPartitions;
+            int partitionId = partitionOf(where.get(1));
             checkAlive(partitionId);
-            for (DatabaseNodeReplica replica : reps.get(partitionId)) {
-                try {
-                    DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
-                    List<String> serializableWhere = new ArrayList<>(where);
-                    stub.deleteNoSQL(serializableWhere);
-                } catch (RemoteException | NotBoundException e) {
-                    e.printStackTrace();
-                }
-            }
+            writeToPartition(partitionId, delta, stub -> {
+                stub.deleteNoSQL(serializableWhere);
+                return null;
+            });
         } else if (this.partitionType.equals("none")) {
             // delete from all replicas
             int partitionId = 0;
             checkAlive(partitionId);
-            for (DatabaseNodeReplica replica : reps.get(partitionId)) {
+            writeToPartition(partitionId, delta, stub -> {
+                stub.deleteNoSQL(serializableWhere);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Inserts a batch of rows into a SQL database. Rows are grouped by partition and each partition gets its rows in
+     * a single call per replica, applied under one lock acquisition. Every partition is checked to be alive before
+     * anything is written; a replica failing afterwards fails the batch, with the partitions written before it kept.
+     * Each column group of a vertically partitioned table gets its part of every row in a single call per replica,
+     * under consecutive row ids shared by the column groups.
+     *
+     * @param columns the column names for the insert operation, the same for every row.
+     * @param rows the values of each row.
+     * @throws CannotWriteException if the operation cannot be completed due to replica failures.
+     */
+    public void insertBatchSQL(List<String> columns, List<List<String>> rows) throws CannotWriteException {
+        if (this.partitionType.equals("vertical")) {
+            insertVerticalBatchSQL(columns, rows);
+            return;
+        }
+        List<String> serializableColumns = new ArrayList<>(columns);
+        List<List<String>> canonicalRows = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        for (List<String> values : rows) {
+            List<String> canonicalValues = canonicalize(columns, values);
+            canonicalRows.add(canonicalValues);
+            ids.add(canonicalValues.get(0));
+        }
+        Map<Integer, List<Integer>> batches = groupByPartition(ids);
+        for (int partitionId : batches.keySet()) {
+            checkAlive(partitionId);
+        }
+        for (Map.Entry<Integer, List<Integer>> batch : batches.entrySet()) {
+            List<List<String>> batchRows = pick(canonicalRows, batch.getValue());
+            UnaryOperator<String> delta = scanDeltas
+                    ? CsvScanDelta.insertBatchSQL(this.columns, serializableColumns, batchRows) : null;
+            writeToPartition(batch.getKey(), delta, stub -> {
+                stub.insertBatchSQL(serializableColumns, batchRows);
+                return null;
+            });
+        }
+    }
+    /**
+     * Inserts a batch of rows into a vertically partitioned table: the rows are split into the parts of each column
+     * group, and every replica of every column group gets its parts at the same time.
+     *
+     * @param columns the column names for the insert operation, the same for every row.
+     * @param rows the values of each row.
+     * @throws CannotWriteException if the operation cannot be completed due to replica failures.
+     */
+    private void insertVerticalBatchSQL(List<String> columns, List<List<String>> rows) throws CannotWriteException {
+        List<List<String>> partitionColumns = new ArrayList<>();
+        // index in columns of each column of a column group
+        List<List<Integer>> partitionFields = new ArrayList<>();
+        List<List<List<String>>> partitionRows = new ArrayList<>();
+        for (int i = 0; i < numPartitions; i++) {
+            partitionColumns.add(new ArrayList<>());
+            partitionFields.add(new ArrayList<>());
+            partitionRows.add(new ArrayList<>());
+        }
+        for (int i = 0; i < columns.size(); i++) {
+            int partitionId = columnToPartition.get(columns.get(i));
+            partitionColumns.get(partitionId).add(columns.get(i));
+            partitionFields.get(partitionId).add(i);
+        }
+        for (List<String> values : rows) {
+            List<String> canonicalValues = canonicalize(columns, values);
+            for (int i = 0; i < numPartitions; i++) {
+                partitionRows.get(i).add(pick(canonicalValues, partitionFields.get(i)));
+            }
+        }
+        // first check if all partitions are alive
+        for (int i = 0; i < numPartitions; i++) {
+            checkAlive(i);
+        }
+        // every part of a row is stored under the same row id, so partitions are joined on it
+        synchronized (rowIdLock) {
+            long firstRowId = nextRowId;
+            nextRowId += rows.size();
+            Map<DatabaseNodeReplica, ReplicaCall<Void>> writes = new LinkedHashMap<>();
+            for (int i = 0; i < numPartitions; i++) {
+                List<String> groupColumns = partitionColumns.get(i);
+                List<List<String>> groupRows = partitionRows.get(i);
+                for (DatabaseNodeReplica replica : reps.get(i)) {
+                    writes.put(replica, stub -> {
+                        stub.insertBatchSQL(firstRowId, groupColumns, groupRows);
+                        return null;
+                    });
+                }
+            }
+            writeToReplicas(0, null, writes);
+        }
+    }
+    /**
+     * Inserts a batch of key-value rows into a NoSQL database, grouped by partition like
+     * {@link #insertBatchSQL(List, List)}.
+     *
+     * @param rows the key-value pairs of each row.
+     * @throws CannotWriteException if the operation cannot proceed due to replica failures.
+     */
+    public void insertBatchNoSQL(List<List<String>> rows) throws CannotWriteException {
+        List<List<String>> serializableRows = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        for (List<String> kvPairs : rows) {
+            serializableRows.add(new ArrayList<>(kvPairs));
+            ids.add(kvPairs.get(1));
+        }
+        Map<Integer, List<Integer>> batches = groupByPartition(ids);
+        for (int partitionId : batches.keySet()) {
+            checkAlive(partitionId);
+        }
+        for (Map.Entry<Integer, List<Integer>> batch : batches.entrySet()) {
+            List<List<String>> batchRows = pick(serializableRows, batch.getValue());
+            UnaryOperator<String> delta = scanDeltas ? CsvScanDelta.insertBatchNoSQL(batchRows) : null;
+            writeToPartition(batch.getKey(), delta, stub -> {
+                stub.insertBatchNoSQL(batchRows);
+                return null;
+            });
+        }
+    }
+    /**
+     * Updates a batch of rows of a SQL database by id: the row with id {@code ids.get(i)} gets the columns set to
+     * {@code values.get(i)}. Updates are grouped by partition like {@link #insertBatchSQL(List, List)}; updates of
+     * the same id are applied in order.
+     *
+     * @param columns the columns to update, the same for every update.
+     * @param values the new values of each update.
+     * @param ids the id each update applies to.
+     * @throws CannotWriteException if not all replicas are active, preventing the update.
+     */
+    public void updateBatchSQL(List<String> columns, List<List<String>> values, List<String> ids)
+            throws CannotWriteException {
+        String idColumn = this.columns.get(0);
+        List<String> serializableColumns = new ArrayList<>(columns);
+        List<List<String>> canonicalValues = new ArrayList<>();
+        for (List<String> updateValues : values) {
+            canonicalValues.add(canonicalize(columns, updateValues));
+        }
+        List<String> canonicalIds = canonicalize(Collections.nCopies(ids.size(), idColumn), ids);
+        Map<Integer, List<Integer>> batches = groupByPartition(canonicalIds);
+        for (int partitionId : batches.keySet()) {
+            checkAlive(partitionId);
+        }
+        for (Map.Entry<Integer, List<Integer>> batch : batches.entrySet()) {
+            List<List<String>> batchValues = pick(canonicalValues, batch.getValue());
+            List<String> batchIds = pick(canonicalIds, batch.getValue());
+            UnaryOperator<String> delta = scanDeltas
+                    ? CsvScanDelta.updateBatchSQL(this.columns, serializableColumns, batchValues, idColumn, batchIds)
+                    : null;
+            writeToPartition(batch.getKey(), delta,
+                    stub -> stub.updateBatchSQL(serializableColumns, batchValues, idColumn, batchIds));
+        }
+    }
+    /**
+     * Deletes a batch of rows of a SQL database by id, grouped by partition like {@link #insertBatchSQL(List, List)}.
+     * The rows of a vertically partitioned table are deleted from the column group holding the id first, then from
+     * every other column group by row id.
+     *
+     * @param ids the ids of the rows to delete.
+     * @throws CannotWriteException if the delete operation cannot proceed due to inactive replicas.
+     */
+    public void deleteBatchSQL(List<String> ids) throws CannotWriteException {
+        String idColumn = this.columns.get(0);
+        List<String> canonicalIds = canonicalize(Collections.nCopies(ids.size(), idColumn), ids);
+        Map<Integer, List<Integer>> batches = groupByPartition(canonicalIds);
+        for (int partitionId : batches.keySet()) {
+            checkAlive(partitionId);
+        }
+        for (Map.Entry<Integer, List<Integer>> batch : batches.entrySet()) {
+            int partitionId = batch.getKey();
+            List<String> batchIds = pick(canonicalIds, batch.getValue());
+            UnaryOperator<String> delta = scanDeltas
+                    ? CsvScanDelta.deleteBatchSQL(this.columns, idColumn, batchIds) : null;
+            List<BitSet> deleted = writeToPartition(partitionId, delta, stub -> stub.deleteBatchSQL(idColumn, batchIds));
+            if (!this.partitionType.equals("vertical")) {
+                continue;
+            }
+            BitSet deletedRows = deleted.get(deleted.size() - 1);
+            if (deletedRows.isEmpty()) {
+                continue;
+            }
+            // delete the same rows from all partitions, every replica at the same time
+            Map<DatabaseNodeReplica, ReplicaCall<Void>> writes = new LinkedHashMap<>();
+            for (int i = 0; i < numPartitions; i++) {
+                if (i == partitionId) {
+                    continue;
+                }
+                for (DatabaseNodeReplica replica : reps.get(i)) {
+                    writes.put(replica, stub -> {
+                        stub.deleteByRowSQL(deletedRows);
+                        return null;
+                    });
+                }
+            }
+            writeToReplicas(0, null, writes);
+        }
+    }
+    /**
+     * Groups the entries of a batch by the partition they are written to: the partition of their id for a
+     * horizontally partitioned table, the column group holding the id column for a vertically partitioned one, and
+     * partition 0 otherwise.
+     *
+     * @param ids the id of each entry.
+     * @return the indices of the entries of each partition, in batch order, by ascending partition id.
+     * @throws IllegalArgumentException if an id is empty or not valid for the type of the id column.
+     */
+    private Map<Integer, List<Integer>> groupByPartition(List<String> ids) {
+        Map<Integer, List<Integer>> batches = new TreeMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            int partitionId = 0;
+            if (this.partitionType.equals("horizontal")) {
+                partitionId = partitionOf(ids.get(i));
+            } else if (this.partitionType.equals("vertical")) {
+                partitionId = columnToPartition.get(this.columns.get(0));
+            }
+            batches.computeIfAbsent(partitionId, id -> new ArrayList<>()).add(i);
+        }
+        return batches;
+    }
+    /**
+     * Tells which partition an inserted row is written to, so rows can be buffered per partition before they are
+     * inserted in batches.
+     *
+     * @param id the id of the row: the value of the first inserted column for SQL, the first value for NoSQL.
+     * @return the partition id, 0 unless the table is horizontally partitioned.
+     * @throws IllegalArgumentException if the id is empty or not valid for the type of the id column.
+     */
+    public int insertPartitionOf(String id) {
+        return this.partitionType.equals("horizontal") ? partitionOf(id) : 0;
+    }
+    private static <T> List<T> pick(List<T> entries, List<Integer> indices) {
+        List<T> picked = new ArrayList<>();
+        for (int index : indices) {
+            picked.add(entries.get(index));
+        }
+        return picked;
+    }
+
+    /**
+     * Collects the storage engine counters of every alive replica, such as buffer pool hits and misses.
+     *
+     * @return the counters of each replica, keyed by replica name.
+     */
+    public Map<String, Map<String, Long>> getStorageStats() {
+        Map<String, Map<String, Long>> stats = new TreeMap<>();
+        for (List<DatabaseNodeReplica> replicas : reps.values()) {
+            for (DatabaseNodeReplica replica : replicas) {
+                if (!replica.isServerAlive()) {
+                    continue;
+                }
                 try {
                     DatabaseNodeInterface stub = getReplicaStub(replica.getTableName());
-                    List<String> serializableWhere = new ArrayList<>(where);
-                    stub.deleteNoSQL(serializableWhere);
+                    stats.put(replica.getTableName(), stub.getStorageStats());
                 } catch (RemoteException | NotBoundException e) {
                     e.printStackTrace();
                 }
             }
         }
+        return stats;
+    }
+
+    /**
+     * Reads partitions at the same time (scatter), each from its first live replica, and collects the results
+     * in partition order as they arrive (gather), so a full read takes as long as the slowest partition instead of the
+     * sum of all of them.
+     *
+     * @param partitionIds the partitions to read.
+     * @param read the read, applied to the stub of one replica of each partition.
+     * @return the result of each partition, in the order of the ids, null for a partition no replica could answer.
+     */
+    private <T> List<T> readPartitions(List<Integer> partitionIds, ReplicaCall<T> read) {
+        return readEachPartition(partitionIds, partitionId -> read);
+    }
+    /**
+     * Reads partitions at the same time with a read chosen per partition, see
+     * {@link #readPartitions(List, ReplicaCall)}.
+     *
+     * @param partitionIds the partitions to read.
+     * @param reads gives the read of a partition from its id.
+     * @return the result of each partition, in the order of the ids, null for a partition no replica could answer.
+     */
+    private <T> List<T> readEachPartition(List<Integer> partitionIds, IntFunction<ReplicaCall<T>> reads) {
+        List<T> results = new ArrayList<>();
+        if (partitionIds.size() == 1) {
+            int partitionId = partitionIds.get(0);
+            results.add(readPartition(reps.get(partitionId), reads.apply(partitionId)));
+            return results;
+        }
+        List<CompletableFuture<T>> futures = new ArrayList<>();
+        for (int partitionId : partitionIds) {
+            List<DatabaseNodeReplica> replicas = reps.get(partitionId);
+            ReplicaCall<T> read = reads.apply(partitionId);
+            futures.add(CompletableFuture.supplyAsync(() -> readPartition(replicas, read), REPLICA_CALLS));
+        }
+        for (CompletableFuture<T> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return results;
+    }
+    /**
+     * Reads a partition from its first live replica, falling back to its next live replica if the read fails.
+     *
+     * @param replicas the replicas of the partition.
+     * @param read the read, applied to the stub of the replica.
+     * @return the result, null if no replica could answer.
+     */
+    private <T> T readPartition(List<DatabaseNodeReplica> replicas, ReplicaCall<T> read) {
+        for (DatabaseNodeReplica replica : replicas) {
+            if (!replica.isServerAlive()) {
+                continue;
+            }
+            try {
+                return read.apply(getReplicaStub(replica.getTableName()));
+            } catch (RemoteException | NotBoundException e) {
+                // the next call looks the replica up again instead of reusing a stub that may be stale
+                stubs.remove(replica.getTableName());
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+    /**
+     * Sends a write to every replica of a partition at the same time.
+     *
+     * @param partitionId the partition to write to.
+     * @param delta the change the write makes to the result of the partition, null if it cannot be expressed.
+     * @param write the write, applied to the stub of each replica.
+     * @return the result of each replica, in replica order.
+     * @throws CannotWriteException if a replica cannot be reached, fails the write or does not answer in time.
+     */
+    private <T> List<T> writeToPartition(int partitionId, UnaryOperator<String> delta, ReplicaCall<T> write)
+            throws CannotWriteException {
+        Map<DatabaseNodeReplica, ReplicaCall<T>> writes = new LinkedHashMap<>();
+        for (DatabaseNodeReplica replica : reps.get(partitionId)) {
+            writes.put(replica, write);
+        }
+        return writeToReplicas(partitionId, delta, writes);
+    }
+    /**
+     * Sends writes to replicas at the same time and waits for all of them, so a write takes as long as the slowest
+     * replica instead of the sum of all of them. A replica that does not answer within {@value #WRITE_TIMEOUT_MILLIS}
+     * ms counts as failed, although it may still apply the write later. Every call moves the version of the result
+     * partition on, including a call that fails, which may have reached some replicas, and then tells the write
+     * listener about it, with its delta only if it succeeded and no other write to the result partition ran at the same
+     * time.
+     *
+     * @param partitionId the partition the replicas belong to, any of them for a vertically partitioned table.
+     * @param delta the change the writes make to the result of the partition, null if it cannot be expressed.
+     * @param writes the write to send to each replica.
+     * @return the result of each replica, in the order of the writes.
+     * @throws CannotWriteException if a replica cannot be reached, fails the write or does not answer in time, with
+     * the failure of every such replica.
+     */
+    private <T> List<T> writeToReplicas(int partitionId, UnaryOperator<String> delta,
+                                        Map<DatabaseNodeReplica, ReplicaCall<T>> writes) throws CannotWriteException {
+        int resultPartition = partitionType.equals("vertical") ? 0 : partitionId;
+        PartitionWrites partition = partitionWrites[resultPartition];
+        long fromVersion = partition.begin();
+        boolean succeeded = false;
+        try {
+            List<String> names = new ArrayList<>();
+            List<CompletableFuture<T>> futures = new ArrayList<>();
+            for (Map.Entry<DatabaseNodeReplica, ReplicaCall<T>> entry : writes.entrySet()) {
+                String name = entry.getKey().getTableName();
+                names.add(name);
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return entry.getValue().apply(getReplicaStub(name));
+                    } catch (RemoteException | NotBoundException e) {
+                        stubs.remove(name);
+                        throw new CompletionException(e);
+                    }
+                }, REPLICA_CALLS));
+            }
+            try {
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                        .get(WRITE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CannotWriteException("interrupted while writing to " + names);
+            } catch (ExecutionException | TimeoutException e) {
+                // the failure of every replica is collected below
+            }
+            List<T> results = new ArrayList<>();
+            List<String> failures = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                CompletableFuture<T> future = futures.get(i);
+                if (!future.isDone()) {
+                    failures.add(names.get(i) + " timed out");
+                    continue;
+                }
+                try {
+                    results.add(future.join());
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        // invalid requests are reported the same way as when replicas were written one by one
+                        throw (RuntimeException) e.getCause();
+                    }
+                    e.getCause().printStackTrace();
+                    failures.add(names.get(i) + " failed: " + e.getCause());
+                }
+            }
+            if (!failures.isEmpty()) {
+                throw new CannotWriteException("Cannot write to every replica: " + String.join("; ", failures));
+            }
+            succeeded = true;
+            return results;
+        } finally {
+            // ended once the replicas answered or timed out, so a read started before the write sees an older version
+            boolean alone = partition.end(fromVersion);
+            PartitionWriteListener listener = writeListener;
+            if (listener != null) {
+                listener.partitionWritten(resultPartition, fromVersion, fromVersion + 1,
+                        succeeded && alone ? delta : null);
+            }
+        }
     }
 
     // check if all replicas are alive
@@ -1,8 +1,17 @@
 package org.example;
 
+import org.example.storage.Aggregation;
+import org.example.storage.IdentifiedRows;
+import org.example.storage.PartialAggregates;
+import org.example.storage.RowOrder;
+import org.example.storage.RowPredicate;
+import org.example.storage.SortedRows;
+
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Remote service interface for interacting with a database node.
@@ -17,6 +26,57 @@ public interface DatabaseNodeInterface extends Remote {
      */
     String selectSQL() throws RemoteException;
 
+    /**
+     * Retrieves every row of a SQL table together with its internal row id.
+     *
+     * @return The rows and their row ids, in ascending row id order.
+     * @throws RemoteException If there is an error communicating with the remote object.
+     */
+    IdentifiedRows selectRowsSQL() throws RemoteException;
+
+    /**
+     * Retrieves some columns of the rows of a SQL table matching a WHERE condition, evaluated by the replica.
+     *
+     * @param columns The columns to return, in order, null for every column.
+     * @param where The condition, null for every row.
+     * @return The requested fields of the matching rows as a string.
+     * @throws RemoteException If there is an error communicating with the remote object.
+     */
+    String selectSQL(List<String> columns, RowPredicate where) throws RemoteException;
+
+    /**
+     * Retrieves some columns of the rows of a SQL table matching a WHERE condition together with their internal row
+     * ids.
+     *
+     * @param columns The columns to return, in order, null for every column.
+     * @param where The condition, on the columns of this replica only, null for every row.
+     * @return The requested fields of the matching rows and their row ids, in ascending row id order.
+     * @throws RemoteException If there is an error communicating with the remote object.
+     */
+    IdentifiedRows selectRowsSQL(List<String> columns, RowPredicate where) throws RemoteException;
+
+    /**
+     * Aggregates the rows of a SQL table matching a WHERE condition.
+     *
+     * @param aggregation The aggregates, with their optional GROUP BY columns.
+     * @param where The condition, on the columns of this replica only, null for every row.
+     * @return The partial aggregates of the matching rows, one state per group and aggregate.
+     * @throws RemoteException If there is an error communicating with the remote object.
+     */
+    PartialAggregates aggregateSQL(Aggregation aggregation, RowPredicate where) throws RemoteException;
+
+    /**
+     * Retrieves some columns of the first rows of a SQL table matching a WHERE condition in the order of an ORDER BY
+     * clause, at most as many as its LIMIT.
+     *
+     * @param columns The columns to return, in order, null for every column.
+     * @param where The condition, on the columns of this replica only, null for every row.
+     * @param order The sort key, on the columns of this replica only, and the limit.
+     * @return The requested fields of the first matching rows and their sort key, in order.
+     * @throws RemoteException If there is an error communicating with the remote object.
+     */
+    SortedRows selectSortedSQL(List<String> columns, RowPredicate where, RowOrder order) throws RemoteException;
+
     /**
      * Inserts a new row into the database using a SQL INSERT query.
      *
@@ -26,6 +86,17 @@ public interface DatabaseNodeInterface extends Remote {
      */
     void insertSQL(List<String> columns, List<String> values) throws RemoteException;
 
+    /**
+     * Inserts a new row into the database under a row id chosen by the caller, shared by the column groups of a
+     * vertically partitioned table.
+     *
+     * @param rowId    The internal id of the row, above every row id of the table.
+     * @param columns  The list of column names to insert.
+     * @param values   The list of values to insert.
+     * @throws RemoteException If there is an error communicating with the remote object.
+     */
+    void insertSQL(long rowId, List<String> columns, List<String> values) throws RemoteException;
+
     /**
      * Updates a row in the database using a SQL UPDATE query.
      *
@@ -41,18 +112,18 @@ public interface DatabaseNodeInterface extends Remote {
      * Deletes a row from the database using a SQL DELETE query.
      *
      * @param where The list of conditions to apply to the delete operation.
-     * @return The number of rows affected by the delete operation.
+     * @return The internal row ids of the deleted rows.
      * @throws RemoteException If there is an error communicating with the remote object.
      */
-    List<Integer> deleteSQL(String[] where) throws RemoteException;
+    BitSet deleteSQL(String[] where) throws RemoteException;
 
     /**
-     * Deletes a row from the database using a SQL DELETE query by providing a list of row IDs.
+     * Deletes rows from the database by their internal row ids.
      *
-     * @param rows The list of row IDs to delete.
+     * @param rowIds The row ids to delete.
      * @throws RemoteException If there is an error communicating with the remote object.
      */
-    void deleteByRowSQL(List<Integer> rows) throws RemoteException;
+    void deleteByRowSQL(BitSet rowIds) throws RemoteException;
 
     /**
      * Retrieves the result of a NoSQL SELECT query.
@@ -87,6 +158,57 @@ public interface DatabaseNodeInterface extends Remote {
      */
     void deleteNoSQL(List<String> where) throws RemoteException;
 
+    /**
+     * Inserts a batch of rows into the database with a single call, applied under one lock acquisition.
+     *
+     * @param columns  The list of column names to insert, the same for every row.
+     * @param rows     The values of each row.
+     * @throws RemoteException If there is an error communicating with the remote object.
+     */
+    void insertBatchSQL(List<String> columns, List<List<String>> rows) throws RemoteException;
+
+    /**
+     * Inserts a batch of rows into the database with a single call under consecutive row ids chosen by the caller,
+     * shared by the column groups of a vertically partitioned table.
+     *
+     * @param firstRowId The internal id of the first row, above every row id of the table.
+     * @param columns  The list of column names to insert, the same for every row.
+     * @param rows     The values of each row.
+     * @throws RemoteException If there is an error communicating with the remote object.
+     */
+    void insertBatchSQL(long firstRowId, List<String> columns, List<List<String>> rows) throws RemoteException;
+
+    /**
+     * Inserts a batch of key-value rows into the database with a single call, applied under one lock acquisition.
+     *
+     * @param rows     The key-value pairs of each row.
+     * @throws RemoteException If there is an error communicating with the remote object.
+     */
+    void insertBatchNoSQL(List<List<String>> rows) throws RemoteException;
+
+    /**
+     * Updates a batch of rows by id with a single call, applied under one lock acquisition.
+     *
+     * @param columns  The list of column names to update, the same for every update.
+     * @param values   The values of each update.
+     * @param idColumn The column rows are matched on.
+     * @param ids      The id each update applies to.
+     * @return The indices of the rows affected by the updates.
+     * @throws RemoteException If there is an error communicating with the remote object.
+     */
+    List<Integer> updateBatchSQL(List<String> columns, List<List<String>> values, String idColumn,
+                                 List<String> ids) throws RemoteException;
+
+    /**
+     * Deletes a batch of rows by id with a single call, applied under one lock acquisition.
+     *
+     * @param idColumn The column rows are matched on.
+     * @param ids      The ids of the rows to delete.
+     * @return The internal row ids of the deleted rows.
+     * @throws RemoteException If there is an error communicating with the remote object.
+     */
+    BitSet deleteBatchSQL(String idColumn, List<String> ids) throws RemoteException;
+
     /**
      * Sends a heartbeat request to the remote object.
      *
@@ -94,4 +216,12 @@ public interface DatabaseNodeInterface extends Remote {
      * @throws RemoteException If there is an error communicating with the remote object.
      */
     boolean heartbeatRequest() throws RemoteException;
-}
\ No newline at end of file
+
+    /**
+     * Retrieves the counters of the storage engine and write-ahead log, such as buffer pool hits and misses or log syncs.
+     *
+     * @return The counters by name.
+     * @throws RemoteException If there is an error communicating with the remote object.
+     */
+    Map<String, Long> getStorageStats() throws RemoteException;
+}
@@ -1,26 +1,69 @@
 package org.example;
 
+import org.example.config.StorageConfig;
+import org.example.storage.Aggregation;
+import org.example.storage.ColumnType;
+import org.example.storage.IdentifiedRows;
+import org.example.storage.PartialAggregates;
+import org.example.storage.RowOrder;
+import org.example.storage.RowPredicate;
+import org.example.storage.SortedRows;
+import org.example.storage.StorageEngine;
+import org.example.storage.StorageEngineFactory;
+import org.example.storage.WriteAheadLog;
+
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.locks.ReadWriteLock;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
 
 /**
  * This class provides the functionality of a database node replica, handling data storage and retrieval
  * through remote method invocation (RMI). It supports both SQL and NoSQL data operations.
+ * Reads and writes are delegated to the {@link StorageEngine} selected for the table, and every write is recorded
+ * in the {@link WriteAheadLog} of the replica. A replica either starts with empty data files or reopens the files
+ * a previous run closed, and reports how long opening its storage took. If the previous run crashed, the data files
+ * are restored from the snapshot of the last checkpoint, or recreated if there is none, and the writes its
+ * write-ahead log holds after that checkpoint are replayed into them.
+ * <p>
+ * Once the log reaches {@link #CHECKPOINT_BYTES}, and when the replica is closed, the replica takes a checkpoint:
+ * with writes held off, it closes its storage engine so the data files hold every write, copies them to
+ * {@code snapshot-<file>.<generation>}, reopens them and starts a new log, so the log only holds the writes since.
  */
 public class DatabaseNodeReplica extends UnicastRemoteObject implements DatabaseNodeInterface{
-    private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+    // size the write-ahead log may reach before a checkpoint starts a new one
+    public static final long CHECKPOINT_BYTES = 64L * 1024 * 1024;
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
     private String tableName;
     public String getTableName() {
         return tableName;
     }
     private List<String> columns;
-    private String csvFileName;
+    private List<ColumnType> columnTypes;
+    private StorageConfig storageConfig;
+    private StorageEngine engine;
+    // taken by reads, and exclusively while a checkpoint closes and reopens the engine; writes are held off by the log
+    private final ReentrantReadWriteLock engineLock = new ReentrantReadWriteLock();
+    private WriteAheadLog wal;
+    private long loadMillis;
+    // number of selects served by this replica
+    private final AtomicLong reads = new AtomicLong();
 
     private boolean isServerAlive = true;
     public boolean isServerAlive() {
@@ -31,33 +74,283 @@ public class DatabaseNodeReplica extends UnicastRemoteObject implements Database
     }
     /**
      * Constructs a DatabaseNodeReplica with specified table name and columns.
-     * It initializes a CSV file to store data for SQL operations.
+     * It initializes the storage engine holding the data of this replica and its write-ahead log.
      *
      * @param tableName the name of the table associated with this replica.
      * @param columns a list of column names used in SQL table, null if this is for NoSQL storage.
+     * @param columnTypes the declared type of each column, null if this is for NoSQL storage.
+     * @param storageConfig the storage engine configuration, null for the default CSV engine and durability.
      * @throws RemoteException if an error occurs during remote method setup.
      */
-    public DatabaseNodeReplica(String tableName, List<String> columns) throws RemoteException {
+    public DatabaseNodeReplica(String tableName, List<String> columns, List<ColumnType> columnTypes,
+                               StorageConfig storageConfig) throws RemoteException {
+        this(tableName, columns, columnTypes, storageConfig, false);
+    }
+    /**
+     * Constructs a DatabaseNodeReplica with specified table name and columns, over new data files or over the data
+     * files left by a previous run.
+     *
+     * @param tableName the name of the table associated with this replica.
+     * @param columns a list of column names used in SQL table, null if this is for NoSQL storage.
+     * @param columnTypes the declared type of each column, null if this is for NoSQL storage.
+     * @param storageConfig the storage engine configuration, null for the default CSV engine and durability.
+     * @param reopen whether to reopen the existing data files and append to the existing write-ahead log, or to
+     * replay that log into new data files if the previous run did not close it.
+     * @throws RemoteException if an error occurs during remote method setup, or the data files cannot be opened.
+     */
+    public DatabaseNodeReplica(String tableName, List<String> columns, List<ColumnType> columnTypes,
+                               StorageConfig storageConfig, boolean reopen) throws RemoteException {
         super();
         this.tableName = tableName;
-        this.csvFileName = tableName + ".csv";
         this.columns = columns;
-        // create csv header with column names
+        this.columnTypes = columnTypes;
+        this.storageConfig = storageConfig;
+        long start = System.nanoTime();
+        String walFileName = tableName + ".wal";
         try {
-            if (columns != null) {
-                FileWriter fileWriter = new FileWriter(csvFileName);
-                try (BufferedWriter writer = new BufferedWriter(fileWriter)) {
-                    String header = String.join(",", columns);
-                    writer.write(header);
+            if (reopen && !WriteAheadLog.isClosed(walFileName)) {
+                long generation = WriteAheadLog.readGeneration(walFileName);
+                if (generation > 0) {
+                    restoreSnapshot(generation);
+                    this.engine = StorageEngineFactory.open(tableName, columns, columnTypes, storageConfig);
+                } else {
+                    this.engine = StorageEngineFactory.create(tableName, columns, columnTypes, storageConfig);
                 }
+                WriteAheadLog.replay(walFileName, this::replay);
+                System.out.println("Recovered replica " + tableName + " from its write-ahead log");
             } else {
-                // if NoSQL, columns == null, no need to write header (schema-less) but still need to create file
-                File file = new File(csvFileName);
-                file.createNewFile();
+                this.engine = reopen ? StorageEngineFactory.open(tableName, columns, columnTypes, storageConfig)
+                        : StorageEngineFactory.create(tableName, columns, columnTypes, storageConfig);
+            }
+            this.wal = new WriteAheadLog(walFileName,
+                    storageConfig == null ? StorageConfig.DEFAULT_DURABILITY : storageConfig.getDurability(), reopen);
+            deleteSnapshots(wal.getGeneration());
+        } catch (IOException e) {
+            throw new RemoteException("cannot open storage for " + tableName, e);
+        }
+        this.loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (reopen) {
+            System.out.println("Loaded replica " + tableName + " in " + loadMillis + " ms");
+        }
+    }
+    /**
+     * Applies a write of the write-ahead log of a previous run to the storage engine, without logging it again.
+     *
+     * @param op the operation, one of the constants of {@link WriteAheadLog}.
+     * @param args the arguments the write was logged with.
+     * @throws IOException if the write fails or the operation is unknown.
+     */
+    private void replay(byte op, List<List<String>> args) throws IOException {
+        switch (op) {
+            case WriteAheadLog.INSERT_SQL:
+                engine.insertSQL(args.get(0), args.get(1));
+                break;
+            case WriteAheadLog.INSERT_SQL_WITH_ROW_ID:
+                engine.insertSQL(Long.parseLong(args.get(0).get(0)), args.get(1), args.get(2));
+                break;
+            case WriteAheadLog.UPDATE_SQL:
+                engine.updateSQL(args.get(0), args.get(1), args.get(2).toArray(new String[0]));
+                break;
+            case WriteAheadLog.DELETE_SQL:
+                engine.deleteSQL(args.get(0).toArray(new String[0]));
+                break;
+            case WriteAheadLog.DELETE_BY_ROW_SQL:
+                BitSet rowIds = new BitSet();
+                for (String rowId : args.get(0)) {
+                    rowIds.set(Integer.parseInt(rowId));
+                }
+                engine.deleteByRowSQL(rowIds);
+                break;
+            case WriteAheadLog.INSERT_NOSQL:
+                engine.insertNoSQL(args.get(0));
+                break;
+            case WriteAheadLog.UPDATE_NOSQL:
+                engine.updateNoSQL(args.get(0), args.get(1));
+                break;
+            case WriteAheadLog.DELETE_NOSQL:
+                engine.deleteNoSQL(args.get(0));
+                break;
+            case WriteAheadLog.INSERT_BATCH_SQL:
+                engine.insertBatchSQL(args.get(0), args.subList(1, args.size()));
+                break;
+            case WriteAheadLog.INSERT_BATCH_SQL_WITH_ROW_ID:
+                engine.insertBatchSQL(Long.parseLong(args.get(0).get(0)), args.get(1), args.subList(2, args.size()));
+                break;
+            case WriteAheadLog.INSERT_BATCH_NOSQL:
+                engine.insertBatchNoSQL(args);
+                break;
+            case WriteAheadLog.UPDATE_BATCH_SQL:
+                engine.updateBatchSQL(args.get(0), args.subList(3, args.size()), args.get(1).get(0), args.get(2));
+                break;
+            case WriteAheadLog.DELETE_BATCH_SQL:
+                engine.deleteBatchSQL(args.get(0).get(0), args.get(1));
+                break;
+            default:
+                throw new IOException("unknown write-ahead log record " + op);
+        }
+    }
+    /**
+     * Applies a write and logs it, then takes a checkpoint if the log has grown to {@link #CHECKPOINT_BYTES}.
+     *
+     * @param record the record of the write.
+     * @param action applies the write to the storage engine.
+     * @param <T> the result of the write.
+     * @return the result of the write.
+     * @throws IOException if the write fails or its record cannot be made durable.
+     */
+    private <T> T commit(byte[] record, WriteAheadLog.Action<T> action) throws IOException {
+        T result = wal.commit(record, action);
+        if (wal.size() >= CHECKPOINT_BYTES) {
+            checkpoint(CHECKPOINT_BYTES, true);
+        }
+        return result;
+    }
+    /**
+     * Takes a checkpoint: closes the storage engine, copies its data files to a new snapshot, reopens them and
+     * starts a new write-ahead log, then deletes the previous snapshot.
+     *
+     * @param minSize the size in bytes the log must have reached, 0 to take a checkpoint after any write.
+     * @param reopen whether to reopen the storage engine, false when the replica is closing.
+     * @return true if a checkpoint was taken and the engine was closed, false if the log was smaller or held no write.
+     * @throws IOException if the data files cannot be copied or reopened, or the new log cannot be written.
+     */
+    private boolean checkpoint(long minSize, boolean reopen) throws IOException {
+        engineLock.writeLock().lock();
+        try {
+            boolean taken = wal.checkpoint(minSize, generation -> {
+                engine.close();
+                try {
+                    saveSnapshot(generation);
+                } finally {
+                    if (reopen) {
+                        engine = StorageEngineFactory.open(tableName, columns, columnTypes, storageConfig);
+                    }
+                }
+            });
+            if (taken) {
+                deleteSnapshots(wal.getGeneration());
+            }
+            return taken;
+        } finally {
+            engineLock.writeLock().unlock();
+        }
+    }
+    /**
+     * Lists the data files of this replica: every file named after the replica, except its write-ahead log.
+     *
+     * @return the data files.
+     * @throws IOException if the directory cannot be listed.
+     */
+    private List<Path> dataFiles() throws IOException {
+        Path base = Paths.get(tableName).toAbsolutePath();
+        String prefix = base.getFileName() + ".";
+        String walName = base.getFileName() + ".wal";
+        try (Stream<Path> files = Files.list(base.getParent())) {
+            return files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(prefix) && !name.startsWith(walName) && Files.isRegularFile(file);
+            }).toList();
+        }
+    }
+    /**
+     * Lists the snapshot files of this replica, named {@code snapshot-<data file>.<generation>}.
+     *
+     * @return the snapshot files.
+     * @throws IOException if the directory cannot be listed.
+     */
+    private List<Path> snapshotFiles() throws IOException {
+        Path base = Paths.get(tableName).toAbsolutePath();
+        String prefix = SNAPSHOT_PREFIX + base.getFileName() + ".";
+        try (Stream<Path> files = Files.list(base.getParent())) {
+            return files.filter(file -> file.getFileName().toString().startsWith(prefix)).toList();
+        }
+    }
+    private static long generationOf(Path snapshotFile) {
+        String name = snapshotFile.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    /**
+     * Copies the closed data files of this replica to the snapshot of a checkpoint and syncs the copies, so the
+     * snapshot is complete before the write-ahead log names it.
+     *
+     * @param generation the number of the snapshot.
+     * @throws IOException if a file cannot be copied.
+     */
+    private void saveSnapshot(long generation) throws IOException {
+        for (Path file : dataFiles()) {
+            Path copy = file.resolveSibling(SNAPSHOT_PREFIX + file.getFileName() + "." + generation);
+            Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+            try (FileChannel channel = FileChannel.open(copy, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+    }
+    /**
+     * Replaces the data files left by a crash with the snapshot of a checkpoint.
+     *
+     * @param generation the number of the snapshot the write-ahead log starts from.
+     * @throws IOException if a file cannot be deleted or copied.
+     */
+    private void restoreSnapshot(long generation) throws IOException {
+        for (Path file : dataFiles()) {
+            Files.delete(file);
+        }
+        for (Path copy : snapshotFiles()) {
+            if (generationOf(copy) == generation) {
+                String name = copy.getFileName().toString();
+                Files.copy(copy, copy.resolveSibling(
+                        name.substring(SNAPSHOT_PREFIX.length(), name.lastIndexOf('.'))));
+            }
+        }
+    }
+    /**
+     * Deletes the snapshots the write-ahead log no longer starts from, including one cut short by a crash.
+     *
+     * @param generation the number of the snapshot to keep, 0 to delete every snapshot.
+     * @throws IOException if a file cannot be deleted.
+     */
+    private void deleteSnapshots(long generation) throws IOException {
+        for (Path copy : snapshotFiles()) {
+            if (generationOf(copy) != generation) {
+                Files.deleteIfExists(copy);
             }
+        }
+    }
+    /**
+     * Tells the row id the next row inserted into this replica gets, read locally by the client.
+     *
+     * @return a row id above every row id of the replica.
+     */
+    public long getNextRowId() {
+        engineLock.readLock().lock();
+        try {
+            return engine.getNextRowId();
+        } finally {
+            engineLock.readLock().unlock();
+        }
+    }
+    /**
+     * Closes the storage engine and the write-ahead log of this replica, taking a checkpoint if anything was logged
+     * since the last one, so its data files can be reopened by the next run, and stops accepting remote calls.
+     */
+    public void close() {
+        try {
+            if (!checkpoint(0, false)) {
+                engine.close();
+            }
+            wal.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        try {
+            UnicastRemoteObject.unexportObject(this, true);
+        } catch (NoSuchObjectException e) {
+            e.printStackTrace();
+        }
     }
     /**
      * Heartbeat method to check if the server is alive.
@@ -70,63 +363,143 @@ public class DatabaseNodeReplica extends UnicastRemoteObject implements Database
         return true;
     }
     /**
-     * Reads all data from the CSV file for SQL operations.
+     * Reads all data for SQL operations.
      *
-     * @return a string containing all rows from the CSV file.
+     * @return a string containing all rows.
      * @throws RemoteException if an error occurs during the remote call.
      */
     @Override
     public String selectSQL() throws RemoteException {
+        reads.incrementAndGet();
+        engineLock.readLock().lock();
         try {
-            return readAll(true);
+            return engine.selectSQL();
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new RemoteException("cannot read " + tableName, e);
+        } finally {
+            engineLock.readLock().unlock();
         }
-        return "";
     }
     /**
-     * Reads all data from the CSV file for NoSQL operations.
+     * Reads all data for SQL operations together with the row id of each row.
      *
-     * @return a string containing all rows from the CSV file.
+     * @return every row and its row id.
      * @throws RemoteException if an error occurs during the remote call.
      */
     @Override
-    public String selectNoSQL() throws RemoteException {
+    public IdentifiedRows selectRowsSQL() throws RemoteException {
+        reads.incrementAndGet();
+        engineLock.readLock().lock();
         try {
-            return readAll(false);
+            return engine.selectRowsSQL();
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new RemoteException("cannot read " + tableName, e);
+        } finally {
+            engineLock.readLock().unlock();
         }
-        return "";
     }
     /**
-     * Reads all data from a CSV file, optionally skipping the header line.
+     * Reads some columns of the rows matching a condition for SQL operations.
      *
-     * @param skipHeader if true, skips the first line of the CSV (header).
-     * @return a string containing all rows of the file.
-     * @throws IOException if an error occurs reading the file.
+     * @param columns the columns to return, null for every column.
+     * @param where the condition, null for every row.
+     * @return a string containing the requested fields of the matching rows.
+     * @throws RemoteException if an error occurs during the remote call.
      */
-    private String readAll(boolean skipHeader) throws IOException {
-        // return all data as string from csv file
-        rwLock.readLock().lock();
-        StringBuilder data = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new FileReader(csvFileName))) {
-            if (skipHeader) {
-                reader.readLine(); // skip header
-            }
-            String line;
-            while ((line = reader.readLine()) != null && !line.isEmpty()) {
-                data.append(line).append("\n");
-            }
+    @Override
+    public String selectSQL(List<String> columns, RowPredicate where) throws RemoteException {
+        reads.incrementAndGet();
+        engineLock.readLock().lock();
+        try {
+            return engine.selectSQL(columns, where);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new RemoteException("cannot read " + tableName, e);
+        } finally {
+            engineLock.readLock().unlock();
+        }
+    }
+    /**
+     * Reads some columns of the rows matching a condition for SQL operations together with the row id of each row.
+     *
+     * @param columns the columns to return, null for every column.
+     * @param where the condition, null for every row.
+     * @return the requested fields of every matching row and its row id.
+     * @throws RemoteException if an error occurs during the remote call.
+     */
+    @Override
+    public IdentifiedRows selectRowsSQL(List<String> columns, RowPredicate where) throws RemoteException {
+        reads.incrementAndGet();
+        engineLock.readLock().lock();
+        try {
+            return engine.selectRowsSQL(columns, where);
+        } catch (IOException e) {
+            throw new RemoteException("cannot read " + tableName, e);
+        } finally {
+            engineLock.readLock().unlock();
+        }
+    }
+    /**
+     * Aggregates the rows matching a condition for SQL operations.
+     *
+     * @param aggregation the aggregates.
+     * @param where the condition, null for every row.
+     * @return the partial aggregates of the matching rows.
+     * @throws RemoteException if an error occurs during the remote call.
+     */
+    @Override
+    public PartialAggregates aggregateSQL(Aggregation aggregation, RowPredicate where) throws RemoteException {
+        reads.incrementAndGet();
+        engineLock.readLock().lock();
+        try {
+            return engine.aggregateSQL(aggregation, where);
+        } catch (IOException e) {
+            throw new RemoteException("cannot read " + tableName, e);
         } finally {
-            rwLock.readLock().unlock();
+            engineLock.readLock().unlock();
         }
-        return data.toString();
     }
     /**
-     * Inserts data into a CSV file for SQL operations.
+     * Reads some columns of the first rows matching a condition in an order for SQL operations.
+     *
+     * @param columns the columns to return, null for every column.
+     * @param where the condition, null for every row.
+     * @param order the sort key and the limit.
+     * @return the requested fields of the first matching rows and their sort key, in order.
+     * @throws RemoteException if an error occurs during the remote call.
+     */
+    @Override
+    public SortedRows selectSortedSQL(List<String> columns, RowPredicate where, RowOrder order)
+            throws RemoteException {
+        reads.incrementAndGet();
+        engineLock.readLock().lock();
+        try {
+            return engine.selectSortedSQL(columns, where, order);
+        } catch (IOException e) {
+            throw new RemoteException("cannot read " + tableName, e);
+        } finally {
+            engineLock.readLock().unlock();
+        }
+    }
+    /**
+     * Reads all data for NoSQL operations.
+     *
+     * @return a string containing all rows.
+     * @throws RemoteException if an error occurs during the remote call.
+     */
+    @Override
+    public String selectNoSQL() throws RemoteException {
+        reads.incrementAndGet();
+        engineLock.readLock().lock();
+        try {
+            return engine.selectNoSQL();
+        } catch (IOException e) {
+            throw new RemoteException("cannot read " + tableName, e);
+        } finally {
+            engineLock.readLock().unlock();
+        }
+    }
+    /**
+     * Inserts data for SQL operations.
      *
      * @param insertColumns columns to insert data into.
      * @param values corresponding values for the columns.
@@ -134,111 +507,34 @@ public class DatabaseNodeReplica extends UnicastRemoteObject implements Database
      */
     @Override
     public void insertSQL(List<String> insertColumns, List<String> values) throws RemoteException {
-        // write to csv file
-        rwLock.writeLock().lock();
-        StringBuilder csvRow = new StringBuilder();
         try {
-            for (String column : this.columns) {
-                if (insertColumns.contains(column)) {
-                    csvRow.append(values.get(insertColumns.indexOf(column)));
-                }
-                csvRow.append(",");
-            }
-            FileWriter fileWriter = new FileWriter(csvFileName, true);
-            try (BufferedWriter writer = new BufferedWriter(fileWriter)) {
-                writer.newLine();
-                writer.write(csvRow.toString());
-            }
+            commit(WriteAheadLog.record(WriteAheadLog.INSERT_SQL, insertColumns, values), () -> {
+                engine.insertSQL(insertColumns, values);
+                return null;
+            });
         } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            rwLock.writeLock().unlock();
+            throw new RemoteException("cannot write to " + tableName, e);
         }
     }
     /**
-     * Helper method for updating or deleting rows based on a condition.
+     * Inserts data for SQL operations under a row id chosen by the caller.
      *
-     * @param columns columns to update.
-     * @param values new values for the specified columns.
-     * @param where condition array where the first element is the column name and the second is the value to match.
-     * @param isUpdate true if updating, false if deleting.
-     * @return list of row indices affected.
+     * @param rowId the internal id of the row.
+     * @param insertColumns columns to insert data into.
+     * @param values corresponding values for the columns.
+     * @throws RemoteException if an error occurs during the remote call.
      */
-    private List<Integer> updateSQLHelper(List<String> columns, List<String> values, String[] where, boolean isUpdate) {
-        // isUpdate is to differentiate between update and delete
-        rwLock.writeLock().lock();
-        List<Integer> updatedRows = new ArrayList<>();
+    @Override
+    public void insertSQL(long rowId, List<String> insertColumns, List<String> values) throws RemoteException {
         try {
-            boolean updated = false;
-            File tempFile = new File("temp-" + csvFileName);
-            // read row and update if where condition is met, write to temp file
-            try (BufferedReader reader = new BufferedReader(new FileReader(csvFileName));
-                 BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile))
-            ) {
-                String header = reader.readLine();
-                // match header columns with where condition [0]
-                String[] headerColumns = header.split(",");
-                int whereIndex = -1;
-                for (int i = 0; i < headerColumns.length; i++) {
-                    if (headerColumns[i].equals(where[0])) {
-                        whereIndex = i;
-                        break;
-                    }
-                }
-                if (whereIndex == -1) {
-                    tempFile.delete();
-                    return new ArrayList<>();
-                }
-                // write header to temp file
-                writer.write(header);
-                // read each row
-                String line;
-                int count = 0;
-                while ((line = reader.readLine()) != null) {
-                    // if where condition is met, update columns with values
-                    String[] row = line.split(",");
-                    if (row[whereIndex].equals(where[1])) {
-                        if (isUpdate) {
-                            for (int i = 0; i < columns.size(); i++) {
-                                for (int j = 0; j < headerColumns.length; j++) {
-                                    if (headerColumns[j].equals(columns.get(i))) {
-                                        row[j] = values.get(i);
-                                        updatedRows.add(count);
-                                        updated = true;
-                                    }
-                                }
-                            }
-                        } else {
-                            // for deletion, just do not write this line, later on this file will replace the original file
-                            updatedRows.add(count);
-                            updated = true;
-                            continue;
-                        }
-                    }
-                    count++;
-                    writer.newLine();
-                    writer.write(String.join(",", row) + ",");
-                }
-            }
-            if (!updated) {
-                // delete temp file
-                tempFile.delete();
-            }
-            // delete original file and rename temp file
-            File originalFile = new File(csvFileName);
-            if (originalFile.delete()) {
-                if (!tempFile.renameTo(originalFile)) {
-                    //System.out.println("Error renaming temp file");
-                }
-            } else {
-                //System.out.println("Error deleting original file");
-            }
+            commit(WriteAheadLog.record(WriteAheadLog.INSERT_SQL_WITH_ROW_ID, List.of(String.valueOf(rowId)),
+                    insertColumns, values), () -> {
+                engine.insertSQL(rowId, insertColumns, values);
+                return null;
+            });
         } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            rwLock.writeLock().unlock();
+            throw new RemoteException("cannot write to " + tableName, e);
         }
-        return updatedRows;
     }
     /**
      * Updates SQL data based on conditions, supports updating multiple columns.
@@ -251,92 +547,62 @@ public class DatabaseNodeReplica extends UnicastRemoteObject implements Database
      */
     @Override
     public List<Integer> updateSQL(List<String> columns, List<String> values, String[] where) throws RemoteException {
-        return updateSQLHelper(columns, values, where, true);
+        try {
+            return commit(WriteAheadLog.record(WriteAheadLog.UPDATE_SQL, columns, values, Arrays.asList(where)),
+                    () -> engine.updateSQL(columns, values, where));
+        } catch (IOException e) {
+            throw new RemoteException("cannot write to " + tableName, e);
+        }
     }
     /**
      * Deletes SQL rows based on a specified condition.
      *
      * @param where condition array where the first element is the column name and the second is the value to match.
-     * @return list of row indices that were deleted.
+     * @return the row ids of the deleted rows.
      * @throws RemoteException if an error occurs during the remote call.
      */
     @Override
-    public List<Integer> deleteSQL(String[] where) throws RemoteException {
-        return updateSQLHelper(new ArrayList<>(), new ArrayList<>(), where, false);
+    public BitSet deleteSQL(String[] where) throws RemoteException {
+        try {
+            return commit(WriteAheadLog.record(WriteAheadLog.DELETE_SQL, Arrays.asList(where)),
+                    () -> engine.deleteSQL(where));
+        } catch (IOException e) {
+            throw new RemoteException("cannot write to " + tableName, e);
+        }
     }
     /**
-     * Handles delete operations for SQL data based on row numbers.
+     * Handles delete operations for SQL data based on row ids.
      *
-     * @param rows list of row indices to delete.
+     * @param rowIds the row ids of the rows to delete.
+     * @throws RemoteException if an error occurs during the remote call.
      */
     @Override
-    public void deleteByRowSQL(List<Integer> rows) {
-        // given row numbers, delete rows (for vertical partitioning deletion)
-        rwLock.writeLock().lock();
-        boolean deleted = false;
-        Collections.sort(rows);
+    public void deleteByRowSQL(BitSet rowIds) throws RemoteException {
         try {
-            File tempFile = new File("temp-" + csvFileName);
-            try (BufferedReader reader = new BufferedReader(new FileReader(csvFileName));
-                 BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile))
-            ) {
-                String header = reader.readLine();
-                writer.write(header);
-                String line;
-                int count = 0;
-                while ((line = reader.readLine()) != null) {
-                    if (rows.contains(count)) {
-                        deleted = true;
-                        count++;
-                        continue;
-                    }
-                    writer.newLine();
-                    writer.write(line);
-                    count++;
-                }
-            }
-            if (!deleted) {
-                tempFile.delete();
-                return;
-            }
-            File originalFile = new File(csvFileName);
-            if (originalFile.delete()) {
-                if (!tempFile.renameTo(originalFile)) {
-                    //System.out.println("Error renaming temp file");
-                }
-            } else {
-                //System.out.println("Error deleting original file");
-            }
+            List<String> ids = rowIds.stream().mapToObj(String::valueOf).toList();
+            commit(WriteAheadLog.record(WriteAheadLog.DELETE_BY_ROW_SQL, ids), () -> {
+                engine.deleteByRowSQL(rowIds);
+                return null;
+            });
         } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            rwLock.writeLock().unlock();
+            throw new RemoteException("cannot write to " + tableName, e);
         }
     }
     /**
-     * Handles insert operations for NoSQL data by appending key-value pairs to the CSV file.
+     * Handles insert operations for NoSQL data.
      *
      * @param kvPairs list of key-value pairs to insert.
      * @throws RemoteException if an error occurs during the remote call.
      */
     @Override
     public void insertNoSQL(List<String> kvPairs) throws RemoteException {
-        // [key1, value1, key2, value2, ...]
-        rwLock.writeLock().lock();
-        StringBuilder csvRow = new StringBuilder();
         try {
-            for (int i = 0; i < kvPairs.size(); i += 2) {
-                csvRow.append(kvPairs.get(i)).append(",").append(kvPairs.get(i + 1)).append(",");
-            }
-            FileWriter fileWriter = new FileWriter(csvFileName, true);
-            try (BufferedWriter writer = new BufferedWriter(fileWriter)) {
-                writer.write(csvRow.toString());
-                writer.newLine();
-            }
+            commit(WriteAheadLog.record(WriteAheadLog.INSERT_NOSQL, kvPairs), () -> {
+                engine.insertNoSQL(kvPairs);
+                return null;
+            });
         } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            rwLock.writeLock().unlock();
+            throw new RemoteException("cannot write to " + tableName, e);
         }
     }
     /**
@@ -348,54 +614,13 @@ public class DatabaseNodeReplica extends UnicastRemoteObject implements Database
      */
     @Override
     public void updateNoSQL(List<String> kvPairs, List<String> where) throws RemoteException {
-        // update all rows with where condition
-        rwLock.writeLock().lock();
         try {
-            boolean updated = false;
-            File tempFile = new File("temp-" + csvFileName);
-            try (BufferedReader reader = new BufferedReader(new FileReader(csvFileName));
-                 BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile))
-            ) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    String[] row = line.split(","); // key, value, key, value
-                    for (int i = 0; i < row.length; i += 2) {
-                        String key = row[i];
-                        if (key.equals(where.get(0)) && row[i + 1].equals(where.get(1))) {
-                            // update key value pairs
-                            for (int j = 0; j < kvPairs.size(); j += 2) {
-                                // should scan all keys and update values
-                                for (int k = 0; k < row.length; k += 2) {
-                                    if (row[k].equals(kvPairs.get(j))) {
-                                        row[k + 1] = kvPairs.get(j + 1);
-                                        updated = true;
-                                    }
-                                }
-                            }
-
-                        }
-                    }
-                    writer.write(String.join(",", row));
-                    writer.write(",");
-                    writer.newLine();
-                }
-            }
-            if (!updated) {
-                tempFile.delete();
-                return;
-            }
-            File originalFile = new File(csvFileName);
-            if (originalFile.delete()) {
-                if (!tempFile.renameTo(originalFile)) {
-                    //System.out.println("Error renaming temp file");
-                }
-            } else {
-                //System.out.println("Error deleting original file");
-            }
+            commit(WriteAheadLog.record(WriteAheadLog.UPDATE_NOSQL, kvPairs, where), () -> {
+                engine.updateNoSQL(kvPairs, where);
+                return null;
+            });
         } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            rwLock.writeLock().unlock();
+            throw new RemoteException("cannot write to " + tableName, e);
         }
     }
     /**
@@ -406,48 +631,138 @@ public class DatabaseNodeReplica extends UnicastRemoteObject implements Database
      */
     @Override
     public void deleteNoSQL(List<String> where) throws RemoteException {
-        // delete all rows with where condition
-        rwLock.writeLock().lock();
         try {
-            boolean deleted = false;
-            File tempFile = new File("temp-" + csvFileName);
-            try (BufferedReader reader = new BufferedReader(new FileReader(csvFileName));
-                 BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile))
-            ) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    String[] row = line.split(","); // key, value, key, value
-                    boolean match = true;
-                    for (int i = 0; i < row.length; i += 2) {
-                        String key = row[i];
-                        if (key.equals(where.get(0)) && row[i + 1].equals(where.get(1))) {
-                            match = false;
-                            deleted = true;
-                            break;
-                        }
-                    }
-                    if (match) {
-                        writer.write(String.join(",", row));
-                        writer.newLine();
-                    }
-                }
-            }
-            if (!deleted) {
-                tempFile.delete();
-                return;
-            }
-            File originalFile = new File(csvFileName);
-            if (originalFile.delete()) {
-                if (!tempFile.renameTo(originalFile)) {
-                    //System.out.println("Error renaming temp file");
-                }
-            } else {
-                //System.out.println("Error deleting original file");
-            }
+            commit(WriteAheadLog.record(WriteAheadLog.DELETE_NOSQL, where), () -> {
+                engine.deleteNoSQL(where);
+                return null;
+            });
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new RemoteException("cannot write to " + tableName, e);
+        }
+    }
+    /**
+     * Inserts a batch of SQL rows, logged as a single record.
+     *
+     * @param insertColumns columns to insert data into, the same for every row.
+     * @param rows the values of each row.
+     * @throws RemoteException if an error occurs during the remote call.
+     */
+    @Override
+    public void insertBatchSQL(List<String> insertColumns, List<List<String>> rows) throws RemoteException {
+        try {
+            List<List<String>> args = new ArrayList<>();
+            args.add(insertColumns);
+            args.addAll(rows);
+            commit(WriteAheadLog.recordAll(WriteAheadLog.INSERT_BATCH_SQL, args), () -> {
+                engine.insertBatchSQL(insertColumns, rows);
+                return null;
+            });
+        } catch (IOException e) {
+            throw new RemoteException("cannot write to " + tableName, e);
+        }
+    }
+    /**
+     * Inserts a batch of SQL rows under consecutive row ids chosen by the caller, logged as a single record.
+     *
+     * @param firstRowId the internal id of the first row.
+     * @param insertColumns columns to insert data into, the same for every row.
+     * @param rows the values of each row.
+     * @throws RemoteException if an error occurs during the remote call.
+     */
+    @Override
+    public void insertBatchSQL(long firstRowId, List<String> insertColumns, List<List<String>> rows)
+            throws RemoteException {
+        try {
+            List<List<String>> args = new ArrayList<>();
+            args.add(List.of(String.valueOf(firstRowId)));
+            args.add(insertColumns);
+            args.addAll(rows);
+            commit(WriteAheadLog.recordAll(WriteAheadLog.INSERT_BATCH_SQL_WITH_ROW_ID, args), () -> {
+                engine.insertBatchSQL(firstRowId, insertColumns, rows);
+                return null;
+            });
+        } catch (IOException e) {
+            throw new RemoteException("cannot write to " + tableName, e);
+        }
+    }
+    /**
+     * Inserts a batch of NoSQL rows, logged as a single record.
+     *
+     * @param rows the key-value pairs of each row.
+     * @throws RemoteException if an error occurs during the remote call.
+     */
+    @Override
+    public void insertBatchNoSQL(List<List<String>> rows) throws RemoteException {
+        try {
+            commit(WriteAheadLog.recordAll(WriteAheadLog.INSERT_BATCH_NOSQL, rows), () -> {
+                engine.insertBatchNoSQL(rows);
+                return null;
+            });
+        } catch (IOException e) {
+            throw new RemoteException("cannot write to " + tableName, e);
+        }
+    }
+    /**
+     * Updates a batch of SQL rows by id, logged as a single record.
+     *
+     * @param columns the columns to update, the same for every update.
+     * @param values the new values of each update.
+     * @param idColumn the column rows are matched on.
+     * @param ids the id each update applies to.
+     * @return list of row indices that were updated.
+     * @throws RemoteException if an error occurs during the remote call.
+     */
+    @Override
+    public List<Integer> updateBatchSQL(List<String> columns, List<List<String>> values, String idColumn,
+                                        List<String> ids) throws RemoteException {
+        try {
+            List<List<String>> args = new ArrayList<>();
+            args.add(columns);
+            args.add(List.of(idColumn));
+            args.add(ids);
+            args.addAll(values);
+            return commit(WriteAheadLog.recordAll(WriteAheadLog.UPDATE_BATCH_SQL, args),
+                    () -> engine.updateBatchSQL(columns, values, idColumn, ids));
+        } catch (IOException e) {
+            throw new RemoteException("cannot write to " + tableName, e);
+        }
+    }
+    /**
+     * Deletes a batch of SQL rows by id, logged as a single record.
+     *
+     * @param idColumn the column rows are matched on.
+     * @param ids the ids of the rows to delete.
+     * @return the row ids of the deleted rows.
+     * @throws RemoteException if an error occurs during the remote call.
+     */
+    @Override
+    public BitSet deleteBatchSQL(String idColumn, List<String> ids) throws RemoteException {
+        try {
+            return commit(WriteAheadLog.record(WriteAheadLog.DELETE_BATCH_SQL, List.of(idColumn), ids),
+                    () -> engine.deleteBatchSQL(idColumn, ids));
+        } catch (IOException e) {
+            throw new RemoteException("cannot write to " + tableName, e);
+        }
+    }
+    /**
+     * Reports the counters of the storage engine and of the write-ahead log, how long opening the storage took, and
+     * the number of selects the replica served.
+     *
+     * @return the counters by name.
+     * @throws RemoteException if an error occurs during the remote call.
+     */
+    @Override
+    public Map<String, Long> getStorageStats() throws RemoteException {
+        Map<String, Long> stats;
+        engineLock.readLock().lock();
+        try {
+            stats = new LinkedHashMap<>(engine.getStats());
         } finally {
-            rwLock.writeLock().unlock();
+            engineLock.readLock().unlock();
         }
+        stats.putAll(wal.getStats());
+        stats.put("loadMillis", loadMillis);
+        stats.put("reads", reads.get());
+        return stats;
     }
 }
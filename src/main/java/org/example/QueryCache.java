@@ -0,0 +1,246 @@
+package org.example;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Read-through cache of SELECT results at the Coordinator, keyed on tablename-"SQL | NoSQL"-partitionId, one entry
+ * per result partition (see {@link DatabaseNodeClient#getResultPartitions()}), so a write only touches the entry of
+ * its own partition.
+ * The cache holds at most a given number of bytes of results, evicting the least recently used entries first, and an
+ * entry expires a given time after it was stored.
+ * Every entry is stamped with the version of its partition, see {@link DatabaseNodeClient#getPartitionVersion(int)}.
+ * A reader takes the version with {@link #version(String)} before it reads the replicas,
+ * {@link #put(String, String, long)} drops its result if a write started in the meantime, and {@link #get(String)}
+ * does not serve an entry whose version has moved on, so a result read before a write is never served after it.
+ * After a write, {@link #update(String, long, long, UnaryOperator)} applies the change it made to the entry of its
+ * partition, e.g. appends an inserted row, instead of dropping it.
+ */
+public class QueryCache {
+    // estimated bytes of an entry besides its key and value: the map entry, the Entry object and the string headers
+    private static final int ENTRY_OVERHEAD = 128;
+
+    /**
+     * A cached result.
+     */
+    private static class Entry {
+        private final String value;
+        private final long bytes;
+        private final long expiresAt;
+        private final long version;
+
+        Entry(String value, long bytes, long expiresAt, long version) {
+            this.value = value;
+            this.bytes = bytes;
+            this.expiresAt = expiresAt;
+            this.version = version;
+        }
+    }
+
+    private final long maxBytes;
+    private final long ttlNanos;
+    // access ordered, so the first entry is the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // tablename-"SQL | NoSQL"-partitionId -> version of the partition
+    private final ToLongFunction<String> versions;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long staleReads;
+    private long deltas;
+    private long invalidations;
+    private long rejectedPuts;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxBytes the most bytes of results to hold.
+     * @param ttlMillis how long after it was stored an entry is served, in milliseconds.
+     * @param versions the current version of the partition of a key, -1 while a write to it is running.
+     */
+    public QueryCache(long maxBytes, long ttlMillis, ToLongFunction<String> versions) {
+        this.maxBytes = maxBytes;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.versions = versions;
+    }
+
+    /**
+     * Looks up the result cached for a key, counting a hit or a miss.
+     *
+     * @param key tablename-"SQL | NoSQL"-partitionId
+     * @return the cached result, null if there is none, it expired, it was read before the last write or a write
+     * is running.
+     */
+    public synchronized String get(String key) {
+        Entry entry = entries.get(key);
+        long version = entry == null ? 0 : version(key);
+        if (entry != null && entry.expiresAt - System.nanoTime() <= 0) {
+            removeEntry(key);
+            expirations++;
+            entry = null;
+        } else if (entry != null && version == -1) {
+            // kept for the running write to update
+            entry = null;
+        } else if (entry != null && entry.version != version) {
+            removeEntry(key);
+            staleReads++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Get the version of a key, to be passed to {@link #put(String, String, long)} with the result read after it.
+     *
+     * @param key tablename-"SQL | NoSQL"-partitionId
+     * @return the version of the partition of the key, -1 while a write to it is running.
+     */
+    public synchronized long version(String key) {
+        return versions.applyAsLong(key);
+    }
+
+    /**
+     * Caches a result stamped with its version, unless a write started since the version was taken or the result
+     * alone exceeds the size bound. Least recently used entries are evicted until the cache fits in its size bound.
+     *
+     * @param key tablename-"SQL | NoSQL"-partitionId
+     * @param value the result.
+     * @param version the version of the key taken before the result was read.
+     * @return true if the result was cached.
+     */
+    public synchronized boolean put(String key, String value, long version) {
+        long entryBytes = 2L * (key.length() + value.length()) + ENTRY_OVERHEAD;
+        if (version == -1 || version != version(key) || entryBytes > maxBytes) {
+            rejectedPuts++;
+            return false;
+        }
+        store(key, new Entry(value, entryBytes, System.nanoTime() + ttlNanos, version));
+        return true;
+    }
+
+    /**
+     * Brings the result cached for a key up to date after a write. If it was cached at the version the write started
+     * from, the change is applied to it, otherwise it is dropped, unless it was already read after the write.
+     *
+     * @param key tablename-"SQL | NoSQL"-partitionId
+     * @param fromVersion the version of the partition before the write.
+     * @param toVersion the version of the partition after the write.
+     * @param delta the change the write made to the result, null if it cannot be expressed.
+     */
+    public synchronized void update(String key, long fromVersion, long toVersion, UnaryOperator<String> delta) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.version == toVersion) {
+            return;
+        }
+        String value = null;
+        if (entry.version == fromVersion && delta != null) {
+            try {
+                value = delta.apply(entry.value);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        long entryBytes = value == null ? 0 : 2L * (key.length() + value.length()) + ENTRY_OVERHEAD;
+        if (value == null || entryBytes > maxBytes) {
+            removeEntry(key);
+            invalidations++;
+            return;
+        }
+        store(key, new Entry(value, entryBytes, entry.expiresAt, toVersion));
+        deltas++;
+    }
+
+    /**
+     * Check if a result is cached for a key, without counting a hit or a miss or checking its expiry.
+     *
+     * @param key tablename-"SQL | NoSQL"-partitionId
+     * @return true if a result is cached.
+     */
+    public synchronized boolean containsKey(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Get the result cached for a key, without counting a hit or a miss or checking its expiry.
+     *
+     * @param key tablename-"SQL | NoSQL"-partitionId
+     * @return the cached result, null if there is none.
+     */
+    public synchronized String peek(String key) {
+        Entry entry = entries.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Get the number of cached results.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the counters of the cache: {@code entries}, {@code bytes}, {@code maxBytes}, {@code hits}, {@code misses},
+     * {@code evictions} (entries dropped to fit the size bound), {@code expirations}, {@code staleReads} (entries
+     * dropped because their version moved on), {@code rejectedPuts} (results not cached because of a concurrent
+     * write or their size), {@code deltas} (writes applied to a cached result) and {@code invalidations} (entries
+     * dropped because a write could not be applied to them).
+     *
+     * @return the counters by name.
+     */
+    public synchronized Map<String, Long> getStats() {
+        Map<String, Long> stats = new TreeMap<>();
+        stats.put("entries", (long) entries.size());
+        stats.put("bytes", bytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("expirations", expirations);
+        stats.put("staleReads", staleReads);
+        stats.put("rejectedPuts", rejectedPuts);
+        stats.put("deltas", deltas);
+        stats.put("invalidations", invalidations);
+        return stats;
+    }
+
+    /**
+     * Stores an entry in place of the entry of its key, then evicts the least recently used entries until the cache
+     * fits in its size bound.
+     *
+     * @param key the key.
+     * @param entry an entry within the size bound.
+     */
+    private void store(String key, Entry entry) {
+        removeEntry(key);
+        entries.put(key, entry);
+        bytes += entry.bytes;
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            bytes -= eldest.bytes;
+            evictions++;
+        }
+    }
+
+    private void removeEntry(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.bytes;
+        }
+    }
+}
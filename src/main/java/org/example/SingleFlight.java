@@ -0,0 +1,76 @@
+package org.example;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical calls that run at the same time: the first caller of a key runs the call, and callers of the
+ * same key that arrive before it finishes wait for it and share its result instead of running the call again.
+ * Keys must identify everything the result depends on, so a caller never gets a result it could not have read itself.
+ *
+ * @param <T> the type of the result.
+ */
+public class SingleFlight<T> {
+    // key -> result of the call running for it
+    private final Map<String, CompletableFuture<T>> calls = new ConcurrentHashMap<>();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Runs a call, or waits for the call already running for the same key.
+     *
+     * @param key the key of the call.
+     * @param call the call.
+     * @return the result of the call.
+     * @throws RuntimeException if the call throws it, in which case the callers waiting for it throw it too; errors
+     * are passed on the same way.
+     */
+    public T run(String key, Supplier<T> call) {
+        CompletableFuture<T> flight = new CompletableFuture<>();
+        CompletableFuture<T> running = calls.putIfAbsent(key, flight);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+        executed.incrementAndGet();
+        try {
+            T result = call.get();
+            flight.complete(result);
+            return result;
+        } catch (Throwable e) {
+            // errors too, or the callers waiting for this flight would wait forever
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, flight);
+        }
+    }
+
+    /**
+     * Get the counters of the calls: {@code executed} (calls run) and {@code coalesced} (calls that waited for an
+     * identical running call instead).
+     *
+     * @return the counters by name.
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new TreeMap<>();
+        stats.put("executed", executed.get());
+        stats.put("coalesced", coalesced.get());
+        return stats;
+    }
+}
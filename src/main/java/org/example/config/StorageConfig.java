@@ -0,0 +1,72 @@
+package org.example.config;
+
+/**
+ * A configuration class for the storage engine used by every replica of a table.
+ * "csv" keeps rows in a CSV file that is rewritten on every update and delete (the original format),
+ * "log" appends every write to a log file and keeps an in-memory index of the live rows,
+ * "lsm" buffers writes in a sorted memtable that is flushed to sorted segment files and compacted in the background,
+ * "btree" keeps rows in a paged B+tree file read through a buffer pool of {@code bufferPoolSize} pages,
+ * "columnar" stores the column group of a vertical partition column by column in encoded blocks.
+ * Every replica also logs its writes to a write-ahead log, synced according to the durability of the table:
+ * "none" never syncs, "batch" syncs once per group of concurrent writes, "every-write" syncs every write on its own.
+ */
+public class StorageConfig {
+    public static final int DEFAULT_BUFFER_POOL_SIZE = 256;
+    public static final String DEFAULT_DURABILITY = "batch";
+    private String engineType;
+    private int bufferPoolSize;
+    private String durability;
+    /**
+     * Constructs a new StorageConfig object.
+     *
+     * @param engineType the storage engine, "csv", "log", "lsm", "btree" or "columnar", null for the default "csv"
+     * @param bufferPoolSize the number of pages cached by each replica of a "btree" table, 0 for the default
+     * @param durability "none", "batch" or "every-write", null for the default "batch"
+     * @throws IllegalArgumentException if the storage engine or durability is unknown or the buffer pool size is negative
+     */
+    public StorageConfig(String engineType, int bufferPoolSize, String durability) {
+        if (engineType == null) {
+            engineType = "csv";
+        }
+        if (!engineType.equals("csv") && !engineType.equals("log") && !engineType.equals("lsm")
+                && !engineType.equals("btree") && !engineType.equals("columnar")) {
+            throw new IllegalArgumentException("invalid storage engine " + engineType);
+        }
+        if (bufferPoolSize < 0) {
+            throw new IllegalArgumentException("invalid buffer pool size " + bufferPoolSize);
+        }
+        if (durability == null) {
+            durability = DEFAULT_DURABILITY;
+        }
+        if (!durability.equals("none") && !durability.equals("batch") && !durability.equals("every-write")) {
+            throw new IllegalArgumentException("invalid durability " + durability);
+        }
+        this.durability = durability;
+        this.engineType = engineType;
+        this.bufferPoolSize = bufferPoolSize == 0 ? DEFAULT_BUFFER_POOL_SIZE : bufferPoolSize;
+    }
+    /**
+     * Get the storage engine type.
+     *
+     * @return the storage engine, "csv", "log", "lsm", "btree" or "columnar"
+     */
+    public String getEngineType() {
+        return engineType;
+    }
+    /**
+     * Get the buffer pool size.
+     *
+     * @return the number of pages cached by each replica of a "btree" table
+     */
+    public int getBufferPoolSize() {
+        return bufferPoolSize;
+    }
+    /**
+     * Get the durability of the write-ahead log.
+     *
+     * @return "none", "batch" or "every-write"
+     */
+    public String getDurability() {
+        return durability;
+    }
+}
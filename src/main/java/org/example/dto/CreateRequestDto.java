@@ -20,6 +20,12 @@ public class CreateRequestDto {
     private int numPartitions;
     @JsonProperty(value = "verticalPartitionColumns", required = true)
     private List<List<String>> verticalPartitionColumns;
+    @JsonProperty(value = "storageEngine")
+    private String storageEngine;
+    @JsonProperty(value = "bufferPoolSize")
+    private int bufferPoolSize;
+    @JsonProperty(value = "durability")
+    private String durability;
 
     /**
      * Validates all fields in the DTO are non-null.
@@ -45,6 +51,20 @@ public class CreateRequestDto {
         if (partitionType.equals("vertical") && (numPartitions != verticalPartitionColumns.size())) {
             throw new IllegalArgumentException("numPartitions must be equal to the number of vertical partitions");
         }
+        if (storageEngine != null && !storageEngine.equals("csv") && !storageEngine.equals("log")
+                && !storageEngine.equals("lsm") && !storageEngine.equals("btree") && !storageEngine.equals("columnar")) {
+            throw new IllegalArgumentException("invalid storageEngine");
+        }
+        if ("columnar".equals(storageEngine) && (!databaseType.equals("SQL") || !partitionType.equals("vertical"))) {
+            throw new IllegalArgumentException("columnar storageEngine is only supported for vertically partitioned SQL tables");
+        }
+        if (bufferPoolSize < 0) {
+            throw new IllegalArgumentException("bufferPoolSize cannot be negative");
+        }
+        if (durability != null && !durability.equals("none") && !durability.equals("batch")
+                && !durability.equals("every-write")) {
+            throw new IllegalArgumentException("invalid durability");
+        }
     }
 
     /**
@@ -155,4 +175,58 @@ public class CreateRequestDto {
         this.verticalPartitionColumns = verticalPartitionColumns;
     }
 
+    /**
+     * Gets the storage engine used by the replicas, either csv, log, lsm, btree or columnar.
+     *
+     * @return the storage engine, null for the default csv engine
+     */
+    public String getStorageEngine() {
+        return storageEngine;
+    }
+
+    /**
+     * Sets the storage engine used by the replicas, either csv, log, lsm, btree or columnar.
+     *
+     * @param storageEngine the storage engine, null for the default csv engine
+     */
+    public void setStorageEngine(String storageEngine) {
+        this.storageEngine = storageEngine;
+    }
+
+    /**
+     * Gets the number of pages cached by each replica of a btree table.
+     *
+     * @return the buffer pool size, 0 for the default size
+     */
+    public int getBufferPoolSize() {
+        return bufferPoolSize;
+    }
+
+    /**
+     * Sets the number of pages cached by each replica of a btree table.
+     *
+     * @param bufferPoolSize the buffer pool size, 0 for the default size
+     */
+    public void setBufferPoolSize(int bufferPoolSize) {
+        this.bufferPoolSize = bufferPoolSize;
+    }
+
+    /**
+     * Gets how the replicas sync their write-ahead logs, either none, batch or every-write.
+     *
+     * @return the durability, null for the default batch
+     */
+    public String getDurability() {
+        return durability;
+    }
+
+    /**
+     * Sets how the replicas sync their write-ahead logs, either none, batch or every-write.
+     *
+     * @param durability the durability, null for the default batch
+     */
+    public void setDurability(String durability) {
+        this.durability = durability;
+    }
+
 }
@@ -0,0 +1,883 @@
+package org.example.storage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Base class for storage engines that address rows by an internal row id instead of by their line in a file.
+ * A row is a list of field values: one value per column for SQL, alternating keys and values for NoSQL,
+ * stored encoded by {@link RowCodec} with the declared {@link ColumnType} of each SQL column. Subclasses only store, fetch and scan encoded rows by id; the SQL and NoSQL
+ * semantics shared with {@link CsvStorageEngine} are implemented once here, on top of an in-memory primary key index.
+ * Scans hand out {@link RowView}s, so conditions are checked on the encoded bytes and only matching rows are decoded.
+ */
+public abstract class AbstractStorageEngine implements StorageEngine {
+    protected final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+    protected final List<String> columns;
+    protected final List<ColumnType> columnTypes;
+    // typed value of the id (first column for SQL, first key for NoSQL) -> row ids holding it, in id order
+    private final NavigableMap<Object, List<Long>> keyIndex = new TreeMap<>();
+    // rows missing from the index because their id is null or not valid for the type of the id column
+    private long unindexedRows = 0;
+    // NoSQL rows are schema-less, the index can only be used while every row starts with the same key
+    private String noSQLKey;
+    private boolean noSQLKeyConsistent = true;
+    protected long nextRowId = 0;
+
+    /**
+     * Visits rows during a scan.
+     */
+    protected interface RowVisitor {
+        /**
+         * Called once per live row, in ascending row id order.
+         *
+         * @param rowId the internal id of the row.
+         * @param row the row, only valid until this call returns.
+         * @throws IOException if the visitor needs to touch the storage and fails.
+         */
+        void visit(long rowId, RowView row) throws IOException;
+    }
+
+    /**
+     * Visits the rows matching a condition.
+     */
+    private interface Scanner {
+        /**
+         * @param visitor callback receiving each matching row, in ascending row id order.
+         * @throws IOException if the rows cannot be read.
+         */
+        void scan(RowVisitor visitor) throws IOException;
+    }
+
+    /**
+     * Constructs the engine for a table.
+     *
+     * @param columns a list of column names used in SQL table, null if this is for NoSQL storage.
+     * @param columnTypes the type of each column, null if this is for NoSQL storage.
+     */
+    protected AbstractStorageEngine(List<String> columns, List<ColumnType> columnTypes) {
+        this.columns = columns;
+        this.columnTypes = columnTypes;
+    }
+
+    /**
+     * Stores a row, replacing any previous version with the same row id.
+     *
+     * @param rowId the internal id of the row.
+     * @param row the row encoded by {@link RowCodec#encode(List, List)}.
+     * @throws IOException if the row cannot be written.
+     */
+    protected abstract void writeRow(long rowId, byte[] row) throws IOException;
+
+    /**
+     * Stores new rows under consecutive row ids. Engines that can write them at once override this; by default each
+     * row is written on its own.
+     *
+     * @param firstRowId the row id of the first row.
+     * @param rows the rows encoded by {@link RowCodec#encode(List, List)}.
+     * @throws IOException if the rows cannot be written.
+     */
+    protected void writeRows(long firstRowId, List<byte[]> rows) throws IOException {
+        for (int i = 0; i < rows.size(); i++) {
+            writeRow(firstRowId + i, rows.get(i));
+        }
+    }
+
+    /**
+     * Fetches a row by id.
+     *
+     * @param rowId the internal id of the row.
+     * @return a view of the row, or null if there is no live row with this id.
+     * @throws IOException if the row cannot be read.
+     */
+    protected abstract RowView readRow(long rowId) throws IOException;
+
+    /**
+     * Removes a row by id.
+     *
+     * @param rowId the internal id of the row.
+     * @throws IOException if the removal cannot be recorded.
+     */
+    protected abstract void removeRow(long rowId) throws IOException;
+
+    /**
+     * Visits every live row in ascending row id order.
+     *
+     * @param visitor callback receiving each row.
+     * @throws IOException if the rows cannot be read.
+     */
+    protected abstract void scan(RowVisitor visitor) throws IOException;
+
+    /**
+     * Visits the live rows whose field equals a value, in ascending row id order. Engines that can rule rows out
+     * without reading them all should override this.
+     *
+     * @param column the index of the field.
+     * @param value the value encoded by {@link RowCodec#encodeField(ColumnType, String)}, null to match null.
+     * @param visitor callback receiving each matching row.
+     * @throws IOException if the rows cannot be read.
+     */
+    protected void scanWhere(int column, byte[] value, RowVisitor visitor) throws IOException {
+        scan((rowId, row) -> {
+            if (row.fieldEquals(column, value)) {
+                visitor.visit(rowId, row);
+            }
+        });
+    }
+
+    /**
+     * Creates a view for the rows of this table, to be reused across a scan.
+     *
+     * @return a new view.
+     */
+    protected RowView newView() {
+        return new RowView(columnTypes);
+    }
+
+    /**
+     * Encodes a row with the types of this table.
+     *
+     * @param row the field values of the row.
+     * @return the encoded row.
+     * @throws IOException if a value is not valid for the type of its column.
+     */
+    private byte[] encode(List<String> row) throws IOException {
+        try {
+            return RowCodec.encode(row, columnTypes);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String selectSQL() throws IOException {
+        return readAll(null, null);
+    }
+
+    @Override
+    public String selectSQL(List<String> selectColumns, RowPredicate where) throws IOException {
+        return readAll(where, StorageEngine.fieldsOf(columns, selectColumns));
+    }
+
+    @Override
+    public String selectNoSQL() throws IOException {
+        return readAll(null, null);
+    }
+
+    @Override
+    public IdentifiedRows selectRowsSQL() throws IOException {
+        return readRows(null, null);
+    }
+
+    @Override
+    public IdentifiedRows selectRowsSQL(List<String> selectColumns, RowPredicate where) throws IOException {
+        return readRows(where, StorageEngine.fieldsOf(columns, selectColumns));
+    }
+
+    @Override
+    public PartialAggregates aggregateSQL(Aggregation aggregation, RowPredicate where) throws IOException {
+        RowPredicate.Matcher matcher = bind(where);
+        int[] fields = StorageEngine.fieldsOf(columns, aggregation.getColumns());
+        PartialAggregates partial = new PartialAggregates(aggregation);
+        rwLock.readLock().lock();
+        try {
+            scanMatching(where, (rowId, row) -> {
+                if (matcher == null || matcher.matches(row::get)) {
+                    partial.add(i -> row.get(fields[i]));
+                }
+            });
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        return partial;
+    }
+
+    /**
+     * Reads the first rows matching a condition in an order. Sorted by the id column with a LIMIT, and as long as
+     * every row is in the primary key index, the rows are read in the order of the index until enough of them match,
+     * so only those rows are read; otherwise every row is scanned and only the best {@code limit} rows seen so far are
+     * kept and formatted.
+     */
+    @Override
+    public SortedRows selectSortedSQL(List<String> selectColumns, RowPredicate where, RowOrder order)
+            throws IOException {
+        RowPredicate.Matcher matcher = bind(where);
+        int[] fields = StorageEngine.fieldsOf(columns, selectColumns);
+        int[] keyFields = StorageEngine.fieldsOf(columns, order.getColumns());
+        rwLock.readLock().lock();
+        try {
+            if (order.getLimit() >= 0 && order.isBy(columns.get(0)) && unindexedRows == 0) {
+                return selectInKeyOrder(matcher, fields, order);
+            }
+            RowOrder.Collector top = order.newCollector();
+            StringBuilder data = new StringBuilder();
+            scanMatching(where, (rowId, row) -> {
+                if (matcher == null || matcher.matches(row::get)) {
+                    Object[] key = new Object[keyFields.length];
+                    for (int i = 0; i < key.length; i++) {
+                        key[i] = row.getValue(keyFields[i]);
+                    }
+                    if (top.wants(key)) {
+                        data.setLength(0);
+                        row.appendTo(data, fields);
+                        top.add(key, data.toString());
+                    }
+                }
+            });
+            return top.finish();
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the rows matching a condition in the order of their id through the primary key index, walked forwards or
+     * backwards, stopping once there are {@code limit} of them. Rows with equal ids keep their row id order. Only
+     * called while every row is in the index, with the read lock held.
+     *
+     * @param matcher the condition bound to the columns of this table, null for every row.
+     * @param fields the indexes of the fields to return, null for every field.
+     * @param order the order, by the id column alone.
+     * @return the first matching rows in order.
+     * @throws IOException if the rows cannot be read.
+     */
+    private SortedRows selectInKeyOrder(RowPredicate.Matcher matcher, int[] fields, RowOrder order)
+            throws IOException {
+        NavigableMap<Object, List<Long>> keys = order.isAscending(0) ? keyIndex : keyIndex.descendingMap();
+        SortedRows rows = new SortedRows();
+        StringBuilder data = new StringBuilder();
+        for (Map.Entry<Object, List<Long>> entry : keys.entrySet()) {
+            Object key = entry.getKey();
+            for (long rowId : entry.getValue()) {
+                if (rows.size() >= order.getLimit()) {
+                    return rows;
+                }
+                RowView row = readRow(rowId);
+                if (row != null && (matcher == null || matcher.matches(row::get))) {
+                    data.setLength(0);
+                    row.appendTo(data, fields);
+                    rows.add(new Object[]{key}, data.toString());
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Binds a condition to the columns of this table.
+     *
+     * @param where the condition, null for none.
+     * @return the matcher, null for none.
+     */
+    protected RowPredicate.Matcher bind(RowPredicate where) {
+        return where == null ? null : where.bind(columns);
+    }
+
+    /**
+     * Visits the rows that can match a condition, in ascending row id order. A condition restricting the id column to
+     * some values or to a range only visits the rows the primary key index holds for them, read by row id; any other
+     * condition visits every row. The condition itself is left to the visitor. Called with the read lock held.
+     *
+     * @param where the condition, null for every row.
+     * @param visitor callback receiving each row.
+     * @throws IOException if the rows cannot be read.
+     */
+    private void scanMatching(RowPredicate where, RowVisitor visitor) throws IOException {
+        NavigableSet<Long> rowIds = indexedRowIds(where);
+        if (rowIds == null) {
+            scan(visitor);
+            return;
+        }
+        for (long rowId : rowIds) {
+            RowView row = readRow(rowId);
+            if (row != null) {
+                visitor.visit(rowId, row);
+            }
+        }
+    }
+
+    /**
+     * Finds the rows whose id can match a condition through the primary key index. Rows without a valid id are not
+     * in the index, but they cannot match a condition on the id either.
+     *
+     * @param where the condition, null for every row.
+     * @return the row ids of the rows holding the ids the condition allows, null if it does not restrict the id.
+     */
+    private NavigableSet<Long> indexedRowIds(RowPredicate where) {
+        if (where == null || columns == null || columns.isEmpty()) {
+            return null;
+        }
+        String idColumn = columns.get(0);
+        Collection<List<Long>> matches;
+        List<String> values = where.valuesOf(idColumn);
+        if (values != null) {
+            matches = new ArrayList<>();
+            for (String value : values) {
+                List<Long> ids = rowIdsOf(keyValue(value));
+                if (!ids.isEmpty()) {
+                    matches.add(ids);
+                }
+            }
+        } else {
+            RowPredicate.Bounds bounds = where.boundsOf(idColumn);
+            if (bounds == null) {
+                return null;
+            }
+            matches = bounds.isEmpty() ? Collections.emptyList() : keyRange(bounds).values();
+        }
+        NavigableSet<Long> rowIds = new TreeSet<>();
+        for (List<Long> ids : matches) {
+            rowIds.addAll(ids);
+        }
+        return rowIds;
+    }
+
+    /**
+     * @param bounds a range of ids, not empty.
+     * @return the entries of the primary key index in the range, in id order.
+     */
+    private NavigableMap<Object, List<Long>> keyRange(RowPredicate.Bounds bounds) {
+        NavigableMap<Object, List<Long>> range = keyIndex;
+        if (bounds.getLow() != null) {
+            range = range.tailMap(bounds.getLow(), bounds.isLowInclusive());
+        }
+        if (bounds.getHigh() != null) {
+            range = range.headMap(bounds.getHigh(), bounds.isHighInclusive());
+        }
+        return range;
+    }
+
+    /**
+     * @param key the typed id, null for an id that is not valid.
+     * @return the row ids holding the id, empty if there are none.
+     */
+    private List<Long> rowIdsOf(Object key) {
+        return key == null ? Collections.emptyList() : keyIndex.getOrDefault(key, Collections.emptyList());
+    }
+
+    /**
+     * Reads some fields of the rows matching a condition together with their row ids.
+     *
+     * @param where the condition, null for every row.
+     * @param fields the indexes of the fields to return, null for every field.
+     * @return the fields of every matching row and its row id.
+     * @throws IOException if the rows cannot be read.
+     */
+    private IdentifiedRows readRows(RowPredicate where, int[] fields) throws IOException {
+        RowPredicate.Matcher matcher = bind(where);
+        rwLock.readLock().lock();
+        IdentifiedRows rows = new IdentifiedRows();
+        try {
+            StringBuilder data = new StringBuilder();
+            scanMatching(where, (rowId, row) -> {
+                if (matcher == null || matcher.matches(row::get)) {
+                    data.setLength(0);
+                    row.appendTo(data, fields);
+                    rows.add(rowId, data.toString());
+                }
+            });
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        return rows;
+    }
+
+    /**
+     * Formats some fields of the rows matching a condition the same way {@link CsvStorageEngine} returns them. The
+     * condition is checked on the view of each row, so rows that do not match are never formatted, nor are the
+     * fields that are not requested.
+     *
+     * @param where the condition, null for every row.
+     * @param fields the indexes of the fields to return, null for every field.
+     * @return the fields of every matching row, each row followed by a newline.
+     * @throws IOException if the rows cannot be read.
+     */
+    private String readAll(RowPredicate where, int[] fields) throws IOException {
+        RowPredicate.Matcher matcher = bind(where);
+        rwLock.readLock().lock();
+        StringBuilder data = new StringBuilder();
+        try {
+            scanMatching(where, (rowId, row) -> {
+                if (matcher == null || matcher.matches(row::get)) {
+                    row.appendTo(data, fields);
+                    data.append("\n");
+                }
+            });
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        return data.toString();
+    }
+
+    @Override
+    public void insertSQL(List<String> insertColumns, List<String> values) throws IOException {
+        insertRow(-1, toRow(insertColumns, values));
+    }
+
+    @Override
+    public void insertSQL(long rowId, List<String> insertColumns, List<String> values) throws IOException {
+        insertRow(rowId, toRow(insertColumns, values));
+    }
+
+    @Override
+    public void insertNoSQL(List<String> kvPairs) throws IOException {
+        insertRow(-1, new ArrayList<>(kvPairs));
+    }
+
+    @Override
+    public void insertBatchSQL(List<String> insertColumns, List<List<String>> rows) throws IOException {
+        insertBatchSQL(-1, insertColumns, rows);
+    }
+
+    @Override
+    public void insertBatchSQL(long firstRowId, List<String> insertColumns, List<List<String>> rows)
+            throws IOException {
+        List<List<String>> batch = new ArrayList<>();
+        for (List<String> values : rows) {
+            batch.add(toRow(insertColumns, values));
+        }
+        insertRows(firstRowId, batch);
+    }
+
+    @Override
+    public void insertBatchNoSQL(List<List<String>> rows) throws IOException {
+        List<List<String>> batch = new ArrayList<>();
+        for (List<String> kvPairs : rows) {
+            batch.add(new ArrayList<>(kvPairs));
+        }
+        insertRows(-1, batch);
+    }
+
+    @Override
+    public List<Integer> updateBatchSQL(List<String> columns, List<List<String>> values, String idColumn,
+                                        List<String> ids) throws IOException {
+        // the write lock is reentrant, every update of the batch runs under this acquisition
+        rwLock.writeLock().lock();
+        try {
+            return StorageEngine.super.updateBatchSQL(columns, values, idColumn, ids);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public BitSet deleteBatchSQL(String idColumn, List<String> ids) throws IOException {
+        rwLock.writeLock().lock();
+        try {
+            return StorageEngine.super.deleteBatchSQL(idColumn, ids);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    private List<String> toRow(List<String> insertColumns, List<String> values) {
+        List<String> row = new ArrayList<>();
+        for (String column : this.columns) {
+            row.add(insertColumns.contains(column) ? values.get(insertColumns.indexOf(column)) : "");
+        }
+        return row;
+    }
+
+    /**
+     * Stores a row under a new row id.
+     *
+     * @param rowId the row id chosen by the caller, -1 to assign the next one.
+     * @param row the field values of the row.
+     * @throws IOException if the row cannot be written, or the row id is not above every row id of the table.
+     */
+    private void insertRow(long rowId, List<String> row) throws IOException {
+        byte[] encoded = encode(row);
+        rwLock.writeLock().lock();
+        try {
+            if (rowId == -1) {
+                rowId = nextRowId;
+            } else if (rowId < nextRowId) {
+                // engines keep their rows in row id order
+                throw new IOException("row id " + rowId + " is below the next row id " + nextRowId);
+            }
+            nextRowId = rowId + 1;
+            writeRow(rowId, encoded);
+            index(rowId, row);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stores rows under consecutive new row ids, under a single acquisition of the write lock.
+     *
+     * @param firstRowId the row id of the first row, -1 for the next row id.
+     * @param rows the field values of each row.
+     * @throws IOException if the rows cannot be written, or the row id is below the next row id.
+     */
+    private void insertRows(long firstRowId, List<List<String>> rows) throws IOException {
+        List<byte[]> encoded = new ArrayList<>();
+        for (List<String> row : rows) {
+            encoded.add(encode(row));
+        }
+        rwLock.writeLock().lock();
+        try {
+            if (firstRowId == -1) {
+                firstRowId = nextRowId;
+            } else if (firstRowId < nextRowId) {
+                throw new IOException("row id " + firstRowId + " is below the next row id " + nextRowId);
+            }
+            nextRowId = firstRowId + rows.size();
+            writeRows(firstRowId, encoded);
+            for (int i = 0; i < rows.size(); i++) {
+                index(firstRowId + i, rows.get(i));
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Updates the rows matching a single equality condition.
+     *
+     * @param columns columns to update.
+     * @param values new values for the specified columns.
+     * @param where condition array where the first element is the column name and the second is the value to match.
+     * @return the row ids of the updated rows, in ascending order.
+     * @throws IOException if the rows cannot be read or written.
+     */
+    @Override
+    public List<Integer> updateSQL(List<String> columns, List<String> values, String[] where) throws IOException {
+        List<Integer> rowIds = new ArrayList<>();
+        for (long rowId : updateSQLHelper(columns, values, where, true)) {
+            rowIds.add(Math.toIntExact(rowId));
+        }
+        return rowIds;
+    }
+
+    @Override
+    public BitSet deleteSQL(String[] where) throws IOException {
+        BitSet rowIds = new BitSet();
+        for (long rowId : updateSQLHelper(new ArrayList<>(), new ArrayList<>(), where, false)) {
+            rowIds.set(Math.toIntExact(rowId));
+        }
+        return rowIds;
+    }
+
+    /**
+     * Helper method for updating or deleting rows based on a condition.
+     *
+     * @param columns columns to update.
+     * @param values new values for the specified columns.
+     * @param where condition array where the first element is the column name and the second is the value to match.
+     * @param isUpdate true if updating, false if deleting.
+     * @return the row ids of the affected rows, in ascending order.
+     * @throws IOException if the rows cannot be read or written.
+     */
+    private Set<Long> updateSQLHelper(List<String> columns, List<String> values, String[] where, boolean isUpdate) throws IOException {
+        int whereIndex = this.columns.indexOf(where[0]);
+        if (whereIndex == -1) {
+            return Collections.emptySet();
+        }
+        byte[] value;
+        try {
+            value = RowCodec.encodeField(columnTypes == null ? null : columnTypes.get(whereIndex), where[1]);
+        } catch (IllegalArgumentException e) {
+            // no row can hold a value that is not valid for the column
+            return Collections.emptySet();
+        }
+        rwLock.writeLock().lock();
+        try {
+            Map<Long, List<String>> matches = findMatches(where[0], where[1],
+                    row -> row.fieldEquals(whereIndex, value), visitor -> scanWhere(whereIndex, value, visitor));
+            for (Map.Entry<Long, List<String>> match : matches.entrySet()) {
+                long rowId = match.getKey();
+                List<String> row = match.getValue();
+                if (isUpdate) {
+                    List<String> updated = new ArrayList<>(row);
+                    for (int i = 0; i < columns.size(); i++) {
+                        int j = this.columns.indexOf(columns.get(i));
+                        if (j != -1) {
+                            updated.set(j, values.get(i));
+                        }
+                    }
+                    replaceRow(rowId, row, updated);
+                } else {
+                    unindex(rowId, row);
+                    removeRow(rowId);
+                }
+            }
+            return matches.keySet();
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteByRowSQL(BitSet rowIds) throws IOException {
+        // given row ids, delete rows (for vertical partitioning deletion)
+        rwLock.writeLock().lock();
+        try {
+            for (int rowId = rowIds.nextSetBit(0); rowId >= 0; rowId = rowIds.nextSetBit(rowId + 1)) {
+                RowView row = readRow(rowId);
+                if (row != null) {
+                    unindex(rowId, row.toList());
+                    removeRow(rowId);
+                }
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void updateNoSQL(List<String> kvPairs, List<String> where) throws IOException {
+        // update all rows with where condition
+        rwLock.writeLock().lock();
+        try {
+            byte[] key = where.get(0).getBytes(StandardCharsets.UTF_8);
+            byte[] value = where.get(1).getBytes(StandardCharsets.UTF_8);
+            Predicate<RowView> condition = row -> row.containsPair(key, value);
+            Map<Long, List<String>> matches = findMatches(where.get(0), where.get(1), condition,
+                    visitor -> scan((rowId, row) -> {
+                        if (condition.test(row)) {
+                            visitor.visit(rowId, row);
+                        }
+                    }));
+            for (Map.Entry<Long, List<String>> match : matches.entrySet()) {
+                List<String> row = match.getValue();
+                List<String> updated = new ArrayList<>(row);
+                boolean changed = false;
+                for (int j = 0; j < kvPairs.size(); j += 2) {
+                    // should scan all keys and update values
+                    for (int k = 0; k + 1 < updated.size(); k += 2) {
+                        if (updated.get(k).equals(kvPairs.get(j))) {
+                            updated.set(k + 1, kvPairs.get(j + 1));
+                            changed = true;
+                        }
+                    }
+                }
+                if (changed) {
+                    replaceRow(match.getKey(), row, updated);
+                }
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteNoSQL(List<String> where) throws IOException {
+        // delete all rows with where condition
+        rwLock.writeLock().lock();
+        try {
+            byte[] key = where.get(0).getBytes(StandardCharsets.UTF_8);
+            byte[] value = where.get(1).getBytes(StandardCharsets.UTF_8);
+            Predicate<RowView> condition = row -> row.containsPair(key, value);
+            Map<Long, List<String>> matches = findMatches(where.get(0), where.get(1), condition,
+                    visitor -> scan((rowId, row) -> {
+                        if (condition.test(row)) {
+                            visitor.visit(rowId, row);
+                        }
+                    }));
+            for (Map.Entry<Long, List<String>> match : matches.entrySet()) {
+                unindex(match.getKey(), match.getValue());
+                removeRow(match.getKey());
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Collects the rows matching a condition, going through the primary key index when the condition is on the id.
+     *
+     * @param column the column or key the condition is on.
+     * @param value the value to match.
+     * @param condition the full condition, checked on the encoded bytes of the rows found through the index.
+     * @param scanner visits the rows matching the condition when the index cannot be used.
+     * @return matching rows by row id, in ascending row id order, decoded.
+     * @throws IOException if the rows cannot be read.
+     */
+    private Map<Long, List<String>> findMatches(String column, String value, Predicate<RowView> condition,
+                                                Scanner scanner) throws IOException {
+        Map<Long, List<String>> matches = new TreeMap<>();
+        if (isKeyColumn(column)) {
+            // point lookup through the index
+            for (long rowId : rowIdsOf(keyValue(value))) {
+                RowView row = readRow(rowId);
+                if (row != null && condition.test(row)) {
+                    matches.put(rowId, row.toList());
+                }
+            }
+        } else {
+            scanner.scan((rowId, row) -> matches.put(rowId, row.toList()));
+        }
+        return matches;
+    }
+
+    /**
+     * Writes a new version of a row and moves it in the index if its id changed.
+     *
+     * @param rowId the internal id of the row.
+     * @param oldRow the current field values.
+     * @param newRow the new field values.
+     * @throws IOException if the row cannot be written.
+     */
+    private void replaceRow(long rowId, List<String> oldRow, List<String> newRow) throws IOException {
+        unindex(rowId, oldRow);
+        writeRow(rowId, encode(newRow));
+        index(rowId, newRow);
+    }
+
+    private boolean isKeyColumn(String column) {
+        if (columns != null) {
+            return !columns.isEmpty() && columns.get(0).equals(column);
+        }
+        return noSQLKeyConsistent && column.equals(noSQLKey);
+    }
+
+    @Override
+    public long getNextRowId() {
+        rwLock.readLock().lock();
+        try {
+            return nextRowId;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the primary key index and the next row id to a checkpoint, as {@code [next row id: 8][NoSQL key][key
+     * consistent: 1][unindexed rows: 8][key count: 4]} followed by {@code [key][row id count: 4][row ids: 8 each]} per
+     * key, where keys are their literal text.
+     *
+     * @param out the checkpoint.
+     * @throws IOException if the checkpoint cannot be written.
+     */
+    protected void writeIndex(DataOutputStream out) throws IOException {
+        out.writeLong(nextRowId);
+        out.writeBoolean(noSQLKey != null);
+        if (noSQLKey != null) {
+            Checkpoint.writeString(out, noSQLKey);
+        }
+        out.writeBoolean(noSQLKeyConsistent);
+        out.writeLong(unindexedRows);
+        out.writeInt(keyIndex.size());
+        for (Map.Entry<Object, List<Long>> entry : keyIndex.entrySet()) {
+            Object key = entry.getKey();
+            Checkpoint.writeString(out, columnTypes == null || columnTypes.isEmpty() ? (String) key
+                    : columnTypes.get(0).format(key));
+            out.writeInt(entry.getValue().size());
+            for (long rowId : entry.getValue()) {
+                out.writeLong(rowId);
+            }
+        }
+    }
+
+    /**
+     * Restores the primary key index and the next row id written by {@link #writeIndex(DataOutputStream)}.
+     *
+     * @param in the checkpoint.
+     * @throws IOException if the checkpoint cannot be read.
+     */
+    protected void readIndex(DataInputStream in) throws IOException {
+        nextRowId = in.readLong();
+        noSQLKey = in.readBoolean() ? Checkpoint.readString(in) : null;
+        noSQLKeyConsistent = in.readBoolean();
+        unindexedRows = in.readLong();
+        int keys = in.readInt();
+        for (int i = 0; i < keys; i++) {
+            Object key = keyValue(Checkpoint.readString(in));
+            int count = in.readInt();
+            List<Long> rowIds = new ArrayList<>(count);
+            for (int j = 0; j < count; j++) {
+                rowIds.add(in.readLong());
+            }
+            keyIndex.put(key, rowIds);
+        }
+    }
+
+    /**
+     * Rebuilds the primary key index and the next row id by scanning every row, when a table is reopened without a
+     * checkpoint.
+     *
+     * @throws IOException if the rows cannot be read.
+     */
+    protected void rebuildIndex() throws IOException {
+        scan((rowId, row) -> {
+            index(rowId, row.toList());
+            nextRowId = Math.max(nextRowId, rowId + 1);
+        });
+    }
+
+    /**
+     * Adds a row to the primary key index.
+     *
+     * @param rowId the internal id of the row.
+     * @param row the field values of the row.
+     */
+    protected void index(long rowId, List<String> row) {
+        if (columns == null) {
+            if (row.size() < 2) {
+                noSQLKeyConsistent = false;
+            } else if (noSQLKey == null) {
+                noSQLKey = row.get(0);
+            } else if (!noSQLKey.equals(row.get(0))) {
+                noSQLKeyConsistent = false;
+            }
+        }
+        Object key = keyOf(row);
+        if (key == null) {
+            unindexedRows++;
+        } else {
+            keyIndex.computeIfAbsent(key, k -> new ArrayList<>()).add(rowId);
+        }
+    }
+
+    /**
+     * Removes a row from the primary key index.
+     *
+     * @param rowId the internal id of the row.
+     * @param row the field values of the row.
+     */
+    protected void unindex(long rowId, List<String> row) {
+        Object key = keyOf(row);
+        if (key == null) {
+            unindexedRows--;
+            return;
+        }
+        List<Long> rowIds = keyIndex.get(key);
+        if (rowIds != null) {
+            rowIds.remove(rowId);
+            if (rowIds.isEmpty()) {
+                keyIndex.remove(key);
+            }
+        }
+    }
+
+    private Object keyOf(List<String> row) {
+        if (columns != null) {
+            return row.isEmpty() ? null : keyValue(row.get(0));
+        }
+        return row.size() < 2 ? null : row.get(1);
+    }
+
+    /**
+     * Converts the text of an id into the key used by the primary key index: its typed value for SQL, so equal ids
+     * written differently share an entry, and the text itself for NoSQL.
+     *
+     * @param text the id as literal text.
+     * @return the index key, null if the text is not a valid id.
+     */
+    private Object keyValue(String text) {
+        if (columnTypes == null || columnTypes.isEmpty()) {
+            return text;
+        }
+        try {
+            return columnTypes.get(0).parse(text);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.example.storage;
+
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.select.AllColumns;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.SelectItem;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The aggregates of a SQL SELECT, e.g. {@code SELECT kind, COUNT(*), AVG(amount) FROM t GROUP BY kind}, compiled
+ * once by the coordinator and sent to the replicas. Each replica folds the rows of its partition into
+ * {@link PartialAggregates}, holding one state per group and aggregate, such as the sum and the count of an AVG;
+ * the coordinator merges the partial aggregates of every partition and formats the final rows. What crosses the
+ * network is proportional to the number of groups, not rows.
+ */
+public class Aggregation implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The supported aggregate functions.
+     */
+    public enum Function {
+        COUNT, SUM, AVG, MIN, MAX
+    }
+
+    private final List<String> groupBy = new ArrayList<>();
+    private final List<Function> functions = new ArrayList<>();
+    // index in columns of the argument of each aggregate, -1 for COUNT(*)
+    private final List<Integer> arguments = new ArrayList<>();
+    // columns the aggregates read: the GROUP BY columns first, then the arguments
+    private final List<String> columns = new ArrayList<>();
+    private final List<ColumnType> types = new ArrayList<>();
+    // each select item: the index of an aggregate, or -1 - i for the i-th GROUP BY column
+    private final List<Integer> output = new ArrayList<>();
+
+    private Aggregation() {
+    }
+
+    /**
+     * Compiles the aggregates of a SELECT. Every select item is either an aggregate function of a column, or
+     * {@code COUNT(*)}, or a column of the GROUP BY clause.
+     *
+     * @param select the statement.
+     * @param tableColumns the columns of the table.
+     * @param tableTypes the type of each column.
+     * @return the aggregation, null if the statement has neither aggregate functions nor a GROUP BY clause.
+     * @throws IllegalArgumentException if the statement mixes aggregates and other items, uses an unknown column, an
+     * unsupported function, or a SUM or AVG of a column that is not numeric.
+     */
+    public static Aggregation compile(PlainSelect select, List<String> tableColumns, List<ColumnType> tableTypes) {
+        boolean aggregated = select.getGroupBy() != null;
+        for (SelectItem<?> item : select.getSelectItems()) {
+            aggregated |= item.getExpression() instanceof net.sf.jsqlparser.expression.Function;
+        }
+        if (!aggregated) {
+            return null;
+        }
+        if (select.getHaving() != null || select.getDistinct() != null) {
+            throw new IllegalArgumentException("HAVING and DISTINCT are not supported with aggregates");
+        }
+        Aggregation aggregation = new Aggregation();
+        if (select.getGroupBy() != null) {
+            for (Expression expression : (ExpressionList<?>) select.getGroupBy().getGroupByExpressionList()) {
+                aggregation.groupBy.add(columnOf(expression, tableColumns));
+                aggregation.columnIndex(aggregation.groupBy.get(aggregation.groupBy.size() - 1), tableColumns,
+                        tableTypes);
+            }
+        }
+        for (SelectItem<?> item : select.getSelectItems()) {
+            Expression expression = item.getExpression();
+            if (expression instanceof Column) {
+                int group = aggregation.groupBy.indexOf(columnOf(expression, tableColumns));
+                if (group == -1) {
+                    throw new IllegalArgumentException(expression + " must appear in the GROUP BY clause");
+                }
+                aggregation.output.add(-1 - group);
+                continue;
+            }
+            if (!(expression instanceof net.sf.jsqlparser.expression.Function)) {
+                throw new IllegalArgumentException("unsupported select item " + item);
+            }
+            net.sf.jsqlparser.expression.Function call = (net.sf.jsqlparser.expression.Function) expression;
+            Function function;
+            try {
+                function = Function.valueOf(call.getName().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("unsupported function " + call.getName());
+            }
+            ExpressionList<?> parameters = call.getParameters();
+            if (call.isDistinct() || parameters == null || parameters.size() != 1) {
+                throw new IllegalArgumentException("unsupported aggregate " + call);
+            }
+            int argument;
+            if (parameters.get(0) instanceof AllColumns && function == Function.COUNT) {
+                argument = -1;
+            } else {
+                argument = aggregation.columnIndex(columnOf(parameters.get(0), tableColumns), tableColumns,
+                        tableTypes);
+                ColumnType type = aggregation.types.get(argument);
+                boolean numeric = type == ColumnType.INT || type == ColumnType.BIGINT || type == ColumnType.DOUBLE;
+                if ((function == Function.SUM || function == Function.AVG) && !numeric) {
+                    throw new IllegalArgumentException(function + " needs a numeric column: " + call);
+                }
+            }
+            aggregation.output.add(aggregation.functions.size());
+            aggregation.functions.add(function);
+            aggregation.arguments.add(argument);
+        }
+        return aggregation;
+    }
+
+    private static String columnOf(Expression expression, List<String> tableColumns) {
+        if (!(expression instanceof Column)) {
+            throw new IllegalArgumentException("unsupported expression " + expression);
+        }
+        String column = ((Column) expression).getColumnName();
+        if (!tableColumns.contains(column)) {
+            throw new IllegalArgumentException("unknown column " + column);
+        }
+        return column;
+    }
+
+    /**
+     * Finds a column among the columns the aggregates read, adding it if needed.
+     *
+     * @param column the column.
+     * @param tableColumns the columns of the table.
+     * @param tableTypes the type of each column.
+     * @return the index of the column in {@link #getColumns()}.
+     */
+    private int columnIndex(String column, List<String> tableColumns, List<ColumnType> tableTypes) {
+        int index = columns.indexOf(column);
+        if (index == -1) {
+            index = columns.size();
+            columns.add(column);
+            types.add(tableTypes.get(tableColumns.indexOf(column)));
+        }
+        return index;
+    }
+
+    /**
+     * Get the columns the aggregates read, the GROUP BY columns first. Rows folded into {@link PartialAggregates}
+     * hold these fields, in this order.
+     *
+     * @return the column names
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    List<ColumnType> getTypes() {
+        return types;
+    }
+
+    int getGroupSize() {
+        return groupBy.size();
+    }
+
+    List<Function> getFunctions() {
+        return functions;
+    }
+
+    List<Integer> getArguments() {
+        return arguments;
+    }
+
+    List<Integer> getOutput() {
+        return output;
+    }
+
+    /**
+     * Folds rows holding the fields of {@link #getColumns()}, such as a filtered cached result.
+     *
+     * @param rows the rows, each followed by a newline.
+     * @return the partial aggregates of the rows.
+     */
+    public PartialAggregates aggregate(String rows) {
+        PartialAggregates partial = new PartialAggregates(this);
+        int from = 0;
+        while (from < rows.length()) {
+            int to = rows.indexOf('\n', from);
+            if (to == -1) {
+                to = rows.length();
+            }
+            String[] fields = rows.substring(from, to).split(",", -1);
+            partial.add(i -> i < fields.length ? fields[i] : "");
+            from = to + 1;
+        }
+        return partial;
+    }
+}
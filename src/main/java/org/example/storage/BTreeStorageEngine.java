@@ -0,0 +1,430 @@
+package org.example.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Paged B+tree storage engine for tables that are mostly read and updated by id.
+ * Rows are stored in the leaves of a B+tree keyed on the row id, in a file of fixed-size {@value #PAGE_SIZE} byte
+ * pages accessed through an LRU {@link BufferPool}. Leaves are chained left to right, so scans read each leaf once
+ * in row id order, the order partitions are joined in. The id column is mapped to row ids by the primary key index,
+ * which is sorted by id: a lookup or a range of ids in a WHERE condition costs O(log n + k) index steps and one
+ * O(log n) descent per matching row, most of it served by the buffer pool, instead of a walk over every leaf.
+ * <p>
+ * Page 0 holds {@code [magic: 4][root page: 4]} and the {@link RowCodec} header. Every other page is a node:
+ * {@code [type: 1][count: 2][next: 4]} followed, in a leaf, by {@code [row id: 8][length: 2][payload]} per row,
+ * where the payload is a row encoded by {@link RowCodec}, and in an inner node by
+ * {@code [first child: 4]} and then {@code [separator row id: 8][child: 4]} per separator. Deletes leave
+ * underfull leaves in place instead of merging them.
+ * <p>
+ * Closing the engine writes the dirty pages back and the primary key index to a {@link Checkpoint} in
+ * {@code <tree>.ckpt}; a reopened tree only reads its first page and the checkpoint, and walks the leaves to rebuild the
+ * index if there is no checkpoint.
+ */
+public class BTreeStorageEngine extends AbstractStorageEngine {
+    static final int PAGE_SIZE = 8192;
+    private static final int MAGIC = 0x42545245;
+    private static final byte LEAF = 0;
+    private static final byte INNER = 1;
+    private static final int NODE_HEADER_SIZE = 1 + 2 + 4;
+    private static final int LEAF_ENTRY_HEADER_SIZE = 8 + 2;
+    // a split must leave both halves within a page, so a row may take at most a third of one
+    static final int MAX_ROW_SIZE = (PAGE_SIZE - NODE_HEADER_SIZE) / 3 - LEAF_ENTRY_HEADER_SIZE;
+
+    private final FileChannel channel;
+    private final Path checkpointPath;
+    private final BufferPool pool;
+    private int root;
+
+    /**
+     * An inner node or a leaf, decoded from its page.
+     */
+    private static class Node {
+        boolean leaf;
+        // next leaf in row id order, -1 for the last leaf and for inner nodes
+        int next = -1;
+        List<Long> keys = new ArrayList<>();
+        // leaf payloads, one per key
+        List<byte[]> values = new ArrayList<>();
+        // inner node children, one more than keys
+        List<Integer> children = new ArrayList<>();
+
+        int size() {
+            int size = NODE_HEADER_SIZE;
+            if (leaf) {
+                for (byte[] value : values) {
+                    size += LEAF_ENTRY_HEADER_SIZE + value.length;
+                }
+            } else {
+                size += 4 + keys.size() * 12;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * The result of splitting a node: the first row id of the new right node and its page.
+     */
+    private static class Split {
+        final long separator;
+        final int page;
+
+        Split(long separator, int page) {
+            this.separator = separator;
+            this.page = page;
+        }
+    }
+
+    /**
+     * Constructs a BTreeStorageEngine over a new, empty tree file.
+     *
+     * @param fileName the name of the tree file.
+     * @param columns a list of column names used in SQL table, null if this is for NoSQL storage.
+     * @param columnTypes the type of each column, null if this is for NoSQL storage.
+     * @param bufferPoolSize the number of pages the buffer pool keeps in memory.
+     * @throws IOException if the file cannot be created.
+     */
+    public BTreeStorageEngine(String fileName, List<String> columns, List<ColumnType> columnTypes,
+                              int bufferPoolSize) throws IOException {
+        this(fileName, columns, columnTypes, bufferPoolSize, false);
+    }
+
+    /**
+     * Constructs a BTreeStorageEngine over a new, empty tree file, or over the tree file left by a previous run.
+     *
+     * @param fileName the name of the tree file.
+     * @param columns a list of column names used in SQL table, null if this is for NoSQL storage.
+     * @param columnTypes the type of each column, null if this is for NoSQL storage.
+     * @param bufferPoolSize the number of pages the buffer pool keeps in memory.
+     * @param reopen whether to open the existing tree file instead of creating an empty one.
+     * @throws IOException if the file cannot be created or opened, or was written for another schema.
+     */
+    public BTreeStorageEngine(String fileName, List<String> columns, List<ColumnType> columnTypes,
+                              int bufferPoolSize, boolean reopen) throws IOException {
+        super(columns, columnTypes);
+        this.checkpointPath = Paths.get(fileName + ".ckpt");
+        if (reopen) {
+            this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } else {
+            this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            Files.deleteIfExists(checkpointPath);
+        }
+        this.pool = new BufferPool(channel, PAGE_SIZE, bufferPoolSize);
+        if (reopen) {
+            readMeta(fileName);
+            if (!Checkpoint.load(checkpointPath, channel.size(), this::readIndex)) {
+                rebuildIndex();
+            }
+            return;
+        }
+        byte[] header = RowCodec.encodeHeader(columns, columnTypes);
+        if (8 + header.length > PAGE_SIZE) {
+            throw new IOException("schema does not fit in a page");
+        }
+        int meta = pool.allocate();
+        pool.unpin(meta, true);
+        ByteBuffer page = pool.pin(meta);
+        page.position(8);
+        page.put(header);
+        pool.unpin(meta, true);
+        Node leaf = new Node();
+        leaf.leaf = true;
+        this.root = allocateNode(leaf);
+        writeMeta();
+    }
+
+    /**
+     * Reads the root page from the first page of a reopened tree file and checks its schema.
+     *
+     * @param fileName the name of the tree file, for errors.
+     * @throws IOException if the file is not a tree file of this table.
+     */
+    private void readMeta(String fileName) throws IOException {
+        if (pool.getPageCount() == 0) {
+            channel.close();
+            throw new IOException("invalid tree file " + fileName);
+        }
+        ByteBuffer page = pool.pin(0);
+        try {
+            if (page.getInt(0) != MAGIC) {
+                throw new IOException("invalid tree file " + fileName);
+            }
+            root = page.getInt(4);
+            page.position(8);
+            RowCodec.readHeader(page, columns, columnTypes);
+        } finally {
+            pool.unpin(0, false);
+        }
+    }
+
+    private void writeMeta() throws IOException {
+        ByteBuffer page = pool.pin(0);
+        page.putInt(0, MAGIC).putInt(4, root);
+        pool.unpin(0, true);
+    }
+
+    private Node readNode(int pageNo) throws IOException {
+        ByteBuffer page = pool.pin(pageNo);
+        try {
+            Node node = new Node();
+            node.leaf = page.get() == LEAF;
+            int count = page.getShort() & 0xFFFF;
+            node.next = page.getInt();
+            if (node.leaf) {
+                for (int i = 0; i < count; i++) {
+                    node.keys.add(page.getLong());
+                    byte[] value = new byte[page.getShort() & 0xFFFF];
+                    page.get(value);
+                    node.values.add(value);
+                }
+            } else {
+                node.children.add(page.getInt());
+                for (int i = 0; i < count; i++) {
+                    node.keys.add(page.getLong());
+                    node.children.add(page.getInt());
+                }
+            }
+            return node;
+        } finally {
+            pool.unpin(pageNo, false);
+        }
+    }
+
+    private void writeNode(int pageNo, Node node) throws IOException {
+        ByteBuffer page = pool.pin(pageNo);
+        try {
+            page.put(node.leaf ? LEAF : INNER).putShort((short) node.keys.size()).putInt(node.next);
+            if (node.leaf) {
+                for (int i = 0; i < node.keys.size(); i++) {
+                    byte[] value = node.values.get(i);
+                    page.putLong(node.keys.get(i)).putShort((short) value.length).put(value);
+                }
+            } else {
+                page.putInt(node.children.get(0));
+                for (int i = 0; i < node.keys.size(); i++) {
+                    page.putLong(node.keys.get(i)).putInt(node.children.get(i + 1));
+                }
+            }
+        } finally {
+            pool.unpin(pageNo, true);
+        }
+    }
+
+    private int allocateNode(Node node) throws IOException {
+        int pageNo = pool.allocate();
+        pool.unpin(pageNo, true);
+        writeNode(pageNo, node);
+        return pageNo;
+    }
+
+    /**
+     * Finds the slot of a row id in a node.
+     *
+     * @return the index of the key if present, otherwise -(insertion point) - 1.
+     */
+    private static int search(List<Long> keys, long rowId) {
+        return Collections.binarySearch(keys, rowId);
+    }
+
+    /**
+     * @return the index of the child of an inner node that covers the row id.
+     */
+    private static int childIndex(Node node, long rowId) {
+        int slot = search(node.keys, rowId);
+        return slot >= 0 ? slot + 1 : -slot - 1;
+    }
+
+    /**
+     * Descends from the root to the leaf that covers a row id.
+     *
+     * @return the page number of the leaf.
+     */
+    private int findLeaf(long rowId) throws IOException {
+        int pageNo = root;
+        Node node = readNode(pageNo);
+        while (!node.leaf) {
+            pageNo = node.children.get(childIndex(node, rowId));
+            node = readNode(pageNo);
+        }
+        return pageNo;
+    }
+
+    @Override
+    protected void writeRow(long rowId, byte[] value) throws IOException {
+        if (value.length > MAX_ROW_SIZE) {
+            throw new IOException("row of " + value.length + " bytes is larger than the limit of " + MAX_ROW_SIZE);
+        }
+        Split split = insert(root, rowId, value);
+        if (split != null) {
+            // the root split, grow the tree by one level
+            Node newRoot = new Node();
+            newRoot.keys.add(split.separator);
+            newRoot.children.add(root);
+            newRoot.children.add(split.page);
+            root = allocateNode(newRoot);
+            writeMeta();
+        }
+    }
+
+    /**
+     * Inserts or replaces a row in the subtree rooted at a page.
+     *
+     * @return the split of the page if it overflowed, null otherwise.
+     */
+    private Split insert(int pageNo, long rowId, byte[] value) throws IOException {
+        Node node = readNode(pageNo);
+        if (node.leaf) {
+            int slot = search(node.keys, rowId);
+            if (slot >= 0) {
+                node.values.set(slot, value);
+            } else {
+                slot = -slot - 1;
+                node.keys.add(slot, rowId);
+                node.values.add(slot, value);
+            }
+            if (node.size() <= PAGE_SIZE) {
+                writeNode(pageNo, node);
+                return null;
+            }
+            return splitLeaf(pageNo, node, slot);
+        }
+        int child = childIndex(node, rowId);
+        Split split = insert(node.children.get(child), rowId, value);
+        if (split == null) {
+            return null;
+        }
+        node.keys.add(child, split.separator);
+        node.children.add(child + 1, split.page);
+        if (node.size() <= PAGE_SIZE) {
+            writeNode(pageNo, node);
+            return null;
+        }
+        return splitInner(pageNo, node);
+    }
+
+    private Split splitLeaf(int pageNo, Node node, int insertedSlot) throws IOException {
+        int at;
+        if (node.next == -1 && insertedSlot == node.keys.size() - 1) {
+            // appending to the last leaf, row ids only grow so keep this leaf full
+            at = node.keys.size() - 1;
+        } else {
+            // split at the middle byte
+            int half = (node.size() - NODE_HEADER_SIZE) / 2;
+            int bytes = 0;
+            at = 0;
+            while (at < node.keys.size() - 1 && bytes < half) {
+                bytes += LEAF_ENTRY_HEADER_SIZE + node.values.get(at).length;
+                at++;
+            }
+        }
+        Node right = new Node();
+        right.leaf = true;
+        right.next = node.next;
+        right.keys = new ArrayList<>(node.keys.subList(at, node.keys.size()));
+        right.values = new ArrayList<>(node.values.subList(at, node.values.size()));
+        node.keys = new ArrayList<>(node.keys.subList(0, at));
+        node.values = new ArrayList<>(node.values.subList(0, at));
+        int rightPage = allocateNode(right);
+        node.next = rightPage;
+        writeNode(pageNo, node);
+        return new Split(right.keys.get(0), rightPage);
+    }
+
+    private Split splitInner(int pageNo, Node node) throws IOException {
+        int mid = node.keys.size() / 2;
+        Node right = new Node();
+        right.keys = new ArrayList<>(node.keys.subList(mid + 1, node.keys.size()));
+        right.children = new ArrayList<>(node.children.subList(mid + 1, node.children.size()));
+        long separator = node.keys.get(mid);
+        node.keys = new ArrayList<>(node.keys.subList(0, mid));
+        node.children = new ArrayList<>(node.children.subList(0, mid + 1));
+        int rightPage = allocateNode(right);
+        writeNode(pageNo, node);
+        return new Split(separator, rightPage);
+    }
+
+    @Override
+    protected RowView readRow(long rowId) throws IOException {
+        Node leaf = readNode(findLeaf(rowId));
+        int slot = search(leaf.keys, rowId);
+        return slot >= 0 ? newView().reset(ByteBuffer.wrap(leaf.values.get(slot)), 0) : null;
+    }
+
+    @Override
+    protected void removeRow(long rowId) throws IOException {
+        int pageNo = findLeaf(rowId);
+        Node leaf = readNode(pageNo);
+        int slot = search(leaf.keys, rowId);
+        if (slot >= 0) {
+            leaf.keys.remove(slot);
+            leaf.values.remove(slot);
+            writeNode(pageNo, leaf);
+        }
+    }
+
+    @Override
+    protected void scan(RowVisitor visitor) throws IOException {
+        scanRange(Long.MIN_VALUE, Long.MAX_VALUE, visitor);
+    }
+
+    /**
+     * Visits the live rows with row ids in a range, in ascending row id order, by walking the leaf chain from the
+     * first leaf of the range.
+     *
+     * @param from the first row id, inclusive.
+     * @param to the last row id, inclusive.
+     * @param visitor callback receiving each row.
+     * @throws IOException if the pages cannot be read.
+     */
+    protected void scanRange(long from, long to, RowVisitor visitor) throws IOException {
+        RowView view = newView();
+        int pageNo = findLeaf(from);
+        while (pageNo != -1) {
+            Node leaf = readNode(pageNo);
+            for (int i = 0; i < leaf.keys.size(); i++) {
+                long rowId = leaf.keys.get(i);
+                if (rowId > to) {
+                    return;
+                }
+                if (rowId >= from) {
+                    visitor.visit(rowId, view.reset(ByteBuffer.wrap(leaf.values.get(i)), 0));
+                }
+            }
+            pageNo = leaf.next;
+        }
+    }
+
+    @Override
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("bufferPoolHits", pool.getHits());
+        stats.put("bufferPoolMisses", pool.getMisses());
+        stats.put("bufferPoolEvictions", pool.getEvictions());
+        stats.put("pages", (long) pool.getPageCount());
+        return stats;
+    }
+
+    /**
+     * Writes the dirty pages back, writes a checkpoint of the index and closes the tree file.
+     *
+     * @throws IOException if the pages or the checkpoint cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        rwLock.writeLock().lock();
+        try {
+            pool.flush();
+            Checkpoint.save(checkpointPath, channel.size(), this::writeIndex);
+            channel.close();
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+}
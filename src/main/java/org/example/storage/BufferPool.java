@@ -0,0 +1,179 @@
+package org.example.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches fixed-size pages of a file in memory and evicts the least recently used one when full.
+ * Callers pin a page while they read or change it; pinned pages are never evicted, and a page changed while pinned is
+ * written back to the file when it is evicted or when the pool is flushed.
+ */
+public class BufferPool {
+    private final FileChannel channel;
+    private final int pageSize;
+    private final int capacity;
+    // page number -> frame, in least recently used order
+    private final LinkedHashMap<Integer, Frame> frames = new LinkedHashMap<>(16, 0.75f, true);
+    private int pageCount;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    private static class Frame {
+        final ByteBuffer data;
+        int pins = 0;
+        boolean dirty = false;
+
+        Frame(ByteBuffer data) {
+            this.data = data;
+        }
+    }
+
+    /**
+     * Constructs a buffer pool over a file.
+     *
+     * @param channel the file holding the pages.
+     * @param pageSize the size of a page in bytes.
+     * @param capacity the number of pages kept in memory.
+     * @throws IOException if the size of the file cannot be read.
+     */
+    public BufferPool(FileChannel channel, int pageSize, int capacity) throws IOException {
+        this.channel = channel;
+        this.pageSize = pageSize;
+        this.capacity = capacity;
+        this.pageCount = (int) (channel.size() / pageSize);
+    }
+
+    /**
+     * Pins a page, reading it from the file if it is not cached.
+     *
+     * @param pageNo the page number.
+     * @return a view of the page; use absolute reads and writes, the position is not shared.
+     * @throws IOException if the page cannot be read, or a page cannot be evicted to make room.
+     */
+    public synchronized ByteBuffer pin(int pageNo) throws IOException {
+        Frame frame = frames.get(pageNo);
+        if (frame != null) {
+            hits++;
+        } else {
+            misses++;
+            makeRoom();
+            ByteBuffer data = ByteBuffer.allocate(pageSize);
+            long position = (long) pageNo * pageSize;
+            while (data.hasRemaining() && channel.read(data, position + data.position()) >= 0) {
+                // keep reading until the page is full or the end of the file
+            }
+            frame = new Frame(data);
+            frames.put(pageNo, frame);
+        }
+        frame.pins++;
+        return frame.data.duplicate().clear();
+    }
+
+    /**
+     * Releases a page pinned with {@link #pin(int)} or {@link #allocate()}.
+     *
+     * @param pageNo the page number.
+     * @param dirty whether the page was changed while pinned.
+     */
+    public synchronized void unpin(int pageNo, boolean dirty) {
+        Frame frame = frames.get(pageNo);
+        if (frame == null) {
+            return;
+        }
+        frame.pins--;
+        frame.dirty |= dirty;
+    }
+
+    /**
+     * Adds a zeroed page at the end of the file and pins it.
+     *
+     * @return the number of the new page.
+     * @throws IOException if a page cannot be evicted to make room.
+     */
+    public synchronized int allocate() throws IOException {
+        makeRoom();
+        int pageNo = pageCount++;
+        Frame frame = new Frame(ByteBuffer.allocate(pageSize));
+        frame.pins = 1;
+        frame.dirty = true;
+        frames.put(pageNo, frame);
+        return pageNo;
+    }
+
+    /**
+     * Evicts least recently used unpinned pages until there is room for one more.
+     * If every cached page is pinned the pool grows past its capacity instead of failing.
+     *
+     * @throws IOException if a dirty page cannot be written back.
+     */
+    private void makeRoom() throws IOException {
+        Iterator<Map.Entry<Integer, Frame>> it = frames.entrySet().iterator();
+        while (frames.size() >= capacity && it.hasNext()) {
+            Map.Entry<Integer, Frame> entry = it.next();
+            Frame frame = entry.getValue();
+            if (frame.pins > 0) {
+                continue;
+            }
+            if (frame.dirty) {
+                write(entry.getKey(), frame);
+            }
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private void write(int pageNo, Frame frame) throws IOException {
+        ByteBuffer data = frame.data.duplicate().clear();
+        long position = (long) pageNo * pageSize;
+        while (data.hasRemaining()) {
+            channel.write(data, position + data.position());
+        }
+        frame.dirty = false;
+    }
+
+    /**
+     * Writes every dirty page back to the file.
+     *
+     * @throws IOException if a page cannot be written.
+     */
+    public synchronized void flush() throws IOException {
+        for (Map.Entry<Integer, Frame> entry : frames.entrySet()) {
+            if (entry.getValue().dirty) {
+                write(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the number of pages in the file, including pages not written back yet.
+     */
+    public synchronized int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * @return the number of pins served from memory.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of pins that had to read the page from the file.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of pages evicted to make room.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+}
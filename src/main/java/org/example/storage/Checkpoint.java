@@ -0,0 +1,120 @@
+package org.example.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Snapshot of the in-memory state of a storage engine, written next to its data files when the engine is closed, so
+ * reopening the table restores its indexes instead of reading every row.
+ * <p>
+ * Layout: {@code [magic: 4][version: 1][data length: 8]} followed by the state of the engine. The data length is the
+ * size of the data files when the snapshot was taken; a snapshot is only used while the files still have that size
+ * and was written by this version, and it is deleted as soon as it is read, so after a crash the engine rebuilds its
+ * state from the data files instead.
+ */
+final class Checkpoint {
+    private static final int MAGIC = 0x434B5054;
+    private static final byte VERSION = 2;
+
+    /**
+     * Writes the state of an engine.
+     */
+    interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Reads back the state written by a {@link Writer}.
+     */
+    interface Reader {
+        void read(DataInputStream in) throws IOException;
+    }
+
+    private Checkpoint() {
+    }
+
+    /**
+     * Writes a checkpoint next to its final name and renames it into place once complete.
+     *
+     * @param path the checkpoint file.
+     * @param dataLength the size of the data files the state belongs to.
+     * @param writer writes the state.
+     * @throws IOException if the checkpoint cannot be written.
+     */
+    static void save(Path path, long dataLength, Writer writer) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(dataLength);
+            writer.write(out);
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads a checkpoint if there is one for data files of this size, and deletes it.
+     *
+     * @param path the checkpoint file.
+     * @param dataLength the current size of the data files.
+     * @param reader reads the state.
+     * @return true if the state was read, false if there is no checkpoint, it belongs to other data files or it was
+     * written by another version.
+     * @throws IOException if the checkpoint cannot be read.
+     */
+    static boolean load(Path path, long dataLength, Reader reader) throws IOException {
+        if (!Files.exists(path)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION || in.readLong() != dataLength) {
+                return false;
+            }
+            reader.read(in);
+            return true;
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    static void writeString(DataOutputStream out, String text) throws IOException {
+        writeBytes(out, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Rethrows the cause of an {@link UncheckedIOException} raised by a parallel load.
+     *
+     * @param task the load.
+     * @throws IOException if the load failed.
+     */
+    static void unchecked(Runnable task) throws IOException {
+        try {
+            task.run();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package org.example.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * One column of a block of rows in a {@link ColumnarStorageEngine} file. Every column is encoded on its own, so a scan
+ * reads only the columns it needs, with the smallest of three encodings, recorded in the first byte of the chunk:
+ * <ul>
+ * <li>PLAIN: {@code [null bitmap: 1 bit per row]} followed by every non-null value,</li>
+ * <li>RLE: {@code [run count: varint]} followed by {@code [run length: varint][flag: 1][value]} per run of equal
+ * values, where the flag is 0 for a run of nulls that has no value,</li>
+ * <li>DICT: {@code [dictionary size: varint]} followed by {@code [flag: 1][value]} per distinct value, then the
+ * dictionary codes of the rows as runs, {@code [run count: varint]} followed by {@code [run length: varint][code: varint]}
+ * per run.</li>
+ * </ul>
+ * Values are encoded by {@link ColumnType#encode(Object)}, VARCHAR values prefixed with their length as a varint.
+ * <p>
+ * An instance holds where a chunk is stored and the statistics of its values, which let scans skip a block without
+ * reading it.
+ */
+final class ColumnChunk {
+    static final byte PLAIN = 0;
+    static final byte RLE = 1;
+    static final byte DICT = 2;
+
+    final long offset;
+    final int length;
+    final int nullCount;
+    // smallest and largest non-null value, null if every value is null
+    final Object min;
+    final Object max;
+
+    /**
+     * Records a chunk written to a file and computes the statistics of its values.
+     *
+     * @param values the values of the column in the block, null for null.
+     * @param offset the offset of the encoded chunk in the file.
+     * @param length the size of the encoded chunk.
+     */
+    ColumnChunk(Object[] values, long offset, int length) {
+        this.offset = offset;
+        this.length = length;
+        int nulls = 0;
+        Object min = null;
+        Object max = null;
+        for (Object value : values) {
+            if (value == null) {
+                nulls++;
+            } else {
+                if (min == null || ColumnType.compare(value, min) < 0) {
+                    min = value;
+                }
+                if (max == null || ColumnType.compare(value, max) > 0) {
+                    max = value;
+                }
+            }
+        }
+        this.nullCount = nulls;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Records a chunk with statistics restored from a checkpoint.
+     *
+     * @param offset the offset of the encoded chunk in the file.
+     * @param length the size of the encoded chunk.
+     * @param nullCount the number of null values.
+     * @param min the smallest non-null value, null if every value is null.
+     * @param max the largest non-null value, null if every value is null.
+     */
+    ColumnChunk(long offset, int length, int nullCount, Object min, Object max) {
+        this.offset = offset;
+        this.length = length;
+        this.nullCount = nullCount;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Checks the statistics of the chunk against a value.
+     *
+     * @param value a value returned by {@link ColumnType#parse(String)}, null for null.
+     * @return false if no row of the chunk can hold the value, true if some may.
+     */
+    boolean mayContain(Object value) {
+        if (value == null) {
+            return nullCount > 0;
+        }
+        return min != null && ColumnType.compare(value, min) >= 0 && ColumnType.compare(value, max) <= 0;
+    }
+
+    /**
+     * Encodes the values of a column in a block with the smallest encoding.
+     *
+     * @param type the type of the column.
+     * @param values the values of the column in the block, null for null.
+     * @return the encoded chunk.
+     */
+    static byte[] encode(ColumnType type, Object[] values) {
+        byte[] best = encodePlain(type, values);
+        byte[] runs = encodeRuns(type, values);
+        if (runs.length < best.length) {
+            best = runs;
+        }
+        // a dictionary only pays off when values repeat
+        Map<Object, Integer> dictionary = new LinkedHashMap<>();
+        for (Object value : values) {
+            dictionary.putIfAbsent(value, dictionary.size());
+            if (dictionary.size() > values.length / 2) {
+                return best;
+            }
+        }
+        byte[] dict = encodeDictionary(type, values, dictionary);
+        return dict.length < best.length ? dict : best;
+    }
+
+    private static byte[] encodePlain(ColumnType type, Object[] values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(PLAIN);
+        byte[] bitmap = new byte[(values.length + 7) / 8];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                bitmap[i / 8] |= (byte) (1 << (i % 8));
+            }
+        }
+        out.writeBytes(bitmap);
+        for (Object value : values) {
+            if (value != null) {
+                writeValue(out, type, value);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] encodeRuns(ColumnType type, Object[] values) {
+        ByteArrayOutputStream runs = new ByteArrayOutputStream();
+        int count = 0;
+        for (int i = 0; i < values.length; ) {
+            int j = i + 1;
+            while (j < values.length && Objects.equals(values[j], values[i])) {
+                j++;
+            }
+            writeVarInt(runs, j - i);
+            writeFlagged(runs, type, values[i]);
+            count++;
+            i = j;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(RLE);
+        writeVarInt(out, count);
+        out.writeBytes(runs.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static byte[] encodeDictionary(ColumnType type, Object[] values, Map<Object, Integer> dictionary) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(DICT);
+        writeVarInt(out, dictionary.size());
+        for (Object value : dictionary.keySet()) {
+            writeFlagged(out, type, value);
+        }
+        ByteArrayOutputStream runs = new ByteArrayOutputStream();
+        int count = 0;
+        for (int i = 0; i < values.length; ) {
+            int code = dictionary.get(values[i]);
+            int j = i + 1;
+            while (j < values.length && dictionary.get(values[j]) == code) {
+                j++;
+            }
+            writeVarInt(runs, j - i);
+            writeVarInt(runs, code);
+            count++;
+            i = j;
+        }
+        writeVarInt(out, count);
+        out.writeBytes(runs.toByteArray());
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes every value of a chunk.
+     *
+     * @param type the type of the column.
+     * @param chunk the encoded chunk, from its position to its limit.
+     * @param rows the number of rows in the block.
+     * @return the values, null for null.
+     * @throws IOException if the chunk has an unknown encoding.
+     */
+    static Object[] decode(ColumnType type, ByteBuffer chunk, int rows) throws IOException {
+        Object[] values = new Object[rows];
+        byte encoding = chunk.get();
+        if (encoding == PLAIN) {
+            int bitmap = chunk.position();
+            chunk.position(bitmap + (rows + 7) / 8);
+            for (int i = 0; i < rows; i++) {
+                if ((chunk.get(bitmap + i / 8) & (1 << (i % 8))) == 0) {
+                    values[i] = readValue(chunk, type);
+                }
+            }
+        } else if (encoding == RLE) {
+            int runs = readVarInt(chunk);
+            for (int r = 0, row = 0; r < runs; r++) {
+                int length = readVarInt(chunk);
+                Arrays.fill(values, row, row + length, readFlagged(chunk, type));
+                row += length;
+            }
+        } else if (encoding == DICT) {
+            Object[] dictionary = readDictionary(chunk, type);
+            int runs = readVarInt(chunk);
+            for (int r = 0, row = 0; r < runs; r++) {
+                int length = readVarInt(chunk);
+                Arrays.fill(values, row, row + length, dictionary[readVarInt(chunk)]);
+                row += length;
+            }
+        } else {
+            throw new IOException("unknown chunk encoding " + encoding);
+        }
+        return values;
+    }
+
+    /**
+     * Finds the rows of a chunk holding a value. Runs are compared once per run, and a dictionary chunk that does not
+     * hold the value is ruled out without reading its codes.
+     *
+     * @param type the type of the column.
+     * @param chunk the encoded chunk, from its position to its limit.
+     * @param rows the number of rows in the block.
+     * @param value a value returned by {@link ColumnType#parse(String)}, null to match null.
+     * @return the indices of the matching rows in the block.
+     * @throws IOException if the chunk has an unknown encoding.
+     */
+    static BitSet match(ColumnType type, ByteBuffer chunk, int rows, Object value) throws IOException {
+        BitSet hits = new BitSet(rows);
+        byte encoding = chunk.get(chunk.position());
+        if (encoding == RLE) {
+            chunk.get();
+            int runs = readVarInt(chunk);
+            for (int r = 0, row = 0; r < runs; r++) {
+                int length = readVarInt(chunk);
+                if (Objects.equals(readFlagged(chunk, type), value)) {
+                    hits.set(row, row + length);
+                }
+                row += length;
+            }
+        } else if (encoding == DICT) {
+            chunk.get();
+            Object[] dictionary = readDictionary(chunk, type);
+            int code = -1;
+            for (int c = 0; c < dictionary.length && code < 0; c++) {
+                if (Objects.equals(dictionary[c], value)) {
+                    code = c;
+                }
+            }
+            if (code < 0) {
+                return hits;
+            }
+            int runs = readVarInt(chunk);
+            for (int r = 0, row = 0; r < runs; r++) {
+                int length = readVarInt(chunk);
+                if (readVarInt(chunk) == code) {
+                    hits.set(row, row + length);
+                }
+                row += length;
+            }
+        } else {
+            Object[] values = decode(type, chunk, rows);
+            for (int i = 0; i < rows; i++) {
+                if (Objects.equals(values[i], value)) {
+                    hits.set(i);
+                }
+            }
+        }
+        return hits;
+    }
+
+    private static Object[] readDictionary(ByteBuffer chunk, ColumnType type) {
+        Object[] dictionary = new Object[readVarInt(chunk)];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = readFlagged(chunk, type);
+        }
+        return dictionary;
+    }
+
+    private static void writeValue(ByteArrayOutputStream out, ColumnType type, Object value) {
+        byte[] bytes = type.encode(value);
+        if (type.getWidth() < 0) {
+            writeVarInt(out, bytes.length);
+        }
+        out.writeBytes(bytes);
+    }
+
+    private static void writeFlagged(ByteArrayOutputStream out, ColumnType type, Object value) {
+        out.write(value == null ? 0 : 1);
+        if (value != null) {
+            writeValue(out, type, value);
+        }
+    }
+
+    private static Object readValue(ByteBuffer chunk, ColumnType type) {
+        int length = type.getWidth() < 0 ? readVarInt(chunk) : type.getWidth();
+        Object value = type.decode(chunk, chunk.position(), length);
+        chunk.position(chunk.position() + length);
+        return value;
+    }
+
+    private static Object readFlagged(ByteBuffer chunk, ColumnType type) {
+        return chunk.get() == 0 ? null : readValue(chunk, type);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(ByteBuffer chunk) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = chunk.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
@@ -0,0 +1,209 @@
+package org.example.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * The declared type of a SQL column, taken from its CREATE TABLE definition.
+ * Values travel through the system as SQL literal text, e.g. {@code 20} or {@code 'Alice'}; each type parses that text
+ * into a Java value, formats it back into canonical text, and stores it in a primitive-specialized binary encoding.
+ * An empty literal, written for columns missing from an INSERT, is a null value of any type.
+ */
+public enum ColumnType {
+    INT(4),
+    BIGINT(8),
+    DOUBLE(8),
+    VARCHAR(-1),
+    BOOLEAN(1),
+    DATE(4);
+
+    // encoded size in bytes, -1 for variable length
+    private final int width;
+
+    ColumnType(int width) {
+        this.width = width;
+    }
+
+    /**
+     * Maps a SQL data type name to a column type. Integer types narrower than BIGINT become INT, decimal types become
+     * DOUBLE, and any type that is not recognized is kept as text.
+     *
+     * @param dataType the data type name from the column definition, e.g. "INT" or "VARCHAR".
+     * @return the column type.
+     */
+    public static ColumnType fromSqlType(String dataType) {
+        switch (dataType.trim().toUpperCase(Locale.ROOT)) {
+            case "INT":
+            case "INTEGER":
+            case "SMALLINT":
+            case "TINYINT":
+                return INT;
+            case "BIGINT":
+                return BIGINT;
+            case "DOUBLE":
+            case "FLOAT":
+            case "REAL":
+            case "DECIMAL":
+            case "NUMERIC":
+                return DOUBLE;
+            case "BOOLEAN":
+            case "BOOL":
+                return BOOLEAN;
+            case "DATE":
+                return DATE;
+            default:
+                return VARCHAR;
+        }
+    }
+
+    /**
+     * @return the size of an encoded value in bytes, -1 if it depends on the value.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Parses a literal of this type.
+     *
+     * @param text the literal, e.g. {@code 20}, {@code 'Alice'} or {@code '2024-01-31'}.
+     * @return an Integer, Long, Double, String, Boolean or LocalDate, or null for an empty literal.
+     * @throws IllegalArgumentException if the literal is not a valid value of this type.
+     */
+    public Object parse(String text) {
+        if (text == null || text.isEmpty()) {
+            return null;
+        }
+        try {
+            switch (this) {
+                case INT:
+                    return Integer.parseInt(text.trim());
+                case BIGINT:
+                    return Long.parseLong(text.trim());
+                case DOUBLE:
+                    return Double.parseDouble(text.trim());
+                case BOOLEAN:
+                    String bool = text.trim().toLowerCase(Locale.ROOT);
+                    if (!bool.equals("true") && !bool.equals("false")) {
+                        throw new IllegalArgumentException("invalid BOOLEAN value " + text);
+                    }
+                    return Boolean.parseBoolean(bool);
+                case DATE:
+                    return LocalDate.parse(unquote(text.trim()));
+                default:
+                    return text;
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            throw new IllegalArgumentException("invalid " + this + " value " + text, e);
+        }
+    }
+
+    /**
+     * Formats a value as canonical literal text.
+     *
+     * @param value a value returned by {@link #parse(String)}.
+     * @return the literal, empty for null.
+     */
+    public String format(Object value) {
+        if (value == null) {
+            return "";
+        }
+        if (this == DATE) {
+            return "'" + value + "'";
+        }
+        return value.toString();
+    }
+
+    /**
+     * Rewrites a literal in canonical form, so equal values are always written as the same text.
+     *
+     * @param text the literal.
+     * @return the canonical literal.
+     * @throws IllegalArgumentException if the literal is not a valid value of this type.
+     */
+    public String canonicalize(String text) {
+        return format(parse(text));
+    }
+
+    /**
+     * Encodes a non-null value.
+     *
+     * @param value a value returned by {@link #parse(String)}.
+     * @return the encoded value; for VARCHAR the UTF-8 bytes without length prefix.
+     */
+    public byte[] encode(Object value) {
+        switch (this) {
+            case INT:
+                return ByteBuffer.allocate(4).putInt((Integer) value).array();
+            case BIGINT:
+                return ByteBuffer.allocate(8).putLong((Long) value).array();
+            case DOUBLE:
+                return ByteBuffer.allocate(8).putDouble((Double) value).array();
+            case BOOLEAN:
+                return new byte[]{(byte) ((Boolean) value ? 1 : 0)};
+            case DATE:
+                return ByteBuffer.allocate(4).putInt((int) ((LocalDate) value).toEpochDay()).array();
+            default:
+                return ((String) value).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Decodes a non-null value in place.
+     *
+     * @param buffer the buffer holding the value, read with absolute gets.
+     * @param offset the index of the first byte of the value.
+     * @param length the encoded length, only used by VARCHAR.
+     * @return the value.
+     */
+    public Object decode(ByteBuffer buffer, int offset, int length) {
+        switch (this) {
+            case INT:
+                return buffer.getInt(offset);
+            case BIGINT:
+                return buffer.getLong(offset);
+            case DOUBLE:
+                return buffer.getDouble(offset);
+            case BOOLEAN:
+                return buffer.get(offset) != 0;
+            case DATE:
+                return LocalDate.ofEpochDay(buffer.getInt(offset));
+            default:
+                return decodeString(buffer, offset, length);
+        }
+    }
+
+    static String decodeString(ByteBuffer buffer, int offset, int length) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares two values of the same type, nulls first.
+     *
+     * @param a a value returned by {@link #parse(String)}.
+     * @param b a value returned by {@link #parse(String)}.
+     * @return a negative number, zero or a positive number as a is less than, equal to or greater than b.
+     */
+    @SuppressWarnings("unchecked")
+    public static int compare(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    private static String unquote(String text) {
+        if (text.length() >= 2 && text.startsWith("'") && text.endsWith("'")) {
+            return text.substring(1, text.length() - 1);
+        }
+        return text;
+    }
+}
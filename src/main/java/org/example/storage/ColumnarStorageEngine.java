@@ -0,0 +1,844 @@
+package org.example.storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * Column-oriented storage engine for the column groups of vertically partitioned tables. Inserted rows are kept in
+ * an in-memory tail until {@code blockRows} of them are sealed into a block, which stores each column as a separate
+ * {@link ColumnChunk}, run-length or dictionary encoded, with min/max statistics. A scan with a condition reads only
+ * the chunk of the condition column, skips the blocks whose statistics or dictionary rule the value out, and reads
+ * the other chunks only for the blocks holding a match.
+ * <p>
+ * Blocks are immutable and hold ascending, disjoint ranges of row ids, so rows stay in insertion order. Updating or
+ * deleting a sealed row records the new version or the deletion next to its block in memory, and a block is
+ * rewritten at the end of the file once half of its rows are stale.
+ * <p>
+ * The file starts with the {@link RowCodec} header, followed by blocks laid out as
+ * {@code [row count: varint][row ids: 8 each]} and then {@code [chunk length: varint][chunk]} per column.
+ * <p>
+ * Closing the engine writes the blocks, their pending updates and deletes, the tail and the primary key index to a
+ * {@link Checkpoint} in {@code <file>.ckpt}, from which a reopened table is restored without reading any chunk.
+ * Without a checkpoint, after a crash, the sealed blocks are read back from the file and their statistics recomputed
+ * in parallel; the tail and the changes made to sealed rows since their block was written are lost.
+ */
+public class ColumnarStorageEngine extends AbstractStorageEngine {
+    public static final int DEFAULT_BLOCK_ROWS = 1024;
+    private static final int CHUNK_CACHE_SIZE = 64;
+    private static final int LOAD_BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final Path checkpointPath;
+    private final int blockRows;
+    private final List<Block> blocks = new ArrayList<>();
+    // rows inserted since the last block was sealed, row id -> encoded row
+    private final NavigableMap<Long, byte[]> tail = new TreeMap<>();
+    // decoded chunks, least recently used first
+    private final Map<ColumnChunk, Object[]> chunkCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ColumnChunk, Object[]> eldest) {
+            return size() > CHUNK_CACHE_SIZE;
+        }
+    };
+    private final AtomicLong chunksRead = new AtomicLong();
+    private final AtomicLong blocksSkipped = new AtomicLong();
+    private long end = 0;
+
+    /**
+     * A sealed block of rows.
+     */
+    private static class Block {
+        final long[] rowIds;
+        final ColumnChunk[] chunks;
+        final BitSet deleted = new BitSet();
+        // index of a row in the block -> its new version, for rows updated since the block was written
+        final Map<Integer, byte[]> updated = new TreeMap<>();
+
+        Block(long[] rowIds, ColumnChunk[] chunks) {
+            this.rowIds = rowIds;
+            this.chunks = chunks;
+        }
+
+        int slotOf(long rowId) {
+            int slot = Arrays.binarySearch(rowIds, rowId);
+            return slot < 0 || deleted.get(slot) ? -1 : slot;
+        }
+
+        BitSet live() {
+            BitSet live = new BitSet(rowIds.length);
+            live.set(0, rowIds.length);
+            live.andNot(deleted);
+            return live;
+        }
+    }
+
+    /**
+     * Constructs a ColumnarStorageEngine and creates an empty column file.
+     *
+     * @param fileName the name of the column file backing the table.
+     * @param columns a list of column names used in SQL table.
+     * @param columnTypes the type of each column.
+     * @param blockRows the number of rows sealed into each block.
+     * @throws IOException if the column file cannot be created.
+     * @throws IllegalArgumentException if the table is not a SQL table or the block size is not positive.
+     */
+    public ColumnarStorageEngine(String fileName, List<String> columns, List<ColumnType> columnTypes,
+                                 int blockRows) throws IOException {
+        this(fileName, columns, columnTypes, blockRows, false);
+    }
+
+    /**
+     * Constructs a ColumnarStorageEngine over a new column file, or over the column file left by a previous run.
+     *
+     * @param fileName the name of the column file backing the table.
+     * @param columns a list of column names used in SQL table.
+     * @param columnTypes the type of each column.
+     * @param blockRows the number of rows sealed into each block.
+     * @param reopen whether to open the existing column file instead of creating an empty one.
+     * @throws IOException if the column file cannot be created or opened, or was written for another schema.
+     * @throws IllegalArgumentException if the table is not a SQL table or the block size is not positive.
+     */
+    public ColumnarStorageEngine(String fileName, List<String> columns, List<ColumnType> columnTypes,
+                                 int blockRows, boolean reopen) throws IOException {
+        super(columns, columnTypes);
+        if (columns == null || columnTypes == null) {
+            throw new IllegalArgumentException("columnar storage needs the typed columns of a SQL table");
+        }
+        if (blockRows < 1) {
+            throw new IllegalArgumentException("invalid block size " + blockRows);
+        }
+        this.blockRows = blockRows;
+        this.checkpointPath = Paths.get(fileName + ".ckpt");
+        byte[] header = RowCodec.encodeHeader(columns, columnTypes);
+        if (!reopen) {
+            this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            Files.deleteIfExists(checkpointPath);
+            write(header);
+            return;
+        }
+        this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.end = channel.size();
+        if (end < header.length) {
+            channel.close();
+            throw new IOException("invalid column file " + fileName);
+        }
+        RowCodec.readHeader(readFully(0, header.length), columns, columnTypes);
+        if (!Checkpoint.load(checkpointPath, end, this::readState)) {
+            readBlocks(header.length);
+            rebuildIndex();
+        }
+    }
+
+    /**
+     * Writes the blocks, their pending changes and the tail to a checkpoint, as {@code [block count: 4]} followed per
+     * block by {@code [row count: 4][row ids: 8 each]}, {@code [offset: 8][length: 4][null count: 4][min][max]} per
+     * chunk, the deleted rows and {@code [updated count: 4]} followed by {@code [slot: 4][row]} per updated row, and
+     * then {@code [tail count: 4]} followed by {@code [row id: 8][row]} per row of the tail and the primary key index.
+     *
+     * @param out the checkpoint.
+     * @throws IOException if the checkpoint cannot be written.
+     */
+    private void writeState(DataOutputStream out) throws IOException {
+        out.writeInt(blocks.size());
+        for (Block block : blocks) {
+            out.writeInt(block.rowIds.length);
+            for (long rowId : block.rowIds) {
+                out.writeLong(rowId);
+            }
+            for (int c = 0; c < columns.size(); c++) {
+                ColumnChunk chunk = block.chunks[c];
+                out.writeLong(chunk.offset);
+                out.writeInt(chunk.length);
+                out.writeInt(chunk.nullCount);
+                writeValue(out, columnTypes.get(c), chunk.min);
+                writeValue(out, columnTypes.get(c), chunk.max);
+            }
+            long[] deleted = block.deleted.toLongArray();
+            out.writeInt(deleted.length);
+            for (long word : deleted) {
+                out.writeLong(word);
+            }
+            out.writeInt(block.updated.size());
+            for (Map.Entry<Integer, byte[]> entry : block.updated.entrySet()) {
+                out.writeInt(entry.getKey());
+                Checkpoint.writeBytes(out, entry.getValue());
+            }
+        }
+        out.writeInt(tail.size());
+        for (Map.Entry<Long, byte[]> entry : tail.entrySet()) {
+            out.writeLong(entry.getKey());
+            Checkpoint.writeBytes(out, entry.getValue());
+        }
+        writeIndex(out);
+    }
+
+    /**
+     * Restores the state written by {@link #writeState(DataOutputStream)}.
+     *
+     * @param in the checkpoint.
+     * @throws IOException if the checkpoint cannot be read.
+     */
+    private void readState(DataInputStream in) throws IOException {
+        int blockCount = in.readInt();
+        for (int b = 0; b < blockCount; b++) {
+            long[] rowIds = new long[in.readInt()];
+            for (int i = 0; i < rowIds.length; i++) {
+                rowIds[i] = in.readLong();
+            }
+            ColumnChunk[] chunks = new ColumnChunk[columns.size()];
+            for (int c = 0; c < chunks.length; c++) {
+                long offset = in.readLong();
+                int length = in.readInt();
+                int nullCount = in.readInt();
+                Object min = readValue(in, columnTypes.get(c));
+                Object max = readValue(in, columnTypes.get(c));
+                chunks[c] = new ColumnChunk(offset, length, nullCount, min, max);
+            }
+            Block block = new Block(rowIds, chunks);
+            long[] deleted = new long[in.readInt()];
+            for (int i = 0; i < deleted.length; i++) {
+                deleted[i] = in.readLong();
+            }
+            block.deleted.or(BitSet.valueOf(deleted));
+            int updated = in.readInt();
+            for (int i = 0; i < updated; i++) {
+                block.updated.put(in.readInt(), Checkpoint.readBytes(in));
+            }
+            blocks.add(block);
+        }
+        int tailCount = in.readInt();
+        for (int i = 0; i < tailCount; i++) {
+            tail.put(in.readLong(), Checkpoint.readBytes(in));
+        }
+        readIndex(in);
+    }
+
+    private static void writeValue(DataOutputStream out, ColumnType type, Object value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            Checkpoint.writeBytes(out, type.encode(value));
+        }
+    }
+
+    private static Object readValue(DataInputStream in, ColumnType type) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        byte[] bytes = Checkpoint.readBytes(in);
+        return type.decode(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    /**
+     * Reads the blocks of a reopened file without a checkpoint. The layout of each block is read in order, then the
+     * statistics of the chunks are computed in parallel. A block rewritten at the end of the file replaces the block
+     * whose range it falls in, and a block cut short by a crash ends the file and is cut off.
+     *
+     * @param from the offset of the first block.
+     * @throws IOException if the file cannot be read.
+     */
+    private void readBlocks(long from) throws IOException {
+        List<long[]> blockRowIds = new ArrayList<>();
+        List<long[]> chunkOffsets = new ArrayList<>();
+        List<int[]> chunkLengths = new ArrayList<>();
+        // not closed, that would close the channel
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel.position(from)), LOAD_BUFFER_SIZE));
+        long offset = from;
+        while (offset < end) {
+            long blockStart = offset;
+            try {
+                int rows = readVarInt(in);
+                offset += RowCodec.varIntSize(rows);
+                long[] rowIds = new long[rows];
+                for (int i = 0; i < rows; i++) {
+                    rowIds[i] = in.readLong();
+                }
+                offset += 8L * rows;
+                long[] offsets = new long[columns.size()];
+                int[] lengths = new int[columns.size()];
+                for (int c = 0; c < offsets.length; c++) {
+                    lengths[c] = readVarInt(in);
+                    offsets[c] = offset + RowCodec.varIntSize(lengths[c]);
+                    in.skipNBytes(lengths[c]);
+                    offset = offsets[c] + lengths[c];
+                }
+                if (offset > end) {
+                    throw new EOFException();
+                }
+                blockRowIds.add(rowIds);
+                chunkOffsets.add(offsets);
+                chunkLengths.add(lengths);
+            } catch (EOFException e) {
+                channel.truncate(blockStart);
+                end = blockStart;
+            }
+        }
+        Block[] read = new Block[blockRowIds.size()];
+        Checkpoint.unchecked(() -> IntStream.range(0, read.length).parallel().forEach(b -> {
+            long[] rowIds = blockRowIds.get(b);
+            ColumnChunk[] chunks = new ColumnChunk[columns.size()];
+            try {
+                for (int c = 0; c < chunks.length; c++) {
+                    long chunkOffset = chunkOffsets.get(b)[c];
+                    int length = chunkLengths.get(b)[c];
+                    Object[] values = ColumnChunk.decode(columnTypes.get(c), readFully(chunkOffset, length),
+                            rowIds.length);
+                    chunks[c] = new ColumnChunk(values, chunkOffset, length);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            read[b] = new Block(rowIds, chunks);
+        }));
+        for (Block block : read) {
+            int b = blockOf(block.rowIds[0]);
+            if (b >= 0) {
+                blocks.set(b, block);
+            } else {
+                blocks.add(block);
+            }
+        }
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    @Override
+    protected void writeRow(long rowId, byte[] row) throws IOException {
+        int b = blockOf(rowId);
+        if (b < 0) {
+            tail.put(rowId, row);
+            if (tail.size() >= blockRows) {
+                seal();
+            }
+            return;
+        }
+        Block block = blocks.get(b);
+        int slot = block.slotOf(rowId);
+        if (slot >= 0) {
+            block.updated.put(slot, row);
+            rewriteIfStale(b);
+        }
+    }
+
+    @Override
+    protected RowView readRow(long rowId) throws IOException {
+        byte[] row = tail.get(rowId);
+        if (row != null) {
+            return newView().reset(ByteBuffer.wrap(row), 0);
+        }
+        int b = blockOf(rowId);
+        if (b < 0) {
+            return null;
+        }
+        Block block = blocks.get(b);
+        int slot = block.slotOf(rowId);
+        if (slot < 0) {
+            return null;
+        }
+        row = block.updated.get(slot);
+        if (row == null) {
+            row = RowCodec.encode(formatRow(block, slot), columnTypes);
+        }
+        return newView().reset(ByteBuffer.wrap(row), 0);
+    }
+
+    @Override
+    protected void removeRow(long rowId) throws IOException {
+        if (tail.remove(rowId) != null) {
+            return;
+        }
+        int b = blockOf(rowId);
+        if (b < 0) {
+            return;
+        }
+        Block block = blocks.get(b);
+        int slot = block.slotOf(rowId);
+        if (slot >= 0) {
+            block.updated.remove(slot);
+            block.deleted.set(slot);
+            rewriteIfStale(b);
+        }
+    }
+
+    @Override
+    protected void scan(RowVisitor visitor) throws IOException {
+        for (Block block : blocks) {
+            visitBlock(block, block.live(), visitor);
+        }
+        visitTail(null, visitor);
+    }
+
+    @Override
+    protected void scanWhere(int column, byte[] value, RowVisitor visitor) throws IOException {
+        ColumnType type = columnTypes.get(column);
+        Object target = value == null ? null : type.decode(ByteBuffer.wrap(value), 0, value.length);
+        RowView view = newView();
+        for (Block block : blocks) {
+            ColumnChunk chunk = block.chunks[column];
+            BitSet hits;
+            if (chunk.mayContain(target)) {
+                // only the chunk of the condition column is read to find the matches
+                hits = ColumnChunk.match(type, readChunk(chunk), block.rowIds.length, target);
+                hits.andNot(block.deleted);
+            } else {
+                blocksSkipped.incrementAndGet();
+                hits = new BitSet();
+            }
+            // updated rows are matched on their new version, the chunk holds the old one
+            for (Map.Entry<Integer, byte[]> entry : block.updated.entrySet()) {
+                view.reset(ByteBuffer.wrap(entry.getValue()), 0);
+                hits.set(entry.getKey(), view.fieldEquals(column, value));
+            }
+            visitBlock(block, hits, visitor);
+        }
+        visitTail(row -> row.fieldEquals(column, value), visitor);
+    }
+
+    @Override
+    public String selectSQL() throws IOException {
+        return selectSQL(null, null);
+    }
+
+    @Override
+    public String selectSQL(List<String> selectColumns, RowPredicate where) throws IOException {
+        IdentifiedRows rows = selectRowsSQL(selectColumns, where);
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < rows.size(); i++) {
+            data.append(rows.getRow(i)).append("\n");
+        }
+        return data.toString();
+    }
+
+    @Override
+    public IdentifiedRows selectRowsSQL() throws IOException {
+        return selectRowsSQL(null, null);
+    }
+
+    /**
+     * Reads some columns of the rows matching a condition. Only the chunks of the requested columns and of the
+     * columns of the condition are read, so a query on few columns of a wide table reads a fraction of the file.
+     *
+     * @param selectColumns the columns to return, null for every column.
+     * @param where the condition, null for every row.
+     * @return the requested fields of every matching row and its row id.
+     * @throws IOException if the chunks cannot be read.
+     */
+    @Override
+    public IdentifiedRows selectRowsSQL(List<String> selectColumns, RowPredicate where) throws IOException {
+        int[] fields = StorageEngine.fieldsOf(columns, selectColumns);
+        IdentifiedRows rows = new IdentifiedRows();
+        StringBuilder data = new StringBuilder();
+        int width = fields == null ? columns.size() : fields.length;
+        scanColumns(fields, where, (rowId, row) -> {
+            data.setLength(0);
+            for (int i = 0; i < width; i++) {
+                data.append(row.apply(fields == null ? i : fields[i])).append(',');
+            }
+            rows.add(rowId, data.toString());
+        });
+        return rows;
+    }
+
+    /**
+     * Aggregates the rows matching a condition, reading only the chunks of the aggregated columns and of the columns
+     * of the condition.
+     *
+     * @param aggregation the aggregates.
+     * @param where the condition, null for every row.
+     * @return the partial aggregates of the matching rows.
+     * @throws IOException if the chunks cannot be read.
+     */
+    @Override
+    public PartialAggregates aggregateSQL(Aggregation aggregation, RowPredicate where) throws IOException {
+        int[] fields = StorageEngine.fieldsOf(columns, aggregation.getColumns());
+        PartialAggregates partial = new PartialAggregates(aggregation);
+        scanColumns(fields, where, (rowId, row) -> partial.add(i -> row.apply(fields[i])));
+        return partial;
+    }
+
+    /**
+     * Reads some columns of the first rows matching a condition in an order, reading only the chunks of the requested
+     * columns, of the condition and of the sort key. Only the best {@code limit} rows seen so far are kept and
+     * formatted.
+     *
+     * @param selectColumns the columns to return, null for every column.
+     * @param where the condition, null for every row.
+     * @param order the sort key and the limit.
+     * @return the requested fields of the first matching rows and their sort key, in order.
+     * @throws IOException if the chunks cannot be read.
+     */
+    @Override
+    public SortedRows selectSortedSQL(List<String> selectColumns, RowPredicate where, RowOrder order)
+            throws IOException {
+        int[] fields = StorageEngine.fieldsOf(columns, selectColumns);
+        int[] keyFields = StorageEngine.fieldsOf(columns, order.getColumns());
+        int width = fields == null ? columns.size() : fields.length;
+        int[] scanned = fields == null ? null : IntStream.concat(Arrays.stream(fields), Arrays.stream(keyFields))
+                .toArray();
+        RowOrder.Collector top = order.newCollector();
+        StringBuilder data = new StringBuilder();
+        scanColumns(scanned, where, (rowId, row) -> {
+            Object[] key = order.keyOf(keyFields, row);
+            if (top.wants(key)) {
+                data.setLength(0);
+                for (int i = 0; i < width; i++) {
+                    data.append(row.apply(fields == null ? i : fields[i])).append(',');
+                }
+                top.add(key, data.toString());
+            }
+        });
+        return top.finish();
+    }
+
+    /**
+     * Visits the fields of rows.
+     */
+    private interface FieldVisitor {
+        /**
+         * Called once per matching row, in ascending row id order.
+         *
+         * @param rowId the internal id of the row.
+         * @param row the literal text of each field by column index, only valid for the scanned columns and until
+         *            this call returns.
+         */
+        void visit(long rowId, IntFunction<String> row);
+    }
+
+    /**
+     * Visits the rows matching a condition, loading only the chunks of some columns and of the condition columns.
+     *
+     * @param fields the indexes of the columns to load, null for every column.
+     * @param where the condition, null for every row.
+     * @param visitor callback receiving each matching row.
+     * @throws IOException if the chunks cannot be read.
+     */
+    private void scanColumns(int[] fields, RowPredicate where, FieldVisitor visitor) throws IOException {
+        RowPredicate.Matcher matcher = bind(where);
+        boolean[] needed = new boolean[columns.size()];
+        if (fields == null) {
+            Arrays.fill(needed, true);
+        } else {
+            for (int c : fields) {
+                needed[c] = true;
+            }
+        }
+        if (where != null) {
+            for (String column : where.getColumns()) {
+                needed[columns.indexOf(column)] = true;
+            }
+        }
+        rwLock.readLock().lock();
+        try {
+            RowView view = newView();
+            for (Block block : blocks) {
+                Object[][] values = new Object[columns.size()][];
+                for (int c = 0; c < values.length; c++) {
+                    values[c] = needed[c] ? loadChunk(block.chunks[c], c, block.rowIds.length) : null;
+                }
+                BitSet live = block.live();
+                for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+                    byte[] updated = block.updated.get(slot);
+                    IntFunction<String> row;
+                    if (updated != null) {
+                        row = view.reset(ByteBuffer.wrap(updated), 0)::get;
+                    } else {
+                        int sealed = slot;
+                        row = c -> columnTypes.get(c).format(values[c][sealed]);
+                    }
+                    if (matcher == null || matcher.matches(row)) {
+                        visitor.visit(block.rowIds[slot], row);
+                    }
+                }
+            }
+            for (Map.Entry<Long, byte[]> entry : tail.entrySet()) {
+                view.reset(ByteBuffer.wrap(entry.getValue()), 0);
+                if (matcher == null || matcher.matches(view::get)) {
+                    visitor.visit(entry.getKey(), view::get);
+                }
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        rwLock.readLock().lock();
+        try {
+            stats.put("blocks", (long) blocks.size());
+            stats.put("tailRows", (long) tail.size());
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        stats.put("chunksRead", chunksRead.get());
+        stats.put("blocksSkipped", blocksSkipped.get());
+        return stats;
+    }
+
+    /**
+     * Finds the sealed block a row id belongs to.
+     *
+     * @param rowId the internal id of the row.
+     * @return the index of the block whose range holds the row id, -1 if the row is in the tail or unknown.
+     */
+    private int blockOf(long rowId) {
+        int low = 0;
+        int high = blocks.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long[] rowIds = blocks.get(mid).rowIds;
+            if (rowId < rowIds[0]) {
+                high = mid - 1;
+            } else if (rowId > rowIds[rowIds.length - 1]) {
+                low = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Visits rows of a block in order, decoding the chunks only if there is a row to visit.
+     *
+     * @param block the block.
+     * @param slots the indices of the rows to visit in the block.
+     * @param visitor callback receiving each row.
+     * @throws IOException if the chunks cannot be read.
+     */
+    private void visitBlock(Block block, BitSet slots, RowVisitor visitor) throws IOException {
+        RowView view = newView();
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            byte[] row = block.updated.get(slot);
+            if (row == null) {
+                row = RowCodec.encode(formatRow(block, slot), columnTypes);
+            }
+            visitor.visit(block.rowIds[slot], view.reset(ByteBuffer.wrap(row), 0));
+        }
+    }
+
+    /**
+     * Visits the rows of the tail in order.
+     *
+     * @param condition the rows to visit, null for every row.
+     * @param visitor callback receiving each row.
+     * @throws IOException if the visitor fails.
+     */
+    private void visitTail(Predicate<RowView> condition, RowVisitor visitor) throws IOException {
+        RowView view = newView();
+        for (Map.Entry<Long, byte[]> entry : tail.entrySet()) {
+            view.reset(ByteBuffer.wrap(entry.getValue()), 0);
+            if (condition == null || condition.test(view)) {
+                visitor.visit(entry.getKey(), view);
+            }
+        }
+    }
+
+    /**
+     * Reads one row of a block as it was sealed.
+     *
+     * @param block the block.
+     * @param slot the index of the row in the block.
+     * @return the field values of the row, as literal text.
+     * @throws IOException if the chunks cannot be read.
+     */
+    private List<String> formatRow(Block block, int slot) throws IOException {
+        List<String> row = new ArrayList<>(columns.size());
+        for (int c = 0; c < columns.size(); c++) {
+            row.add(columnTypes.get(c).format(loadChunk(block.chunks[c], c, block.rowIds.length)[slot]));
+        }
+        return row;
+    }
+
+    /**
+     * Moves the tail into a new block.
+     *
+     * @throws IOException if the block cannot be written.
+     */
+    private void seal() throws IOException {
+        long[] rowIds = new long[tail.size()];
+        Object[][] values = new Object[columns.size()][rowIds.length];
+        RowView view = newView();
+        int i = 0;
+        for (Map.Entry<Long, byte[]> entry : tail.entrySet()) {
+            rowIds[i] = entry.getKey();
+            view.reset(ByteBuffer.wrap(entry.getValue()), 0);
+            for (int c = 0; c < values.length; c++) {
+                values[c][i] = c < view.size() ? view.getValue(c) : null;
+            }
+            i++;
+        }
+        blocks.add(writeBlock(rowIds, values));
+        tail.clear();
+    }
+
+    /**
+     * Rewrites a block without its stale rows once half of them are deleted or updated, dropping it if none is
+     * left. The new block covers a subset of the old range, so the order of blocks is kept.
+     *
+     * @param b the index of the block.
+     * @throws IOException if the block cannot be read or written.
+     */
+    private void rewriteIfStale(int b) throws IOException {
+        Block block = blocks.get(b);
+        if ((block.deleted.cardinality() + block.updated.size()) * 2 < block.rowIds.length) {
+            return;
+        }
+        BitSet live = block.live();
+        long[] rowIds = new long[live.cardinality()];
+        if (rowIds.length == 0) {
+            blocks.remove(b);
+            return;
+        }
+        Object[][] values = new Object[columns.size()][rowIds.length];
+        RowView view = newView();
+        int i = 0;
+        for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+            rowIds[i] = block.rowIds[slot];
+            byte[] updated = block.updated.get(slot);
+            if (updated != null) {
+                view.reset(ByteBuffer.wrap(updated), 0);
+            }
+            for (int c = 0; c < values.length; c++) {
+                if (updated == null) {
+                    values[c][i] = loadChunk(block.chunks[c], c, block.rowIds.length)[slot];
+                } else {
+                    values[c][i] = c < view.size() ? view.getValue(c) : null;
+                }
+            }
+            i++;
+        }
+        blocks.set(b, writeBlock(rowIds, values));
+    }
+
+    /**
+     * Appends a block to the end of the file.
+     *
+     * @param rowIds the ascending row ids of the rows in the block.
+     * @param values the values of each column, by column then row.
+     * @return the written block.
+     * @throws IOException if the block cannot be written.
+     */
+    private Block writeBlock(long[] rowIds, Object[][] values) throws IOException {
+        ByteBuffer ids = ByteBuffer.allocate(RowCodec.varIntSize(rowIds.length) + 8 * rowIds.length);
+        RowCodec.putVarInt(ids, rowIds.length);
+        for (long rowId : rowIds) {
+            ids.putLong(rowId);
+        }
+        write(ids.array());
+        ColumnChunk[] chunks = new ColumnChunk[values.length];
+        for (int c = 0; c < values.length; c++) {
+            byte[] chunk = ColumnChunk.encode(columnTypes.get(c), values[c]);
+            ByteBuffer length = ByteBuffer.allocate(RowCodec.varIntSize(chunk.length));
+            RowCodec.putVarInt(length, chunk.length);
+            write(length.array());
+            chunks[c] = new ColumnChunk(values[c], write(chunk), chunk.length);
+        }
+        return new Block(rowIds, chunks);
+    }
+
+    /**
+     * Decodes a chunk, going through a small cache of recently decoded chunks.
+     *
+     * @param chunk the chunk.
+     * @param column the index of its column.
+     * @param rows the number of rows in its block.
+     * @return the values of the chunk.
+     * @throws IOException if the chunk cannot be read.
+     */
+    private Object[] loadChunk(ColumnChunk chunk, int column, int rows) throws IOException {
+        synchronized (chunkCache) {
+            Object[] values = chunkCache.get(chunk);
+            if (values != null) {
+                return values;
+            }
+        }
+        Object[] values = ColumnChunk.decode(columnTypes.get(column), readChunk(chunk), rows);
+        synchronized (chunkCache) {
+            chunkCache.put(chunk, values);
+        }
+        return values;
+    }
+
+    private ByteBuffer readChunk(ColumnChunk chunk) throws IOException {
+        chunksRead.incrementAndGet();
+        return readFully(chunk.offset, chunk.length);
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("truncated column file at offset " + position);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Appends bytes to the end of the file.
+     *
+     * @param bytes the bytes to write.
+     * @return the offset they were written at.
+     * @throws IOException if the bytes cannot be written.
+     */
+    private long write(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long offset = end;
+        while (buffer.hasRemaining()) {
+            end += channel.write(buffer, end);
+        }
+        return offset;
+    }
+
+    /**
+     * Writes a checkpoint of the blocks, the tail and the index, and closes the column file.
+     *
+     * @throws IOException if the checkpoint cannot be written or the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        rwLock.writeLock().lock();
+        try {
+            Checkpoint.save(checkpointPath, end, this::writeState);
+            channel.close();
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+}
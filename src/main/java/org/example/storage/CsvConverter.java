@@ -0,0 +1,93 @@
+package org.example.storage;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One-shot converter from the CSV files written by {@link CsvStorageEngine} to the binary row format of
+ * {@link LogStorageEngine}: {@code <name>.csv} becomes {@code <name>.log}, the CSV file is left untouched.
+ * <p>
+ * Usage: {@code java org.example.storage.CsvConverter [--nosql] <file.csv>...}. SQL files take their schema from the
+ * header line; with {@code --nosql} every line is a row of alternating keys and values.
+ */
+public class CsvConverter {
+    /**
+     * Converts the CSV files given on the command line.
+     *
+     * @param args the CSV files, optionally preceded by {@code --nosql}.
+     */
+    public static void main(String[] args) {
+        boolean noSQL = args.length > 0 && args[0].equals("--nosql");
+        if (args.length == (noSQL ? 1 : 0)) {
+            System.out.println("usage: CsvConverter [--nosql] <file.csv>...");
+            return;
+        }
+        for (int i = noSQL ? 1 : 0; i < args.length; i++) {
+            try {
+                String logFileName = args[i].replaceAll("\\.csv$", "") + ".log";
+                int rows = convert(args[i], logFileName, noSQL);
+                System.out.println(args[i] + " -> " + logFileName + " (" + rows + " rows)");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Converts one CSV file.
+     *
+     * @param csvFileName the CSV file to read.
+     * @param logFileName the log file to create, replacing any existing one.
+     * @param noSQL whether the file holds a NoSQL table, without header line.
+     * @return the number of rows converted.
+     * @throws IOException if the CSV file cannot be read or the log file cannot be written.
+     */
+    public static int convert(String csvFileName, String logFileName, boolean noSQL) throws IOException {
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(csvFileName))) {
+            List<String> columns = null;
+            if (!noSQL) {
+                String header = reader.readLine();
+                if (header == null) {
+                    throw new IOException(csvFileName + " has no header line");
+                }
+                columns = Arrays.asList(header.split(","));
+            }
+            try (LogStorageEngine engine = new LogStorageEngine(logFileName, columns, null)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    List<String> row = parseLine(line);
+                    if (noSQL) {
+                        engine.insertNoSQL(row);
+                    } else {
+                        engine.insertSQL(columns, row);
+                    }
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Splits a CSV line the way {@link CsvStorageEngine} wrote it, every value followed by a comma.
+     *
+     * @param line the line, without its newline.
+     * @return the field values.
+     */
+    private static List<String> parseLine(String line) {
+        List<String> row = new ArrayList<>(Arrays.asList(line.split(",", -1)));
+        // the trailing comma leaves an empty last field, some rewritten NoSQL lines have none
+        if (line.endsWith(",")) {
+            row.remove(row.size() - 1);
+        }
+        return row;
+    }
+}
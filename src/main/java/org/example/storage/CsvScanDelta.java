@@ -0,0 +1,259 @@
+package org.example.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Changes that a write makes to the result of a SELECT on a table stored by {@link CsvStorageEngine}, so a cached
+ * result can be brought up to date without reading the file again. Each change applies a write to the lines of the
+ * result the same way the engine applies it to the lines of the file: inserts are appended after the last line,
+ * updates rewrite the matching fields and deletes drop the matching lines, keeping the order of the other lines.
+ */
+public final class CsvScanDelta {
+    private CsvScanDelta() {
+    }
+
+    /**
+     * The change made by inserting a SQL row.
+     *
+     * @param tableColumns the columns of the table, in file order.
+     * @param insertColumns the inserted columns.
+     * @param values the canonical value of each inserted column.
+     * @return the change.
+     */
+    public static UnaryOperator<String> insertSQL(List<String> tableColumns, List<String> insertColumns,
+                                                  List<String> values) {
+        String line = line(tableColumns, insertColumns, values);
+        return result -> result + line;
+    }
+
+    /**
+     * The change made by inserting a NoSQL row.
+     *
+     * @param kvPairs the key-value pairs of the row.
+     * @return the change.
+     */
+    public static UnaryOperator<String> insertNoSQL(List<String> kvPairs) {
+        String line = line(kvPairs);
+        return result -> result + line;
+    }
+
+    /**
+     * The change made by a SQL update. Like the engine, once a row is updated every line is rewritten from its
+     * fields.
+     *
+     * @param tableColumns the columns of the table, in file order.
+     * @param columns the updated columns.
+     * @param values the canonical new value of each updated column.
+     * @param where the column and canonical value rows are matched on.
+     * @return the change.
+     */
+    public static UnaryOperator<String> updateSQL(List<String> tableColumns, List<String> columns, List<String> values,
+                                                  String[] where) {
+        int whereIndex = tableColumns.indexOf(where[0]);
+        return result -> {
+            if (whereIndex == -1) {
+                return result;
+            }
+            boolean updated = false;
+            StringBuilder updatedResult = new StringBuilder(result.length());
+            for (String line : lines(result)) {
+                String[] row = line.split(",");
+                if (row[whereIndex].equals(where[1])) {
+                    for (int i = 0; i < columns.size(); i++) {
+                        int j = tableColumns.indexOf(columns.get(i));
+                        if (j != -1) {
+                            row[j] = values.get(i);
+                            updated = true;
+                        }
+                    }
+                }
+                updatedResult.append(String.join(",", row)).append(",\n");
+            }
+            return updated ? updatedResult.toString() : result;
+        };
+    }
+
+    /**
+     * The change made by a NoSQL update. Like the engine, once a row is updated every line is rewritten from its
+     * fields.
+     *
+     * @param kvPairs the updated keys and their new values.
+     * @param where the key and value rows are matched on.
+     * @return the change.
+     */
+    public static UnaryOperator<String> updateNoSQL(List<String> kvPairs, List<String> where) {
+        return result -> {
+            boolean updated = false;
+            StringBuilder updatedResult = new StringBuilder(result.length());
+            for (String line : lines(result)) {
+                String[] row = line.split(","); // key, value, key, value
+                for (int i = 0; i < row.length; i += 2) {
+                    if (row[i].equals(where.get(0)) && row[i + 1].equals(where.get(1))) {
+                        for (int j = 0; j < kvPairs.size(); j += 2) {
+                            for (int k = 0; k < row.length; k += 2) {
+                                if (row[k].equals(kvPairs.get(j))) {
+                                    row[k + 1] = kvPairs.get(j + 1);
+                                    updated = true;
+                                }
+                            }
+                        }
+                    }
+                }
+                updatedResult.append(String.join(",", row)).append(",\n");
+            }
+            return updated ? updatedResult.toString() : result;
+        };
+    }
+
+    /**
+     * The change made by a SQL delete.
+     *
+     * @param tableColumns the columns of the table, in file order.
+     * @param where the column and canonical value rows are matched on.
+     * @return the change.
+     */
+    public static UnaryOperator<String> deleteSQL(List<String> tableColumns, String[] where) {
+        int whereIndex = tableColumns.indexOf(where[0]);
+        return result -> {
+            if (whereIndex == -1) {
+                return result;
+            }
+            StringBuilder remaining = new StringBuilder(result.length());
+            for (String line : lines(result)) {
+                if (!line.split(",")[whereIndex].equals(where[1])) {
+                    remaining.append(line).append("\n");
+                }
+            }
+            return remaining.toString();
+        };
+    }
+
+    /**
+     * The change made by a NoSQL delete. Like the engine, once a row is deleted every remaining line is rewritten
+     * from its fields, without the trailing comma.
+     *
+     * @param where the key and value rows are matched on.
+     * @return the change.
+     */
+    public static UnaryOperator<String> deleteNoSQL(List<String> where) {
+        return result -> {
+            boolean deleted = false;
+            StringBuilder remaining = new StringBuilder(result.length());
+            for (String line : lines(result)) {
+                String[] row = line.split(","); // key, value, key, value
+                boolean matches = false;
+                for (int i = 0; i < row.length && !matches; i += 2) {
+                    matches = row[i].equals(where.get(0)) && row[i + 1].equals(where.get(1));
+                }
+                if (matches) {
+                    deleted = true;
+                } else {
+                    remaining.append(String.join(",", row)).append("\n");
+                }
+            }
+            return deleted ? remaining.toString() : result;
+        };
+    }
+
+    /**
+     * The change made by inserting a batch of SQL rows.
+     *
+     * @param tableColumns the columns of the table, in file order.
+     * @param insertColumns the inserted columns.
+     * @param rows the canonical values of each row.
+     * @return the change.
+     */
+    public static UnaryOperator<String> insertBatchSQL(List<String> tableColumns, List<String> insertColumns,
+                                                       List<List<String>> rows) {
+        StringBuilder lines = new StringBuilder();
+        for (List<String> values : rows) {
+            lines.append(line(tableColumns, insertColumns, values));
+        }
+        String appended = lines.toString();
+        return result -> result + appended;
+    }
+
+    /**
+     * The change made by inserting a batch of NoSQL rows.
+     *
+     * @param rows the key-value pairs of each row.
+     * @return the change.
+     */
+    public static UnaryOperator<String> insertBatchNoSQL(List<List<String>> rows) {
+        StringBuilder lines = new StringBuilder();
+        for (List<String> kvPairs : rows) {
+            lines.append(line(kvPairs));
+        }
+        String appended = lines.toString();
+        return result -> result + appended;
+    }
+
+    /**
+     * The change made by a batch of SQL updates by id, the same as applying the updates one after the other.
+     *
+     * @param tableColumns the columns of the table, in file order.
+     * @param columns the updated columns.
+     * @param values the canonical new values of each update.
+     * @param idColumn the column rows are matched on.
+     * @param ids the canonical id each update applies to.
+     * @return the change.
+     */
+    public static UnaryOperator<String> updateBatchSQL(List<String> tableColumns, List<String> columns,
+                                                       List<List<String>> values, String idColumn, List<String> ids) {
+        List<UnaryOperator<String>> changes = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            changes.add(updateSQL(tableColumns, columns, values.get(i), new String[]{idColumn, ids.get(i)}));
+        }
+        return inOrder(changes);
+    }
+
+    /**
+     * The change made by a batch of SQL deletes by id.
+     *
+     * @param tableColumns the columns of the table, in file order.
+     * @param idColumn the column rows are matched on.
+     * @param ids the canonical ids of the deleted rows.
+     * @return the change.
+     */
+    public static UnaryOperator<String> deleteBatchSQL(List<String> tableColumns, String idColumn, List<String> ids) {
+        List<UnaryOperator<String>> changes = new ArrayList<>();
+        for (String id : ids) {
+            changes.add(deleteSQL(tableColumns, new String[]{idColumn, id}));
+        }
+        return inOrder(changes);
+    }
+
+    private static UnaryOperator<String> inOrder(List<UnaryOperator<String>> changes) {
+        return result -> {
+            for (UnaryOperator<String> change : changes) {
+                result = change.apply(result);
+            }
+            return result;
+        };
+    }
+
+    private static String line(List<String> tableColumns, List<String> insertColumns, List<String> values) {
+        StringBuilder csvRow = new StringBuilder();
+        for (String column : tableColumns) {
+            if (insertColumns.contains(column)) {
+                csvRow.append(values.get(insertColumns.indexOf(column)));
+            }
+            csvRow.append(",");
+        }
+        return csvRow.append("\n").toString();
+    }
+
+    private static String line(List<String> kvPairs) {
+        StringBuilder csvRow = new StringBuilder();
+        for (int i = 0; i < kvPairs.size(); i += 2) {
+            csvRow.append(kvPairs.get(i)).append(",").append(kvPairs.get(i + 1)).append(",");
+        }
+        return csvRow.append("\n").toString();
+    }
+
+    private static String[] lines(String result) {
+        return result.isEmpty() ? new String[0] : result.split("\n");
+    }
+}
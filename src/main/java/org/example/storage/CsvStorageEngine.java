@@ -0,0 +1,1389 @@
+package org.example.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * The original storage engine: rows are kept as comma-joined lines in a CSV file.
+ * Every update rewrites the whole file into {@code temp-<table>.csv} and renames it,
+ * so this engine is kept as the default and for compatibility with existing data files.
+ * Inserts append through a writer that is kept open until the next rewrite, instead of opening the file per row.
+ * <p>
+ * Deletes do not rewrite the file: the deleted lines are recorded as tombstones, kept in memory and appended to
+ * {@code <table>.csv.tomb}, and scans skip them. Once at least {@value #COMPACTION_MIN_TOMBSTONES} lines and
+ * {@value #COMPACTION_RATIO} of the file are tombstones, a background compaction copies the live lines into
+ * {@code compact-<table>.csv} without holding any lock, and only takes the write lock to copy the rows inserted
+ * meanwhile and atomically rename the copy over the file.
+ * <p>
+ * The internal row id of each line is kept in memory next to the tombstones, so vertical partitions can delete and
+ * join rows by id without reading the file. It is also stored in {@code <table>.csv.rid}, one 8-byte row id per line
+ * in file order, appended before the lines of every insert and rewritten, then renamed into place, before the file is
+ * replaced. Closing the engine saves the line count and row ids to a {@link Checkpoint} in {@code <table>.csv.ckpt};
+ * a reopened file restores them from it, or, after a crash, counts the lines of the file in parallel slices and reads
+ * their row ids back from the row id file, so the column groups of a vertical partition still line up after
+ * updates and compactions dropped lines from some of them.
+ * <p>
+ * Selects and deletes scan the file through {@link #scanLines}: the file is mapped into memory and split into chunks
+ * of about {@value #SCAN_CHUNK_SIZE} bytes that end at line breaks, which are decoded in parallel and collected in
+ * file order.
+ */
+public class CsvStorageEngine implements StorageEngine {
+    static final int COMPACTION_MIN_TOMBSTONES = 32;
+    static final double COMPACTION_RATIO = 0.5;
+    // lines of a reopened file are counted in slices of this size, in parallel
+    private static final int LOAD_SLICE_SIZE = 64 * 1024 * 1024;
+    // scans decode the file in chunks of about this size, in parallel
+    private static final int SCAN_CHUNK_SIZE = 1024 * 1024;
+
+    private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+    // serializes writers, so a delete can look for its rows while readers keep reading
+    private final Lock writerLock = new ReentrantLock();
+    private List<String> columns;
+    private String csvFileName;
+    private String tombstoneFileName;
+    private String checkpointFileName;
+    private String rowIdFileName;
+    // appends inserted rows, closed before the file is rewritten and reopened on the next insert
+    private BufferedWriter appender;
+    // appends the row ids of inserted rows, closed and reopened with the appender
+    private FileChannel rowIdAppender;
+    // data lines of the file (header excluded), and which of them are deleted
+    private int lineCount = 0;
+    private BitSet tombstones = new BitSet();
+    // internal row id of each data line, tombstoned lines included, as in the row id file
+    private long[] rowIds = new long[16];
+    private long nextRowId = 0;
+    // bumped whenever the file is replaced, so a compaction can tell its copy is outdated
+    private long generation = 0;
+    private boolean compactionScheduled = false;
+    private long compactions = 0;
+    private long compactionMillis = 0;
+    private long compactionBytesReclaimed = 0;
+    private final ExecutorService background = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "csv-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Collects what a scan keeps of the live lines of a chunk. Chunks are collected concurrently, each into its own
+     * result.
+     */
+    private interface LineCollector<T> {
+        void collect(T result, int index, String line);
+    }
+
+    /**
+     * Constructs a CsvStorageEngine and initializes its CSV file.
+     *
+     * @param csvFileName the name of the CSV file backing the table.
+     * @param columns a list of column names used in SQL table, null if this is for NoSQL storage.
+     */
+    public CsvStorageEngine(String csvFileName, List<String> columns) {
+        this.csvFileName = csvFileName;
+        this.tombstoneFileName = csvFileName + ".tomb";
+        this.checkpointFileName = csvFileName + ".ckpt";
+        this.rowIdFileName = csvFileName + ".rid";
+        this.columns = columns;
+        try {
+            createFile();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    /**
+     * Constructs a CsvStorageEngine over a new CSV file, or over the CSV file left by a previous run.
+     *
+     * @param csvFileName the name of the CSV file backing the table.
+     * @param columns a list of column names used in SQL table, null if this is for NoSQL storage.
+     * @param reopen whether to open the existing CSV file instead of creating an empty one.
+     * @throws IOException if the file cannot be created or opened, or its header does not match the columns.
+     */
+    public CsvStorageEngine(String csvFileName, List<String> columns, boolean reopen) throws IOException {
+        this.csvFileName = csvFileName;
+        this.tombstoneFileName = csvFileName + ".tomb";
+        this.checkpointFileName = csvFileName + ".ckpt";
+        this.rowIdFileName = csvFileName + ".rid";
+        this.columns = columns;
+        if (reopen) {
+            loadFile();
+        } else {
+            createFile();
+        }
+    }
+    /**
+     * Creates the CSV file with its header, and empty tombstone and row id files.
+     *
+     * @throws IOException if the files cannot be written.
+     */
+    private void createFile() throws IOException {
+        // create csv header with column names
+        if (columns != null) {
+            FileWriter fileWriter = new FileWriter(csvFileName);
+            try (BufferedWriter writer = new BufferedWriter(fileWriter)) {
+                String header = String.join(",", columns);
+                writer.write(header);
+            }
+        } else {
+            // if NoSQL, columns == null, no need to write header (schema-less) but still need to create file
+            File file = new File(csvFileName);
+            file.createNewFile();
+        }
+        Files.deleteIfExists(Paths.get(checkpointFileName));
+        writeTombstoneFile();
+        writeRowIdFile(0);
+    }
+    /**
+     * Opens the CSV file of a previous run: checks its header, restores the line count and row ids from the
+     * checkpoint or, without one, counts the lines in parallel and reads their row ids from the row id file, then
+     * reads the tombstones back from the tombstone file.
+     *
+     * @throws IOException if the files cannot be read or do not belong to this table.
+     */
+    private void loadFile() throws IOException {
+        Path path = Paths.get(csvFileName);
+        if (columns != null) {
+            String header;
+            try (BufferedReader reader = new BufferedReader(new FileReader(csvFileName))) {
+                header = reader.readLine();
+            }
+            if (!String.join(",", columns).equals(header)) {
+                throw new IOException("header " + header + " of " + csvFileName + " does not match " + columns);
+            }
+        }
+        long length = Files.size(path);
+        boolean restored = Checkpoint.load(Paths.get(checkpointFileName), length, in -> {
+            lineCount = in.readInt();
+            nextRowId = in.readLong();
+            rowIds = new long[Math.max(16, lineCount)];
+            for (int index = 0; index < lineCount; index++) {
+                rowIds[index] = in.readLong();
+            }
+        });
+        if (!restored) {
+            // SQL lines follow a line break, NoSQL lines end with one
+            lineCount = countLineBreaks(path, length);
+            readRowIdFile();
+        }
+        if (Files.exists(Paths.get(tombstoneFileName))) {
+            for (String line : Files.readAllLines(Paths.get(tombstoneFileName))) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                int index = Integer.parseInt(line.trim());
+                if (index >= lineCount) {
+                    throw new IOException("tombstone " + index + " is past the end of " + csvFileName);
+                }
+                tombstones.set(index);
+            }
+        } else {
+            writeTombstoneFile();
+        }
+    }
+    /**
+     * Restores the row ids of the lines from the row id file after a crash. Row ids are written before their lines,
+     * so row ids past the last line belong to an insert the crash cut short and are cut off; fewer row ids than lines
+     * means the files were left by a rewrite the crash cut short, which cannot be told apart from a valid file. A
+     * file written before row ids were stored has its lines numbered in file order.
+     *
+     * @throws IOException if the row id file cannot be read or holds fewer row ids than there are lines.
+     */
+    private void readRowIdFile() throws IOException {
+        rowIds = new long[Math.max(16, lineCount)];
+        Path path = Paths.get(rowIdFileName);
+        if (!Files.exists(path)) {
+            for (int index = 0; index < lineCount; index++) {
+                rowIds[index] = index;
+            }
+            nextRowId = lineCount;
+            writeRowIdFile(lineCount);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long stored = channel.size() / Long.BYTES;
+            if (stored < lineCount) {
+                throw new IOException(rowIdFileName + " holds " + stored + " row ids for " + lineCount + " lines");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(lineCount * Long.BYTES);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("unexpected end of " + rowIdFileName);
+                }
+            }
+            buffer.flip();
+            nextRowId = 0;
+            for (int index = 0; index < lineCount; index++) {
+                rowIds[index] = buffer.getLong();
+                nextRowId = Math.max(nextRowId, rowIds[index] + 1);
+            }
+            channel.truncate((long) lineCount * Long.BYTES);
+        }
+    }
+    /**
+     * Writes the row ids of the lines to a new row id file and renames it into place. Called with the write lock held,
+     * before a rewritten CSV file is renamed into place: if a crash comes in between, the old file has more lines than
+     * there are row ids, which {@link #readRowIdFile()} reports instead of numbering them wrong.
+     *
+     * @param lines the number of lines, whose row ids are at the start of {@link #rowIds}.
+     * @throws IOException if the file cannot be written.
+     */
+    private void writeRowIdFile(int lines) throws IOException {
+        Path path = Paths.get(rowIdFileName);
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            for (int index = 0; index < lines; index++) {
+                out.writeLong(rowIds[index]);
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    /**
+     * Counts the line breaks of a file, mapping slices of it into memory and scanning them in parallel.
+     *
+     * @param path the file.
+     * @param length the size of the file.
+     * @return the number of line breaks.
+     * @throws IOException if the file cannot be read.
+     */
+    private static int countLineBreaks(Path path, long length) throws IOException {
+        int slices = (int) ((length + LOAD_SLICE_SIZE - 1) / LOAD_SLICE_SIZE);
+        int[] counts = new int[slices];
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Checkpoint.unchecked(() -> IntStream.range(0, slices).parallel().forEach(slice -> {
+                long start = (long) slice * LOAD_SLICE_SIZE;
+                try {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                            Math.min(LOAD_SLICE_SIZE, length - start));
+                    int count = 0;
+                    while (buffer.hasRemaining()) {
+                        if (buffer.get() == '\n') {
+                            count++;
+                        }
+                    }
+                    counts[slice] = count;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        return Arrays.stream(counts).sum();
+    }
+    /**
+     * Reads all data from the CSV file for SQL operations.
+     *
+     * @return a string containing all rows from the CSV file.
+     * @throws IOException if an error occurs reading the file.
+     */
+    @Override
+    public String selectSQL() throws IOException {
+        return readAll(true, null, null);
+    }
+    /**
+     * Reads some columns of the rows of the CSV file matching a condition for SQL operations. The condition is
+     * checked on each line as the file is scanned, so only the requested fields of matching rows are copied into the
+     * result.
+     *
+     * @param selectColumns the columns to return, null for every column.
+     * @param where the condition, null for every row.
+     * @return a string containing the requested fields of the matching rows from the CSV file.
+     * @throws IOException if an error occurs reading the file.
+     */
+    @Override
+    public String selectSQL(List<String> selectColumns, RowPredicate where) throws IOException {
+        return readAll(true, bind(where), StorageEngine.fieldsOf(columns, selectColumns));
+    }
+    /**
+     * Reads all data from the CSV file for NoSQL operations.
+     *
+     * @return a string containing all rows from the CSV file.
+     * @throws IOException if an error occurs reading the file.
+     */
+    @Override
+    public String selectNoSQL() throws IOException {
+        return readAll(false, null, null);
+    }
+    /**
+     * Reads all data from the CSV file for SQL operations, together with the row id of each row.
+     *
+     * @return every row and its row id.
+     * @throws IOException if an error occurs reading the file.
+     */
+    @Override
+    public IdentifiedRows selectRowsSQL() throws IOException {
+        return readRows(null, null);
+    }
+    /**
+     * Reads some columns of the rows of the CSV file matching a condition for SQL operations, together with their
+     * row ids.
+     *
+     * @param selectColumns the columns to return, null for every column.
+     * @param where the condition, null for every row.
+     * @return the requested fields of every matching row and its row id.
+     * @throws IOException if an error occurs reading the file.
+     */
+    @Override
+    public IdentifiedRows selectRowsSQL(List<String> selectColumns, RowPredicate where) throws IOException {
+        return readRows(bind(where), StorageEngine.fieldsOf(columns, selectColumns));
+    }
+    /**
+     * Aggregates the rows of the CSV file matching a condition. Each chunk of the parallel scan folds its lines into
+     * its own partial aggregates, merged once the scan ends.
+     *
+     * @param aggregation the aggregates.
+     * @param where the condition, null for every row.
+     * @return the partial aggregates of the matching rows.
+     * @throws IOException if an error occurs reading the file.
+     */
+    @Override
+    public PartialAggregates aggregateSQL(Aggregation aggregation, RowPredicate where) throws IOException {
+        RowPredicate.Matcher matcher = bind(where);
+        int[] fields = StorageEngine.fieldsOf(columns, aggregation.getColumns());
+        PartialAggregates partial = new PartialAggregates(aggregation);
+        rwLock.readLock().lock();
+        try {
+            for (PartialAggregates chunk : scanLines(true, () -> new PartialAggregates(aggregation),
+                    (chunkPartial, index, line) -> {
+                        String[] values = line.split(",", -1);
+                        IntFunction<String> row = i -> i < values.length ? values[i] : "";
+                        if (matcher == null || matcher.matches(row)) {
+                            chunkPartial.add(i -> row.apply(fields[i]));
+                        }
+                    })) {
+                partial.merge(chunk);
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        return partial;
+    }
+    /**
+     * Reads some columns of the first rows of the CSV file matching a condition in an order. Each chunk of the
+     * parallel scan keeps its own best {@code limit} rows, and the sorted rows of the chunks are merged once the scan
+     * ends.
+     *
+     * @param selectColumns the columns to return, null for every column.
+     * @param where the condition, null for every row.
+     * @param order the sort key and the limit.
+     * @return the requested fields of the first matching rows and their sort key, in order.
+     * @throws IOException if an error occurs reading the file.
+     */
+    @Override
+    public SortedRows selectSortedSQL(List<String> selectColumns, RowPredicate where, RowOrder order)
+            throws IOException {
+        RowPredicate.Matcher matcher = bind(where);
+        int[] fields = StorageEngine.fieldsOf(columns, selectColumns);
+        int[] keyFields = StorageEngine.fieldsOf(columns, order.getColumns());
+        rwLock.readLock().lock();
+        try {
+            List<RowOrder.Collector> chunks = scanLines(true, order::newCollector, (top, index, line) -> {
+                String[] values = line.split(",", -1);
+                IntFunction<String> row = i -> i < values.length ? values[i] : "";
+                if (matcher == null || matcher.matches(row)) {
+                    Object[] key = order.keyOf(keyFields, row);
+                    if (top.wants(key)) {
+                        top.add(key, fields == null ? line : select(null, fields, line));
+                    }
+                }
+            });
+            List<SortedRows> sortedChunks = new ArrayList<>();
+            for (RowOrder.Collector chunk : chunks) {
+                sortedChunks.add(chunk.finish());
+            }
+            return order.merge(sortedChunks);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+    /**
+     * Binds a condition to the columns of the table.
+     *
+     * @param where the condition, null for none.
+     * @return the matcher, null for none.
+     */
+    private RowPredicate.Matcher bind(RowPredicate where) {
+        return where == null ? null : where.bind(columns);
+    }
+    /**
+     * Reads some fields of the live rows matching a condition together with their row ids.
+     *
+     * @param matcher the condition bound to the columns of the table, null for every row.
+     * @param fields the indexes of the fields to return, null for every field.
+     * @return the fields of every matching row and its row id.
+     * @throws IOException if an error occurs reading the file.
+     */
+    private IdentifiedRows readRows(RowPredicate.Matcher matcher, int[] fields) throws IOException {
+        rwLock.readLock().lock();
+        IdentifiedRows rows = new IdentifiedRows();
+        try {
+            for (IdentifiedRows chunk : scanLines(true, IdentifiedRows::new, (chunkRows, index, line) -> {
+                String row = select(matcher, fields, line);
+                if (row != null) {
+                    chunkRows.add(rowIds[index], row);
+                }
+            })) {
+                rows.addAll(chunk);
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        return rows;
+    }
+    /**
+     * Reads some fields of the live rows of a CSV file matching a condition, optionally skipping the header line.
+     *
+     * @param skipHeader if true, skips the first line of the CSV (header).
+     * @param matcher the condition bound to the columns of the table, null for every row.
+     * @param fields the indexes of the fields to return, null for every field.
+     * @return a string containing the fields of the matching rows of the file.
+     * @throws IOException if an error occurs reading the file.
+     */
+    private String readAll(boolean skipHeader, RowPredicate.Matcher matcher, int[] fields) throws IOException {
+        // return all data as string from csv file
+        rwLock.readLock().lock();
+        StringBuilder data = new StringBuilder();
+        try {
+            List<StringBuilder> chunks = scanLines(skipHeader, StringBuilder::new, (chunk, index, line) -> {
+                String row = select(matcher, fields, line);
+                if (row != null) {
+                    chunk.append(row).append("\n");
+                }
+            });
+            data.ensureCapacity(chunks.stream().mapToInt(StringBuilder::length).sum());
+            for (StringBuilder chunk : chunks) {
+                data.append(chunk);
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        return data.toString();
+    }
+    /**
+     * Checks a line of the file against a condition and keeps the requested fields.
+     *
+     * @param matcher the condition, null to match every line.
+     * @param fields the indexes of the fields to keep, null for the whole line.
+     * @param line the line, one field per column.
+     * @return the kept fields, each followed by a comma, or null if the line does not match.
+     */
+    private static String select(RowPredicate.Matcher matcher, int[] fields, String line) {
+        if (matcher == null && fields == null) {
+            return line;
+        }
+        String[] values = line.split(",", -1);
+        if (matcher != null && !matcher.matches(i -> i < values.length ? values[i] : "")) {
+            return null;
+        }
+        if (fields == null) {
+            return line;
+        }
+        StringBuilder row = new StringBuilder();
+        for (int i : fields) {
+            row.append(i < values.length ? values[i] : "").append(',');
+        }
+        return row.toString();
+    }
+    /**
+     * Scans the live lines of the file in parallel. The file is mapped into memory and split into chunks of about
+     * {@value #SCAN_CHUNK_SIZE} bytes, each moved forward to the start of a line; the lines of every chunk are counted
+     * first, so each chunk knows the index of its first line, then the chunks are decoded on the fork-join pool.
+     * Called with the read lock held, or the writer lock, so lines and tombstones do not change during the scan.
+     *
+     * @param skipHeader if true, skips the first line of the file (header).
+     * @param newResult creates the result of a chunk.
+     * @param collector collects the live lines of a chunk into its result.
+     * @return the result of every chunk, in file order.
+     * @throws IOException if the file cannot be read.
+     */
+    private <T> List<T> scanLines(boolean skipHeader, Supplier<T> newResult, LineCollector<T> collector)
+            throws IOException {
+        Charset charset = Charset.defaultCharset();
+        try (FileChannel channel = FileChannel.open(Paths.get(csvFileName), StandardOpenOption.READ)) {
+            long length = channel.size();
+            long start = skipHeader ? nextLine(channel, 0, length) : 0;
+            int chunks = (int) Math.max(1, (length - start + SCAN_CHUNK_SIZE - 1) / SCAN_CHUNK_SIZE);
+            long[] bounds = new long[chunks + 1];
+            int[] firstLines = new int[chunks + 1];
+            bounds[0] = start;
+            bounds[chunks] = length;
+            Checkpoint.unchecked(() -> IntStream.range(1, chunks).parallel().forEach(chunk -> {
+                try {
+                    bounds[chunk] = nextLine(channel, start + (long) chunk * SCAN_CHUNK_SIZE - 1, length);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+            // every chunk but the last ends with a line break, so the line breaks tell where the lines start
+            Checkpoint.unchecked(() -> IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                try {
+                    MappedByteBuffer buffer = map(channel, bounds[chunk], bounds[chunk + 1]);
+                    int count = 0;
+                    while (buffer.hasRemaining()) {
+                        if (buffer.get() == '\n') {
+                            count++;
+                        }
+                    }
+                    firstLines[chunk + 1] = count;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                firstLines[chunk + 1] += firstLines[chunk];
+            }
+            List<T> results = new ArrayList<>(chunks);
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                results.add(newResult.get());
+            }
+            Checkpoint.unchecked(() -> IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                try {
+                    byte[] bytes = new byte[Math.toIntExact(bounds[chunk + 1] - bounds[chunk])];
+                    map(channel, bounds[chunk], bounds[chunk + 1]).get(bytes);
+                    T result = results.get(chunk);
+                    int index = firstLines[chunk];
+                    for (int from = 0; from < bytes.length && index < lineCount; index++) {
+                        int to = from;
+                        while (to < bytes.length && bytes[to] != '\n') {
+                            to++;
+                        }
+                        if (!tombstones.get(index)) {
+                            collector.collect(result, index, new String(bytes, from, to - from, charset));
+                        }
+                        from = to + 1;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+            return results;
+        }
+    }
+    /**
+     * Finds the start of the first line at or after a position.
+     *
+     * @param channel the file.
+     * @param from the position to look for a line break from.
+     * @param length the size of the file.
+     * @return the position after the first line break at or after {@code from}, or the size of the file.
+     * @throws IOException if the file cannot be read.
+     */
+    private static long nextLine(FileChannel channel, long from, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (long position = from; position < length; ) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return length;
+    }
+    /**
+     * Maps a range of the file into memory.
+     *
+     * @param channel the file.
+     * @param from the start of the range.
+     * @param to the end of the range.
+     * @return the mapped range.
+     * @throws IOException if the file cannot be mapped.
+     */
+    private static MappedByteBuffer map(FileChannel channel, long from, long to) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+    }
+    /**
+     * Inserts data into a CSV file for SQL operations.
+     *
+     * @param insertColumns columns to insert data into.
+     * @param values corresponding values for the columns.
+     * @throws IOException if the row cannot be written.
+     */
+    @Override
+    public void insertSQL(List<String> insertColumns, List<String> values) throws IOException {
+        insertSQL(-1, insertColumns, values);
+    }
+    /**
+     * Inserts data into a CSV file for SQL operations under a row id chosen by the caller.
+     *
+     * @param rowId the internal id of the row, above every row id of the table.
+     * @param insertColumns columns to insert data into.
+     * @param values corresponding values for the columns.
+     * @throws IOException if the row id is not above every row id of the table.
+     */
+    @Override
+    public void insertSQL(long rowId, List<String> insertColumns, List<String> values) throws IOException {
+        insertLines(rowId, List.of(toLine(insertColumns, values)));
+    }
+    /**
+     * Appends SQL rows to the CSV file as one batch, under a single lock acquisition and with a single flush.
+     *
+     * @param insertColumns columns to insert data into, the same for every row.
+     * @param rows the values of each row, in the order of the columns.
+     * @throws IOException if the rows cannot be written.
+     */
+    @Override
+    public void insertBatchSQL(List<String> insertColumns, List<List<String>> rows) throws IOException {
+        insertBatchSQL(-1, insertColumns, rows);
+    }
+    /**
+     * Appends SQL rows to the CSV file as one batch under consecutive row ids chosen by the caller.
+     *
+     * @param firstRowId the internal id of the first row, above every row id of the table.
+     * @param insertColumns columns to insert data into, the same for every row.
+     * @param rows the values of each row, in the order of the columns.
+     * @throws IOException if the rows cannot be written, or the row id is not above every row id of the table.
+     */
+    @Override
+    public void insertBatchSQL(long firstRowId, List<String> insertColumns, List<List<String>> rows)
+            throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (List<String> values : rows) {
+            lines.add(toLine(insertColumns, values));
+        }
+        insertLines(firstRowId, lines);
+    }
+    /**
+     * Builds the CSV line of a SQL row, with an empty field for every column not inserted.
+     *
+     * @param insertColumns columns to insert data into.
+     * @param values corresponding values for the columns.
+     * @return the line.
+     */
+    private String toLine(List<String> insertColumns, List<String> values) {
+        StringBuilder csvRow = new StringBuilder();
+        for (String column : this.columns) {
+            if (insertColumns.contains(column)) {
+                csvRow.append(values.get(insertColumns.indexOf(column)));
+            }
+            csvRow.append(",");
+        }
+        return csvRow.toString();
+    }
+    /**
+     * Helper method for updating rows based on a condition. Tombstoned lines are dropped while the file is rewritten.
+     *
+     * @param columns columns to update.
+     * @param values new values for the specified columns, for each value of the where column to match.
+     * @param whereColumn the column rows are matched on.
+     * @return the row ids of the updated rows, in ascending order.
+     * @throws IOException if the file cannot be read or rewritten.
+     */
+    private List<Integer> updateSQLHelper(List<String> columns, Map<String, List<List<String>>> values,
+                                          String whereColumn) throws IOException {
+        writerLock.lock();
+        rwLock.writeLock().lock();
+        List<Integer> updatedRows = new ArrayList<>();
+        try {
+            boolean updated = false;
+            closeAppender();
+            File tempFile = new File("temp-" + csvFileName);
+            int written = 0;
+            // read row and update if where condition is met, write to temp file
+            try (BufferedReader reader = new BufferedReader(new FileReader(csvFileName));
+                 BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile))
+            ) {
+                String header = reader.readLine();
+                // match header columns with where condition [0]
+                int whereIndex = indexOf(header, whereColumn);
+                if (whereIndex == -1) {
+                    return new ArrayList<>();
+                }
+                String[] headerColumns = header.split(",");
+                // write header to temp file
+                writer.write(header);
+                // read each row
+                String line;
+                int index = 0;
+                while ((line = reader.readLine()) != null) {
+                    if (tombstones.get(index++)) {
+                        continue;
+                    }
+                    // if where condition is met, update columns with values
+                    String[] row = line.split(",");
+                    boolean rowUpdated = false;
+                    for (List<String> rowValues : values.getOrDefault(row[whereIndex], List.of())) {
+                        for (int i = 0; i < columns.size(); i++) {
+                            for (int j = 0; j < headerColumns.length; j++) {
+                                if (headerColumns[j].equals(columns.get(i))) {
+                                    row[j] = rowValues.get(i);
+                                    rowUpdated = true;
+                                }
+                            }
+                        }
+                    }
+                    if (rowUpdated) {
+                        // index was already moved past the line
+                        updatedRows.add(Math.toIntExact(rowIds[index - 1]));
+                        updated = true;
+                    }
+                    written++;
+                    writer.newLine();
+                    writer.write(String.join(",", row) + ",");
+                }
+            } finally {
+                if (!updated) {
+                    // nothing changed, keep the original file and its tombstones
+                    tempFile.delete();
+                }
+            }
+            if (updated) {
+                replaceFile(tempFile, written);
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+            writerLock.unlock();
+        }
+        return updatedRows;
+    }
+    /**
+     * Updates SQL data based on conditions, supports updating multiple columns.
+     *
+     * @param columns columns to update.
+     * @param values new values for the specified columns.
+     * @param where condition array where the first element is the column name and the second is the value to match.
+     * @return the row ids of the updated rows, in ascending order.
+     * @throws IOException if the file cannot be read or rewritten.
+     */
+    @Override
+    public List<Integer> updateSQL(List<String> columns, List<String> values, String[] where) throws IOException {
+        return updateSQLHelper(columns, Map.of(where[1], List.of(values)), where[0]);
+    }
+    /**
+     * Updates SQL rows by id as one batch, rewriting the file once under a single lock acquisition.
+     *
+     * @param columns the columns to update, the same for every update.
+     * @param values the new values of each update, in the order of the columns.
+     * @param idColumn the column rows are matched on.
+     * @param ids the id each update applies to.
+     * @return the row ids of the updated rows, in ascending order, each once.
+     * @throws IOException if the file cannot be read or rewritten.
+     */
+    @Override
+    public List<Integer> updateBatchSQL(List<String> columns, List<List<String>> values, String idColumn,
+                                        List<String> ids) throws IOException {
+        Map<String, List<List<String>>> valuesById = new HashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            valuesById.computeIfAbsent(ids.get(i), id -> new ArrayList<>()).add(values.get(i));
+        }
+        return updateSQLHelper(columns, valuesById, idColumn);
+    }
+    /**
+     * Deletes SQL rows based on a specified condition by tombstoning their lines.
+     *
+     * @param where condition array where the first element is the column name and the second is the value to match.
+     * @return the row ids of the deleted rows.
+     * @throws IOException if the file or the tombstones cannot be read or written.
+     */
+    @Override
+    public BitSet deleteSQL(String[] where) throws IOException {
+        return deleteSQLHelper(where[0], Set.of(where[1]));
+    }
+    /**
+     * Deletes SQL rows by id as one batch, scanning the file once under a single lock acquisition.
+     *
+     * @param idColumn the column rows are matched on.
+     * @param ids the ids of the rows to delete.
+     * @return the row ids of the deleted rows.
+     * @throws IOException if the file or the tombstones cannot be read or written.
+     */
+    @Override
+    public BitSet deleteBatchSQL(String idColumn, List<String> ids) throws IOException {
+        return deleteSQLHelper(idColumn, new HashSet<>(ids));
+    }
+    /**
+     * Helper method for tombstoning the lines of the rows whose where column holds one of the given values.
+     *
+     * @param whereColumn the column rows are matched on.
+     * @param whereValues the values to match.
+     * @return the row ids of the deleted rows.
+     * @throws IOException if the file or the tombstones cannot be read or written.
+     */
+    private BitSet deleteSQLHelper(String whereColumn, Set<String> whereValues) throws IOException {
+        writerLock.lock();
+        BitSet deletedRows = new BitSet();
+        try {
+            int whereIndex = columns.indexOf(whereColumn);
+            if (whereIndex == -1) {
+                return deletedRows;
+            }
+            List<Integer> lines = new ArrayList<>();
+            // other writers are excluded, look for the rows while readers keep reading
+            rwLock.readLock().lock();
+            try {
+                for (List<Integer> chunk : scanLines(true, ArrayList<Integer>::new, (matches, index, line) -> {
+                    if (whereValues.contains(line.split(",")[whereIndex])) {
+                        matches.add(index);
+                    }
+                })) {
+                    lines.addAll(chunk);
+                }
+            } finally {
+                rwLock.readLock().unlock();
+            }
+            for (int line : lines) {
+                deletedRows.set(Math.toIntExact(rowIds[line]));
+            }
+            addTombstones(lines);
+        } finally {
+            writerLock.unlock();
+        }
+        return deletedRows;
+    }
+    /**
+     * Handles delete operations for SQL data based on row ids, by tombstoning their lines.
+     *
+     * @param rowIds the row ids of the rows to delete.
+     * @throws IOException if the tombstones cannot be written.
+     */
+    @Override
+    public void deleteByRowSQL(BitSet rowIds) throws IOException {
+        // given row ids, delete rows (for vertical partitioning deletion)
+        writerLock.lock();
+        try {
+            List<Integer> lines = new ArrayList<>();
+            // the row ids of the lines are in memory, no need to read the file
+            for (int index = 0; index < lineCount; index++) {
+                if (!tombstones.get(index) && rowIds.get(Math.toIntExact(this.rowIds[index]))) {
+                    lines.add(index);
+                }
+            }
+            addTombstones(lines);
+        } finally {
+            writerLock.unlock();
+        }
+    }
+    /**
+     * Handles insert operations for NoSQL data by appending key-value pairs to the CSV file.
+     *
+     * @param kvPairs list of key-value pairs to insert.
+     * @throws IOException if the row cannot be written.
+     */
+    @Override
+    public void insertNoSQL(List<String> kvPairs) throws IOException {
+        insertLines(-1, List.of(toLine(kvPairs)));
+    }
+    /**
+     * Appends NoSQL rows to the CSV file as one batch, under a single lock acquisition and with a single flush.
+     *
+     * @param rows the key-value pairs of each row.
+     * @throws IOException if the rows cannot be written.
+     */
+    @Override
+    public void insertBatchNoSQL(List<List<String>> rows) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (List<String> kvPairs : rows) {
+            lines.add(toLine(kvPairs));
+        }
+        insertLines(-1, lines);
+    }
+    /**
+     * Builds the CSV line of a NoSQL row.
+     *
+     * @param kvPairs list of key-value pairs of the row.
+     * @return the line.
+     */
+    private static String toLine(List<String> kvPairs) {
+        // [key1, value1, key2, value2, ...]
+        StringBuilder csvRow = new StringBuilder();
+        for (int i = 0; i < kvPairs.size(); i += 2) {
+            csvRow.append(kvPairs.get(i)).append(",").append(kvPairs.get(i + 1)).append(",");
+        }
+        return csvRow.toString();
+    }
+    /**
+     * Appends rows to the CSV file under consecutive row ids, and flushes them once.
+     *
+     * @param rowId the row id of the first row chosen by the caller, -1 to assign the next one.
+     * @param lines the rows.
+     * @throws IOException if the rows cannot be written, or the row id is not above every row id of the table.
+     */
+    private void insertLines(long rowId, List<String> lines) throws IOException {
+        writerLock.lock();
+        rwLock.writeLock().lock();
+        try {
+            if (rowId == -1) {
+                rowId = nextRowId;
+            } else if (rowId < nextRowId) {
+                throw new IOException("row id " + rowId + " is below the next row id " + nextRowId);
+            }
+            // row ids go first, so a crash cannot leave lines without their row id
+            ByteBuffer ids = ByteBuffer.allocate(lines.size() * Long.BYTES);
+            for (int i = 0; i < lines.size(); i++) {
+                ids.putLong(rowId + i);
+            }
+            ids.flip();
+            FileChannel rowIdWriter = rowIdAppender();
+            while (ids.hasRemaining()) {
+                rowIdWriter.write(ids);
+            }
+            BufferedWriter writer = appender();
+            for (String line : lines) {
+                writeLine(writer, line);
+            }
+            // readers open the file on their own, hand the rows to the file system
+            writer.flush();
+            for (int i = 0; i < lines.size(); i++) {
+                if (lineCount == rowIds.length) {
+                    rowIds = Arrays.copyOf(rowIds, rowIds.length * 2);
+                }
+                rowIds[lineCount++] = rowId++;
+            }
+            nextRowId = rowId;
+        } finally {
+            rwLock.writeLock().unlock();
+            writerLock.unlock();
+        }
+    }
+    /**
+     * Handles update operations for NoSQL data based on key-value matching conditions.
+     * Tombstoned lines are dropped while the file is rewritten.
+     *
+     * @param kvPairs list of key-value pairs to update.
+     * @param where conditions to match for updating.
+     * @throws IOException if the file cannot be read or rewritten.
+     */
+    @Override
+    public void updateNoSQL(List<String> kvPairs, List<String> where) throws IOException {
+        // update all rows with where condition
+        writerLock.lock();
+        rwLock.writeLock().lock();
+        try {
+            boolean updated = false;
+            closeAppender();
+            File tempFile = new File("temp-" + csvFileName);
+            int written = 0;
+            try (BufferedReader reader = new BufferedReader(new FileReader(csvFileName));
+                 BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile))
+            ) {
+                String line;
+                int index = 0;
+                while ((line = reader.readLine()) != null) {
+                    if (tombstones.get(index++)) {
+                        continue;
+                    }
+                    String[] row = line.split(","); // key, value, key, value
+                    for (int i = 0; i < row.length; i += 2) {
+                        String key = row[i];
+                        if (key.equals(where.get(0)) && row[i + 1].equals(where.get(1))) {
+                            // update key value pairs
+                            for (int j = 0; j < kvPairs.size(); j += 2) {
+                                // should scan all keys and update values
+                                for (int k = 0; k < row.length; k += 2) {
+                                    if (row[k].equals(kvPairs.get(j))) {
+                                        row[k + 1] = kvPairs.get(j + 1);
+                                        updated = true;
+                                    }
+                                }
+                            }
+
+                        }
+                    }
+                    writer.write(String.join(",", row));
+                    writer.write(",");
+                    writer.newLine();
+                    written++;
+                }
+            }
+            if (!updated) {
+                tempFile.delete();
+                return;
+            }
+            replaceFile(tempFile, written);
+        } finally {
+            rwLock.writeLock().unlock();
+            writerLock.unlock();
+        }
+    }
+    /**
+     * Handles delete operations for NoSQL data based on key-value matching conditions.
+     * Like the original format, once a row is deleted every remaining line is rewritten from its fields, without the
+     * trailing comma; tombstoned lines are dropped while the file is rewritten.
+     *
+     * @param where conditions to match for deletion.
+     * @throws IOException if the file cannot be read or rewritten.
+     */
+    @Override
+    public void deleteNoSQL(List<String> where) throws IOException {
+        // delete all rows with where condition
+        writerLock.lock();
+        rwLock.writeLock().lock();
+        try {
+            BitSet deleted = new BitSet();
+            closeAppender();
+            File tempFile = new File("temp-" + csvFileName);
+            int written = 0;
+            try (BufferedReader reader = new BufferedReader(new FileReader(csvFileName));
+                 BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile))
+            ) {
+                String line;
+                int index = 0;
+                while ((line = reader.readLine()) != null) {
+                    if (tombstones.get(index++)) {
+                        continue;
+                    }
+                    String[] row = line.split(","); // key, value, key, value
+                    boolean match = false;
+                    for (int i = 0; i < row.length && !match; i += 2) {
+                        match = row[i].equals(where.get(0)) && row[i + 1].equals(where.get(1));
+                    }
+                    if (match) {
+                        deleted.set(index - 1);
+                        continue;
+                    }
+                    writer.write(String.join(",", row));
+                    writer.newLine();
+                    written++;
+                }
+            }
+            if (deleted.isEmpty()) {
+                tempFile.delete();
+                return;
+            }
+            tombstones.or(deleted);
+            replaceFile(tempFile, written);
+        } finally {
+            rwLock.writeLock().unlock();
+            writerLock.unlock();
+        }
+    }
+    /**
+     * Finds a column in the header line.
+     *
+     * @param header the header line of a SQL table.
+     * @param column the column name.
+     * @return the index of the column, -1 if the table has no such column.
+     */
+    private static int indexOf(String header, String column) {
+        String[] headerColumns = header.split(",");
+        for (int i = 0; i < headerColumns.length; i++) {
+            if (headerColumns[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    /**
+     * Marks lines as deleted, records them in the tombstone file and schedules a compaction if enough of the file
+     * is deleted. Called with the writer lock held.
+     *
+     * @param lines the indices of the deleted lines.
+     * @throws IOException if the tombstone file cannot be written.
+     */
+    private void addTombstones(List<Integer> lines) throws IOException {
+        if (lines.isEmpty()) {
+            return;
+        }
+        StringBuilder records = new StringBuilder();
+        for (int line : lines) {
+            records.append(line).append("\n");
+        }
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(tombstoneFileName, true))) {
+            writer.write(records.toString());
+        }
+        rwLock.writeLock().lock();
+        try {
+            for (int line : lines) {
+                tombstones.set(line);
+            }
+            int deleted = tombstones.cardinality();
+            if (!compactionScheduled && deleted >= COMPACTION_MIN_TOMBSTONES && deleted >= lineCount * COMPACTION_RATIO) {
+                compactionScheduled = true;
+                background.submit(() -> {
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                });
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+    /**
+     * Rewrites the tombstone file with the current tombstones.
+     *
+     * @throws IOException if the tombstone file cannot be written.
+     */
+    private void writeTombstoneFile() throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(tombstoneFileName))) {
+            for (int line = tombstones.nextSetBit(0); line >= 0; line = tombstones.nextSetBit(line + 1)) {
+                writer.write(line + "\n");
+            }
+        }
+    }
+    /**
+     * Publishes a rewritten file without tombstones. Called with the write lock held.
+     *
+     * @param file the rewritten file.
+     * @param lines the number of data lines in it.
+     * @throws IOException if the file cannot be moved into place.
+     */
+    private void replaceFile(File file, int lines) throws IOException {
+        closeAppender();
+        dropRowIds(tombstones);
+        writeRowIdFile(lines);
+        Files.move(file.toPath(), new File(csvFileName).toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        lineCount = lines;
+        tombstones = new BitSet();
+        generation++;
+        writeTombstoneFile();
+    }
+    /**
+     * Copies the live lines into a new file and publishes it. The lines present when the compaction starts are
+     * copied without any lock: they only change when the file is replaced, which the generation tells. Rows inserted
+     * and deleted during the copy are carried over under the write lock, just before the new file is renamed into
+     * place: inserted rows by copying the bytes appended after the snapshot as they are, without reading the file
+     * again.
+     *
+     * @throws IOException if the file cannot be copied.
+     */
+    private void compact() throws IOException {
+        long start = System.nanoTime();
+        int snapshotLines;
+        long snapshotLength;
+        BitSet dropped;
+        long snapshotGeneration;
+        rwLock.writeLock().lock();
+        try {
+            if (tombstones.cardinality() < COMPACTION_MIN_TOMBSTONES) {
+                // an update rewrote the file since the compaction was scheduled
+                compactionScheduled = false;
+                return;
+            }
+            snapshotLines = lineCount;
+            // inserts flush their rows before counting them, so the file ends with the last snapshot line
+            snapshotLength = Files.size(Paths.get(csvFileName));
+            dropped = (BitSet) tombstones.clone();
+            snapshotGeneration = generation;
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+        File compacted = new File("compact-" + csvFileName);
+        long reclaimed = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(csvFileName));
+             BufferedWriter writer = new BufferedWriter(new FileWriter(compacted))) {
+            if (columns != null) {
+                writer.write(reader.readLine());
+            }
+            for (int index = 0; index < snapshotLines; index++) {
+                String line = reader.readLine();
+                if (!dropped.get(index)) {
+                    writeLine(writer, line);
+                } else {
+                    reclaimed += line.length() + 1;
+                }
+            }
+        }
+        writerLock.lock();
+        rwLock.writeLock().lock();
+        try {
+            compactionScheduled = false;
+            if (generation != snapshotGeneration) {
+                // an update replaced the file meanwhile and dropped the tombstones itself
+                compacted.delete();
+                return;
+            }
+            try (FileChannel source = FileChannel.open(Paths.get(csvFileName), StandardOpenOption.READ);
+                 FileChannel target = FileChannel.open(compacted.toPath(), StandardOpenOption.WRITE,
+                         StandardOpenOption.APPEND)) {
+                long end = source.size();
+                for (long position = snapshotLength; position < end; ) {
+                    position += source.transferTo(position, end - position, target);
+                }
+            }
+            // tombstones added during the copy move down by the number of lines dropped before them
+            BitSet remaining = new BitSet();
+            int droppedBefore = 0;
+            int nextDropped = dropped.nextSetBit(0);
+            for (int line = tombstones.nextSetBit(0); line >= 0; line = tombstones.nextSetBit(line + 1)) {
+                while (nextDropped >= 0 && nextDropped < line) {
+                    droppedBefore++;
+                    nextDropped = dropped.nextSetBit(nextDropped + 1);
+                }
+                if (nextDropped != line) {
+                    remaining.set(line - droppedBefore);
+                }
+            }
+            closeAppender();
+            dropRowIds(dropped);
+            writeRowIdFile(lineCount - dropped.cardinality());
+            Files.move(compacted.toPath(), new File(csvFileName).toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            lineCount -= dropped.cardinality();
+            tombstones = remaining;
+            generation++;
+            writeTombstoneFile();
+            compactions++;
+            compactionMillis += TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            compactionBytesReclaimed += reclaimed;
+        } finally {
+            rwLock.writeLock().unlock();
+            writerLock.unlock();
+        }
+    }
+    /**
+     * Removes the row ids of the lines dropped from the file. Called with the write lock held, before the line count
+     * is updated.
+     *
+     * @param dropped the indices of the dropped lines.
+     */
+    private void dropRowIds(BitSet dropped) {
+        int kept = 0;
+        for (int index = 0; index < lineCount; index++) {
+            if (!dropped.get(index)) {
+                rowIds[kept++] = rowIds[index];
+            }
+        }
+    }
+    /**
+     * Writes a data line the way inserts do: after a line break for SQL, whose header has none, and followed by one
+     * for NoSQL.
+     *
+     * @param writer the writer of the new file.
+     * @param line the line.
+     * @throws IOException if the line cannot be written.
+     */
+    private void writeLine(BufferedWriter writer, String line) throws IOException {
+        if (columns != null) {
+            writer.newLine();
+            writer.write(line);
+        } else {
+            writer.write(line);
+            writer.newLine();
+        }
+    }
+    /**
+     * Reports the tombstones and compactions of the file.
+     *
+     * @return tombstones, compactions, compactionMillis and compactionBytesReclaimed.
+     */
+    @Override
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        rwLock.readLock().lock();
+        try {
+            stats.put("tombstones", (long) tombstones.cardinality());
+            stats.put("compactions", compactions);
+            stats.put("compactionMillis", compactionMillis);
+            stats.put("compactionBytesReclaimed", compactionBytesReclaimed);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        return stats;
+    }
+    /**
+     * Returns the writer appending to the CSV file, opening it if the file was rewritten since the last insert.
+     *
+     * @return the writer.
+     * @throws IOException if the file cannot be opened.
+     */
+    private BufferedWriter appender() throws IOException {
+        if (appender == null) {
+            appender = new BufferedWriter(new FileWriter(csvFileName, true));
+        }
+        return appender;
+    }
+    /**
+     * Returns the channel appending to the row id file, opening it if the file was rewritten since the last insert.
+     *
+     * @return the channel.
+     * @throws IOException if the file cannot be opened.
+     */
+    private FileChannel rowIdAppender() throws IOException {
+        if (rowIdAppender == null) {
+            rowIdAppender = FileChannel.open(Paths.get(rowIdFileName), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return rowIdAppender;
+    }
+    /**
+     * Closes the writers appending to the CSV file and the row id file, before the files are replaced.
+     *
+     * @throws IOException if a writer cannot be closed.
+     */
+    private void closeAppender() throws IOException {
+        if (appender != null) {
+            appender.close();
+            appender = null;
+        }
+        if (rowIdAppender != null) {
+            rowIdAppender.close();
+            rowIdAppender = null;
+        }
+    }
+    /**
+     * Tells the row id the next inserted row gets.
+     *
+     * @return a row id above every row id of the table.
+     */
+    @Override
+    public long getNextRowId() {
+        rwLock.readLock().lock();
+        try {
+            return nextRowId;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+    /**
+     * Waits for a running compaction, closes the writer appending to the CSV file and writes a checkpoint of the row
+     * ids of its lines.
+     *
+     * @throws IOException if the writer cannot be closed or the checkpoint cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        background.shutdown();
+        try {
+            background.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        rwLock.writeLock().lock();
+        try {
+            closeAppender();
+            Checkpoint.save(Paths.get(checkpointFileName), Files.size(Paths.get(csvFileName)), out -> {
+                out.writeInt(lineCount);
+                out.writeLong(nextRowId);
+                for (int index = 0; index < lineCount; index++) {
+                    out.writeLong(rowIds[index]);
+                }
+            });
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+}
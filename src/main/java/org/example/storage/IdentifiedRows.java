@@ -0,0 +1,71 @@
+package org.example.storage;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rows of a SQL table together with their internal row ids, in ascending row id order. The column groups of a
+ * vertically partitioned table store the parts of a row under the same row id, so the client joins them on it
+ * instead of on their position.
+ */
+public class IdentifiedRows implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private long[] rowIds = new long[16];
+    private final List<String> rows = new ArrayList<>();
+
+    /**
+     * Adds a row after the rows added so far.
+     *
+     * @param rowId the internal id of the row, above the ids added so far.
+     * @param row the row, formatted the way {@link StorageEngine#selectSQL()} returns it, without the newline.
+     */
+    public void add(long rowId, String row) {
+        if (rows.size() == rowIds.length) {
+            rowIds = Arrays.copyOf(rowIds, rowIds.length * 2);
+        }
+        rowIds[rows.size()] = rowId;
+        rows.add(row);
+    }
+
+    /**
+     * Adds the rows of another instance after the rows added so far.
+     *
+     * @param other rows whose ids are above the ids added so far.
+     */
+    public void addAll(IdentifiedRows other) {
+        for (int index = 0; index < other.size(); index++) {
+            add(other.getRowId(index), other.getRow(index));
+        }
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return the number of rows
+     */
+    public int size() {
+        return rows.size();
+    }
+
+    /**
+     * Get the internal id of a row.
+     *
+     * @param index the index of the row
+     * @return the row id
+     */
+    public long getRowId(int index) {
+        return rowIds[index];
+    }
+
+    /**
+     * Get a row.
+     *
+     * @param index the index of the row
+     * @return the row, without the newline
+     */
+    public String getRow(int index) {
+        return rows.get(index);
+    }
+}
@@ -0,0 +1,251 @@
+package org.example.storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only storage engine. Inserts, updates and deletes are all appended to a log file as records,
+ * deletes as tombstones, and an in-memory index maps every live row to the offset of its latest record.
+ * Point writes therefore cost one append instead of a rewrite of the whole table.
+ * <p>
+ * The file starts with the {@link RowCodec} header, followed by records laid out as
+ * {@code [op: 1 byte][row id: 8 bytes][payload length: 4 bytes][payload]}, where the payload is a row encoded by
+ * {@link RowCodec}.
+ * <p>
+ * Closing the engine writes the index to a {@link Checkpoint} in {@code <log>.ckpt}, so a reopened log restores it
+ * without reading the records; without a checkpoint the records are replayed in order.
+ */
+public class LogStorageEngine extends AbstractStorageEngine {
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int HEADER_SIZE = 1 + 8 + 4;
+    private static final int REPLAY_BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final Path checkpointPath;
+    // row id -> offset of its latest PUT record, in insertion order
+    private final Map<Long, Long> offsets = new LinkedHashMap<>();
+    private long end = 0;
+
+    /**
+     * Constructs a LogStorageEngine and creates an empty log file.
+     *
+     * @param logFileName the name of the log file backing the table.
+     * @param columns a list of column names used in SQL table, null if this is for NoSQL storage.
+     * @param columnTypes the type of each column, null if this is for NoSQL storage.
+     * @throws IOException if the log file cannot be created.
+     */
+    public LogStorageEngine(String logFileName, List<String> columns, List<ColumnType> columnTypes) throws IOException {
+        this(logFileName, columns, columnTypes, false);
+    }
+
+    /**
+     * Constructs a LogStorageEngine over a new log file, or over the log file left by a previous run.
+     *
+     * @param logFileName the name of the log file backing the table.
+     * @param columns a list of column names used in SQL table, null if this is for NoSQL storage.
+     * @param columnTypes the type of each column, null if this is for NoSQL storage.
+     * @param reopen whether to open the existing log file instead of creating an empty one.
+     * @throws IOException if the log file cannot be created or opened, or was written for another schema.
+     */
+    public LogStorageEngine(String logFileName, List<String> columns, List<ColumnType> columnTypes,
+                            boolean reopen) throws IOException {
+        super(columns, columnTypes);
+        this.checkpointPath = Paths.get(logFileName + ".ckpt");
+        byte[] header = RowCodec.encodeHeader(columns, columnTypes);
+        if (!reopen) {
+            this.channel = FileChannel.open(Paths.get(logFileName), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            Files.deleteIfExists(checkpointPath);
+            ByteBuffer buffer = ByteBuffer.wrap(header);
+            while (buffer.hasRemaining()) {
+                end += channel.write(buffer, end);
+            }
+            return;
+        }
+        this.channel = FileChannel.open(Paths.get(logFileName), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.end = channel.size();
+        if (end < header.length) {
+            channel.close();
+            throw new IOException("invalid log file " + logFileName);
+        }
+        RowCodec.readHeader(readFully(0, header.length), columns, columnTypes);
+        boolean restored = Checkpoint.load(checkpointPath, end, in -> {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                offsets.put(in.readLong(), in.readLong());
+            }
+            readIndex(in);
+        });
+        if (!restored) {
+            replay(header.length);
+            rebuildIndex();
+        }
+    }
+
+    /**
+     * Rebuilds the offsets of the live rows by reading the records of a reopened log in order. A record cut short by
+     * a crash ends the log and is cut off.
+     *
+     * @param from the offset of the first record.
+     * @throws IOException if the log cannot be read.
+     */
+    private void replay(long from) throws IOException {
+        // not closed, that would close the channel
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel.position(from)), REPLAY_BUFFER_SIZE));
+        long offset = from;
+        while (offset + HEADER_SIZE <= end) {
+            byte op = in.readByte();
+            long rowId = in.readLong();
+            int length = in.readInt();
+            if (offset + HEADER_SIZE + length > end) {
+                break;
+            }
+            in.skipNBytes(length);
+            if (op == PUT) {
+                offsets.put(rowId, offset);
+            } else {
+                offsets.remove(rowId);
+            }
+            offset += HEADER_SIZE + length;
+        }
+        if (offset < end) {
+            channel.truncate(offset);
+            end = offset;
+        }
+    }
+
+    @Override
+    protected void writeRow(long rowId, byte[] row) throws IOException {
+        offsets.put(rowId, append(PUT, rowId, row));
+    }
+
+    /**
+     * Appends the PUT records of a batch of rows with a single write.
+     *
+     * @param firstRowId the row id of the first row.
+     * @param rows the encoded rows.
+     * @throws IOException if the records cannot be written.
+     */
+    @Override
+    protected void writeRows(long firstRowId, List<byte[]> rows) throws IOException {
+        int size = 0;
+        for (byte[] row : rows) {
+            size += HEADER_SIZE + row.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        long offset = end;
+        for (int i = 0; i < rows.size(); i++) {
+            byte[] row = rows.get(i);
+            offsets.put(firstRowId + i, offset);
+            buffer.put(PUT).putLong(firstRowId + i).putInt(row.length).put(row);
+            offset += HEADER_SIZE + row.length;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            end += channel.write(buffer, end);
+        }
+    }
+
+    @Override
+    protected RowView readRow(long rowId) throws IOException {
+        Long offset = offsets.get(rowId);
+        return offset == null ? null : newView().reset(readPayload(offset), 0);
+    }
+
+    @Override
+    protected void removeRow(long rowId) throws IOException {
+        if (offsets.remove(rowId) != null) {
+            append(DELETE, rowId, new byte[0]);
+        }
+    }
+
+    @Override
+    protected void scan(RowVisitor visitor) throws IOException {
+        RowView view = newView();
+        for (Map.Entry<Long, Long> entry : offsets.entrySet()) {
+            visitor.visit(entry.getKey(), view.reset(readPayload(entry.getValue()), 0));
+        }
+    }
+
+    /**
+     * Appends a record to the end of the log.
+     *
+     * @param op PUT or DELETE.
+     * @param rowId the row the record is about.
+     * @param payload the encoded row, empty for tombstones.
+     * @return the offset the record was written at.
+     * @throws IOException if the record cannot be written.
+     */
+    private long append(byte op, long rowId, byte[] payload) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        buffer.put(op).putLong(rowId).putInt(payload.length).put(payload).flip();
+        long offset = end;
+        while (buffer.hasRemaining()) {
+            end += channel.write(buffer, end);
+        }
+        return offset;
+    }
+
+    /**
+     * Reads the payload of the record at an offset.
+     *
+     * @param offset the offset of the record.
+     * @return the payload bytes.
+     * @throws IOException if the record cannot be read.
+     */
+    private ByteBuffer readPayload(long offset) throws IOException {
+        ByteBuffer header = readFully(offset, HEADER_SIZE);
+        header.get(); // op
+        header.getLong(); // row id
+        return readFully(offset + HEADER_SIZE, header.getInt());
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("truncated record at offset " + position);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Writes a checkpoint of the index and closes the log file.
+     *
+     * @throws IOException if the checkpoint cannot be written or the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        rwLock.writeLock().lock();
+        try {
+            Checkpoint.save(checkpointPath, end, out -> {
+                out.writeInt(offsets.size());
+                for (Map.Entry<Long, Long> entry : offsets.entrySet()) {
+                    out.writeLong(entry.getKey());
+                    out.writeLong(entry.getValue());
+                }
+                writeIndex(out);
+            });
+            channel.close();
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+}
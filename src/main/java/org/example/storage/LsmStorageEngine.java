@@ -0,0 +1,401 @@
+package org.example.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Log-structured merge storage engine for write-heavy tables.
+ * Writes only touch a sorted in-memory memtable. Once the memtable holds {@value #MEMTABLE_LIMIT} rows it is frozen
+ * and flushed in the background to an immutable {@link SSTable} segment. Reads check the memtable, then the frozen
+ * memtables and segments from newest to oldest; scans are a k-way merge of all of them by row id.
+ * <p>
+ * Segments are compacted size-tiered: when {@value #COMPACTION_THRESHOLD} segments of similar size sit next to each
+ * other they are merged into one, and tombstones are dropped once the merge reaches the oldest segment.
+ * <p>
+ * Closing the engine flushes the memtable and writes the primary key index to a {@link Checkpoint} in
+ * {@code <name>.ckpt}. A reopened table opens its segments in parallel, each reading only its footer and sparse
+ * index, and restores the index from the checkpoint, or rebuilds it with a scan if there is none.
+ */
+public class LsmStorageEngine extends AbstractStorageEngine {
+    static final int MEMTABLE_LIMIT = 4096;
+    static final int COMPACTION_THRESHOLD = 4;
+    // segments whose sizes are within this factor of each other are in the same tier
+    private static final double TIER_RATIO = 2.0;
+    // marks a deleted row in a memtable, compared by identity
+    private static final byte[] TOMBSTONE = new byte[0];
+
+    private final String name;
+    private final Path checkpointPath;
+    private NavigableMap<Long, byte[]> memtable = new TreeMap<>();
+    // frozen memtables waiting to be flushed, oldest first
+    private final List<NavigableMap<Long, byte[]>> frozen = new ArrayList<>();
+    // segments, oldest first
+    private List<SSTable> segments = new ArrayList<>();
+    private long nextSegmentSeq = 0;
+    // flushes and compactions run one at a time, in order
+    private final ExecutorService background = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "lsm-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructs an LsmStorageEngine and removes any segment left from a previous table with the same name.
+     *
+     * @param name the base name of the segment files, segments are stored as {@code <name>.<seq>.sst}.
+     * @param columns a list of column names used in SQL table, null if this is for NoSQL storage.
+     * @param columnTypes the type of each column, null if this is for NoSQL storage.
+     * @throws IOException if old segments cannot be removed.
+     */
+    public LsmStorageEngine(String name, List<String> columns, List<ColumnType> columnTypes) throws IOException {
+        this(name, columns, columnTypes, false);
+    }
+
+    /**
+     * Constructs an LsmStorageEngine over no segment, or over the segments left by a previous run.
+     *
+     * @param name the base name of the segment files, segments are stored as {@code <name>.<seq>.sst}.
+     * @param columns a list of column names used in SQL table, null if this is for NoSQL storage.
+     * @param columnTypes the type of each column, null if this is for NoSQL storage.
+     * @param reopen whether to open the existing segments instead of removing them.
+     * @throws IOException if the segments cannot be removed or opened, or were written for another schema.
+     */
+    public LsmStorageEngine(String name, List<String> columns, List<ColumnType> columnTypes,
+                            boolean reopen) throws IOException {
+        super(columns, columnTypes);
+        this.name = name;
+        this.checkpointPath = Paths.get(name + ".ckpt");
+        if (!reopen) {
+            for (Path path : findSegmentFiles()) {
+                Files.delete(path);
+            }
+            Files.deleteIfExists(checkpointPath);
+            return;
+        }
+        List<Path> paths = findSegmentFiles();
+        SSTable[] opened = new SSTable[paths.size()];
+        Checkpoint.unchecked(() -> IntStream.range(0, opened.length).parallel().forEach(i -> {
+            try {
+                opened[i] = new SSTable(paths.get(i), seqOf(paths.get(i)), columns, columnTypes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }));
+        List<SSTable> loaded = new ArrayList<>(Arrays.asList(opened));
+        loaded.sort(Comparator.comparingLong(SSTable::getSeq));
+        segments = loaded;
+        nextSegmentSeq = loaded.isEmpty() ? 0 : loaded.get(loaded.size() - 1).getSeq() + 1;
+        if (!Checkpoint.load(checkpointPath, segmentBytes(), this::readIndex)) {
+            rebuildIndex();
+        }
+    }
+
+    /**
+     * Lists the segment files of this table.
+     *
+     * @return the segment file paths.
+     * @throws IOException if the directory cannot be listed.
+     */
+    private List<Path> findSegmentFiles() throws IOException {
+        Path file = Paths.get(name + ".0.sst").toAbsolutePath();
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(file.getParent(), segmentPrefix() + "*.sst")) {
+            for (Path path : stream) {
+                String seq = path.getFileName().toString().substring(segmentPrefix().length()).replace(".sst", "");
+                if (seq.chars().allMatch(Character::isDigit)) {
+                    paths.add(path);
+                }
+            }
+        }
+        return paths;
+    }
+
+    private String segmentPrefix() {
+        return Paths.get(name + ".0.sst").getFileName().toString().replace("0.sst", "");
+    }
+
+    private long seqOf(Path path) {
+        return Long.parseLong(path.getFileName().toString().substring(segmentPrefix().length()).replace(".sst", ""));
+    }
+
+    /**
+     * @return the total size of the segments, which identifies the segments a checkpoint was written for.
+     */
+    private long segmentBytes() {
+        long bytes = 0;
+        for (SSTable segment : segments) {
+            bytes += segment.getSize();
+        }
+        return bytes;
+    }
+
+    private Path segmentPath(long seq) {
+        return Paths.get(name + "." + seq + ".sst");
+    }
+
+    @Override
+    protected void writeRow(long rowId, byte[] row) {
+        memtable.put(rowId, row);
+        maybeFreeze();
+    }
+
+    @Override
+    protected void removeRow(long rowId) {
+        memtable.put(rowId, TOMBSTONE);
+        maybeFreeze();
+    }
+
+    @Override
+    protected RowView readRow(long rowId) throws IOException {
+        byte[] row = memtable.get(rowId);
+        for (int i = frozen.size() - 1; row == null && i >= 0; i--) {
+            row = frozen.get(i).get(rowId);
+        }
+        if (row != null) {
+            return row == TOMBSTONE ? null : newView().reset(ByteBuffer.wrap(row), 0);
+        }
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            SSTable.Entry entry = segments.get(i).get(rowId);
+            if (entry != null) {
+                return entry.row == null ? null : newView().reset(entry.row, 0);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected void scan(RowVisitor visitor) throws IOException {
+        // sources from oldest to newest, the newest version of a row wins
+        List<Iterator<SSTable.Entry>> sources = new ArrayList<>();
+        for (SSTable segment : segments) {
+            sources.add(segment.iterator());
+        }
+        for (NavigableMap<Long, byte[]> table : frozen) {
+            sources.add(memtableIterator(table));
+        }
+        sources.add(memtableIterator(memtable));
+        Iterator<SSTable.Entry> merged = merge(sources, false);
+        RowView view = newView();
+        while (merged.hasNext()) {
+            SSTable.Entry entry = merged.next();
+            visitor.visit(entry.rowId, view.reset(entry.row, 0));
+        }
+    }
+
+    private static Iterator<SSTable.Entry> memtableIterator(NavigableMap<Long, byte[]> table) {
+        Iterator<Map.Entry<Long, byte[]>> entries = table.entrySet().iterator();
+        return new Iterator<SSTable.Entry>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public SSTable.Entry next() {
+                Map.Entry<Long, byte[]> entry = entries.next();
+                byte[] row = entry.getValue();
+                return new SSTable.Entry(entry.getKey(), row == TOMBSTONE ? null : ByteBuffer.wrap(row));
+            }
+        };
+    }
+
+    /**
+     * K-way merge of sorted sources. When several sources hold the same row id only the newest is kept.
+     *
+     * @param sources sorted iterators, from oldest to newest.
+     * @param keepTombstones whether deleted rows are returned as null rows or skipped.
+     * @return the merged iterator, sorted by row id.
+     */
+    private static Iterator<SSTable.Entry> merge(List<Iterator<SSTable.Entry>> sources, boolean keepTombstones) {
+        // heap of [current entry, source index], ordered by row id then newest source first
+        PriorityQueue<Object[]> heap = new PriorityQueue<>((a, b) -> {
+            int cmp = Long.compare(((SSTable.Entry) a[0]).rowId, ((SSTable.Entry) b[0]).rowId);
+            return cmp != 0 ? cmp : Integer.compare((int) b[1], (int) a[1]);
+        });
+        for (int i = 0; i < sources.size(); i++) {
+            if (sources.get(i).hasNext()) {
+                heap.add(new Object[]{sources.get(i).next(), i});
+            }
+        }
+        return new Iterator<SSTable.Entry>() {
+            private SSTable.Entry next = advance();
+
+            private SSTable.Entry advance() {
+                while (!heap.isEmpty()) {
+                    Object[] top = heap.poll();
+                    SSTable.Entry entry = (SSTable.Entry) top[0];
+                    refill((int) top[1]);
+                    // drop older versions of the same row
+                    while (!heap.isEmpty() && ((SSTable.Entry) heap.peek()[0]).rowId == entry.rowId) {
+                        refill((int) heap.poll()[1]);
+                    }
+                    if (entry.row != null || keepTombstones) {
+                        return entry;
+                    }
+                }
+                return null;
+            }
+
+            private void refill(int source) {
+                if (sources.get(source).hasNext()) {
+                    heap.add(new Object[]{sources.get(source).next(), source});
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public SSTable.Entry next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                SSTable.Entry current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    /**
+     * Freezes the memtable once it is full and schedules its flush. Called with the write lock held.
+     */
+    private void maybeFreeze() {
+        if (memtable.size() < MEMTABLE_LIMIT) {
+            return;
+        }
+        NavigableMap<Long, byte[]> table = memtable;
+        frozen.add(table);
+        memtable = new TreeMap<>();
+        long seq = nextSegmentSeq++;
+        background.submit(() -> {
+            try {
+                flush(table, seq);
+                compact();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Writes a frozen memtable to a new segment and publishes it.
+     *
+     * @param table the frozen memtable.
+     * @param seq the sequence number of the new segment.
+     * @throws IOException if the segment cannot be written.
+     */
+    private void flush(NavigableMap<Long, byte[]> table, long seq) throws IOException {
+        // the table is frozen, no lock needed to read it
+        Path path = segmentPath(seq);
+        SSTable.write(path, columns, columnTypes, memtableIterator(table));
+        SSTable segment = new SSTable(path, seq, columns, columnTypes);
+        rwLock.writeLock().lock();
+        try {
+            List<SSTable> published = new ArrayList<>(segments);
+            published.add(segment);
+            segments = published;
+            frozen.removeIf(t -> t == table);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Merges the first run of adjacent segments of similar size that is long enough. Runs on the background thread,
+     * which is the only one that replaces segments, so the current list can be read without the lock.
+     *
+     * @throws IOException if the merged segment cannot be written.
+     */
+    private void compact() throws IOException {
+        List<SSTable> current = segments;
+        int start = 0;
+        for (int i = 1; i <= current.size(); i++) {
+            boolean sameTier = i < current.size() && similar(current.get(i - 1), current.get(i));
+            if (!sameTier) {
+                if (i - start >= COMPACTION_THRESHOLD) {
+                    merge(current, start, i);
+                    return;
+                }
+                start = i;
+            }
+        }
+    }
+
+    private static boolean similar(SSTable a, SSTable b) {
+        double ratio = (double) Math.max(a.getSize(), b.getSize()) / Math.max(1, Math.min(a.getSize(), b.getSize()));
+        return ratio <= TIER_RATIO;
+    }
+
+    /**
+     * Merges segments [from, to) into one segment that takes the place, and the sequence number, of the newest.
+     *
+     * @param current the segment list the run was chosen from.
+     * @param from index of the oldest segment of the run.
+     * @param to index after the newest segment of the run.
+     * @throws IOException if the merged segment cannot be written.
+     */
+    private void merge(List<SSTable> current, int from, int to) throws IOException {
+        List<SSTable> run = current.subList(from, to);
+        List<Iterator<SSTable.Entry>> sources = new ArrayList<>();
+        for (SSTable segment : run) {
+            sources.add(segment.iterator());
+        }
+        // nothing older can hide behind a tombstone when the run starts at the oldest segment
+        boolean keepTombstones = from > 0;
+        long seq = run.get(run.size() - 1).getSeq();
+        Path path = segmentPath(seq);
+        SSTable.write(path, columns, columnTypes, merge(sources, keepTombstones));
+        SSTable merged = new SSTable(path, seq, columns, columnTypes);
+        rwLock.writeLock().lock();
+        try {
+            List<SSTable> published = new ArrayList<>(segments.subList(0, from));
+            published.add(merged);
+            published.addAll(segments.subList(to, segments.size()));
+            segments = published;
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+        for (SSTable segment : run) {
+            segment.close();
+            if (segment.getSeq() != seq) {
+                Files.deleteIfExists(segmentPath(segment.getSeq()));
+            }
+        }
+    }
+
+    /**
+     * Waits for pending flushes, then flushes what is left in the memtable and writes a checkpoint of the index.
+     *
+     * @throws IOException if the memtable or the checkpoint cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        background.shutdown();
+        try {
+            background.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!memtable.isEmpty()) {
+            flush(memtable, nextSegmentSeq++);
+            memtable = new TreeMap<>();
+        }
+        Checkpoint.save(checkpointPath, segmentBytes(), this::writeIndex);
+        for (SSTable segment : segments) {
+            segment.close();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.example.storage;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * The state of the aggregates of an {@link Aggregation} over some rows, one state per group and aggregate. Partial
+ * aggregates of disjoint rows, e.g. of the partitions of a table, merge into the partial aggregates of all of them, so
+ * replicas fold their own rows and the coordinator only merges and formats the results.
+ */
+public class PartialAggregates implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Aggregation aggregation;
+    // GROUP BY values -> state of each aggregate
+    private final Map<List<String>, State[]> groups = new HashMap<>();
+
+    /**
+     * The state of one aggregate of a group: the number of non-null values (of rows for COUNT(*)), their sum as a
+     * long and as a double, and their smallest or largest value.
+     */
+    private static class State implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private long count = 0;
+        private long longSum = 0;
+        private double doubleSum = 0;
+        private Object extreme;
+    }
+
+    /**
+     * Constructs empty partial aggregates.
+     *
+     * @param aggregation the aggregates.
+     */
+    public PartialAggregates(Aggregation aggregation) {
+        this.aggregation = aggregation;
+    }
+
+    /**
+     * Folds a row into the state of its group.
+     *
+     * @param fields the fields of the row by index in {@link Aggregation#getColumns()}, as literal text.
+     * @throws IllegalArgumentException if a value is not valid for the type of its column.
+     */
+    public void add(IntFunction<String> fields) {
+        List<String> key = new ArrayList<>(aggregation.getGroupSize());
+        for (int i = 0; i < aggregation.getGroupSize(); i++) {
+            key.add(fields.apply(i));
+        }
+        State[] states = groups.computeIfAbsent(key, k -> newStates());
+        List<Aggregation.Function> functions = aggregation.getFunctions();
+        for (int i = 0; i < states.length; i++) {
+            int argument = aggregation.getArguments().get(i);
+            if (argument == -1) {
+                states[i].count++;
+                continue;
+            }
+            Object value = aggregation.getTypes().get(argument).parse(fields.apply(argument));
+            if (value == null) {
+                continue;
+            }
+            State state = states[i];
+            state.count++;
+            switch (functions.get(i)) {
+                case SUM:
+                case AVG:
+                    if (value instanceof Double) {
+                        state.doubleSum += (Double) value;
+                    } else {
+                        state.longSum += ((Number) value).longValue();
+                    }
+                    break;
+                case MIN:
+                    if (state.extreme == null || compareValues(value, state.extreme) < 0) {
+                        state.extreme = value;
+                    }
+                    break;
+                case MAX:
+                    if (state.extreme == null || compareValues(value, state.extreme) > 0) {
+                        state.extreme = value;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private State[] newStates() {
+        State[] states = new State[aggregation.getFunctions().size()];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = new State();
+        }
+        return states;
+    }
+
+    /**
+     * Merges the partial aggregates of other rows into these.
+     *
+     * @param other the partial aggregates of rows disjoint from these, of the same aggregation.
+     */
+    public void merge(PartialAggregates other) {
+        List<Aggregation.Function> functions = aggregation.getFunctions();
+        for (Map.Entry<List<String>, State[]> group : other.groups.entrySet()) {
+            State[] states = groups.get(group.getKey());
+            if (states == null) {
+                groups.put(group.getKey(), group.getValue());
+                continue;
+            }
+            for (int i = 0; i < states.length; i++) {
+                State state = states[i];
+                State merged = group.getValue()[i];
+                state.count += merged.count;
+                state.longSum += merged.longSum;
+                state.doubleSum += merged.doubleSum;
+                boolean min = functions.get(i) == Aggregation.Function.MIN;
+                if (merged.extreme != null && (state.extreme == null
+                        || min == compareValues(merged.extreme, state.extreme) < 0)) {
+                    state.extreme = merged.extreme;
+                }
+            }
+        }
+    }
+
+    /**
+     * Formats the final rows, one per group in the order of the GROUP BY values. Without GROUP BY there is exactly
+     * one row, even over no rows.
+     *
+     * @return the rows, each holding the select items in order and followed by a newline.
+     */
+    public String format() {
+        List<ColumnType> types = aggregation.getTypes();
+        int groupSize = aggregation.getGroupSize();
+        List<Map.Entry<List<String>, State[]>> rows = new ArrayList<>(groups.entrySet());
+        if (groupSize == 0 && rows.isEmpty()) {
+            rows.add(Map.entry(List.of(), newStates()));
+        }
+        rows.sort((a, b) -> {
+            for (int i = 0; i < groupSize; i++) {
+                ColumnType type = types.get(i);
+                int compare = compareValues(type.parse(a.getKey().get(i)), type.parse(b.getKey().get(i)));
+                if (compare != 0) {
+                    return compare;
+                }
+            }
+            return 0;
+        });
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<List<String>, State[]> row : rows) {
+            for (int item : aggregation.getOutput()) {
+                if (item < 0) {
+                    result.append(row.getKey().get(-1 - item));
+                } else {
+                    result.append(formatState(item, row.getValue()[item]));
+                }
+                result.append(",");
+            }
+            result.append("\n");
+        }
+        return result.toString();
+    }
+
+    /**
+     * Orders values with nulls first.
+     */
+    @SuppressWarnings("unchecked")
+    private static int compareValues(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    /**
+     * Formats the final value of an aggregate: COUNT is a count, SUM a long for integer columns and a double
+     * otherwise, AVG a double, and MIN and MAX a value of the column. Aggregates other than COUNT over no values are
+     * null, formatted as an empty field.
+     */
+    private String formatState(int aggregate, State state) {
+        Aggregation.Function function = aggregation.getFunctions().get(aggregate);
+        if (function == Aggregation.Function.COUNT) {
+            return Long.toString(state.count);
+        }
+        if (state.count == 0) {
+            return "";
+        }
+        ColumnType type = aggregation.getTypes().get(aggregation.getArguments().get(aggregate));
+        switch (function) {
+            case SUM:
+                return type == ColumnType.DOUBLE ? Double.toString(state.doubleSum) : Long.toString(state.longSum);
+            case AVG:
+                return Double.toString((type == ColumnType.DOUBLE ? state.doubleSum : state.longSum)
+                        / (double) state.count);
+            default:
+                return type.format(state.extreme);
+        }
+    }
+
+    /**
+     * @return the number of groups.
+     */
+    public int size() {
+        return groups.size();
+    }
+}
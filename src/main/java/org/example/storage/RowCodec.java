@@ -0,0 +1,174 @@
+package org.example.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary row format shared by the non-CSV storage engines.
+ * An untyped row (NoSQL) is {@code [field count: varint]} followed by {@code [length: varint][UTF-8 bytes]} per field.
+ * A typed row (SQL) is {@code [field count: varint][null bitmap: 1 bit per field]} followed by each non-null field in
+ * the encoding of its {@link ColumnType}: fixed-width big-endian primitives, or {@code [length: varint][UTF-8 bytes]}
+ * for VARCHAR. Either way values may contain commas and newlines, and a field can be located and compared without
+ * decoding the fields before it (see {@link RowView}).
+ * <p>
+ * Data files start with a header carrying the schema: {@code [magic: 4][version: 1]}, then the column names and the
+ * column type names, each as an untyped row (both empty for NoSQL).
+ */
+public final class RowCodec {
+    static final int MAGIC = 0x524F5753;
+    static final byte VERSION = 2;
+
+    private RowCodec() {
+    }
+
+    /**
+     * Encodes a row.
+     *
+     * @param row the field values of the row, as literal text.
+     * @param types the type of each field, null for an untyped row.
+     * @return the encoded row.
+     * @throws IllegalArgumentException if a value is not valid for its type.
+     */
+    public static byte[] encode(List<String> row, List<ColumnType> types) {
+        byte[][] fields = new byte[row.size()][];
+        int size = varIntSize(fields.length);
+        int bitmapSize = types == null ? 0 : (fields.length + 7) / 8;
+        size += bitmapSize;
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = encodeField(types == null ? null : types.get(i), row.get(i));
+            if (fields[i] != null) {
+                boolean prefixed = types == null || types.get(i).getWidth() < 0;
+                size += (prefixed ? varIntSize(fields[i].length) : 0) + fields[i].length;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        putVarInt(buffer, fields.length);
+        if (types != null) {
+            byte[] bitmap = new byte[bitmapSize];
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i] == null) {
+                    bitmap[i / 8] |= (byte) (1 << (i % 8));
+                }
+            }
+            buffer.put(bitmap);
+        }
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] == null) {
+                continue;
+            }
+            if (types == null || types.get(i).getWidth() < 0) {
+                putVarInt(buffer, fields[i].length);
+            }
+            buffer.put(fields[i]);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Encodes one field value the way it is stored, without length prefix, so it can be compared with
+     * {@link RowView#fieldEquals(int, byte[])}.
+     *
+     * @param type the type of the field, null for an untyped field.
+     * @param text the value as literal text.
+     * @return the encoded value, null for a null value of a typed field.
+     * @throws IllegalArgumentException if the value is not valid for its type.
+     */
+    public static byte[] encodeField(ColumnType type, String text) {
+        if (type == null) {
+            return text.getBytes(StandardCharsets.UTF_8);
+        }
+        Object value = type.parse(text);
+        return value == null ? null : type.encode(value);
+    }
+
+    /**
+     * Decodes a whole row into strings. Scans should prefer a reused {@link RowView}.
+     *
+     * @param bytes the encoded row.
+     * @param types the type of each field, null for an untyped row.
+     * @return the field values of the row.
+     */
+    public static List<String> decode(byte[] bytes, List<ColumnType> types) {
+        return new RowView(types).reset(ByteBuffer.wrap(bytes), 0).toList();
+    }
+
+    /**
+     * Encodes the file header for a table.
+     *
+     * @param columns a list of column names used in SQL table, null if this is for NoSQL storage.
+     * @param types the type of each column, null if this is for NoSQL storage.
+     * @return the encoded header.
+     */
+    public static byte[] encodeHeader(List<String> columns, List<ColumnType> types) {
+        byte[] names = encode(columns == null ? new ArrayList<>() : columns, null);
+        byte[] typeNames = encode(typeNames(types), null);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 1 + names.length + typeNames.length);
+        buffer.putInt(MAGIC).put(VERSION).put(names).put(typeNames);
+        return buffer.array();
+    }
+
+    /**
+     * Reads a file header and checks it was written for the same schema.
+     *
+     * @param buffer the start of the file, positioned at the header; left positioned after it.
+     * @param columns a list of column names used in SQL table, null if this is for NoSQL storage.
+     * @param types the type of each column, null if this is for NoSQL storage.
+     * @throws IOException if the header is missing, of another version, or for another schema.
+     */
+    public static void readHeader(ByteBuffer buffer, List<String> columns, List<ColumnType> types) throws IOException {
+        if (buffer.remaining() < 5 || buffer.getInt() != MAGIC) {
+            throw new IOException("not a row file");
+        }
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("unsupported row file version " + version);
+        }
+        RowView view = new RowView(null);
+        List<String> names;
+        List<String> typeNames;
+        try {
+            names = view.reset(buffer, buffer.position()).toList();
+            buffer.position(buffer.position() + view.length());
+            typeNames = view.reset(buffer, buffer.position()).toList();
+            buffer.position(buffer.position() + view.length());
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            // headers are read with the length expected for the schema, a longer one is cut off
+            throw new IOException("row file schema does not match " + columns + " " + typeNames(types), e);
+        }
+        List<String> expected = columns == null ? new ArrayList<>() : columns;
+        if (!names.equals(expected) || !typeNames.equals(typeNames(types))) {
+            throw new IOException("row file schema " + names + " " + typeNames + " does not match " + expected + " "
+                    + typeNames(types));
+        }
+    }
+
+    private static List<String> typeNames(List<ColumnType> types) {
+        List<String> names = new ArrayList<>();
+        if (types != null) {
+            for (ColumnType type : types) {
+                names.add(type.name());
+            }
+        }
+        return names;
+    }
+
+    static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void putVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+}
@@ -0,0 +1,314 @@
+package org.example.storage;
+
+import net.sf.jsqlparser.expression.AllValue;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.NullValue;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.select.Limit;
+import net.sf.jsqlparser.statement.select.OrderByElement;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.IntFunction;
+
+/**
+ * The ORDER BY and LIMIT clauses of a SQL SELECT, e.g. {@code ORDER BY year DESC, id LIMIT 100}, compiled once by the
+ * coordinator and sent to the replicas. Each replica returns the first rows of its partition in this order, keeping
+ * only the best {@code limit} rows seen so far in a bounded heap while it scans, and the coordinator merges the
+ * sorted rows of every partition, stopping as soon as it has {@code limit} rows. Values compare by their column type,
+ * nulls first in ascending order and last in descending order; rows with equal keys keep their partition and row id
+ * order.
+ */
+public class RowOrder implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final List<String> columns = new ArrayList<>();
+    private final List<ColumnType> types = new ArrayList<>();
+    private final List<Boolean> ascending = new ArrayList<>();
+    // -1 for no LIMIT
+    private long limit = -1;
+
+    private RowOrder() {
+    }
+
+    /**
+     * Compiles the ORDER BY and LIMIT clauses of a SELECT.
+     *
+     * @param select the statement.
+     * @param tableColumns the columns of the table.
+     * @param tableTypes the type of each column.
+     * @return the order, null if the statement has neither ORDER BY nor LIMIT.
+     * @throws IllegalArgumentException if a sort key is not a column of the table, or the statement uses OFFSET,
+     * FETCH, NULLS FIRST or NULLS LAST.
+     */
+    public static RowOrder compile(PlainSelect select, List<String> tableColumns, List<ColumnType> tableTypes) {
+        List<OrderByElement> orderBy = select.getOrderByElements();
+        Limit limit = select.getLimit();
+        if (orderBy == null && limit == null) {
+            return null;
+        }
+        if (select.getOffset() != null || select.getFetch() != null || (limit != null && limit.getOffset() != null)) {
+            throw new IllegalArgumentException("OFFSET and FETCH are not supported");
+        }
+        RowOrder order = new RowOrder();
+        if (orderBy != null) {
+            for (OrderByElement element : orderBy) {
+                if (!(element.getExpression() instanceof Column)) {
+                    throw new IllegalArgumentException("unsupported sort key " + element);
+                }
+                if (element.getNullOrdering() != null) {
+                    throw new IllegalArgumentException("unsupported null ordering " + element);
+                }
+                String column = ((Column) element.getExpression()).getColumnName();
+                int index = tableColumns.indexOf(column);
+                if (index == -1) {
+                    throw new IllegalArgumentException("unknown column " + column);
+                }
+                order.columns.add(column);
+                order.types.add(tableTypes.get(index));
+                order.ascending.add(element.isAsc());
+            }
+        }
+        if (limit != null) {
+            if (limit.getRowCount() instanceof LongValue) {
+                order.limit = ((LongValue) limit.getRowCount()).getValue();
+            } else if (!(limit.getRowCount() instanceof AllValue) && !(limit.getRowCount() instanceof NullValue)) {
+                throw new IllegalArgumentException("unsupported limit " + limit.getRowCount());
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Get the columns of the sort key, most significant first.
+     *
+     * @return the column names, empty for a LIMIT without ORDER BY.
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return the maximum number of rows to return, -1 for no limit.
+     */
+    public long getLimit() {
+        return limit;
+    }
+
+    /**
+     * @param i the index of a sort column.
+     * @return true if rows are sorted by the column in ascending order.
+     */
+    public boolean isAscending(int i) {
+        return ascending.get(i);
+    }
+
+    /**
+     * Checks whether rows are sorted by one column only, in either direction.
+     *
+     * @param column the column, e.g. the id column.
+     * @return true if the sort key is this column alone.
+     */
+    public boolean isBy(String column) {
+        return columns.size() == 1 && columns.get(0).equals(column);
+    }
+
+    /**
+     * Compares the sort keys of two rows.
+     *
+     * @param a the typed values of the sort columns of a row.
+     * @param b the typed values of the sort columns of another row.
+     * @return a negative number if a comes first, a positive number if b comes first, 0 if the keys are equal.
+     */
+    @SuppressWarnings("unchecked")
+    public int compare(Object[] a, Object[] b) {
+        for (int i = 0; i < a.length; i++) {
+            int compare;
+            if (a[i] == null || b[i] == null) {
+                compare = a[i] == null ? (b[i] == null ? 0 : -1) : 1;
+            } else {
+                compare = ((Comparable<Object>) a[i]).compareTo(b[i]);
+            }
+            if (compare != 0) {
+                return ascending.get(i) ? compare : -compare;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Parses the sort key of a row.
+     *
+     * @param keyFields the fields of the sort columns, see {@link StorageEngine#fieldsOf(List, List)}.
+     * @param row the literal text of each field of the row by index.
+     * @return the typed values of the sort columns.
+     */
+    public Object[] keyOf(int[] keyFields, IntFunction<String> row) {
+        Object[] key = new Object[keyFields.length];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = types.get(i).parse(row.apply(keyFields[i]));
+        }
+        return key;
+    }
+
+    /**
+     * Sorts rows of text, such as the cached result of a partition, keeping those matching a condition.
+     *
+     * @param rows the rows, each followed by a newline.
+     * @param rowColumns the columns of the fields of each row.
+     * @param matcher the condition bound to rowColumns, null for every row.
+     * @param fields the indexes of the fields to return, null for every field.
+     * @return the first matching rows in this order.
+     * @throws IllegalArgumentException if a sort column is not one of rowColumns.
+     */
+    public SortedRows sort(String rows, List<String> rowColumns, RowPredicate.Matcher matcher, int[] fields) {
+        int[] keyFields = StorageEngine.fieldsOf(rowColumns, columns);
+        Collector top = newCollector();
+        int from = 0;
+        while (from < rows.length()) {
+            int to = rows.indexOf('\n', from);
+            if (to == -1) {
+                to = rows.length();
+            }
+            String[] values = rows.substring(from, to).split(",", -1);
+            IntFunction<String> row = i -> i < values.length ? values[i] : "";
+            if (matcher == null || matcher.matches(row)) {
+                Object[] key = keyOf(keyFields, row);
+                if (top.wants(key)) {
+                    StringBuilder data = new StringBuilder();
+                    if (fields == null) {
+                        data.append(rows, from, to);
+                    } else {
+                        for (int i : fields) {
+                            data.append(row.apply(i)).append(',');
+                        }
+                    }
+                    top.add(key, data.toString());
+                }
+            }
+            from = to + 1;
+        }
+        return top.finish();
+    }
+
+    /**
+     * Merges rows sorted in this order, e.g. of several partitions, with a k-way merge that stops once it has
+     * {@code limit} rows. Rows with equal keys are taken from the earlier list first.
+     *
+     * @param sortedRows the rows of each source, null for a source that could not be read.
+     * @return the first rows of all sources in this order.
+     */
+    public SortedRows merge(List<SortedRows> sortedRows) {
+        // cursor: {source, position}, the next row of each source that is not exhausted
+        PriorityQueue<int[]> cursors = new PriorityQueue<>((a, b) -> {
+            int compare = compare(sortedRows.get(a[0]).getKey(a[1]), sortedRows.get(b[0]).getKey(b[1]));
+            return compare != 0 ? compare : Integer.compare(a[0], b[0]);
+        });
+        for (int i = 0; i < sortedRows.size(); i++) {
+            if (sortedRows.get(i) != null && sortedRows.get(i).size() > 0) {
+                cursors.add(new int[]{i, 0});
+            }
+        }
+        SortedRows merged = new SortedRows();
+        while (!cursors.isEmpty() && (limit < 0 || merged.size() < limit)) {
+            int[] cursor = cursors.poll();
+            SortedRows source = sortedRows.get(cursor[0]);
+            merged.add(source.getKey(cursor[1]), source.getRow(cursor[1]));
+            if (++cursor[1] < source.size()) {
+                cursors.add(cursor);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return an empty collector of the first rows in this order.
+     */
+    public Collector newCollector() {
+        return new Collector(this);
+    }
+
+    /**
+     * Collects the first rows in an order among rows offered in any order. With a LIMIT, only the best {@code limit}
+     * rows seen so far are kept, in a heap whose head is the worst of them, so a row that cannot make it is rejected
+     * by {@link #wants(Object[])} before it is formatted. Not thread-safe.
+     */
+    public static class Collector {
+        private final RowOrder order;
+        private final PriorityQueue<Entry> heap;
+        private long sequence = 0;
+
+        /**
+         * A collected row, numbered in the order it was offered so rows with equal keys keep that order.
+         */
+        private static class Entry {
+            private final Object[] key;
+            private final String row;
+            private final long sequence;
+
+            Entry(Object[] key, String row, long sequence) {
+                this.key = key;
+                this.row = row;
+                this.sequence = sequence;
+            }
+        }
+
+        private Collector(RowOrder order) {
+            this.order = order;
+            this.heap = new PriorityQueue<>(ordering().reversed());
+        }
+
+        private Comparator<Entry> ordering() {
+            return (a, b) -> {
+                int compare = order.compare(a.key, b.key);
+                return compare != 0 ? compare : Long.compare(a.sequence, b.sequence);
+            };
+        }
+
+        /**
+         * Checks whether a row would be kept, to skip formatting the rows that would not.
+         *
+         * @param key the typed values of the sort columns of the row.
+         * @return true if the row is among the first rows offered so far.
+         */
+        public boolean wants(Object[] key) {
+            if (order.limit < 0 || heap.size() < order.limit) {
+                return true;
+            }
+            // a row with the same key as the worst kept row comes after it
+            return !heap.isEmpty() && order.compare(key, heap.peek().key) < 0;
+        }
+
+        /**
+         * Offers a row, evicting the worst kept row if there are more than {@code limit}.
+         *
+         * @param key the typed values of the sort columns of the row.
+         * @param row the returned fields of the row.
+         */
+        public void add(Object[] key, String row) {
+            if (!wants(key)) {
+                return;
+            }
+            heap.add(new Entry(key, row, sequence++));
+            if (order.limit >= 0 && heap.size() > order.limit) {
+                heap.poll();
+            }
+        }
+
+        /**
+         * @return the kept rows, in order.
+         */
+        public SortedRows finish() {
+            List<Entry> entries = new ArrayList<>(heap);
+            entries.sort(ordering());
+            SortedRows rows = new SortedRows();
+            for (Entry entry : entries) {
+                rows.add(entry.key, entry.row);
+            }
+            return rows;
+        }
+    }
+}
@@ -0,0 +1,703 @@
+package org.example.storage;
+
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.NotExpression;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.conditional.OrExpression;
+import net.sf.jsqlparser.expression.operators.relational.Between;
+import net.sf.jsqlparser.expression.operators.relational.ComparisonOperator;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.expression.operators.relational.GreaterThan;
+import net.sf.jsqlparser.expression.operators.relational.GreaterThanEquals;
+import net.sf.jsqlparser.expression.operators.relational.InExpression;
+import net.sf.jsqlparser.expression.operators.relational.LikeExpression;
+import net.sf.jsqlparser.expression.operators.relational.MinorThan;
+import net.sf.jsqlparser.expression.operators.relational.MinorThanEquals;
+import net.sf.jsqlparser.expression.operators.relational.NotEqualsTo;
+import net.sf.jsqlparser.expression.operators.relational.ParenthesedExpressionList;
+import net.sf.jsqlparser.schema.Column;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.regex.Pattern;
+
+/**
+ * A WHERE condition of a SQL SELECT, compiled once by the coordinator and sent to the replicas, which evaluate it
+ * while they scan so only matching rows are returned. The condition is a tree of comparisons (=, &lt;&gt;, &lt;, &lt;=,
+ * &gt;, &gt;=), BETWEEN, IN and LIKE between a column and constants, combined with AND, OR and NOT. Constants are
+ * parsed with the {@link ColumnType} of their column when the condition is compiled, and fields when a row is
+ * checked, so values compare as numbers, dates or text the same way on every engine. Like SQL, a comparison with a
+ * null field is unknown, which NOT keeps unknown, and a row only matches if the condition is true.
+ */
+public abstract class RowPredicate implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * A condition bound to the columns of a table, checking rows by the index of their fields. Safe to use from
+     * several threads at once.
+     */
+    public interface Matcher {
+        /**
+         * Checks a row.
+         *
+         * @param field gives the field of the row at an index as literal text, empty for null.
+         * @return true if the condition is true for the row, false if it is false or unknown.
+         */
+        default boolean matches(IntFunction<String> field) {
+            return Boolean.TRUE.equals(evaluate(field));
+        }
+
+        /**
+         * Evaluates the condition on a row.
+         *
+         * @param field gives the field of the row at an index as literal text, empty for null.
+         * @return the value of the condition, null if it is unknown.
+         */
+        Boolean evaluate(IntFunction<String> field);
+    }
+
+    /**
+     * Binds the condition to the columns of a table.
+     *
+     * @param columns the columns of the rows the condition is checked on, in field order.
+     * @return the matcher.
+     * @throws IllegalArgumentException if the condition uses a column that is not among the columns.
+     */
+    public abstract Matcher bind(List<String> columns);
+
+    /**
+     * Adds the columns the condition uses.
+     *
+     * @param columns the set to add the columns to.
+     */
+    protected abstract void addColumns(Set<String> columns);
+
+    /**
+     * Get the columns the condition uses.
+     *
+     * @return the column names, in the order they appear in the condition.
+     */
+    public Set<String> getColumns() {
+        Set<String> columns = new LinkedHashSet<>();
+        addColumns(columns);
+        return columns;
+    }
+
+    /**
+     * Tells which values a column must hold for a row to match, used to route a condition on the id to the
+     * partitions of those ids only.
+     *
+     * @param column the column name.
+     * @return the canonical literals the column must equal one of, null if the condition does not restrict the
+     * column to a list of values.
+     */
+    public List<String> valuesOf(String column) {
+        return null;
+    }
+
+    /**
+     * Tells the range of values a column must fall in for a row to match, used to read an id range through the
+     * primary key index instead of scanning every row.
+     *
+     * @param column the column name.
+     * @return the bounds of the column, null if the condition does not restrict the column to a range.
+     */
+    public Bounds boundsOf(String column) {
+        return null;
+    }
+
+    /**
+     * A range of values of a column, each bound typed as parsed by {@link ColumnType#parse(String)} and null when
+     * the range is open on that side.
+     */
+    public static final class Bounds {
+        private final Object low;
+        private final boolean lowInclusive;
+        private final Object high;
+        private final boolean highInclusive;
+
+        Bounds(Object low, boolean lowInclusive, Object high, boolean highInclusive) {
+            this.low = low;
+            this.lowInclusive = lowInclusive;
+            this.high = high;
+            this.highInclusive = highInclusive;
+        }
+
+        /**
+         * @return the low bound, null if there is none.
+         */
+        public Object getLow() {
+            return low;
+        }
+
+        /**
+         * @return whether the low bound is in the range.
+         */
+        public boolean isLowInclusive() {
+            return lowInclusive;
+        }
+
+        /**
+         * @return the high bound, null if there is none.
+         */
+        public Object getHigh() {
+            return high;
+        }
+
+        /**
+         * @return whether the high bound is in the range.
+         */
+        public boolean isHighInclusive() {
+            return highInclusive;
+        }
+
+        /**
+         * Checks whether no value falls in the range.
+         *
+         * @return true if the low bound is above the high bound, or equal to it with either bound excluded.
+         */
+        public boolean isEmpty() {
+            if (low == null || high == null) {
+                return false;
+            }
+            int compare = ColumnType.compare(low, high);
+            return compare > 0 || (compare == 0 && !(lowInclusive && highInclusive));
+        }
+
+        /**
+         * @param other another range of the same column.
+         * @return the values in both ranges.
+         */
+        Bounds intersect(Bounds other) {
+            boolean otherLow = low == null || (other.low != null && (ColumnType.compare(other.low, low) > 0
+                    || (ColumnType.compare(other.low, low) == 0 && !other.lowInclusive)));
+            boolean otherHigh = high == null || (other.high != null && (ColumnType.compare(other.high, high) < 0
+                    || (ColumnType.compare(other.high, high) == 0 && !other.highInclusive)));
+            return new Bounds(otherLow ? other.low : low, otherLow ? other.lowInclusive : lowInclusive,
+                    otherHigh ? other.high : high, otherHigh ? other.highInclusive : highInclusive);
+        }
+    }
+
+    /**
+     * Compiles the WHERE expression of a statement.
+     *
+     * @param where the parsed expression.
+     * @param columns the columns of the table.
+     * @param types the type of each column.
+     * @return the condition.
+     * @throws IllegalArgumentException if the expression uses an unknown column, a constant that is not valid for
+     * the type of its column, or an operator that is not supported.
+     */
+    public static RowPredicate compile(Expression where, List<String> columns, List<ColumnType> types) {
+        if (where instanceof Parenthesis) {
+            return compile(((Parenthesis) where).getExpression(), columns, types);
+        }
+        if (where instanceof ParenthesedExpressionList && ((ParenthesedExpressionList<?>) where).size() == 1) {
+            return compile(((ParenthesedExpressionList<?>) where).get(0), columns, types);
+        }
+        if (where instanceof AndExpression) {
+            AndExpression and = (AndExpression) where;
+            return new And(compile(and.getLeftExpression(), columns, types),
+                    compile(and.getRightExpression(), columns, types));
+        }
+        if (where instanceof OrExpression) {
+            OrExpression or = (OrExpression) where;
+            return new Or(compile(or.getLeftExpression(), columns, types),
+                    compile(or.getRightExpression(), columns, types));
+        }
+        if (where instanceof NotExpression) {
+            return new Not(compile(((NotExpression) where).getExpression(), columns, types));
+        }
+        if (where instanceof Between) {
+            Between between = (Between) where;
+            String column = columnOf(between.getLeftExpression(), columns, where);
+            ColumnType type = typeOf(column, columns, types);
+            RowPredicate predicate = new Range(column, type,
+                    constantOf(between.getBetweenExpressionStart(), type, where),
+                    constantOf(between.getBetweenExpressionEnd(), type, where));
+            return between.isNot() ? new Not(predicate) : predicate;
+        }
+        if (where instanceof InExpression) {
+            InExpression in = (InExpression) where;
+            if (!(in.getRightExpression() instanceof ExpressionList)) {
+                throw new IllegalArgumentException("unsupported condition " + where);
+            }
+            String column = columnOf(in.getLeftExpression(), columns, where);
+            ColumnType type = typeOf(column, columns, types);
+            List<String> values = new ArrayList<>();
+            for (Expression value : (ExpressionList<?>) in.getRightExpression()) {
+                values.add(constantOf(value, type, where));
+            }
+            RowPredicate predicate = new In(column, type, values);
+            return in.isNot() ? new Not(predicate) : predicate;
+        }
+        if (where instanceof LikeExpression) {
+            LikeExpression like = (LikeExpression) where;
+            LikeExpression.KeyWord keyWord = like.getLikeKeyWord();
+            if (like.getEscape() != null
+                    || (keyWord != LikeExpression.KeyWord.LIKE && keyWord != LikeExpression.KeyWord.ILIKE)) {
+                throw new IllegalArgumentException("unsupported condition " + where);
+            }
+            String column = columnOf(like.getLeftExpression(), columns, where);
+            ColumnType type = typeOf(column, columns, types);
+            RowPredicate predicate = new Like(column, type,
+                    unquote(constantOf(like.getRightExpression(), ColumnType.VARCHAR, where)),
+                    keyWord == LikeExpression.KeyWord.ILIKE);
+            return like.isNot() ? new Not(predicate) : predicate;
+        }
+        if (where instanceof ComparisonOperator) {
+            ComparisonOperator comparison = (ComparisonOperator) where;
+            Operator operator = operatorOf(comparison);
+            Expression left = comparison.getLeftExpression();
+            Expression right = comparison.getRightExpression();
+            if (!(left instanceof Column) && right instanceof Column) {
+                // 5 < age is age > 5
+                Expression column = right;
+                right = left;
+                left = column;
+                operator = operator.swapped();
+            }
+            String column = columnOf(left, columns, where);
+            ColumnType type = typeOf(column, columns, types);
+            return new Comparison(column, type, operator, constantOf(right, type, where));
+        }
+        throw new IllegalArgumentException("unsupported condition " + where);
+    }
+
+    private static Operator operatorOf(ComparisonOperator comparison) {
+        if (comparison instanceof EqualsTo) {
+            return Operator.EQ;
+        } else if (comparison instanceof NotEqualsTo) {
+            return Operator.NE;
+        } else if (comparison instanceof MinorThan) {
+            return Operator.LT;
+        } else if (comparison instanceof MinorThanEquals) {
+            return Operator.LE;
+        } else if (comparison instanceof GreaterThan) {
+            return Operator.GT;
+        } else if (comparison instanceof GreaterThanEquals) {
+            return Operator.GE;
+        }
+        throw new IllegalArgumentException("unsupported condition " + comparison);
+    }
+
+    private static String columnOf(Expression expression, List<String> columns, Expression where) {
+        if (!(expression instanceof Column)) {
+            throw new IllegalArgumentException("unsupported condition " + where);
+        }
+        String column = ((Column) expression).getColumnName();
+        if (!columns.contains(column)) {
+            throw new IllegalArgumentException("unknown column " + column);
+        }
+        return column;
+    }
+
+    private static ColumnType typeOf(String column, List<String> columns, List<ColumnType> types) {
+        return types.get(columns.indexOf(column));
+    }
+
+    /**
+     * Reads a constant of a condition as the canonical literal of the type of its column.
+     *
+     * @param expression the constant.
+     * @param type the type of the column it is compared with.
+     * @param where the whole condition, for the error message.
+     * @return the canonical literal.
+     * @throws IllegalArgumentException if the expression is not a constant or not valid for the type.
+     */
+    private static String constantOf(Expression expression, ColumnType type, Expression where) {
+        if (expression instanceof Column || expression instanceof ExpressionList) {
+            throw new IllegalArgumentException("unsupported condition " + where);
+        }
+        String literal = expression.toString();
+        if (type.parse(literal) == null) {
+            throw new IllegalArgumentException("unsupported condition " + where);
+        }
+        return type.canonicalize(literal);
+    }
+
+    /**
+     * Parses a field or a constant for comparison. VARCHAR values are stored with their quotes, which are dropped.
+     *
+     * @param type the type of the column.
+     * @param text the literal text.
+     * @return the value, null for an empty field or one that is not valid for the type.
+     */
+    static Object valueOf(ColumnType type, String text) {
+        if (text == null || text.isEmpty()) {
+            return null;
+        }
+        if (type == ColumnType.VARCHAR) {
+            return unquote(text);
+        }
+        try {
+            return type.parse(text);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String unquote(String text) {
+        if (text.length() >= 2 && text.startsWith("'") && text.endsWith("'")) {
+            return text.substring(1, text.length() - 1).replace("''", "'");
+        }
+        return text;
+    }
+
+    private static int indexOf(String column, List<String> columns) {
+        int index = columns.indexOf(column);
+        if (index == -1) {
+            throw new IllegalArgumentException("unknown column " + column);
+        }
+        return index;
+    }
+
+    /**
+     * Comparison operators, applied to the result of {@link ColumnType#compare(Object, Object)}.
+     */
+    private enum Operator {
+        EQ, NE, LT, LE, GT, GE;
+
+        boolean test(int comparison) {
+            switch (this) {
+                case EQ:
+                    return comparison == 0;
+                case NE:
+                    return comparison != 0;
+                case LT:
+                    return comparison < 0;
+                case LE:
+                    return comparison <= 0;
+                case GT:
+                    return comparison > 0;
+                default:
+                    return comparison >= 0;
+            }
+        }
+
+        /**
+         * @return the operator giving the same result with its operands swapped.
+         */
+        Operator swapped() {
+            switch (this) {
+                case LT:
+                    return GT;
+                case LE:
+                    return GE;
+                case GT:
+                    return LT;
+                case GE:
+                    return LE;
+                default:
+                    return this;
+            }
+        }
+    }
+
+    /**
+     * A condition on a single column.
+     */
+    private abstract static class Leaf extends RowPredicate {
+        private static final long serialVersionUID = 1L;
+        final String column;
+        final ColumnType type;
+
+        Leaf(String column, ColumnType type) {
+            this.column = column;
+            this.type = type;
+        }
+
+        @Override
+        protected void addColumns(Set<String> columns) {
+            columns.add(column);
+        }
+
+        @Override
+        public Matcher bind(List<String> columns) {
+            int index = indexOf(column, columns);
+            return field -> {
+                Object value = valueOf(type, field.apply(index));
+                return value == null ? null : test(value);
+            };
+        }
+
+        /**
+         * Checks a non-null field.
+         *
+         * @param value the field parsed by {@link #valueOf(ColumnType, String)}.
+         * @return whether the condition holds.
+         */
+        abstract boolean test(Object value);
+    }
+
+    /**
+     * column operator constant.
+     */
+    private static class Comparison extends Leaf {
+        private static final long serialVersionUID = 1L;
+        private final Operator operator;
+        private final String literal;
+        private final Object constant;
+
+        Comparison(String column, ColumnType type, Operator operator, String literal) {
+            super(column, type);
+            this.operator = operator;
+            this.literal = literal;
+            this.constant = valueOf(type, literal);
+        }
+
+        @Override
+        boolean test(Object value) {
+            return operator.test(ColumnType.compare(value, constant));
+        }
+
+        @Override
+        public List<String> valuesOf(String column) {
+            return operator == Operator.EQ && this.column.equals(column) ? List.of(literal) : null;
+        }
+
+        @Override
+        public Bounds boundsOf(String column) {
+            if (!this.column.equals(column) || constant == null || type == ColumnType.VARCHAR) {
+                return null;
+            }
+            switch (operator) {
+                case EQ:
+                    return new Bounds(constant, true, constant, true);
+                case LT:
+                case LE:
+                    return new Bounds(null, false, constant, operator == Operator.LE);
+                case GT:
+                case GE:
+                    return new Bounds(constant, operator == Operator.GE, null, false);
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * column BETWEEN low AND high, bounds included.
+     */
+    private static class Range extends Leaf {
+        private static final long serialVersionUID = 1L;
+        private final Object low;
+        private final Object high;
+
+        Range(String column, ColumnType type, String low, String high) {
+            super(column, type);
+            this.low = valueOf(type, low);
+            this.high = valueOf(type, high);
+        }
+
+        @Override
+        boolean test(Object value) {
+            return ColumnType.compare(value, low) >= 0 && ColumnType.compare(value, high) <= 0;
+        }
+
+        @Override
+        public Bounds boundsOf(String column) {
+            if (!this.column.equals(column) || low == null || high == null || type == ColumnType.VARCHAR) {
+                return null;
+            }
+            return new Bounds(low, true, high, true);
+        }
+    }
+
+    /**
+     * column IN (constant, ...).
+     */
+    private static class In extends Leaf {
+        private static final long serialVersionUID = 1L;
+        private final List<String> literals;
+        private final List<Object> constants = new ArrayList<>();
+
+        In(String column, ColumnType type, List<String> literals) {
+            super(column, type);
+            this.literals = literals;
+            for (String literal : literals) {
+                constants.add(valueOf(type, literal));
+            }
+        }
+
+        @Override
+        boolean test(Object value) {
+            for (Object constant : constants) {
+                if (ColumnType.compare(value, constant) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public List<String> valuesOf(String column) {
+            return this.column.equals(column) ? literals : null;
+        }
+    }
+
+    /**
+     * column LIKE pattern, where % matches any text and _ any single character. The field is matched as text, e.g.
+     * {@code id LIKE '1%'} holds for the ids starting with a 1.
+     */
+    private static class Like extends Leaf {
+        private static final long serialVersionUID = 1L;
+        private final Pattern pattern;
+
+        Like(String column, ColumnType type, String pattern, boolean caseInsensitive) {
+            super(column, type);
+            StringBuilder regex = new StringBuilder();
+            for (char c : pattern.toCharArray()) {
+                if (c == '%') {
+                    regex.append(".*");
+                } else if (c == '_') {
+                    regex.append('.');
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            this.pattern = Pattern.compile(regex.toString(), Pattern.DOTALL
+                    | (caseInsensitive ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0));
+        }
+
+        @Override
+        boolean test(Object value) {
+            String text = type == ColumnType.VARCHAR ? (String) value : unquote(type.format(value));
+            return pattern.matcher(text).matches();
+        }
+    }
+
+    /**
+     * left AND right.
+     */
+    private static class And extends RowPredicate {
+        private static final long serialVersionUID = 1L;
+        private final RowPredicate left;
+        private final RowPredicate right;
+
+        And(RowPredicate left, RowPredicate right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Matcher bind(List<String> columns) {
+            Matcher leftMatcher = left.bind(columns);
+            Matcher rightMatcher = right.bind(columns);
+            return field -> {
+                Boolean leftValue = leftMatcher.evaluate(field);
+                if (Boolean.FALSE.equals(leftValue)) {
+                    return false;
+                }
+                Boolean rightValue = rightMatcher.evaluate(field);
+                if (Boolean.FALSE.equals(rightValue)) {
+                    return false;
+                }
+                return leftValue == null || rightValue == null ? null : true;
+            };
+        }
+
+        @Override
+        protected void addColumns(Set<String> columns) {
+            left.addColumns(columns);
+            right.addColumns(columns);
+        }
+
+        @Override
+        public List<String> valuesOf(String column) {
+            List<String> values = left.valuesOf(column);
+            return values != null ? values : right.valuesOf(column);
+        }
+
+        @Override
+        public Bounds boundsOf(String column) {
+            Bounds leftBounds = left.boundsOf(column);
+            Bounds rightBounds = right.boundsOf(column);
+            if (leftBounds == null || rightBounds == null) {
+                return leftBounds != null ? leftBounds : rightBounds;
+            }
+            return leftBounds.intersect(rightBounds);
+        }
+    }
+
+    /**
+     * left OR right.
+     */
+    private static class Or extends RowPredicate {
+        private static final long serialVersionUID = 1L;
+        private final RowPredicate left;
+        private final RowPredicate right;
+
+        Or(RowPredicate left, RowPredicate right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Matcher bind(List<String> columns) {
+            Matcher leftMatcher = left.bind(columns);
+            Matcher rightMatcher = right.bind(columns);
+            return field -> {
+                Boolean leftValue = leftMatcher.evaluate(field);
+                if (Boolean.TRUE.equals(leftValue)) {
+                    return true;
+                }
+                Boolean rightValue = rightMatcher.evaluate(field);
+                if (Boolean.TRUE.equals(rightValue)) {
+                    return true;
+                }
+                return leftValue == null || rightValue == null ? null : false;
+            };
+        }
+
+        @Override
+        protected void addColumns(Set<String> columns) {
+            left.addColumns(columns);
+            right.addColumns(columns);
+        }
+
+        @Override
+        public List<String> valuesOf(String column) {
+            List<String> leftValues = left.valuesOf(column);
+            List<String> rightValues = right.valuesOf(column);
+            if (leftValues == null || rightValues == null) {
+                return null;
+            }
+            List<String> values = new ArrayList<>(leftValues);
+            values.addAll(rightValues);
+            return values;
+        }
+    }
+
+    /**
+     * NOT predicate.
+     */
+    private static class Not extends RowPredicate {
+        private static final long serialVersionUID = 1L;
+        private final RowPredicate predicate;
+
+        Not(RowPredicate predicate) {
+            this.predicate = predicate;
+        }
+
+        @Override
+        public Matcher bind(List<String> columns) {
+            Matcher matcher = predicate.bind(columns);
+            return field -> {
+                Boolean value = matcher.evaluate(field);
+                return value == null ? null : !value;
+            };
+        }
+
+        @Override
+        protected void addColumns(Set<String> columns) {
+            predicate.addColumns(columns);
+        }
+    }
+}
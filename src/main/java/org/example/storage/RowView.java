@@ -0,0 +1,233 @@
+package org.example.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Zero-copy reader over a row encoded by {@link RowCodec}. Resetting a view only records where each field starts;
+ * fields are compared in place and decoded only when asked for, so a scan can reuse one view for every row and
+ * materialize just the rows it returns or changes.
+ * <p>
+ * A view does not own its bytes: it is only valid until the buffer it was reset on is reused.
+ */
+public final class RowView {
+    private final List<ColumnType> types;
+    private ByteBuffer buffer;
+    private int start;
+    private int end;
+    private int fieldCount;
+    // offset of each field, -1 for a null field
+    private int[] offsets = new int[8];
+    private int[] lengths = new int[8];
+    // read position while resetting
+    private int cursor;
+
+    /**
+     * Constructs a view for rows of a table.
+     *
+     * @param types the type of each field, null for untyped rows.
+     */
+    public RowView(List<ColumnType> types) {
+        this.types = types;
+    }
+
+    /**
+     * Points the view at an encoded row.
+     *
+     * @param buffer the buffer holding the row, read with absolute gets only.
+     * @param offset the index of the first byte of the row.
+     * @return this view.
+     */
+    public RowView reset(ByteBuffer buffer, int offset) {
+        this.buffer = buffer;
+        this.start = offset;
+        cursor = offset;
+        int count = readVarInt();
+        if (offsets.length < count) {
+            offsets = new int[count];
+            lengths = new int[count];
+        }
+        int bitmap = cursor;
+        if (types != null) {
+            cursor += (count + 7) / 8;
+        }
+        for (int i = 0; i < count; i++) {
+            if (types != null && (buffer.get(bitmap + i / 8) & (1 << (i % 8))) != 0) {
+                offsets[i] = -1;
+                lengths[i] = 0;
+                continue;
+            }
+            int width = types == null ? -1 : types.get(i).getWidth();
+            int length = width < 0 ? readVarInt() : width;
+            offsets[i] = cursor;
+            lengths[i] = length;
+            cursor += length;
+        }
+        this.fieldCount = count;
+        this.end = cursor;
+        return this;
+    }
+
+    private int readVarInt() {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get(cursor++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * @return the number of fields in the row.
+     */
+    public int size() {
+        return fieldCount;
+    }
+
+    /**
+     * @return the number of bytes of the encoded row.
+     */
+    public int length() {
+        return end - start;
+    }
+
+    /**
+     * @param i the index of the field.
+     * @return whether the field is null, which only typed rows have.
+     */
+    public boolean isNull(int i) {
+        return offsets[i] < 0;
+    }
+
+    /**
+     * Decodes one field into literal text.
+     *
+     * @param i the index of the field.
+     * @return the field value, empty for null.
+     */
+    public String get(int i) {
+        if (isNull(i)) {
+            return "";
+        }
+        if (types == null || types.get(i) == ColumnType.VARCHAR) {
+            return ColumnType.decodeString(buffer, offsets[i], lengths[i]);
+        }
+        ColumnType type = types.get(i);
+        return type.format(type.decode(buffer, offsets[i], lengths[i]));
+    }
+
+    /**
+     * Decodes one field into its typed value.
+     *
+     * @param i the index of the field.
+     * @return the value as returned by {@link ColumnType#parse(String)}, a String for untyped rows, null for null.
+     */
+    public Object getValue(int i) {
+        if (isNull(i)) {
+            return null;
+        }
+        if (types == null) {
+            return ColumnType.decodeString(buffer, offsets[i], lengths[i]);
+        }
+        return types.get(i).decode(buffer, offsets[i], lengths[i]);
+    }
+
+    /**
+     * Compares one field with a value without decoding it.
+     *
+     * @param i the index of the field.
+     * @param value the value encoded by {@link RowCodec#encodeField(ColumnType, String)}, null to match null.
+     * @return whether the field holds exactly this value.
+     */
+    public boolean fieldEquals(int i, byte[] value) {
+        if (i >= fieldCount) {
+            return false;
+        }
+        if (value == null || isNull(i)) {
+            return value == null && isNull(i);
+        }
+        if (lengths[i] != value.length) {
+            return false;
+        }
+        int offset = offsets[i];
+        for (int j = 0; j < value.length; j++) {
+            if (buffer.get(offset + j) != value[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a NoSQL row, made of alternating keys and values, holds a key-value pair.
+     *
+     * @param key the UTF-8 bytes of the key.
+     * @param value the UTF-8 bytes of the value.
+     * @return whether some key equals {@code key} and is followed by {@code value}.
+     */
+    public boolean containsPair(byte[] key, byte[] value) {
+        for (int i = 0; i + 1 < fieldCount; i += 2) {
+            if (fieldEquals(i, key) && fieldEquals(i + 1, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Appends the row the way rows are written to CSV, with a trailing comma.
+     *
+     * @param out the builder to append to.
+     */
+    public void appendTo(StringBuilder out) {
+        for (int i = 0; i < fieldCount; i++) {
+            appendField(out, i);
+        }
+    }
+
+    /**
+     * Appends some fields of the row in the given order, each followed by a comma.
+     *
+     * @param out the builder to append to.
+     * @param fields the indexes of the fields, null for every field in order.
+     */
+    public void appendTo(StringBuilder out, int[] fields) {
+        if (fields == null) {
+            appendTo(out);
+            return;
+        }
+        for (int i : fields) {
+            appendField(out, i);
+        }
+    }
+
+    private void appendField(StringBuilder out, int i) {
+        ColumnType type = types == null || isNull(i) ? null : types.get(i);
+        // append primitives directly, without a String per field
+        if (type == ColumnType.INT) {
+            out.append(buffer.getInt(offsets[i]));
+        } else if (type == ColumnType.BIGINT) {
+            out.append(buffer.getLong(offsets[i]));
+        } else {
+            out.append(get(i));
+        }
+        out.append(',');
+    }
+
+    /**
+     * Decodes every field.
+     *
+     * @return the field values of the row, as literal text.
+     */
+    public List<String> toList() {
+        List<String> row = new ArrayList<>(fieldCount);
+        for (int i = 0; i < fieldCount; i++) {
+            row.add(get(i));
+        }
+        return row;
+    }
+}
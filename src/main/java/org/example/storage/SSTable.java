@@ -0,0 +1,304 @@
+package org.example.storage;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable, sorted segment file written by {@link LsmStorageEngine}.
+ * Records are sorted by row id and followed by a sparse index holding the offset of every
+ * {@value #INDEX_INTERVAL}th record, so a point lookup reads at most one small run of records.
+ * <p>
+ * Layout: {@code [header][records][sparse index][footer]}, where the header is the {@link RowCodec} header, a record
+ * is {@code [row id: 8][tombstone: 1][payload length: 4][payload]} with the payload encoded by {@link RowCodec},
+ * an index entry is {@code [row id: 8][offset: 8]} and the footer is
+ * {@code [min row id: 8][max row id: 8][record count: 4][index count: 4][index offset: 8][data offset: 8]}.
+ */
+public class SSTable implements Closeable {
+    private static final int INDEX_INTERVAL = 16;
+    private static final int RECORD_HEADER_SIZE = 8 + 1 + 4;
+    private static final int FOOTER_SIZE = 8 + 8 + 4 + 4 + 8 + 8;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final long seq;
+    private final FileChannel channel;
+    private final long size;
+    private final long minRowId;
+    private final long maxRowId;
+    private final int recordCount;
+    private final long indexOffset;
+    private final long dataOffset;
+    private final long[] indexRowIds;
+    private final long[] indexOffsets;
+
+    /**
+     * One record of a segment. A null row marks a deleted row.
+     */
+    public static class Entry {
+        final long rowId;
+        // the encoded row, from index 0 to its limit
+        final ByteBuffer row;
+
+        Entry(long rowId, ByteBuffer row) {
+            this.rowId = rowId;
+            this.row = row;
+        }
+    }
+
+    /**
+     * Opens a segment file and loads its sparse index.
+     *
+     * @param path the segment file.
+     * @param seq the sequence number of the segment, higher is newer.
+     * @param columns a list of column names used in SQL table, null if this is for NoSQL storage.
+     * @param columnTypes the type of each column, null if this is for NoSQL storage.
+     * @throws IOException if the file cannot be read or is not a valid segment of this table.
+     */
+    public SSTable(Path path, long seq, List<String> columns, List<ColumnType> columnTypes) throws IOException {
+        this.seq = seq;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        if (size < FOOTER_SIZE) {
+            channel.close();
+            throw new IOException("invalid segment file " + path);
+        }
+        ByteBuffer footer = readFully(size - FOOTER_SIZE, FOOTER_SIZE);
+        this.minRowId = footer.getLong();
+        this.maxRowId = footer.getLong();
+        this.recordCount = footer.getInt();
+        int indexCount = footer.getInt();
+        this.indexOffset = footer.getLong();
+        this.dataOffset = footer.getLong();
+        RowCodec.readHeader(readFully(0, (int) dataOffset), columns, columnTypes);
+        ByteBuffer index = readFully(indexOffset, indexCount * 16);
+        this.indexRowIds = new long[indexCount];
+        this.indexOffsets = new long[indexCount];
+        for (int i = 0; i < indexCount; i++) {
+            indexRowIds[i] = index.getLong();
+            indexOffsets[i] = index.getLong();
+        }
+    }
+
+    /**
+     * Writes a segment file from rows sorted by row id. The file is written next to its final name and renamed
+     * into place once complete, so a segment is never seen half written.
+     *
+     * @param path the segment file to create.
+     * @param columns a list of column names used in SQL table, null if this is for NoSQL storage.
+     * @param columnTypes the type of each column, null if this is for NoSQL storage.
+     * @param entries rows sorted by row id, a null row is written as a tombstone.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void write(Path path, List<String> columns, List<ColumnType> columnTypes,
+                             Iterator<Entry> entries) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            ByteBuffer index = ByteBuffer.allocate(1024);
+            byte[] header = RowCodec.encodeHeader(columns, columnTypes);
+            if (buffer.capacity() < header.length) {
+                buffer = ByteBuffer.allocate(header.length);
+            }
+            buffer.put(header);
+            long dataOffset = header.length;
+            long offset = 0;
+            long minRowId = Long.MAX_VALUE;
+            long maxRowId = Long.MIN_VALUE;
+            int count = 0;
+            while (entries.hasNext()) {
+                Entry entry = entries.next();
+                ByteBuffer payload = entry.row == null ? ByteBuffer.allocate(0) : entry.row.duplicate();
+                int length = RECORD_HEADER_SIZE + payload.remaining();
+                if (buffer.remaining() < length) {
+                    offset += flush(out, buffer);
+                    if (buffer.capacity() < length) {
+                        buffer = ByteBuffer.allocate(length);
+                    }
+                }
+                if (count % INDEX_INTERVAL == 0) {
+                    if (index.remaining() < 16) {
+                        index = grow(index);
+                    }
+                    index.putLong(entry.rowId).putLong(offset + buffer.position());
+                }
+                buffer.putLong(entry.rowId).put((byte) (entry.row == null ? 1 : 0)).putInt(payload.remaining()).put(payload);
+                minRowId = Math.min(minRowId, entry.rowId);
+                maxRowId = Math.max(maxRowId, entry.rowId);
+                count++;
+            }
+            long indexOffset = offset + flush(out, buffer);
+            index.flip();
+            int indexCount = index.remaining() / 16;
+            while (index.hasRemaining()) {
+                out.write(index);
+            }
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            footer.putLong(minRowId).putLong(maxRowId).putInt(count).putInt(indexCount).putLong(indexOffset)
+                    .putLong(dataOffset).flip();
+            while (footer.hasRemaining()) {
+                out.write(footer);
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long flush(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += out.write(buffer);
+        }
+        buffer.clear();
+        return written;
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer) {
+        ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        return bigger.put(buffer);
+    }
+
+    /**
+     * Looks up a row, starting from the closest sparse index entry.
+     *
+     * @param rowId the row to find.
+     * @return the record, or null if the segment has no record for this row.
+     * @throws IOException if the file cannot be read.
+     */
+    public Entry get(long rowId) throws IOException {
+        if (rowId < minRowId || rowId > maxRowId || indexRowIds.length == 0) {
+            return null;
+        }
+        // last index entry with row id <= rowId
+        int low = 0;
+        int high = indexRowIds.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (indexRowIds[mid] <= rowId) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        long end = low + 1 < indexOffsets.length ? indexOffsets[low + 1] : indexOffset;
+        RecordIterator records = new RecordIterator(indexOffsets[low], end);
+        while (records.hasNext()) {
+            Entry entry = records.next();
+            if (entry.rowId == rowId) {
+                return entry;
+            }
+            if (entry.rowId > rowId) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Iterates over all records in row id order.
+     *
+     * @return an iterator reading the file sequentially.
+     */
+    public Iterator<Entry> iterator() {
+        return new RecordIterator(dataOffset, indexOffset);
+    }
+
+    /**
+     * Reads records sequentially between two offsets, a buffer at a time. Rows are returned as slices of the read
+     * buffer, which is never written again once loaded, so they stay valid after the iterator moves on.
+     */
+    private class RecordIterator implements Iterator<Entry> {
+        // offset of the first byte not loaded into the buffer yet
+        private long filePosition;
+        private final long end;
+        private ByteBuffer buffer = ByteBuffer.allocate(0);
+
+        RecordIterator(long start, long end) {
+            this.filePosition = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return buffer.hasRemaining() || filePosition < end;
+        }
+
+        @Override
+        public Entry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                ensure(RECORD_HEADER_SIZE);
+                long rowId = buffer.getLong();
+                boolean tombstone = buffer.get() == 1;
+                int length = buffer.getInt();
+                ensure(length);
+                ByteBuffer payload = buffer.slice(buffer.position(), length);
+                buffer.position(buffer.position() + length);
+                return new Entry(rowId, tombstone ? null : payload);
+            } catch (IOException e) {
+                throw new IllegalStateException("cannot read segment", e);
+            }
+        }
+
+        private void ensure(int length) throws IOException {
+            if (buffer.remaining() >= length) {
+                return;
+            }
+            int toRead = (int) Math.min(Math.max(length - buffer.remaining(), READ_BUFFER_SIZE), end - filePosition);
+            ByteBuffer chunk = readFully(filePosition, toRead);
+            filePosition += toRead;
+            ByteBuffer next = ByteBuffer.allocate(buffer.remaining() + toRead);
+            next.put(buffer).put(chunk).flip();
+            buffer = next;
+        }
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("truncated segment at offset " + position);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @return the sequence number of the segment, higher is newer.
+     */
+    public long getSeq() {
+        return seq;
+    }
+
+    /**
+     * @return the size of the segment file in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of records, including tombstones.
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,62 @@
+package org.example.storage;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rows in the order of a {@link RowOrder}, each together with the values of its sort key, so the sorted rows of
+ * several partitions can be merged without parsing the rows again, even when the sort columns are not returned.
+ */
+public class SortedRows implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final List<Object[]> keys = new ArrayList<>();
+    private final List<String> rows = new ArrayList<>();
+
+    /**
+     * Appends a row, which must not sort before the rows already added.
+     *
+     * @param key the typed values of the sort columns of the row.
+     * @param row the returned fields of the row, each followed by a comma.
+     */
+    public void add(Object[] key, String row) {
+        keys.add(key);
+        rows.add(row);
+    }
+
+    /**
+     * @return the number of rows.
+     */
+    public int size() {
+        return rows.size();
+    }
+
+    /**
+     * @param i the index of the row.
+     * @return the typed values of the sort columns of the row.
+     */
+    public Object[] getKey(int i) {
+        return keys.get(i);
+    }
+
+    /**
+     * @param i the index of the row.
+     * @return the returned fields of the row.
+     */
+    public String getRow(int i) {
+        return rows.get(i);
+    }
+
+    /**
+     * Formats the rows the same way a SELECT with a column list returns them.
+     *
+     * @return every row followed by a newline.
+     */
+    public String format() {
+        StringBuilder result = new StringBuilder();
+        for (String row : rows) {
+            result.append(row).append('\n');
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,284 @@
+package org.example.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk storage behind a {@link org.example.DatabaseNodeReplica}.
+ * The replica handles the RMI side and delegates every read and write to its engine,
+ * so the file layout can be chosen per table when it is created.
+ * Engines are either created over new, empty data files, or reopened over the files a previous run closed, in which
+ * case they check the files were written for the same schema and restore their in-memory indexes.
+ */
+public interface StorageEngine extends Closeable {
+
+    /**
+     * Reads all rows of a SQL table.
+     *
+     * @return every row followed by a newline, without the header.
+     * @throws IOException if the data file cannot be read.
+     */
+    String selectSQL() throws IOException;
+
+    /**
+     * Reads all rows of a SQL table together with their internal row ids, used to join vertical partitions.
+     *
+     * @return every row and its row id, in ascending row id order.
+     * @throws IOException if the data file cannot be read.
+     */
+    IdentifiedRows selectRowsSQL() throws IOException;
+
+    /**
+     * Reads some columns of the rows of a SQL table matching a condition. The condition is checked while the rows are
+     * scanned and only the requested fields of the matching rows are formatted.
+     *
+     * @param columns the columns to return, in the order of the fields of each row, null for every column.
+     * @param where the condition, null for every row.
+     * @return the requested fields of every matching row, each row followed by a newline, without the header.
+     * @throws IOException if the data file cannot be read.
+     * @throws IllegalArgumentException if the columns or the condition use a column the table does not have.
+     */
+    String selectSQL(List<String> columns, RowPredicate where) throws IOException;
+
+    /**
+     * Reads some columns of the rows of a SQL table matching a condition together with their internal row ids, used
+     * to read only the needed columns of a vertical partition before it is joined.
+     *
+     * @param columns the columns to return, in the order of the fields of each row, null for every column.
+     * @param where the condition, on the columns of this table only, null for every row.
+     * @return the requested fields of every matching row and its row id, in ascending row id order.
+     * @throws IOException if the data file cannot be read.
+     * @throws IllegalArgumentException if the columns or the condition use a column the table does not have.
+     */
+    IdentifiedRows selectRowsSQL(List<String> columns, RowPredicate where) throws IOException;
+
+    /**
+     * Aggregates the rows of a SQL table matching a condition. The rows are folded as they are scanned, so only one
+     * state per group and aggregate is kept.
+     *
+     * @param aggregation the aggregates.
+     * @param where the condition, null for every row.
+     * @return the partial aggregates of the matching rows, to be merged with those of the other partitions.
+     * @throws IOException if the data file cannot be read.
+     * @throws IllegalArgumentException if the aggregates or the condition use a column the table does not have.
+     */
+    PartialAggregates aggregateSQL(Aggregation aggregation, RowPredicate where) throws IOException;
+
+    /**
+     * Reads some columns of the first rows of a SQL table matching a condition in the order of an ORDER BY clause,
+     * at most as many as its LIMIT. With a LIMIT, only the best rows seen so far are kept while the rows are scanned.
+     *
+     * @param columns the columns to return, in the order of the fields of each row, null for every column.
+     * @param where the condition, null for every row.
+     * @param order the sort key and the limit.
+     * @return the requested fields of the first matching rows and their sort key, in order.
+     * @throws IOException if the data file cannot be read.
+     * @throws IllegalArgumentException if the columns, the condition or the sort key use a column the table does not
+     * have.
+     */
+    SortedRows selectSortedSQL(List<String> columns, RowPredicate where, RowOrder order) throws IOException;
+
+    /**
+     * Finds the fields of some columns in the rows of a table.
+     *
+     * @param tableColumns the columns of the table, in field order.
+     * @param columns the columns to find, null for every column.
+     * @return the index of the field of each column, null for every column in field order.
+     * @throws IllegalArgumentException if a column is not a column of the table.
+     */
+    static int[] fieldsOf(List<String> tableColumns, List<String> columns) {
+        if (columns == null) {
+            return null;
+        }
+        int[] fields = new int[columns.size()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = tableColumns.indexOf(columns.get(i));
+            if (fields[i] == -1) {
+                throw new IllegalArgumentException("unknown column " + columns.get(i));
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Inserts a row into a SQL table.
+     *
+     * @param insertColumns columns to insert data into.
+     * @param values corresponding values for the columns.
+     * @throws IOException if the data file cannot be written.
+     */
+    void insertSQL(List<String> insertColumns, List<String> values) throws IOException;
+
+    /**
+     * Inserts a row into a SQL table under a row id chosen by the caller, so the column groups of a vertically
+     * partitioned table store the parts of a row under the same id.
+     *
+     * @param rowId the internal id of the row, above every row id of the table.
+     * @param insertColumns columns to insert data into.
+     * @param values corresponding values for the columns.
+     * @throws IOException if the data file cannot be written, or the row id is not above every row id of the table.
+     */
+    void insertSQL(long rowId, List<String> insertColumns, List<String> values) throws IOException;
+
+    /**
+     * Updates the rows of a SQL table matching a single equality condition.
+     *
+     * @param columns columns to update.
+     * @param values new values for the specified columns.
+     * @param where condition array where the first element is the column name and the second is the value to match.
+     * @return the row ids of the updated rows, in ascending order.
+     * @throws IOException if the data file cannot be read or written.
+     */
+    List<Integer> updateSQL(List<String> columns, List<String> values, String[] where) throws IOException;
+
+    /**
+     * Deletes the rows of a SQL table matching a single equality condition.
+     *
+     * @param where condition array where the first element is the column name and the second is the value to match.
+     * @return the internal row ids of the deleted rows.
+     * @throws IOException if the data file cannot be read or written.
+     */
+    BitSet deleteSQL(String[] where) throws IOException;
+
+    /**
+     * Deletes rows of a SQL table by their internal row id, used to delete the same rows from every vertical partition.
+     *
+     * @param rowIds the internal row ids of the rows to delete, unknown ids are ignored.
+     * @throws IOException if the data file cannot be read or written.
+     */
+    void deleteByRowSQL(BitSet rowIds) throws IOException;
+
+    /**
+     * Reads all rows of a NoSQL table.
+     *
+     * @return every row followed by a newline.
+     * @throws IOException if the data file cannot be read.
+     */
+    String selectNoSQL() throws IOException;
+
+    /**
+     * Inserts a row of key-value pairs into a NoSQL table.
+     *
+     * @param kvPairs list of key-value pairs to insert.
+     * @throws IOException if the data file cannot be written.
+     */
+    void insertNoSQL(List<String> kvPairs) throws IOException;
+
+    /**
+     * Updates the NoSQL rows containing the given key-value pair.
+     *
+     * @param kvPairs list of key-value pairs to update.
+     * @param where key and value to match.
+     * @throws IOException if the data file cannot be read or written.
+     */
+    void updateNoSQL(List<String> kvPairs, List<String> where) throws IOException;
+
+    /**
+     * Deletes the NoSQL rows containing the given key-value pair.
+     *
+     * @param where key and value to match.
+     * @throws IOException if the data file cannot be read or written.
+     */
+    void deleteNoSQL(List<String> where) throws IOException;
+
+    /**
+     * Inserts SQL rows as one batch. Engines that can apply a batch under a single lock acquisition and a single
+     * write override this; by default the rows are inserted one by one.
+     *
+     * @param insertColumns columns to insert data into, the same for every row.
+     * @param rows the values of each row, in the order of the columns.
+     * @throws IOException if the data file cannot be written.
+     */
+    default void insertBatchSQL(List<String> insertColumns, List<List<String>> rows) throws IOException {
+        for (List<String> values : rows) {
+            insertSQL(insertColumns, values);
+        }
+    }
+
+    /**
+     * Inserts SQL rows as one batch under consecutive row ids chosen by the caller, like
+     * {@link #insertSQL(long, List, List)}. By default the rows are inserted one by one.
+     *
+     * @param firstRowId the internal id of the first row, above every row id of the table.
+     * @param insertColumns columns to insert data into, the same for every row.
+     * @param rows the values of each row, in the order of the columns.
+     * @throws IOException if the data file cannot be written, or the row id is not above every row id of the table.
+     */
+    default void insertBatchSQL(long firstRowId, List<String> insertColumns, List<List<String>> rows)
+            throws IOException {
+        for (int i = 0; i < rows.size(); i++) {
+            insertSQL(firstRowId + i, insertColumns, rows.get(i));
+        }
+    }
+
+    /**
+     * Inserts NoSQL rows as one batch, see {@link #insertBatchSQL(List, List)}.
+     *
+     * @param rows the key-value pairs of each row.
+     * @throws IOException if the data file cannot be written.
+     */
+    default void insertBatchNoSQL(List<List<String>> rows) throws IOException {
+        for (List<String> kvPairs : rows) {
+            insertNoSQL(kvPairs);
+        }
+    }
+
+    /**
+     * Updates SQL rows by id as one batch: the rows whose id column holds {@code ids.get(i)} get the columns set to
+     * {@code values.get(i)}. Updates of the same id are applied in order. By default each update is applied on its
+     * own.
+     *
+     * @param columns the columns to update, the same for every update.
+     * @param values the new values of each update, in the order of the columns.
+     * @param idColumn the column rows are matched on.
+     * @param ids the id each update applies to.
+     * @return the row ids of the rows each update changed, in the order of the updates.
+     * @throws IOException if the data file cannot be read or written.
+     */
+    default List<Integer> updateBatchSQL(List<String> columns, List<List<String>> values, String idColumn,
+                                         List<String> ids) throws IOException {
+        List<Integer> updatedRows = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            updatedRows.addAll(updateSQL(columns, values.get(i), new String[]{idColumn, ids.get(i)}));
+        }
+        return updatedRows;
+    }
+
+    /**
+     * Deletes SQL rows by id as one batch. By default each id is deleted on its own.
+     *
+     * @param idColumn the column rows are matched on.
+     * @param ids the ids of the rows to delete.
+     * @return the internal row ids of the deleted rows.
+     * @throws IOException if the data file cannot be read or written.
+     */
+    default BitSet deleteBatchSQL(String idColumn, List<String> ids) throws IOException {
+        BitSet deletedRows = new BitSet();
+        for (String id : ids) {
+            deletedRows.or(deleteSQL(new String[]{idColumn, id}));
+        }
+        return deletedRows;
+    }
+
+    /**
+     * Tells the row id the next inserted row gets, so a reopened vertically partitioned table resumes numbering its
+     * rows after the ones already stored.
+     *
+     * @return a row id above every row id of the table.
+     */
+    long getNextRowId();
+
+    /**
+     * Reports engine specific counters, such as buffer pool hits and misses.
+     *
+     * @return counters by name, empty if the engine keeps none.
+     */
+    default Map<String, Long> getStats() {
+        return new HashMap<>();
+    }
+}
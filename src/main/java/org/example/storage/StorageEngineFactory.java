@@ -0,0 +1,62 @@
+package org.example.storage;
+
+import org.example.config.StorageConfig;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Creates the storage engine selected for a table.
+ */
+public class StorageEngineFactory {
+    /**
+     * Creates the storage engine for one replica.
+     *
+     * @param name the unique name of the replica, used as the base name of its data files.
+     * @param columns a list of column names used in SQL table, null if this is for NoSQL storage.
+     * @param columnTypes the declared type of each column, null if this is for NoSQL storage. The CSV engine keeps
+     *                    values as text and relies on the client writing them in canonical form.
+     * @param storageConfig the storage configuration of the table, null for the default CSV engine.
+     * @return the storage engine.
+     * @throws IOException if the data files cannot be created.
+     */
+    public static StorageEngine create(String name, List<String> columns, List<ColumnType> columnTypes,
+                                       StorageConfig storageConfig) throws IOException {
+        return create(name, columns, columnTypes, storageConfig, false);
+    }
+
+    /**
+     * Reopens the storage engine of one replica over the data files left by a previous run.
+     *
+     * @param name the unique name of the replica, used as the base name of its data files.
+     * @param columns a list of column names used in SQL table, null if this is for NoSQL storage.
+     * @param columnTypes the declared type of each column, null if this is for NoSQL storage.
+     * @param storageConfig the storage configuration of the table, null for the default CSV engine.
+     * @return the storage engine.
+     * @throws IOException if the data files cannot be opened or were written for another schema.
+     */
+    public static StorageEngine open(String name, List<String> columns, List<ColumnType> columnTypes,
+                                     StorageConfig storageConfig) throws IOException {
+        return create(name, columns, columnTypes, storageConfig, true);
+    }
+
+    private static StorageEngine create(String name, List<String> columns, List<ColumnType> columnTypes,
+                                        StorageConfig storageConfig, boolean reopen) throws IOException {
+        String engineType = storageConfig == null ? "csv" : storageConfig.getEngineType();
+        if (engineType.equals("log")) {
+            return new LogStorageEngine(name + ".log", columns, columnTypes, reopen);
+        }
+        if (engineType.equals("lsm")) {
+            return new LsmStorageEngine(name, columns, columnTypes, reopen);
+        }
+        if (engineType.equals("btree")) {
+            return new BTreeStorageEngine(name + ".btree", columns, columnTypes, storageConfig.getBufferPoolSize(),
+                    reopen);
+        }
+        if (engineType.equals("columnar")) {
+            return new ColumnarStorageEngine(name + ".col", columns, columnTypes,
+                    ColumnarStorageEngine.DEFAULT_BLOCK_ROWS, reopen);
+        }
+        return new CsvStorageEngine(name + ".csv", columns, reopen);
+    }
+}
@@ -0,0 +1,569 @@
+package org.example.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of a replica with group commit. Every write is recorded as a logical operation: writers apply
+ * their change and queue its record under a short lock, so the log holds the writes in the order they were applied,
+ * and a single flusher thread writes everything queued so far in one write. How long a writer waits depends on the
+ * durability of the table:
+ * <ul>
+ * <li>"none": the writer returns once its change is applied; records are written in the background and never
+ * synced.</li>
+ * <li>"batch": the writer waits until the batch holding its record is written and synced, one fsync per batch, so
+ * concurrent writers share the cost of a sync.</li>
+ * <li>"every-write": the writer waits until its record is written and synced on its own.</li>
+ * </ul>
+ * Records are laid out as {@code [payload length: 4][CRC32 of the payload: 4][payload]}, where the payload is the
+ * operation code followed by its arguments, each list encoded as an untyped {@link RowCodec} row. A batch of writes
+ * is a single record, with one argument per row of the batch.
+ * <p>
+ * Closing the log appends a {@link #CLOSE} record. The log of a table is kept across runs: if it does not end with a
+ * close record, the previous run crashed and its data files may lack writes that were acknowledged or be left half
+ * written, so the replica rebuilds them and {@link #replay(String, Replayer)}s the log into them.
+ * <p>
+ * To keep the log short, the replica takes a {@link #checkpoint(long, Checkpointer) checkpoint} from time to time:
+ * with writes held off, it saves a snapshot of its flushed data files, then the log starts over with a single
+ * {@link #CHECKPOINT} record naming that snapshot. Recovery starts from the snapshot of the first record and replays
+ * only the writes after it; a log without a checkpoint record holds every write since the data files were created.
+ */
+public class WriteAheadLog implements Closeable {
+    public static final byte INSERT_SQL = 1;
+    public static final byte UPDATE_SQL = 2;
+    public static final byte DELETE_SQL = 3;
+    public static final byte DELETE_BY_ROW_SQL = 4;
+    public static final byte INSERT_NOSQL = 5;
+    public static final byte UPDATE_NOSQL = 6;
+    public static final byte DELETE_NOSQL = 7;
+    public static final byte INSERT_SQL_WITH_ROW_ID = 8;
+    public static final byte INSERT_BATCH_SQL = 9;
+    public static final byte INSERT_BATCH_NOSQL = 10;
+    public static final byte UPDATE_BATCH_SQL = 11;
+    public static final byte DELETE_BATCH_SQL = 12;
+    public static final byte CLOSE = 13;
+    public static final byte INSERT_BATCH_SQL_WITH_ROW_ID = 14;
+    public static final byte CHECKPOINT = 15;
+    private static final int RECORD_HEADER_SIZE = 4 + 4;
+
+    private final String fileName;
+    private final String durability;
+    // replaced when a checkpoint starts a new log, while the flusher thread has nothing to write
+    private FileChannel channel;
+    // taken while applying a write and queueing its record, so both happen in the same order
+    private final Object appendLock = new Object();
+    private final Thread flusher;
+    private List<byte[]> pending = new ArrayList<>();
+    // sequence number of the last queued record and of the last record made durable
+    private long appended = 0;
+    private long flushed = 0;
+    private long flushes = 0;
+    private long syncs = 0;
+    // snapshot the log starts from, 0 for none, and what the log holds after it
+    private long generation;
+    private long size = 0;
+    private boolean hasWrites = false;
+    private boolean endsClosed = false;
+    private long checkpoints = 0;
+    private boolean closed = false;
+    private IOException failure;
+
+    /**
+     * Applies a write to the storage engine.
+     *
+     * @param <T> the result of the write.
+     */
+    public interface Action<T> {
+        /**
+         * @return the result of the write.
+         * @throws IOException if the write fails, in which case it is not logged.
+         */
+        T apply() throws IOException;
+    }
+
+    /**
+     * Saves a snapshot of the data files, called while no write can be applied.
+     */
+    public interface Checkpointer {
+        /**
+         * @param generation the number of the snapshot, higher than that of any earlier snapshot.
+         * @throws IOException if the snapshot cannot be saved, in which case the log is kept as is.
+         */
+        void checkpoint(long generation) throws IOException;
+    }
+
+    /**
+     * Applies a logged write again.
+     */
+    public interface Replayer {
+        /**
+         * @param op the operation, one of the constants of this class.
+         * @param args the arguments of the operation.
+         * @throws IOException if the write fails.
+         */
+        void replay(byte op, List<List<String>> args) throws IOException;
+    }
+
+    /**
+     * Constructs a WriteAheadLog, creates an empty log file and starts its flusher thread.
+     *
+     * @param fileName the name of the log file.
+     * @param durability "none", "batch" or "every-write".
+     * @throws IOException if the log file cannot be created.
+     */
+    public WriteAheadLog(String fileName, String durability) throws IOException {
+        this(fileName, durability, false);
+    }
+
+    /**
+     * Constructs a WriteAheadLog and starts its flusher thread.
+     *
+     * @param fileName the name of the log file.
+     * @param durability "none", "batch" or "every-write".
+     * @param append whether to keep the records of a previous run and append after them, instead of emptying the file.
+     * @throws IOException if the log file cannot be opened.
+     */
+    public WriteAheadLog(String fileName, String durability, boolean append) throws IOException {
+        this.fileName = fileName;
+        this.durability = durability;
+        this.channel = append ? FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.generation = generation(channel);
+        this.endsClosed = read(channel, (op, args) -> hasWrites = true) == CLOSE;
+        this.size = channel.size();
+        channel.position(size);
+        this.flusher = new Thread(this::flushLoop, "wal-flusher-" + fileName);
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Encodes the record of a write.
+     *
+     * @param op the operation, one of the constants of this class.
+     * @param args the arguments of the operation.
+     * @return the record payload.
+     */
+    @SafeVarargs
+    public static byte[] record(byte op, List<String>... args) {
+        List<List<String>> list = new ArrayList<>(args.length);
+        for (List<String> arg : args) {
+            list.add(arg);
+        }
+        return recordAll(op, list);
+    }
+
+    /**
+     * Encodes the record of a write with any number of arguments, such as the rows of a batch.
+     *
+     * @param op the operation, one of the constants of this class.
+     * @param args the arguments of the operation.
+     * @return the record payload.
+     */
+    public static byte[] recordAll(byte op, List<List<String>> args) {
+        List<byte[]> rows = new ArrayList<>();
+        int size = 1;
+        for (List<String> arg : args) {
+            byte[] row = RowCodec.encode(arg, null);
+            rows.add(row);
+            size += row.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size).put(op);
+        for (byte[] row : rows) {
+            buffer.put(row);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Applies a write and logs it, waiting as long as the durability of the table requires.
+     *
+     * @param record the record of the write, see {@link #record(byte, List[])} and {@link #recordAll(byte, List)}.
+     * @param action applies the write to the storage engine.
+     * @param <T> the result of the write.
+     * @return the result of the write.
+     * @throws IOException if the write fails or its record cannot be made durable.
+     */
+    public <T> T commit(byte[] record, Action<T> action) throws IOException {
+        T result;
+        long seq;
+        synchronized (appendLock) {
+            result = action.apply();
+            seq = enqueue(record);
+        }
+        if (!durability.equals("none")) {
+            awaitFlushed(seq);
+        }
+        return result;
+    }
+
+    private synchronized long enqueue(byte[] record) throws IOException {
+        if (closed) {
+            throw new IOException("write-ahead log is closed");
+        }
+        if (failure != null) {
+            throw new IOException("write-ahead log failed", failure);
+        }
+        pending.add(record);
+        appended++;
+        size += RECORD_HEADER_SIZE + record.length;
+        hasWrites = true;
+        endsClosed = false;
+        notifyAll();
+        return appended;
+    }
+
+    private synchronized void awaitFlushed(long seq) throws IOException {
+        while (flushed < seq && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for the write-ahead log");
+            }
+        }
+        if (flushed < seq) {
+            throw new IOException("write-ahead log failed", failure);
+        }
+    }
+
+    /**
+     * Body of the flusher thread: takes everything queued, writes it, syncs it if required and wakes up the writers
+     * waiting for it, until the log is closed and drained.
+     */
+    private void flushLoop() {
+        while (true) {
+            List<byte[]> batch;
+            long last;
+            synchronized (this) {
+                while (pending.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                last = appended;
+            }
+            try {
+                if (durability.equals("every-write")) {
+                    long seq = last - batch.size();
+                    for (byte[] record : batch) {
+                        write(List.of(record));
+                        channel.force(false);
+                        markFlushed(++seq, true);
+                    }
+                } else {
+                    write(batch);
+                    if (durability.equals("batch")) {
+                        channel.force(false);
+                    }
+                    markFlushed(last, durability.equals("batch"));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    private synchronized void markFlushed(long seq, boolean synced) {
+        flushed = seq;
+        flushes++;
+        if (synced) {
+            syncs++;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Writes records at the end of the log with a single write.
+     *
+     * @param records the record payloads.
+     * @throws IOException if the records cannot be written.
+     */
+    private void write(List<byte[]> records) throws IOException {
+        write(channel, records);
+    }
+
+    private static void write(FileChannel channel, List<byte[]> records) throws IOException {
+        int size = 0;
+        for (byte[] record : records) {
+            size += RECORD_HEADER_SIZE + record.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        CRC32 crc = new CRC32();
+        for (byte[] record : records) {
+            crc.reset();
+            crc.update(record);
+            buffer.putInt(record.length).putInt((int) crc.getValue()).put(record);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Takes a checkpoint if the log has grown to a given size: holds off writes, waits until every queued record is
+     * written, lets the caller save a snapshot of its data files, then replaces the log with a new one that starts
+     * with a checkpoint record naming that snapshot.
+     *
+     * @param minSize the size in bytes the log must have reached, 0 to take a checkpoint after any write.
+     * @param checkpointer saves the snapshot.
+     * @return true if a checkpoint was taken, false if the log was smaller or held no write.
+     * @throws IOException if the snapshot cannot be saved or the new log cannot be written.
+     */
+    public boolean checkpoint(long minSize, Checkpointer checkpointer) throws IOException {
+        synchronized (appendLock) {
+            long next;
+            synchronized (this) {
+                if (!hasWrites || size < minSize) {
+                    return false;
+                }
+                next = generation + 1;
+            }
+            awaitFlushed(appended());
+            checkpointer.checkpoint(next);
+            Path path = Paths.get(fileName);
+            Path tmp = Paths.get(fileName + ".tmp");
+            try (FileChannel log = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                write(log, List.of(record(CHECKPOINT, List.of(String.valueOf(next)))));
+                log.force(false);
+            }
+            // every record is flushed and writes are held off, so the flusher thread does not touch the old log
+            synchronized (this) {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                try {
+                    channel.close();
+                    channel = FileChannel.open(path, StandardOpenOption.WRITE);
+                    channel.position(channel.size());
+                } catch (IOException e) {
+                    failure = e;
+                    notifyAll();
+                    throw e;
+                }
+                generation = next;
+                size = channel.size();
+                hasWrites = false;
+                endsClosed = false;
+                checkpoints++;
+            }
+            return true;
+        }
+    }
+
+    private synchronized long appended() {
+        return appended;
+    }
+
+    /**
+     * Tells how large the log has grown since it was created or last started over by a checkpoint.
+     *
+     * @return the size in bytes of the records in the log, including those not written yet.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Tells which snapshot the log starts from.
+     *
+     * @return the number of the snapshot of the last checkpoint, 0 if the log holds every write since the data files
+     * were created.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Reports how many records were logged, how many writes and syncs they took and how many checkpoints were taken.
+     *
+     * @return walRecords, walFlushes, walSyncs, walCheckpoints and walBytes, the size of the current log.
+     */
+    public synchronized Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("walRecords", appended);
+        stats.put("walFlushes", flushes);
+        stats.put("walSyncs", syncs);
+        stats.put("walCheckpoints", checkpoints);
+        stats.put("walBytes", size);
+        return stats;
+    }
+
+    /**
+     * Checks whether the previous run closed a log after its last write, so the data files hold every logged write.
+     *
+     * @param fileName the name of the log file.
+     * @return true if the log ends with a close record or does not exist, false if the previous run crashed.
+     * @throws IOException if the log file cannot be read.
+     */
+    public static boolean isClosed(String fileName) throws IOException {
+        Path path = Paths.get(fileName);
+        if (!Files.exists(path)) {
+            return true;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel, null) == CLOSE;
+        }
+    }
+
+    /**
+     * Tells which snapshot a log left by a previous run starts from.
+     *
+     * @param fileName the name of the log file.
+     * @return the number of the snapshot named by the checkpoint record the log starts with, 0 if there is none.
+     * @throws IOException if the log file cannot be read.
+     */
+    public static long readGeneration(String fileName) throws IOException {
+        Path path = Paths.get(fileName);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return generation(channel);
+        }
+    }
+
+    private static long generation(FileChannel channel) throws IOException {
+        long[] generation = {0};
+        read(channel, (op, args) -> generation[0] = Long.parseLong(args.get(0).get(0)), 1);
+        return generation[0];
+    }
+
+    /**
+     * Replays every write of a log left by a previous run, in the order they were applied, skipping checkpoint and
+     * close records.
+     * A record cut short or corrupted by a crash was never acknowledged; it ends the log and is cut off.
+     *
+     * @param fileName the name of the log file.
+     * @param replayer applies each write.
+     * @throws IOException if the log file cannot be read or a write fails.
+     */
+    public static void replay(String fileName, Replayer replayer) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            read(channel, replayer);
+        }
+    }
+
+    /**
+     * Reads the intact records at the start of a log and cuts off the rest if the log is writable.
+     *
+     * @param channel the log file.
+     * @param replayer receives each write, null to only find the last record.
+     * @return the operation of the last intact record, -1 if there is none.
+     * @throws IOException if the log file cannot be read or a write fails.
+     */
+    private static int read(FileChannel channel, Replayer replayer) throws IOException {
+        return read(channel, replayer, 0);
+    }
+
+    /**
+     * Reads the checkpoint record at the start of a log, or reads the intact records at the start of a log and cuts
+     * off the rest if the log is writable.
+     *
+     * @param channel the log file.
+     * @param replayer receives each write, or the checkpoint record, null to only find the last record.
+     * @param limit the number of records to read, 1 to read only the checkpoint record, 0 for every record.
+     * @return the operation of the last intact record read, -1 if there is none.
+     * @throws IOException if the log file cannot be read or a write fails.
+     */
+    private static int read(FileChannel channel, Replayer replayer, int limit) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        RowView view = new RowView(null);
+        CRC32 crc = new CRC32();
+        long offset = 0;
+        int last = -1;
+        int records = 0;
+        while (offset + RECORD_HEADER_SIZE <= size && (limit == 0 || records < limit)) {
+            header.clear();
+            readFully(channel, header, offset);
+            int length = header.getInt(0);
+            if (length < 1 || offset + RECORD_HEADER_SIZE + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload, offset + RECORD_HEADER_SIZE);
+            crc.reset();
+            crc.update(payload.array());
+            if ((int) crc.getValue() != header.getInt(4)) {
+                break;
+            }
+            byte op = payload.get(0);
+            if (replayer != null && (limit == 0 ? op != CLOSE && op != CHECKPOINT : op == CHECKPOINT)) {
+                List<List<String>> args = new ArrayList<>();
+                for (int position = 1; position < length; position += view.length()) {
+                    args.add(view.reset(payload, position).toList());
+                }
+                replayer.replay(op, args);
+            }
+            last = op;
+            offset += RECORD_HEADER_SIZE + length;
+            records++;
+        }
+        if (offset < size && replayer != null && limit == 0) {
+            channel.truncate(offset);
+        }
+        return last;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("unexpected end of write-ahead log");
+            }
+        }
+    }
+
+    /**
+     * Writes the queued records and a close record, unless the log already ends with one, stops the flusher thread
+     * and closes the log file. Called once the data files hold every logged write.
+     *
+     * @throws IOException if the log file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (!closed && failure == null && !endsClosed) {
+                pending.add(record(CLOSE));
+                appended++;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+}
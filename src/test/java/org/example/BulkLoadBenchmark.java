@@ -0,0 +1,165 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.dto.CreateRequestDto;
+import org.example.dto.InsertRequestDto;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Load throughput of the Coordinator into a table of three partitions: one INSERT request per row, INSERT requests
+ * of {@value #ROWS_PER_STATEMENT} rows, and a single /bulkload request streaming every row as CSV. Single-row
+ * inserts load a tenth of the rows, at most {@value #MAX_SINGLE_ROWS}. Not run by the test suite, run it with
+ * {@code mvn test-compile exec:java -Dexec.mainClass="org.example.BulkLoadBenchmark" -Dexec.classpathScope=test},
+ * optionally with the number of rows as argument (1,000,000 by default).
+ */
+public class BulkLoadBenchmark {
+    private static final int PORT = 8092;
+    private static final int ROWS_PER_STATEMENT = 1000;
+    private static final int MAX_SINGLE_ROWS = 20_000;
+    private static final int CLIENT_THREADS = 16;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        System.out.printf("%-18s %10s %10s %12s%n", "method", "rows", "seconds", "rows/s");
+        run("single-row insert", Math.min(rows / 10, MAX_SINGLE_ROWS));
+        run("multi-row insert", rows);
+        run("bulkload", rows);
+        System.exit(0);
+    }
+
+    /**
+     * Starts a coordinator, loads a table with one of the methods and prints the throughput.
+     *
+     * @param method the load method.
+     * @param rows the number of rows to load.
+     */
+    private static void run(String method, int rows) throws Exception {
+        Coordinator coordinator = new Coordinator();
+        coordinator.deleteCsvFiles();
+        coordinator.run(PORT);
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(60)).build();
+        try {
+            CreateRequestDto createRequestDto = new CreateRequestDto();
+            createRequestDto.setStatement("CREATE TABLE loadtest (id INT PRIMARY KEY, name VARCHAR(255))");
+            createRequestDto.setDatabaseType("SQL");
+            createRequestDto.setReplicaCount(1);
+            createRequestDto.setPartitionType("horizontal");
+            createRequestDto.setNumPartitions(3);
+            createRequestDto.setDurability("none");
+            client.send(post("/create", MAPPER.writeValueAsString(createRequestDto)), HttpResponse.BodyHandlers.ofString());
+
+            long start = System.nanoTime();
+            if (method.equals("single-row insert")) {
+                ExecutorService threads = Executors.newFixedThreadPool(CLIENT_THREADS);
+                List<Future<?>> requests = new ArrayList<>();
+                for (int i = 0; i < rows; i++) {
+                    HttpRequest request = post("/insert",
+                            insert("INSERT INTO loadtest (id, name) VALUES (" + i + ", 'row" + i + "')"));
+                    requests.add(threads.submit(() -> send(client, request)));
+                }
+                for (Future<?> request : requests) {
+                    request.get();
+                }
+                threads.shutdown();
+            } else if (method.equals("multi-row insert")) {
+                for (int from = 0; from < rows; from += ROWS_PER_STATEMENT) {
+                    StringBuilder statement = new StringBuilder("INSERT INTO loadtest (id, name) VALUES ");
+                    for (int i = from; i < Math.min(rows, from + ROWS_PER_STATEMENT); i++) {
+                        statement.append(i == from ? "" : ", ").append("(").append(i).append(", 'row").append(i)
+                                .append("')");
+                    }
+                    send(client, post("/insert", insert(statement.toString())));
+                }
+            } else {
+                HttpRequest request = HttpRequest.newBuilder(
+                                URI.create("http://localhost:" + PORT + "/bulkload?table=loadtest&databaseType=SQL&format=csv"))
+                        .timeout(Duration.ofHours(1))
+                        .POST(HttpRequest.BodyPublishers.ofInputStream(() -> new CsvRows(rows)))
+                        .build();
+                send(client, request);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-18s %10d %10.2f %12.0f%n", method, rows, seconds, rows / seconds);
+        } finally {
+            coordinator.stop();
+            coordinator.deleteCsvFiles();
+        }
+    }
+
+    private static String insert(String statement) throws Exception {
+        InsertRequestDto insertRequestDto = new InsertRequestDto();
+        insertRequestDto.setStatement(statement);
+        insertRequestDto.setDatabaseType("SQL");
+        return MAPPER.writeValueAsString(insertRequestDto);
+    }
+
+    private static void send(HttpClient client, HttpRequest request) {
+        try {
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException(response.statusCode() + " " + response.body());
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static HttpRequest post(String endPoint, String body) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + endPoint))
+                .timeout(Duration.ofMinutes(10))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    /**
+     * A CSV body of generated rows, produced as it is read so any number of rows can be streamed.
+     */
+    private static class CsvRows extends InputStream {
+        private final int rows;
+        private int next = 0;
+        private byte[] chunk = "id,name\n".getBytes(StandardCharsets.UTF_8);
+        private int position = 0;
+
+        CsvRows(int rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public int read() {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position == chunk.length) {
+                if (next == rows) {
+                    return -1;
+                }
+                StringBuilder lines = new StringBuilder();
+                for (int end = Math.min(rows, next + ROWS_PER_STATEMENT); next < end; next++) {
+                    lines.append(next).append(",'row").append(next).append("'\n");
+                }
+                chunk = lines.toString().getBytes(StandardCharsets.UTF_8);
+                position = 0;
+            }
+            int read = Math.min(length, chunk.length - position);
+            System.arraycopy(chunk, position, buffer, offset, read);
+            position += read;
+            return read;
+        }
+    }
+}
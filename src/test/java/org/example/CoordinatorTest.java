@@ -10,13 +10,19 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.example.dto.*;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import org.example.storage.ColumnarStorageEngine;
+import org.example.storage.RowPredicate;
 import org.junit.jupiter.api.*;
 
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.stream.Collectors;
 import java.util.concurrent.*;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -47,6 +53,11 @@ class CoordinatorTest {
             }
         });
         serverThread.start(); // Start server in a separate thread
+        try {
+            serverThread.join(); // wait until the server is listening and old files are removed
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -981,62 +992,57 @@ class CoordinatorTest {
         sendPostRequest("/select", selectRequestJson);
 
         // check if the data is cached by reading the cache map directly
-        ConcurrentHashMap<String, String> cache = coordinator.getCache();
+        QueryCache cache = coordinator.getCache();
         assertEquals(1, cache.size());
-        assertTrue(cache.containsKey("students-SQL"));
-        assertEquals("1,'Alice',20,\n", cache.get("students-SQL"));
+        assertTrue(cache.containsKey("students-SQL-0"));
+        assertEquals("1,'Alice',20,\n", cache.peek("students-SQL-0"));
 
         // INSERT new data
         insertRequestDto.setStatement("INSERT INTO students (id, name, age) VALUES (2, 'Bob', 21)");
         insertRequestJson = objectMapper.writeValueAsString(insertRequestDto);
         sendPostRequest("/insert", insertRequestJson);
 
-        // cache should be invalidated after INSERT
-        assertEquals(0, cache.size());
+        // the INSERT is applied to the cached data
+        assertEquals(1, cache.size());
+        assertEquals("1,'Alice',20,\n2,'Bob',21,\n", cache.peek("students-SQL-0"));
 
-        // SELECT to cache the new data
-        sendPostRequest("/select", selectRequestJson);
+        // SELECT is answered from the cache
+        assertEquals("1,'Alice',20,\n2,'Bob',21,\n", sendPostRequest("/select", selectRequestJson).getResponseBody());
 
         // check if the new data is cached
         assertEquals(1, cache.size());
-        assertTrue(cache.containsKey("students-SQL"));
-        assertEquals("1,'Alice',20,\n2,'Bob',21,\n", cache.get("students-SQL"));
+        assertTrue(cache.containsKey("students-SQL-0"));
+        assertEquals("1,'Alice',20,\n2,'Bob',21,\n", cache.peek("students-SQL-0"));
 
-        // UPDATE should invalidate the cache
+        // UPDATE should update the cache
         UpdateRequestDto updateRequestDto = new UpdateRequestDto();
         updateRequestDto.setStatement("UPDATE students SET age = 22 WHERE id = 1");
         updateRequestDto.setDatabaseType("SQL");
         String updateRequestJson = objectMapper.writeValueAsString(updateRequestDto);
         sendPostRequest("/update", updateRequestJson);
 
-        // cache should be invalidated after UPDATE
-        assertEquals(0, cache.size());
-
-        // SELECT to cache the updated data
-        sendPostRequest("/select", selectRequestJson);
+        // SELECT to read the updated data
+        assertEquals("1,'Alice',22,\n2,'Bob',21,\n", sendPostRequest("/select", selectRequestJson).getResponseBody());
 
         // check if the updated data is cached
         assertEquals(1, cache.size());
-        assertTrue(cache.containsKey("students-SQL"));
-        assertEquals("1,'Alice',22,\n2,'Bob',21,\n", cache.get("students-SQL"));
+        assertTrue(cache.containsKey("students-SQL-0"));
+        assertEquals("1,'Alice',22,\n2,'Bob',21,\n", cache.peek("students-SQL-0"));
 
-        // DELETE should invalidate the cache
+        // DELETE should update the cache
         DeleteRequestDto deleteRequestDto = new DeleteRequestDto();
         deleteRequestDto.setStatement("DELETE FROM students WHERE id = 1");
         deleteRequestDto.setDatabaseType("SQL");
         String deleteRequestJson = objectMapper.writeValueAsString(deleteRequestDto);
         sendPostRequest("/delete", deleteRequestJson);
 
-        // cache should be invalidated after DELETE
-        assertEquals(0, cache.size());
-
-        // SELECT to cache the updated data
-        sendPostRequest("/select", selectRequestJson);
+        // SELECT to read the updated data
+        assertEquals("2,'Bob',21,\n", sendPostRequest("/select", selectRequestJson).getResponseBody());
 
         // check if the updated data is cached
         assertEquals(1, cache.size());
-        assertTrue(cache.containsKey("students-SQL"));
-        assertEquals("2,'Bob',21,\n", cache.get("students-SQL"));
+        assertTrue(cache.containsKey("students-SQL-0"));
+        assertEquals("2,'Bob',21,\n", cache.peek("students-SQL-0"));
         results.setTestResult("Test_Caching", true, 5);
     }
 
@@ -1087,6 +1093,1713 @@ class CoordinatorTest {
         }
         results.setTestResult("Test_Concurrency", true, 15);
     }
+    /**
+     * TEST12: Tests CRUD operations for SQL and NoSQL tables backed by the append-only log storage engine.
+     */
+    @Test
+    void testLogStorageEngine() throws Exception {
+        System.out.println("12. Testing log storage engine");
+        testStorageEngineCRUD("log");
+        results.setTestResult("Test_Log_Storage_Engine", true, 10);
+    }
+
+    /**
+     * TEST13: Tests CRUD operations for SQL and NoSQL tables backed by the LSM-tree storage engine.
+     */
+    @Test
+    void testLsmStorageEngine() throws Exception {
+        System.out.println("13. Testing LSM storage engine");
+        testStorageEngineCRUD("lsm");
+        results.setTestResult("Test_LSM_Storage_Engine", true, 10);
+    }
+
+    /**
+     * TEST14: Tests CRUD operations for SQL and NoSQL tables backed by the B+tree storage engine, and its buffer pool counters.
+     */
+    @Test
+    void testBTreeStorageEngine() throws Exception {
+        System.out.println("14. Testing B+tree storage engine");
+        testStorageEngineCRUD("btree");
+
+        // every replica reads its pages through the buffer pool
+        Map<String, Map<String, Long>> stats = coordinator.getDatabases().get("students-SQL").getStorageStats();
+        assertEquals(4, stats.size());
+        for (Map<String, Long> replicaStats : stats.values()) {
+            assertTrue(replicaStats.get("bufferPoolHits") > 0);
+            assertTrue(replicaStats.containsKey("bufferPoolMisses"));
+        }
+
+        // the buffer pool size cannot be negative
+        CreateRequestDto createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE teachers (id INT PRIMARY KEY, name VARCHAR(255))");
+        createRequestDto.setDatabaseType("SQL");
+        createRequestDto.setReplicaCount(1);
+        createRequestDto.setPartitionType("none");
+        createRequestDto.setNumPartitions(1);
+        createRequestDto.setStorageEngine("btree");
+        createRequestDto.setBufferPoolSize(-1);
+        HttpResponseData res = sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto));
+        assertNotNull(res);
+        assertEquals(400, res.getStatusCode());
+        results.setTestResult("Test_BTree_Storage_Engine", true, 10);
+    }
+
+    /**
+     * TEST15: Tests that values are parsed with the types declared in CREATE TABLE, stored in canonical form, routed by
+     * their typed id, and rejected when invalid, for both the CSV and a binary storage engine.
+     */
+    @Test
+    void testTypedColumns() throws Exception {
+        System.out.println("15. Testing typed columns");
+        for (String storageEngine : Arrays.asList("csv", "btree")) {
+            String table = "members_" + storageEngine;
+            CreateRequestDto createRequestDto = new CreateRequestDto();
+            createRequestDto.setStatement("CREATE TABLE " + table + " (id BIGINT PRIMARY KEY, name VARCHAR(255), "
+                    + "score DOUBLE, active BOOLEAN, joined DATE)");
+            createRequestDto.setDatabaseType("SQL");
+            createRequestDto.setReplicaCount(2);
+            createRequestDto.setPartitionType("horizontal");
+            createRequestDto.setNumPartitions(2);
+            createRequestDto.setStorageEngine(storageEngine);
+            HttpResponseData res = sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto));
+            assertNotNull(res);
+            assertEquals(200, res.getStatusCode());
+
+            // values are written in canonical form, a negative id is routed like any other
+            InsertRequestDto insertRequestDto = new InsertRequestDto();
+            insertRequestDto.setDatabaseType("SQL");
+            insertRequestDto.setStatement("INSERT INTO " + table + " (id, name, score, active, joined) "
+                    + "VALUES (0010, 'Alice', 1.50, TRUE, '2024-01-31')");
+            assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+            insertRequestDto.setStatement("INSERT INTO " + table + " (id, name) VALUES (-3, 'Bob')");
+            assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+
+            // values that do not match the column type are rejected
+            insertRequestDto.setStatement("INSERT INTO " + table + " (id, name, score) VALUES (4, 'Carol', 'high')");
+            assertEquals(400, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+            insertRequestDto.setStatement("INSERT INTO " + table + " (id, name, joined) VALUES (5, 'Dave', '2024-13-01')");
+            assertEquals(400, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+
+            // conditions match on the typed value
+            UpdateRequestDto updateRequestDto = new UpdateRequestDto();
+            updateRequestDto.setStatement("UPDATE " + table + " SET score = 2 WHERE id = 10");
+            updateRequestDto.setDatabaseType("SQL");
+            assertEquals(200, sendPostRequest("/update", objectMapper.writeValueAsString(updateRequestDto)).getStatusCode());
+            updateRequestDto.setStatement("UPDATE " + table + " SET active = maybe WHERE id = 10");
+            assertEquals(400, sendPostRequest("/update", objectMapper.writeValueAsString(updateRequestDto)).getStatusCode());
+
+            SelectRequestDto selectRequestDto = new SelectRequestDto();
+            selectRequestDto.setStatement("SELECT * FROM " + table);
+            selectRequestDto.setDatabaseType("SQL");
+            res = sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto));
+            assertNotNull(res);
+            assertEquals(200, res.getStatusCode());
+            assertEquals("10,'Alice',2.0,true,'2024-01-31',\n-3,'Bob',,,,\n", res.getResponseBody());
+
+            DeleteRequestDto deleteRequestDto = new DeleteRequestDto();
+            deleteRequestDto.setStatement("DELETE FROM " + table + " WHERE id = 010");
+            deleteRequestDto.setDatabaseType("SQL");
+            assertEquals(200, sendPostRequest("/delete", objectMapper.writeValueAsString(deleteRequestDto)).getStatusCode());
+            res = sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto));
+            assertNotNull(res);
+            assertEquals("-3,'Bob',,,,\n", res.getResponseBody());
+        }
+        results.setTestResult("Test_Typed_Columns", true, 10);
+    }
+
+    /**
+     * TEST16: Tests a vertically partitioned table stored by the columnar storage engine, with enough rows to seal a
+     * block, and that blocks are skipped by their statistics.
+     */
+    @Test
+    void testColumnarStorageEngine() throws Exception {
+        System.out.println("16. Testing columnar storage engine");
+        CreateRequestDto createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE events (id INT PRIMARY KEY, kind VARCHAR(255), amount INT)");
+        createRequestDto.setDatabaseType("SQL");
+        createRequestDto.setReplicaCount(2);
+        createRequestDto.setPartitionType("vertical");
+        createRequestDto.setVerticalPartitionColumns(Arrays.asList(Arrays.asList("id", "kind"), Arrays.asList("amount")));
+        createRequestDto.setNumPartitions(2);
+        createRequestDto.setStorageEngine("columnar");
+        HttpResponseData res = sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto));
+        assertNotNull(res);
+        assertEquals(200, res.getStatusCode());
+
+        int rowCount = ColumnarStorageEngine.DEFAULT_BLOCK_ROWS + 10;
+        InsertRequestDto insertRequestDto = new InsertRequestDto();
+        insertRequestDto.setDatabaseType("SQL");
+        for (int i = 0; i < rowCount; i++) {
+            insertRequestDto.setStatement("INSERT INTO events (id, kind, amount) VALUES (" + i + ", 'k" + i % 4 + "', " + i + ")");
+            res = sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto));
+            assertNotNull(res);
+            assertEquals(200, res.getStatusCode());
+        }
+
+        // no kind sorts after 'k3', the sealed block is ruled out by its max without reading it
+        UpdateRequestDto updateRequestDto = new UpdateRequestDto();
+        updateRequestDto.setStatement("UPDATE events SET kind = 'k0' WHERE kind = 'k9'");
+        updateRequestDto.setDatabaseType("SQL");
+        assertEquals(200, sendPostRequest("/update", objectMapper.writeValueAsString(updateRequestDto)).getStatusCode());
+        updateRequestDto.setStatement("UPDATE events SET amount = 7 WHERE amount = 1030");
+        assertEquals(200, sendPostRequest("/update", objectMapper.writeValueAsString(updateRequestDto)).getStatusCode());
+
+        // deleting on a column that is not the id scans the kind column and removes the same rows from every partition
+        DeleteRequestDto deleteRequestDto = new DeleteRequestDto();
+        deleteRequestDto.setStatement("DELETE FROM events WHERE kind = 'k1'");
+        deleteRequestDto.setDatabaseType("SQL");
+        assertEquals(200, sendPostRequest("/delete", objectMapper.writeValueAsString(deleteRequestDto)).getStatusCode());
+
+        // the client joins the rows of vertical partitions without separator
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < rowCount; i++) {
+            if (i % 4 != 1) {
+                expected.append(i).append(",'k").append(i % 4).append("',").append(i == 1030 ? 7 : i).append(",");
+            }
+        }
+        SelectRequestDto selectRequestDto = new SelectRequestDto();
+        selectRequestDto.setStatement("SELECT * FROM events");
+        selectRequestDto.setDatabaseType("SQL");
+        res = sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto));
+        assertNotNull(res);
+        assertEquals(200, res.getStatusCode());
+        assertEquals(expected.toString(), res.getResponseBody());
+
+        Map<String, Map<String, Long>> stats = coordinator.getDatabases().get("events-SQL").getStorageStats();
+        assertEquals(4, stats.size());
+        for (Map<String, Long> replicaStats : stats.values()) {
+            assertEquals(1L, replicaStats.get("blocks"));
+        }
+        assertTrue(stats.get("events-SQL-0-0").get("blocksSkipped") > 0);
+
+        // columnar storage is only offered for vertical partitions
+        createRequestDto.setStatement("CREATE TABLE visits (id INT PRIMARY KEY, page VARCHAR(255))");
+        createRequestDto.setPartitionType("none");
+        createRequestDto.setNumPartitions(1);
+        createRequestDto.setVerticalPartitionColumns(null);
+        res = sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto));
+        assertNotNull(res);
+        assertEquals(400, res.getStatusCode());
+        results.setTestResult("Test_Columnar_Storage_Engine", true, 10);
+    }
+
+    /**
+     * TEST17: Tests that concurrent writes are logged to the write-ahead log of every replica and synced as required
+     * by each durability level.
+     */
+    @Test
+    void testWriteAheadLog() throws Exception {
+        System.out.println("17. Testing write-ahead log durability levels");
+        List<String> durabilities = Arrays.asList("none", "batch", "every-write");
+        int writes = 40;
+        for (int d = 0; d < durabilities.size(); d++) {
+            String table = "ledger" + d;
+            CreateRequestDto createRequestDto = new CreateRequestDto();
+            createRequestDto.setStatement("CREATE TABLE " + table + " (id INT PRIMARY KEY, amount INT)");
+            createRequestDto.setDatabaseType("SQL");
+            createRequestDto.setReplicaCount(2);
+            createRequestDto.setPartitionType("none");
+            createRequestDto.setNumPartitions(1);
+            createRequestDto.setDurability(durabilities.get(d));
+            HttpResponseData res = sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto));
+            assertNotNull(res);
+            assertEquals(200, res.getStatusCode());
+
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            for (int i = 0; i < writes; i++) {
+                InsertRequestDto insertRequestDto = new InsertRequestDto();
+                insertRequestDto.setStatement("INSERT INTO " + table + " (id, amount) VALUES (" + i + ", " + i * 10 + ")");
+                insertRequestDto.setDatabaseType("SQL");
+                executor.execute(new InsertTask(objectMapper.writeValueAsString(insertRequestDto)));
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+            SelectRequestDto selectRequestDto = new SelectRequestDto();
+            selectRequestDto.setStatement("SELECT * FROM " + table);
+            selectRequestDto.setDatabaseType("SQL");
+            res = sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto));
+            assertNotNull(res);
+            for (int i = 0; i < writes; i++) {
+                assertTrue(res.getResponseBody().contains(i + "," + i * 10 + ",\n"));
+            }
+
+            Map<String, Map<String, Long>> stats = coordinator.getDatabases().get(table + "-SQL").getStorageStats();
+            assertEquals(2, stats.size());
+            for (Map<String, Long> replicaStats : stats.values()) {
+                assertEquals(writes, replicaStats.get("walRecords"));
+                long syncs = replicaStats.get("walSyncs");
+                if (durabilities.get(d).equals("none")) {
+                    assertEquals(0, syncs);
+                } else if (durabilities.get(d).equals("batch")) {
+                    // concurrent writes share a sync
+                    assertTrue(syncs >= 1 && syncs <= writes);
+                } else {
+                    assertEquals(writes, syncs);
+                }
+            }
+        }
+
+        CreateRequestDto createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE ledger3 (id INT PRIMARY KEY, amount INT)");
+        createRequestDto.setDatabaseType("SQL");
+        createRequestDto.setReplicaCount(1);
+        createRequestDto.setPartitionType("none");
+        createRequestDto.setNumPartitions(1);
+        createRequestDto.setDurability("sometimes");
+        HttpResponseData res = sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto));
+        assertNotNull(res);
+        assertEquals(400, res.getStatusCode());
+        results.setTestResult("Test_Write_Ahead_Log", true, 10);
+    }
+
+    /**
+     * TEST18: Tests that deletes on the CSV storage engine are recorded as tombstones and that the file is compacted
+     * in the background once most of it is deleted.
+     */
+    @Test
+    void testTombstoneCompaction() throws Exception {
+        System.out.println("18. Testing tombstone deletes and background compaction");
+        CreateRequestDto createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE orders (id INT PRIMARY KEY, region VARCHAR(255), total INT)");
+        createRequestDto.setDatabaseType("SQL");
+        createRequestDto.setReplicaCount(2);
+        createRequestDto.setPartitionType("none");
+        createRequestDto.setNumPartitions(1);
+        HttpResponseData res = sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto));
+        assertNotNull(res);
+        assertEquals(200, res.getStatusCode());
+
+        int rowCount = 80;
+        InsertRequestDto insertRequestDto = new InsertRequestDto();
+        insertRequestDto.setDatabaseType("SQL");
+        for (int i = 0; i < rowCount; i++) {
+            insertRequestDto.setStatement("INSERT INTO orders (id, region, total) VALUES (" + i + ", 'r" + i % 4 + "', " + i + ")");
+            assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+        }
+
+        // one row by id and half of the rows by region, enough tombstones to start a compaction
+        DeleteRequestDto deleteRequestDto = new DeleteRequestDto();
+        deleteRequestDto.setDatabaseType("SQL");
+        for (String where : Arrays.asList("id = 2", "region = 'r0'", "region = 'r1'")) {
+            deleteRequestDto.setStatement("DELETE FROM orders WHERE " + where);
+            assertEquals(200, sendPostRequest("/delete", objectMapper.writeValueAsString(deleteRequestDto)).getStatusCode());
+        }
+
+        Map<String, Map<String, Long>> stats = coordinator.getDatabases().get("orders-SQL").getStorageStats();
+        for (int attempt = 0; attempt < 50 && stats.values().stream().anyMatch(s -> s.get("compactions") == 0); attempt++) {
+            Thread.sleep(100);
+            stats = coordinator.getDatabases().get("orders-SQL").getStorageStats();
+        }
+        assertEquals(2, stats.size());
+        for (Map<String, Long> replicaStats : stats.values()) {
+            assertEquals(1L, replicaStats.get("compactions"));
+            assertEquals(0L, replicaStats.get("tombstones"));
+            assertTrue(replicaStats.get("compactionBytesReclaimed") > 0);
+        }
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < rowCount; i++) {
+            if (i % 4 >= 2 && i != 2) {
+                expected.append(i).append(",'r").append(i % 4).append("',").append(i).append(",\n");
+            }
+        }
+        SelectRequestDto selectRequestDto = new SelectRequestDto();
+        selectRequestDto.setStatement("SELECT * FROM orders");
+        selectRequestDto.setDatabaseType("SQL");
+        res = sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto));
+        assertNotNull(res);
+        assertEquals(200, res.getStatusCode());
+        assertEquals(expected.toString(), res.getResponseBody());
+
+        // rows deleted by a condition on one vertical partition are deleted by position from the other
+        createRequestDto.setStatement("CREATE TABLE refunds (id INT PRIMARY KEY, reason VARCHAR(255), total INT)");
+        createRequestDto.setPartitionType("vertical");
+        createRequestDto.setVerticalPartitionColumns(Arrays.asList(Arrays.asList("id", "reason"), Arrays.asList("total")));
+        createRequestDto.setNumPartitions(2);
+        res = sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto));
+        assertNotNull(res);
+        assertEquals(200, res.getStatusCode());
+        for (int i = 0; i < 8; i++) {
+            insertRequestDto.setStatement("INSERT INTO refunds (id, reason, total) VALUES (" + i + ", '" + (i < 4 ? "late" : "broken") + "', " + i * 10 + ")");
+            assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+        }
+        deleteRequestDto.setStatement("DELETE FROM refunds WHERE reason = 'late'");
+        assertEquals(200, sendPostRequest("/delete", objectMapper.writeValueAsString(deleteRequestDto)).getStatusCode());
+        selectRequestDto.setStatement("SELECT * FROM refunds");
+        res = sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto));
+        assertNotNull(res);
+        assertEquals("4,'broken',40,5,'broken',50,6,'broken',60,7,'broken',70,", res.getResponseBody().replace("\n", ""));
+        results.setTestResult("Test_Tombstone_Compaction", true, 10);
+    }
+
+    /**
+     * TEST19: Tests that the parts of rows inserted concurrently into a vertically partitioned table are joined on
+     * their row id, and that a delete removes the same rows from every column group.
+     */
+    @Test
+    void testVerticalRowIds() throws Exception {
+        System.out.println("19. Testing row ids of vertical partitions");
+        CreateRequestDto createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE shipments (id INT PRIMARY KEY, carrier VARCHAR(255), weight INT)");
+        createRequestDto.setDatabaseType("SQL");
+        createRequestDto.setReplicaCount(2);
+        createRequestDto.setPartitionType("vertical");
+        createRequestDto.setVerticalPartitionColumns(Arrays.asList(Arrays.asList("id", "carrier"), Arrays.asList("weight")));
+        createRequestDto.setNumPartitions(2);
+        HttpResponseData res = sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto));
+        assertNotNull(res);
+        assertEquals(200, res.getStatusCode());
+
+        int rowCount = 60;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < rowCount; i++) {
+            InsertRequestDto insertRequestDto = new InsertRequestDto();
+            insertRequestDto.setStatement("INSERT INTO shipments (id, carrier, weight) VALUES (" + i + ", 'c" + i % 3 + "', " + i * 10 + ")");
+            insertRequestDto.setDatabaseType("SQL");
+            executor.execute(new InsertTask(objectMapper.writeValueAsString(insertRequestDto)));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        // deletes every third row from the carrier column group, and the same rows from the weight column group
+        DeleteRequestDto deleteRequestDto = new DeleteRequestDto();
+        deleteRequestDto.setStatement("DELETE FROM shipments WHERE carrier = 'c1'");
+        deleteRequestDto.setDatabaseType("SQL");
+        assertEquals(200, sendPostRequest("/delete", objectMapper.writeValueAsString(deleteRequestDto)).getStatusCode());
+
+        SelectRequestDto selectRequestDto = new SelectRequestDto();
+        selectRequestDto.setStatement("SELECT * FROM shipments");
+        selectRequestDto.setDatabaseType("SQL");
+        res = sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto));
+        assertNotNull(res);
+        assertEquals(200, res.getStatusCode());
+        int expectedLength = 0;
+        for (int i = 0; i < rowCount; i++) {
+            String row = i + ",'c" + i % 3 + "'," + i * 10 + ",";
+            if (i % 3 == 1) {
+                assertFalse(res.getResponseBody().contains(row));
+            } else {
+                // the weight of each row follows its own carrier, whatever order the inserts arrived in
+                assertTrue(res.getResponseBody().contains(row));
+                expectedLength += row.length();
+            }
+        }
+        assertEquals(expectedLength, res.getResponseBody().length());
+        results.setTestResult("Test_Vertical_Row_Ids", true, 10);
+    }
+
+    /**
+     * TEST20: Tests that a restarted coordinator reopens the tables of the previous run from their data files, with
+     * every storage engine, and reports how long each replica took to load.
+     */
+    @Test
+    void testRestartReusesDataFiles() throws Exception {
+        System.out.println("20. Testing restart from existing data files");
+        List<String> tables = new ArrayList<>();
+        for (String storageEngine : Arrays.asList("csv", "log", "lsm", "btree")) {
+            CreateRequestDto createRequestDto = new CreateRequestDto();
+            createRequestDto.setStatement("CREATE TABLE parcels_" + storageEngine + " (id INT PRIMARY KEY, city VARCHAR(255), weight INT)");
+            createRequestDto.setDatabaseType("SQL");
+            createRequestDto.setReplicaCount(2);
+            createRequestDto.setPartitionType("horizontal");
+            createRequestDto.setNumPartitions(2);
+            createRequestDto.setStorageEngine(storageEngine);
+            assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+            tables.add("parcels_" + storageEngine);
+        }
+        CreateRequestDto createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE parcels_columnar (id INT PRIMARY KEY, city VARCHAR(255), weight INT)");
+        createRequestDto.setDatabaseType("SQL");
+        createRequestDto.setReplicaCount(2);
+        createRequestDto.setPartitionType("vertical");
+        createRequestDto.setVerticalPartitionColumns(Arrays.asList(Arrays.asList("id", "city"), Arrays.asList("weight")));
+        createRequestDto.setNumPartitions(2);
+        createRequestDto.setStorageEngine("columnar");
+        assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+        tables.add("parcels_columnar");
+        createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE couriers");
+        createRequestDto.setDatabaseType("NoSQL");
+        createRequestDto.setReplicaCount(2);
+        createRequestDto.setPartitionType("none");
+        createRequestDto.setNumPartitions(1);
+        assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+
+        InsertRequestDto insertRequestDto = new InsertRequestDto();
+        for (int i = 1; i <= 20; i++) {
+            insertRequestDto.setDatabaseType("SQL");
+            for (String table : tables) {
+                insertRequestDto.setStatement("INSERT INTO " + table + " (id, city, weight) VALUES (" + i + ", 'city" + i % 4 + "', " + i * 3 + ")");
+                sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto));
+            }
+            insertRequestDto.setDatabaseType("NoSQL");
+            insertRequestDto.setStatement("INSERT couriers id " + i + " name 'courier" + i + "'");
+            sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto));
+        }
+        UpdateRequestDto updateRequestDto = new UpdateRequestDto();
+        updateRequestDto.setDatabaseType("SQL");
+        DeleteRequestDto deleteRequestDto = new DeleteRequestDto();
+        deleteRequestDto.setDatabaseType("SQL");
+        for (String table : tables) {
+            updateRequestDto.setStatement("UPDATE " + table + " SET city = 'moved' WHERE id = 3");
+            assertEquals(200, sendPostRequest("/update", objectMapper.writeValueAsString(updateRequestDto)).getStatusCode());
+            deleteRequestDto.setStatement("DELETE FROM " + table + " WHERE id = 5");
+            assertEquals(200, sendPostRequest("/delete", objectMapper.writeValueAsString(deleteRequestDto)).getStatusCode());
+        }
+        deleteRequestDto.setStatement("DELETE couriers WHERE id 5");
+        deleteRequestDto.setDatabaseType("NoSQL");
+        assertEquals(200, sendPostRequest("/delete", objectMapper.writeValueAsString(deleteRequestDto)).getStatusCode());
+
+        Map<String, String> before = new HashMap<>();
+        SelectRequestDto selectRequestDto = new SelectRequestDto();
+        selectRequestDto.setDatabaseType("SQL");
+        for (String table : tables) {
+            selectRequestDto.setStatement("SELECT * FROM " + table);
+            String rows = sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto)).getResponseBody();
+            assertTrue(rows.contains("3,'moved',9,"));
+            assertFalse(rows.contains("5,'city1',15,"));
+            before.put(table, rows);
+        }
+        selectRequestDto.setStatement("SELECT couriers");
+        selectRequestDto.setDatabaseType("NoSQL");
+        before.put("couriers", sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto)).getResponseBody());
+
+        // restart on the same data files
+        coordinator.stop();
+        coordinator = new Coordinator();
+        coordinator.run(testPort);
+
+        selectRequestDto.setDatabaseType("SQL");
+        for (String table : tables) {
+            selectRequestDto.setStatement("SELECT * FROM " + table);
+            HttpResponseData res = sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto));
+            assertNotNull(res);
+            assertEquals(200, res.getStatusCode());
+            assertEquals(before.get(table), res.getResponseBody());
+            Map<String, Map<String, Long>> stats = coordinator.getDatabases().get(table + "-SQL").getStorageStats();
+            assertEquals(4, stats.size());
+            for (Map<String, Long> replicaStats : stats.values()) {
+                assertTrue(replicaStats.containsKey("loadMillis"));
+            }
+        }
+        selectRequestDto.setStatement("SELECT couriers");
+        selectRequestDto.setDatabaseType("NoSQL");
+        assertEquals(before.get("couriers"), sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto)).getResponseBody());
+
+        // the reopened tables keep their indexes and row ids
+        updateRequestDto.setStatement("UPDATE parcels_btree SET weight = 2000 WHERE id = 4");
+        assertEquals(200, sendPostRequest("/update", objectMapper.writeValueAsString(updateRequestDto)).getStatusCode());
+        insertRequestDto.setDatabaseType("SQL");
+        insertRequestDto.setStatement("INSERT INTO parcels_columnar (id, city, weight) VALUES (21, 'city1', 63)");
+        assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+        selectRequestDto.setDatabaseType("SQL");
+        selectRequestDto.setStatement("SELECT * FROM parcels_btree");
+        assertTrue(sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto)).getResponseBody().contains("4,'city0',2000,"));
+        selectRequestDto.setStatement("SELECT * FROM parcels_columnar");
+        assertEquals(before.get("parcels_columnar") + "21,'city1',63,",
+                sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto)).getResponseBody());
+
+        // creating a table that was reopened is still rejected
+        createRequestDto.setStatement("CREATE TABLE couriers");
+        assertEquals(400, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+        results.setTestResult("Test_Restart_Reuses_Data_Files", true, 10);
+    }
+
+    /**
+     * TEST21: Tests that a CSV table larger than a scan chunk is selected and deleted from in file order, with lines
+     * split across chunks and tombstones in several of them.
+     */
+    @Test
+    void testParallelCsvScan() throws Exception {
+        System.out.println("21. Testing parallel scans of a CSV table");
+        CreateRequestDto createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE invoices (id INT PRIMARY KEY, note VARCHAR(8000), total INT)");
+        createRequestDto.setDatabaseType("SQL");
+        createRequestDto.setReplicaCount(2);
+        createRequestDto.setPartitionType("none");
+        createRequestDto.setNumPartitions(1);
+        HttpResponseData res = sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto));
+        assertNotNull(res);
+        assertEquals(200, res.getStatusCode());
+
+        // about 1.5MB of rows, more than one scan chunk
+        int rowCount = 300;
+        InsertRequestDto insertRequestDto = new InsertRequestDto();
+        insertRequestDto.setDatabaseType("SQL");
+        for (int i = 0; i < rowCount; i++) {
+            String note = "n" + i + "-" + "x".repeat(5000 + i);
+            insertRequestDto.setStatement("INSERT INTO invoices (id, note, total) VALUES (" + i + ", '" + note + "', " + i % 3 + ")");
+            assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+        }
+        DeleteRequestDto deleteRequestDto = new DeleteRequestDto();
+        deleteRequestDto.setDatabaseType("SQL");
+        for (String where : Arrays.asList("id = 0", "id = 299", "total = 1")) {
+            deleteRequestDto.setStatement("DELETE FROM invoices WHERE " + where);
+            assertEquals(200, sendPostRequest("/delete", objectMapper.writeValueAsString(deleteRequestDto)).getStatusCode());
+        }
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 1; i < rowCount - 1; i++) {
+            if (i % 3 != 1) {
+                expected.append(i).append(",'n").append(i).append("-").append("x".repeat(5000 + i)).append("',").append(i % 3).append(",\n");
+            }
+        }
+        SelectRequestDto selectRequestDto = new SelectRequestDto();
+        selectRequestDto.setStatement("SELECT * FROM invoices");
+        selectRequestDto.setDatabaseType("SQL");
+        res = sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto));
+        assertNotNull(res);
+        assertEquals(200, res.getStatusCode());
+        assertEquals(expected.toString(), res.getResponseBody());
+        results.setTestResult("Test_Parallel_Csv_Scan", true, 10);
+    }
+
+    /**
+     * TEST22: Tests that concurrent writes reach all three replicas of a table, and that a write reaching a replica
+     * that was stopped before the heartbeat noticed is rejected instead of silently skipping the replica.
+     */
+    @Test
+    void testParallelReplicaWrites() throws Exception {
+        System.out.println("22. Testing parallel writes to replicas");
+        CreateRequestDto createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE shipments (id INT PRIMARY KEY, carrier VARCHAR(255), weight INT)");
+        createRequestDto.setDatabaseType("SQL");
+        createRequestDto.setReplicaCount(3);
+        createRequestDto.setPartitionType("none");
+        createRequestDto.setNumPartitions(1);
+        HttpResponseData res = sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto));
+        assertNotNull(res);
+        assertEquals(200, res.getStatusCode());
+
+        int rowCount = 30;
+        ExecutorService executor = Executors.newFixedThreadPool(10);
+        List<Future<Integer>> statuses = new ArrayList<>();
+        for (int i = 0; i < rowCount; i++) {
+            InsertRequestDto insertRequestDto = new InsertRequestDto();
+            insertRequestDto.setStatement("INSERT INTO shipments (id, carrier, weight) VALUES (" + i + ", 'c" + i % 3 + "', " + i * 2 + ")");
+            insertRequestDto.setDatabaseType("SQL");
+            String insertRequestJson = objectMapper.writeValueAsString(insertRequestDto);
+            statuses.add(executor.submit(() -> sendPostRequest("/insert", insertRequestJson).getStatusCode()));
+        }
+        for (Future<Integer> status : statuses) {
+            assertEquals(200, status.get());
+        }
+        executor.shutdown();
+        UpdateRequestDto updateRequestDto = new UpdateRequestDto();
+        updateRequestDto.setStatement("UPDATE shipments SET weight = 99 WHERE id = 4");
+        updateRequestDto.setDatabaseType("SQL");
+        assertEquals(200, sendPostRequest("/update", objectMapper.writeValueAsString(updateRequestDto)).getStatusCode());
+
+        // every replica holds every row, in the order its own writes arrived
+        List<String> expected = null;
+        for (int j = 0; j < 3; j++) {
+            List<String> lines = new ArrayList<>(Arrays.asList(coordinator.readFromCsv("shipments-SQL-0-" + j + ".csv").split("\n")));
+            lines.remove(0);
+            Collections.sort(lines);
+            assertEquals(rowCount, lines.size());
+            assertTrue(lines.contains("4,'c1',99,"));
+            if (expected == null) {
+                expected = lines;
+            }
+            assertEquals(expected, lines);
+        }
+
+        // the heartbeat has not noticed the stopped replica yet, the write itself fails on it
+        coordinator.getDatabases().get("shipments-SQL").stopReplica(0, 2);
+        InsertRequestDto insertRequestDto = new InsertRequestDto();
+        insertRequestDto.setStatement("INSERT INTO shipments (id, carrier, weight) VALUES (" + rowCount + ", 'c0', 1)");
+        insertRequestDto.setDatabaseType("SQL");
+        res = sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto));
+        assertNotNull(res);
+        assertEquals(400, res.getStatusCode());
+        assertEquals("database in read-only mode due to failure", objectMapper.readTree(res.getResponseBody()).get("message").asText());
+        results.setTestResult("Test_Parallel_Replica_Writes", true, 10);
+    }
+
+    /**
+     * TEST23: Tests that a select reads all partitions of a table at the same time, keeps the rows in partition order,
+     * and falls back to another replica of a partition whose first replica cannot be reached.
+     */
+    @Test
+    void testScatterGatherSelect() throws Exception {
+        System.out.println("23. Testing scatter-gather selects");
+        int numPartitions = 3;
+        for (String databaseType : Arrays.asList("SQL", "NoSQL")) {
+            CreateRequestDto createRequestDto = new CreateRequestDto();
+            createRequestDto.setStatement(databaseType.equals("SQL") ? "CREATE TABLE stops (id INT PRIMARY KEY, city VARCHAR(255))" : "CREATE TABLE stopkeys");
+            createRequestDto.setDatabaseType(databaseType);
+            createRequestDto.setReplicaCount(2);
+            createRequestDto.setPartitionType("horizontal");
+            createRequestDto.setNumPartitions(numPartitions);
+            assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+        }
+
+        InsertRequestDto insertRequestDto = new InsertRequestDto();
+        for (int i = 0; i < 16; i++) {
+            insertRequestDto.setDatabaseType("SQL");
+            insertRequestDto.setStatement("INSERT INTO stops (id, city) VALUES (" + i + ", 'city" + i + "')");
+            assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+            insertRequestDto.setDatabaseType("NoSQL");
+            insertRequestDto.setStatement("INSERT stopkeys id " + i + " city 'city" + i + "'");
+            assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+        }
+        StringBuilder expectedSQL = new StringBuilder();
+        StringBuilder expectedNoSQL = new StringBuilder();
+        for (int partition = 0; partition < numPartitions; partition++) {
+            for (int i = partition; i < 16; i += numPartitions) {
+                expectedSQL.append(i).append(",'city").append(i).append("',\n");
+                expectedNoSQL.append("id,").append(i).append(",city,'city").append(i).append("',\n");
+            }
+        }
+
+        // the heartbeat has not noticed the stopped replicas yet, the reads fall back to the other replica
+        coordinator.getDatabases().get("stops-SQL").stopReplica(1, 0);
+        coordinator.getDatabases().get("stopkeys-NoSQL").stopReplica(2, 0);
+        SelectRequestDto selectRequestDto = new SelectRequestDto();
+        selectRequestDto.setStatement("SELECT * FROM stops");
+        selectRequestDto.setDatabaseType("SQL");
+        HttpResponseData res = sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto));
+        assertNotNull(res);
+        assertEquals(200, res.getStatusCode());
+        assertEquals(expectedSQL.toString(), res.getResponseBody());
+        selectRequestDto.setStatement("SELECT stopkeys");
+        selectRequestDto.setDatabaseType("NoSQL");
+        res = sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto));
+        assertNotNull(res);
+        assertEquals(200, res.getStatusCode());
+        assertEquals(expectedNoSQL.toString(), res.getResponseBody());
+        results.setTestResult("Test_Scatter_Gather_Select", true, 10);
+    }
+
+    /**
+     * TEST24: Tests that repeated selects are served from the Coordinator cache until a write invalidates it, that the
+     * cache evicts the least recently used results to fit its size bound and expires them, and that a result read
+     * before a write is not cached after it.
+     */
+    @Test
+    void testBoundedQueryCache() throws Exception {
+        System.out.println("24. Testing the bounded query cache");
+        CreateRequestDto createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE dashboard (id INT PRIMARY KEY, views INT)");
+        createRequestDto.setDatabaseType("SQL");
+        createRequestDto.setReplicaCount(2);
+        createRequestDto.setPartitionType("horizontal");
+        createRequestDto.setNumPartitions(2);
+        assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+        InsertRequestDto insertRequestDto = new InsertRequestDto();
+        insertRequestDto.setDatabaseType("SQL");
+        insertRequestDto.setStatement("INSERT INTO dashboard (id, views) VALUES (1, 10)");
+        assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+
+        // the first select misses both partitions, the next ones are hits
+        QueryCache cache = coordinator.getCache();
+        long hits = cache.getStats().get("hits");
+        long misses = cache.getStats().get("misses");
+        SelectRequestDto selectRequestDto = new SelectRequestDto();
+        selectRequestDto.setStatement("SELECT * FROM dashboard");
+        selectRequestDto.setDatabaseType("SQL");
+        for (int i = 0; i < 5; i++) {
+            HttpResponseData res = sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto));
+            assertNotNull(res);
+            assertEquals(200, res.getStatusCode());
+            assertEquals("1,10,\n", res.getResponseBody());
+        }
+        assertEquals(hits + 8, cache.getStats().get("hits"));
+        assertEquals(misses + 2, cache.getStats().get("misses"));
+        assertTrue(cache.containsKey("dashboard-SQL-0"));
+        assertTrue(cache.containsKey("dashboard-SQL-1"));
+
+        // room for two results of 100 characters, the least recently used one is evicted for a third
+        String result = "x".repeat(100);
+        Map<String, Long> versions = new HashMap<>();
+        QueryCache bounded = new QueryCache(2 * (2 * (1 + 100) + 128), 60_000, key -> versions.getOrDefault(key, 0L));
+        assertTrue(bounded.put("a", result, bounded.version("a")));
+        assertTrue(bounded.put("b", result, bounded.version("b")));
+        assertEquals(result, bounded.get("a"));
+        assertTrue(bounded.put("c", result, bounded.version("c")));
+        assertTrue(bounded.containsKey("a"));
+        assertFalse(bounded.containsKey("b"));
+        assertTrue(bounded.containsKey("c"));
+        assertEquals(1, bounded.getStats().get("evictions"));
+        assertFalse(bounded.put("d", "x".repeat(1000), bounded.version("d")));
+
+        // a result read before a write is dropped
+        long version = bounded.version("a");
+        versions.put("a", version + 1);
+        assertFalse(bounded.put("a", result, version));
+        assertNull(bounded.get("a"));
+
+        // an expired result is not served
+        QueryCache expiring = new QueryCache(1024, 50, key -> 0L);
+        assertTrue(expiring.put("a", "1,\n", expiring.version("a")));
+        assertEquals("1,\n", expiring.get("a"));
+        Thread.sleep(100);
+        assertNull(expiring.get("a"));
+        assertEquals(1, expiring.getStats().get("expirations"));
+        results.setTestResult("Test_Bounded_Query_Cache", true, 10);
+    }
+
+    /**
+     * TEST25: Tests that every write to a table invalidates its cached results, even a write that fails, that a cached
+     * result stamped with an older version is not served, and that selects racing with writes never leave a stale
+     * result in the cache.
+     */
+    @Test
+    void testVersionedQueryCache() throws Exception {
+        System.out.println("25. Testing versioned cache entries");
+        CreateRequestDto createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE tickers (id INT PRIMARY KEY, price INT)");
+        createRequestDto.setDatabaseType("SQL");
+        createRequestDto.setReplicaCount(2);
+        createRequestDto.setPartitionType("horizontal");
+        createRequestDto.setNumPartitions(2);
+        assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+        DatabaseNodeClient client = coordinator.getDatabases().get("tickers-SQL");
+        InsertRequestDto insertRequestDto = new InsertRequestDto();
+        insertRequestDto.setDatabaseType("SQL");
+        insertRequestDto.setStatement("INSERT INTO tickers (id, price) VALUES (0, 100)");
+        assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+
+        // writers and readers of the same table at the same time
+        SelectRequestDto selectRequestDto = new SelectRequestDto();
+        selectRequestDto.setStatement("SELECT * FROM tickers");
+        selectRequestDto.setDatabaseType("SQL");
+        String selectRequestJson = objectMapper.writeValueAsString(selectRequestDto);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> statuses = new ArrayList<>();
+        for (int i = 1; i <= 40; i++) {
+            UpdateRequestDto updateRequestDto = new UpdateRequestDto();
+            updateRequestDto.setStatement("UPDATE tickers SET price = " + (100 + i) + " WHERE id = 0");
+            updateRequestDto.setDatabaseType("SQL");
+            String updateRequestJson = objectMapper.writeValueAsString(updateRequestDto);
+            statuses.add(executor.submit(() -> sendPostRequest("/update", updateRequestJson).getStatusCode()));
+            statuses.add(executor.submit(() -> sendPostRequest("/select", selectRequestJson).getStatusCode()));
+        }
+        for (Future<Integer> status : statuses) {
+            assertEquals(200, status.get());
+        }
+        executor.shutdown();
+        // whatever the interleaving, the next select returns what the replicas hold
+        HttpResponseData res = sendPostRequest("/select", selectRequestJson);
+        assertNotNull(res);
+        assertEquals(client.selectSQL(), res.getResponseBody());
+
+        // a write that fails on a replica still invalidates the cached result
+        sendPostRequest("/select", selectRequestJson);
+        assertTrue(coordinator.getCache().containsKey("tickers-SQL-0"));
+        client.stopReplica(0, 1);
+        insertRequestDto.setStatement("INSERT INTO tickers (id, price) VALUES (2, 200)");
+        assertEquals(400, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+        assertFalse(coordinator.getCache().containsKey("tickers-SQL-0"));
+
+        // an entry stamped with an older version is dropped instead of served
+        Map<String, Long> versions = new HashMap<>();
+        QueryCache cache = new QueryCache(1024, 60_000, key -> versions.getOrDefault(key, 0L));
+        assertTrue(cache.put("a", "1,\n", cache.version("a")));
+        assertEquals("1,\n", cache.get("a"));
+        versions.put("a", 1L);
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getStats().get("staleReads"));
+        results.setTestResult("Test_Versioned_Query_Cache", true, 10);
+    }
+
+    /**
+     * TEST26: Tests that inserts, updates and deletes are applied to the cached result of their own partition instead
+     * of dropping it, that the cached result of the other partition is left alone, and that writes to tables of other
+     * engines than csv drop the cached result instead.
+     */
+    @Test
+    void testIncrementalQueryCache() throws Exception {
+        System.out.println("26. Testing incremental cache maintenance");
+        for (String databaseType : Arrays.asList("SQL", "NoSQL")) {
+            CreateRequestDto createRequestDto = new CreateRequestDto();
+            createRequestDto.setStatement(databaseType.equals("SQL") ? "CREATE TABLE feeds (id INT PRIMARY KEY, title VARCHAR(255))" : "CREATE TABLE feedkeys");
+            createRequestDto.setDatabaseType(databaseType);
+            createRequestDto.setReplicaCount(2);
+            createRequestDto.setPartitionType("horizontal");
+            createRequestDto.setNumPartitions(2);
+            assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+        }
+        CreateRequestDto createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE feedlog (id INT PRIMARY KEY, title VARCHAR(255))");
+        createRequestDto.setDatabaseType("SQL");
+        createRequestDto.setReplicaCount(2);
+        createRequestDto.setPartitionType("none");
+        createRequestDto.setNumPartitions(1);
+        createRequestDto.setStorageEngine("log");
+        assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+
+        List<String[]> writes = Arrays.asList(
+                new String[]{"/insert", "INSERT INTO feeds (id, title) VALUES (1, 'a')", "INSERT feedkeys id 1 title 'a'"},
+                new String[]{"/insert", "INSERT INTO feeds (id, title) VALUES (3, 'b')", "INSERT feedkeys id 3 title 'b'"},
+                new String[]{"/insert", "INSERT INTO feeds (id, title) VALUES (5, 'e')", "INSERT feedkeys id 5 title 'e'"},
+                new String[]{"/update", "UPDATE feeds SET title = 'c' WHERE id = 3", "UPDATE feedkeys title 'c' WHERE id 3"},
+                new String[]{"/update", "UPDATE feeds SET title = 'd' WHERE id = 7", "UPDATE feedkeys title 'd' WHERE id 7"},
+                new String[]{"/delete", "DELETE FROM feeds WHERE id = 1", "DELETE feedkeys WHERE id 1"});
+        QueryCache cache = coordinator.getCache();
+        InsertRequestDto insertRequestDto = new InsertRequestDto();
+        insertRequestDto.setStatement("INSERT INTO feeds (id, title) VALUES (0, 'z')");
+        insertRequestDto.setDatabaseType("SQL");
+        assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+        for (String databaseType : Arrays.asList("SQL", "NoSQL")) {
+            String key = databaseType.equals("SQL") ? "feeds-SQL" : "feedkeys-NoSQL";
+            SelectRequestDto selectRequestDto = new SelectRequestDto();
+            selectRequestDto.setStatement(databaseType.equals("SQL") ? "SELECT * FROM feeds" : "SELECT feedkeys");
+            selectRequestDto.setDatabaseType(databaseType);
+            String selectRequestJson = objectMapper.writeValueAsString(selectRequestDto);
+            assertEquals(200, sendPostRequest("/select", selectRequestJson).getStatusCode());
+            String evenPartition = cache.peek(key + "-0");
+            for (String[] write : writes) {
+                long deltas = cache.getStats().get("deltas");
+                long misses = cache.getStats().get("misses");
+                String statement = databaseType.equals("SQL") ? write[1] : write[2];
+                InsertRequestDto writeRequestDto = new InsertRequestDto();
+                writeRequestDto.setStatement(statement);
+                writeRequestDto.setDatabaseType(databaseType);
+                assertEquals(200, sendPostRequest(write[0], objectMapper.writeValueAsString(writeRequestDto)).getStatusCode());
+                assertEquals(deltas + 1, cache.getStats().get("deltas"), statement);
+                // the cached result matches what the replicas hold, and is served without reading them
+                DatabaseNodeClient client = coordinator.getDatabases().get(key);
+                String expected = databaseType.equals("SQL") ? client.selectSQL() : client.selectNoSQL();
+                assertEquals(expected, sendPostRequest("/select", selectRequestJson).getResponseBody(), statement);
+                assertEquals(misses, cache.getStats().get("misses"), statement);
+                // every write went to the odd partition
+                assertEquals(evenPartition, cache.peek(key + "-0"));
+            }
+        }
+
+        // writes to tables of other engines than csv drop the cached result
+        SelectRequestDto selectRequestDto = new SelectRequestDto();
+        selectRequestDto.setStatement("SELECT * FROM feedlog");
+        selectRequestDto.setDatabaseType("SQL");
+        sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto));
+        assertTrue(cache.containsKey("feedlog-SQL-0"));
+        insertRequestDto.setStatement("INSERT INTO feedlog (id, title) VALUES (1, 'a')");
+        assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+        assertFalse(cache.containsKey("feedlog-SQL-0"));
+        results.setTestResult("Test_Incremental_Query_Cache", true, 10);
+    }
+
+    /**
+     * TEST27: Tests that identical selects running at the same time share one read of the replicas, and that every
+     * one of them gets the shared result.
+     */
+    @Test
+    void testSingleFlightSelects() throws Exception {
+        System.out.println("27. Testing single-flight selects");
+        // callers that arrive while the first call runs wait for it
+        SingleFlight<String> singleFlight = new SingleFlight<>();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<String>> calls = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            calls.add(executor.submit(() -> singleFlight.run("scan", () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "rows";
+            })));
+        }
+        while (singleFlight.getStats().get("coalesced") < 7) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        for (Future<String> call : calls) {
+            assertEquals("rows", call.get());
+        }
+        assertEquals(1, singleFlight.getStats().get("executed"));
+        // a call after the first one finished runs again
+        assertEquals("again", singleFlight.run("scan", () -> "again"));
+        assertEquals(2, singleFlight.getStats().get("executed"));
+
+        // concurrent selects of a table that is not cached yet
+        CreateRequestDto createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE panels (id INT PRIMARY KEY, title VARCHAR(255))");
+        createRequestDto.setDatabaseType("SQL");
+        createRequestDto.setReplicaCount(2);
+        createRequestDto.setPartitionType("horizontal");
+        createRequestDto.setNumPartitions(3);
+        assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+        InsertRequestDto insertRequestDto = new InsertRequestDto();
+        insertRequestDto.setDatabaseType("SQL");
+        for (int i = 0; i < 30; i++) {
+            insertRequestDto.setStatement("INSERT INTO panels (id, title) VALUES (" + i + ", 'panel" + i + "')");
+            assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+        }
+        String expected = coordinator.getDatabases().get("panels-SQL").selectSQL();
+        SelectRequestDto selectRequestDto = new SelectRequestDto();
+        selectRequestDto.setStatement("SELECT * FROM panels");
+        selectRequestDto.setDatabaseType("SQL");
+        String selectRequestJson = objectMapper.writeValueAsString(selectRequestDto);
+        long executed = coordinator.getSelectReads().getStats().get("executed");
+        long coalesced = coordinator.getSelectReads().getStats().get("coalesced");
+        long misses = coordinator.getCache().getStats().get("misses");
+        List<Future<HttpResponseData>> responses = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            responses.add(executor.submit(() -> sendPostRequest("/select", selectRequestJson)));
+        }
+        for (Future<HttpResponseData> response : responses) {
+            assertEquals(200, response.get().getStatusCode());
+            assertEquals(expected, response.get().getResponseBody());
+        }
+        executor.shutdown();
+        // every select that missed the cache either read the replicas or shared a read
+        long reads = coordinator.getSelectReads().getStats().get("executed") - executed;
+        long sharedReads = coordinator.getSelectReads().getStats().get("coalesced") - coalesced;
+        assertTrue(reads >= 1);
+        assertTrue(reads + sharedReads <= 16);
+        assertTrue(coordinator.getCache().getStats().get("misses") - misses >= reads + sharedReads);
+        results.setTestResult("Test_Single_Flight_Selects", true, 10);
+    }
+
+    /**
+     * TEST28: Tests a coordinator running requests on virtual threads, or on a cached thread pool before Java 21, with
+     * a limit of two concurrent requests: concurrent requests all succeed, but are never handled more than two at a
+     * time.
+     */
+    @Test
+    void testConcurrencyLimit() throws Exception {
+        System.out.println("28. Testing the request executor and concurrency limit");
+        coordinator.stop();
+        coordinator = new Coordinator("virtual", 2);
+        coordinator.run(testPort);
+        assertEquals(Runtime.version().feature() >= 21 ? "virtual" : "cached", coordinator.getExecutorMode());
+        assertThrows(IllegalArgumentException.class, () -> new Coordinator("fixed", 2));
+
+        CreateRequestDto createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE limited (id INT PRIMARY KEY, name VARCHAR(255))");
+        createRequestDto.setDatabaseType("SQL");
+        createRequestDto.setReplicaCount(2);
+        createRequestDto.setPartitionType("horizontal");
+        createRequestDto.setNumPartitions(2);
+        assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+        int rowCount = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(10);
+        List<Future<Integer>> statuses = new ArrayList<>();
+        for (int i = 0; i < rowCount; i++) {
+            InsertRequestDto insertRequestDto = new InsertRequestDto();
+            insertRequestDto.setStatement("INSERT INTO limited (id, name) VALUES (" + i + ", 'n" + i + "')");
+            insertRequestDto.setDatabaseType("SQL");
+            String insertRequestJson = objectMapper.writeValueAsString(insertRequestDto);
+            statuses.add(executor.submit(() -> sendPostRequest("/insert", insertRequestJson).getStatusCode()));
+        }
+        for (Future<Integer> status : statuses) {
+            assertEquals(200, status.get());
+        }
+        executor.shutdown();
+        assertEquals(rowCount, coordinator.getDatabases().get("limited-SQL").selectSQL().split("\n").length);
+
+        Map<String, Long> stats = coordinator.getLimiterStats();
+        assertEquals(2, stats.get("maxConcurrentRequests"));
+        assertEquals(rowCount + 1, stats.get("admitted"));
+        assertEquals(0, stats.get("rejected"));
+        assertTrue(stats.get("peakInFlight") <= 2);
+        results.setTestResult("Test_Concurrency_Limit", true, 10);
+    }
+
+    /**
+     * TEST29: Tests that batched inserts, updates and deletes are grouped by partition and reach every replica of a
+     * partition as a single call logged as a single record, for the csv and the log engine, and that the cached
+     * result of the table stays current.
+     */
+    @Test
+    void testBatchWrites() throws Exception {
+        System.out.println("29. Testing batched writes");
+        for (String engine : Arrays.asList("csv", "log")) {
+            String table = engine.equals("csv") ? "parcels" : "parcellog";
+            CreateRequestDto createRequestDto = new CreateRequestDto();
+            createRequestDto.setStatement("CREATE TABLE " + table + " (id INT PRIMARY KEY, city VARCHAR(255))");
+            createRequestDto.setDatabaseType("SQL");
+            createRequestDto.setReplicaCount(2);
+            createRequestDto.setPartitionType("horizontal");
+            createRequestDto.setNumPartitions(3);
+            createRequestDto.setStorageEngine(engine);
+            assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+            DatabaseNodeClient client = coordinator.getDatabases().get(table + "-SQL");
+            SelectRequestDto selectRequestDto = new SelectRequestDto();
+            selectRequestDto.setStatement("SELECT * FROM " + table);
+            selectRequestDto.setDatabaseType("SQL");
+            String selectRequestJson = objectMapper.writeValueAsString(selectRequestDto);
+            assertEquals(200, sendPostRequest("/select", selectRequestJson).getStatusCode());
+
+            List<List<String>> rows = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                rows.add(Arrays.asList(String.valueOf(i), "city" + i));
+            }
+            client.insertBatchSQL(Arrays.asList("id", "city"), rows);
+            // every partition got its rows in one call per replica
+            Map<String, Map<String, Long>> stats = client.getStorageStats();
+            assertEquals(6, stats.size());
+            for (Map<String, Long> replicaStats : stats.values()) {
+                assertEquals(1, replicaStats.get("walRecords"), engine);
+            }
+            String all = client.selectSQL();
+            assertEquals(30, all.split("\n").length, engine);
+            assertEquals(all, sendPostRequest("/select", selectRequestJson).getResponseBody(), engine);
+
+            // updates of the same id are applied in order
+            client.updateBatchSQL(Collections.singletonList("city"), Arrays.asList(
+                    Collections.singletonList("moved"), Collections.singletonList("moved"),
+                    Collections.singletonList("twice")), Arrays.asList("1", "2", "2"));
+            client.deleteBatchSQL(Arrays.asList("3", "4", "5", "6"));
+            all = client.selectSQL();
+            List<String> lines = Arrays.asList(all.split("\n"));
+            assertEquals(26, lines.size(), engine);
+            assertTrue(lines.stream().anyMatch(line -> line.startsWith("1,moved")), all);
+            assertTrue(lines.stream().anyMatch(line -> line.startsWith("2,twice")), all);
+            assertTrue(lines.stream().noneMatch(line -> line.startsWith("4,")), all);
+            assertEquals(all, sendPostRequest("/select", selectRequestJson).getResponseBody(), engine);
+            for (Map<String, Long> replicaStats : client.getStorageStats().values()) {
+                assertTrue(replicaStats.get("walRecords") <= 3, engine);
+            }
+        }
+
+        CreateRequestDto createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE parcelkeys");
+        createRequestDto.setDatabaseType("NoSQL");
+        createRequestDto.setReplicaCount(2);
+        createRequestDto.setPartitionType("horizontal");
+        createRequestDto.setNumPartitions(3);
+        assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+        DatabaseNodeClient client = coordinator.getDatabases().get("parcelkeys-NoSQL");
+        List<List<String>> rows = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            rows.add(Arrays.asList("id", String.valueOf(i), "city", "city" + i));
+        }
+        client.insertBatchNoSQL(rows);
+        for (Map<String, Long> replicaStats : client.getStorageStats().values()) {
+            assertEquals(1, replicaStats.get("walRecords"));
+        }
+        assertEquals(10, client.selectNoSQL().split("\n").length);
+        results.setTestResult("Test_Batch_Writes", true, 10);
+    }
+
+    /**
+     * TEST30: Tests INSERT statements with several rows, and loading SQL and NoSQL tables from CSV and NDJSON bodies
+     * with /bulkload, including rows whose id is not their first column and malformed rows.
+     */
+    @Test
+    void testMultiRowInsertAndBulkLoad() throws Exception {
+        System.out.println("30. Testing multi-row inserts and bulk loads");
+        CreateRequestDto createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE shelves (id INT PRIMARY KEY, label VARCHAR(255))");
+        createRequestDto.setDatabaseType("SQL");
+        createRequestDto.setReplicaCount(2);
+        createRequestDto.setPartitionType("horizontal");
+        createRequestDto.setNumPartitions(3);
+        assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+        createRequestDto.setStatement("CREATE TABLE shelfkeys");
+        createRequestDto.setDatabaseType("NoSQL");
+        assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+        DatabaseNodeClient client = coordinator.getDatabases().get("shelves-SQL");
+
+        InsertRequestDto insertRequestDto = new InsertRequestDto();
+        insertRequestDto.setDatabaseType("SQL");
+        insertRequestDto.setStatement("INSERT INTO shelves (id, label) VALUES (1, 'a'), (2, 'b'), (3, 'c')");
+        assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+        insertRequestDto.setStatement("INSERT INTO shelves (id) VALUES (4), (5)");
+        assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+        insertRequestDto.setStatement("INSERT INTO shelves (id, label) VALUES (6, 'f'), (7)");
+        assertEquals(400, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+        assertEquals(5, client.selectSQL().split("\n").length);
+
+        StringBuilder csv = new StringBuilder("id,label\n");
+        for (int i = 100; i < 200; i++) {
+            csv.append(i).append(",'csv").append(i).append("'\n");
+        }
+        HttpResponseData res = sendPostRequest("/bulkload?table=shelves&databaseType=SQL&format=csv", csv.toString());
+        assertEquals(200, res.getStatusCode());
+        assertEquals(100, objectMapper.readTree(res.getResponseBody()).get("rows").asInt());
+        StringBuilder ndjson = new StringBuilder();
+        for (int i = 200; i < 250; i++) {
+            // the id column is not the first key
+            ndjson.append("{\"label\": \"json").append(i).append("\", \"id\": ").append(i).append("}\n");
+        }
+        assertEquals(200, sendPostRequest("/bulkload?table=shelves&databaseType=SQL", ndjson.toString()).getStatusCode());
+        List<String> lines = Arrays.asList(client.selectSQL().split("\n"));
+        assertEquals(155, lines.size());
+        assertTrue(lines.contains("150,'csv150',"), lines.toString());
+        assertTrue(lines.contains("201,'json201',"), lines.toString());
+        // every row went to the partition of its id
+        for (int partitionId = 0; partitionId < 3; partitionId++) {
+            for (String line : client.selectSQL(Collections.singletonList(partitionId)).get(0).split("\n")) {
+                assertEquals(partitionId, Integer.parseInt(line.split(",")[0]) % 3, line);
+            }
+        }
+
+        assertEquals(200, sendPostRequest("/bulkload?table=shelfkeys&databaseType=NoSQL&format=csv",
+                "id,1,label,'a',\nid,2,label,'b'\n").getStatusCode());
+        assertEquals(200, sendPostRequest("/bulkload?table=shelfkeys&databaseType=NoSQL",
+                "{\"id\": 3, \"label\": \"c\"}\n\n{\"id\": 4}\n").getStatusCode());
+        assertEquals(4, coordinator.getDatabases().get("shelfkeys-NoSQL").selectNoSQL().split("\n").length);
+
+        assertEquals(400, sendPostRequest("/bulkload?table=missing&databaseType=SQL", "{\"id\": 1}\n").getStatusCode());
+        res = sendPostRequest("/bulkload?table=shelves&databaseType=SQL", "{\"id\": 300}\n{\"id\": 301}\n{\"id\": \n");
+        assertEquals(400, res.getStatusCode());
+        assertTrue(res.getResponseBody().contains("line 3"), res.getResponseBody());
+        // the rows were still buffered, none was written
+        assertEquals(0, objectMapper.readTree(res.getResponseBody()).get("rows").asInt());
+        res = sendPostRequest("/bulkload?table=shelves&databaseType=SQL", "{\"id\": 302, \"color\": \"red\"}\n");
+        assertEquals(400, res.getStatusCode());
+        // a failed load counts the rows of the batches written before it failed
+        BulkLoader loader = new BulkLoader(client, true, 2);
+        // three rows of the same partition, the first two written as a batch
+        for (int i = 400; i < 409; i += 3) {
+            loader.addSQL(List.of("id"), List.of(String.valueOf(i)));
+        }
+        assertThrows(IllegalArgumentException.class, () -> loader.addSQL(List.of("id"), List.of("'x'")));
+        assertEquals(3, loader.getStats().get("rows"));
+        assertEquals(2, loader.getStats().get("written"));
+
+        // each column group of a vertically partitioned table gets the parts of every row of a batch
+        createRequestDto.setStatement("CREATE TABLE shelfparts (id INT PRIMARY KEY, label VARCHAR(255), depth INT)");
+        createRequestDto.setDatabaseType("SQL");
+        createRequestDto.setPartitionType("vertical");
+        createRequestDto.setVerticalPartitionColumns(Arrays.asList(Arrays.asList("id", "label"), Arrays.asList("depth")));
+        createRequestDto.setNumPartitions(2);
+        assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+        ndjson = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            ndjson.append("{\"id\": ").append(i).append(", \"label\": \"l").append(i).append('"')
+                    .append(i % 2 == 0 ? ", \"depth\": " + i * 10 : "").append("}\n");
+        }
+        res = sendPostRequest("/bulkload?table=shelfparts&databaseType=SQL", ndjson.toString());
+        assertEquals(200, res.getStatusCode());
+        assertEquals(20, objectMapper.readTree(res.getResponseBody()).get("rows").asInt());
+        insertRequestDto.setStatement("INSERT INTO shelfparts (id, depth) VALUES (20, 200), (21, 210)");
+        assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            joined.append(i).append(",'l").append(i).append("',").append(i % 2 == 0 ? i * 10 : "").append(',');
+        }
+        joined.append("20,,200,21,,210,");
+        assertEquals(joined.toString(), coordinator.getDatabases().get("shelfparts-SQL").selectSQL().replace("\n", ""));
+        results.setTestResult("Test_Multi_Row_Insert_And_Bulk_Load", true, 10);
+    }
+
+    /**
+     * TEST31: Tests SELECT with a WHERE clause on tables stored by the CSV and the LSM engine and on a vertically
+     * partitioned table, covering every supported operator, null fields, routing of id conditions to their partitions
+     * and invalid conditions.
+     */
+    @Test
+    void testSelectWhere() throws Exception {
+        System.out.println("31. Testing SELECT with WHERE");
+        for (String storageEngine : Arrays.asList("csv", "lsm")) {
+            String tableName = "tracks" + storageEngine;
+            CreateRequestDto createRequestDto = new CreateRequestDto();
+            createRequestDto.setStatement("CREATE TABLE " + tableName
+                    + " (id INT PRIMARY KEY, title VARCHAR(255), plays INT, rating DOUBLE, released DATE)");
+            createRequestDto.setDatabaseType("SQL");
+            createRequestDto.setReplicaCount(2);
+            createRequestDto.setPartitionType("horizontal");
+            createRequestDto.setNumPartitions(3);
+            createRequestDto.setStorageEngine(storageEngine);
+            assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+            StringBuilder statement = new StringBuilder("INSERT INTO " + tableName
+                    + " (id, title, plays, rating, released) VALUES ");
+            for (int i = 1; i <= 11; i++) {
+                statement.append(i == 1 ? "" : ", ").append("(").append(i).append(", '")
+                        .append(i % 2 == 0 ? "jazz" : "rock").append(i).append("', ").append(i * 10).append(", ")
+                        .append(i / 2.0).append(", '2024-01-").append(String.format("%02d", i)).append("')");
+            }
+            InsertRequestDto insertRequestDto = new InsertRequestDto();
+            insertRequestDto.setDatabaseType("SQL");
+            insertRequestDto.setStatement(statement.toString());
+            assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+            // plays and rating are null
+            insertRequestDto.setStatement("INSERT INTO " + tableName + " (id, title, released) VALUES (12, 'jazz12', '2024-01-12')");
+            assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+
+            assertEquals(Arrays.asList(7), selectIds(tableName, "id = 7"));
+            assertEquals(Arrays.asList(6, 7, 8, 9, 10, 11), selectIds(tableName, "plays > 50"));
+            assertEquals(Arrays.asList(1, 2), selectIds(tableName, "30 > plays"));
+            assertEquals(Arrays.asList(3, 4, 5), selectIds(tableName, "plays BETWEEN 30 AND 50"));
+            assertEquals(Arrays.asList(2, 4), selectIds(tableName, "id IN (2, 4, 13)"));
+            assertEquals(Arrays.asList(8, 10), selectIds(tableName, "title LIKE 'jazz%' AND plays >= 80"));
+            assertEquals(Arrays.asList(1, 10, 11, 12), selectIds(tableName, "title LIKE '%1_' OR id = 1"));
+            assertEquals(Arrays.asList(8, 10), selectIds(tableName, "title ILIKE 'JAZZ%' AND plays >= 80"));
+            assertEquals(Arrays.asList(1, 2, 12), selectIds(tableName, "NOT (plays > 20) OR id = 12"));
+            assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11), selectIds(tableName, "plays <> 0"));
+            assertEquals(Arrays.asList(5), selectIds(tableName, "rating = 2.5"));
+            assertEquals(Arrays.asList(11, 12), selectIds(tableName, "released > '2024-01-10'"));
+            assertEquals(Collections.emptyList(), selectIds(tableName, "id = 100"));
+
+            // a condition on the id only reads the partitions of the ids
+            DatabaseNodeClient client = coordinator.getDatabases().get(tableName + "-SQL");
+            assertEquals(Arrays.asList(1), client.resultPartitionsOf(compile(client, "id = 7")));
+            assertEquals(Arrays.asList(1, 2), client.resultPartitionsOf(compile(client, "id IN (2, 4) OR id = 8")));
+            assertEquals(Arrays.asList(0, 1, 2), client.resultPartitionsOf(compile(client, "id = 7 OR plays = 10")));
+
+            // cached results are filtered the same way
+            SelectRequestDto selectRequestDto = new SelectRequestDto();
+            selectRequestDto.setDatabaseType("SQL");
+            selectRequestDto.setStatement("SELECT * FROM " + tableName);
+            assertEquals(200, sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto)).getStatusCode());
+            assertEquals(Arrays.asList(3, 4, 5), selectIds(tableName, "plays BETWEEN 30 AND 50"));
+
+            selectRequestDto.setStatement("SELECT * FROM " + tableName + " WHERE color = 1");
+            assertEquals(400, sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto)).getStatusCode());
+            selectRequestDto.setStatement("SELECT * FROM " + tableName + " WHERE plays = 'many'");
+            assertEquals(400, sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto)).getStatusCode());
+            selectRequestDto.setStatement("SELECT * FROM " + tableName + " WHERE plays = rating");
+            assertEquals(400, sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto)).getStatusCode());
+            selectRequestDto.setStatement("SELECT * FROM " + tableName + " WHERE title RLIKE 'jazz.*'");
+            assertEquals(400, sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto)).getStatusCode());
+        }
+
+        CreateRequestDto createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE trackparts (id INT PRIMARY KEY, title VARCHAR(255), plays INT)");
+        createRequestDto.setDatabaseType("SQL");
+        createRequestDto.setReplicaCount(2);
+        createRequestDto.setPartitionType("vertical");
+        createRequestDto.setVerticalPartitionColumns(Arrays.asList(Arrays.asList("id", "title"), Arrays.asList("plays")));
+        createRequestDto.setNumPartitions(2);
+        assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+        InsertRequestDto insertRequestDto = new InsertRequestDto();
+        insertRequestDto.setDatabaseType("SQL");
+        insertRequestDto.setStatement("INSERT INTO trackparts (id, title, plays) VALUES (1, 'rock1', 10), "
+                + "(2, 'jazz2', 20), (3, 'rock3', 30), (4, 'jazz4', 40)");
+        assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+        // checked by the group holding plays, by the group holding id and title, and on the joined rows
+        // the client joins the rows of vertical partitions without separator
+        assertEquals("3,'rock3',30,4,'jazz4',40,", selectVertical("plays > 25"));
+        assertEquals("2,'jazz2',20,4,'jazz4',40,", selectVertical("title LIKE 'jazz%'"));
+        assertEquals("3,'rock3',30,", selectVertical("title LIKE 'rock%' AND plays > 10"));
+        assertEquals("", selectVertical("id = 5"));
+        results.setTestResult("Test_Select_Where", true, 10);
+    }
+
+    /**
+     * TEST32: Tests SELECT with a column list on horizontally partitioned tables and on a vertically partitioned
+     * columnar table, checking that only the column groups holding the needed columns are read.
+     */
+    @Test
+    void testSelectColumns() throws Exception {
+        System.out.println("32. Testing SELECT with a column list");
+        for (String storageEngine : Arrays.asList("csv", "log")) {
+            String tableName = "albums" + storageEngine;
+            CreateRequestDto createRequestDto = new CreateRequestDto();
+            createRequestDto.setStatement("CREATE TABLE " + tableName
+                    + " (id INT PRIMARY KEY, title VARCHAR(255), year INT, label VARCHAR(255))");
+            createRequestDto.setDatabaseType("SQL");
+            createRequestDto.setReplicaCount(2);
+            createRequestDto.setPartitionType("horizontal");
+            createRequestDto.setNumPartitions(3);
+            createRequestDto.setStorageEngine(storageEngine);
+            assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+            InsertRequestDto insertRequestDto = new InsertRequestDto();
+            insertRequestDto.setDatabaseType("SQL");
+            insertRequestDto.setStatement("INSERT INTO " + tableName + " (id, title, year, label) VALUES "
+                    + "(1, 'a1', 1991, 'x'), (2, 'a2', 1992, 'y'), (3, 'a3', 2003, 'x'), (4, 'a4', 2004, 'y')");
+            assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+
+            List<String> lines = Arrays.asList(selectBody("SELECT title, id FROM " + tableName
+                    + " WHERE year > 2000").split("\n"));
+            assertEquals(2, lines.size());
+            assertTrue(lines.containsAll(Arrays.asList("'a3',3,", "'a4',4,")), lines.toString());
+            assertEquals(4, selectBody("SELECT label FROM " + tableName).split("\n").length);
+            // answered from the cached full result of the partition
+            selectBody("SELECT * FROM " + tableName);
+            assertEquals("1992,2,1992,\n", selectBody("SELECT year, id, year FROM " + tableName + " WHERE id = 2"));
+
+            SelectRequestDto selectRequestDto = new SelectRequestDto();
+            selectRequestDto.setDatabaseType("SQL");
+            selectRequestDto.setStatement("SELECT color FROM " + tableName);
+            assertEquals(400, sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto)).getStatusCode());
+            selectRequestDto.setStatement("SELECT id + 1 FROM " + tableName);
+            assertEquals(400, sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto)).getStatusCode());
+        }
+
+        CreateRequestDto createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE albumparts (id INT PRIMARY KEY, title VARCHAR(255), year INT, label VARCHAR(255))");
+        createRequestDto.setDatabaseType("SQL");
+        createRequestDto.setReplicaCount(2);
+        createRequestDto.setPartitionType("vertical");
+        createRequestDto.setVerticalPartitionColumns(Arrays.asList(Arrays.asList("id", "title"), Arrays.asList("year"),
+                Arrays.asList("label")));
+        createRequestDto.setNumPartitions(3);
+        createRequestDto.setStorageEngine("columnar");
+        assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+        // enough rows to seal a block, whose columns are read chunk by chunk
+        int rowCount = ColumnarStorageEngine.DEFAULT_BLOCK_ROWS + 10;
+        InsertRequestDto insertRequestDto = new InsertRequestDto();
+        insertRequestDto.setDatabaseType("SQL");
+        for (int from = 0; from < rowCount; from += 200) {
+            StringBuilder statement = new StringBuilder("INSERT INTO albumparts (id, title, year, label) VALUES ");
+            for (int i = from; i < Math.min(rowCount, from + 200); i++) {
+                statement.append(i == from ? "" : ", ").append("(").append(i).append(", 'a").append(i).append("', ")
+                        .append(1900 + i % 100).append(", 'l").append(i % 3).append("')");
+            }
+            insertRequestDto.setStatement(statement.toString());
+            assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+        }
+        UpdateRequestDto updateRequestDto = new UpdateRequestDto();
+        updateRequestDto.setDatabaseType("SQL");
+        updateRequestDto.setStatement("UPDATE albumparts SET year = 2020 WHERE year = 1905");
+        assertEquals(200, sendPostRequest("/update", objectMapper.writeValueAsString(updateRequestDto)).getStatusCode());
+        DatabaseNodeClient client = coordinator.getDatabases().get("albumparts-SQL");
+
+        // a single column group answers alone
+        long[] before = readsPerPartition(client, 3);
+        String years = selectBody("SELECT year FROM albumparts WHERE year = 1999");
+        assertEquals("1999,\n".repeat(10), years);
+        long[] after = readsPerPartition(client, 3);
+        assertArrayEquals(new long[]{before[0], before[1] + 1, before[2]}, after);
+
+        // the group holding no requested column is skipped
+        before = after;
+        assertEquals("'l1','a7',\n", selectBody("SELECT label, title FROM albumparts WHERE id = 7"));
+        after = readsPerPartition(client, 3);
+        assertArrayEquals(new long[]{before[0] + 1, before[1], before[2] + 1}, after);
+
+        // a condition spanning groups is checked on the joined rows
+        List<String> lines = Arrays.asList(selectBody("SELECT title, year FROM albumparts WHERE year = 2020 OR label = 'l9'")
+                .split("\n"));
+        assertEquals(11, lines.size());
+        assertTrue(lines.contains("'a5',2020,") && lines.contains("'a1005',2020,"), lines.toString());
+        assertEquals(rowCount, selectBody("SELECT id FROM albumparts").split("\n").length);
+        results.setTestResult("Test_Select_Columns", true, 10);
+    }
+
+    /**
+     * TEST33: Tests SELECT with aggregate functions and GROUP BY on horizontally partitioned tables, computed from the
+     * replicas and from cached results, and on a vertically partitioned columnar table, checking that a single column
+     * group aggregates its rows on its own.
+     */
+    @Test
+    void testSelectAggregate() throws Exception {
+        System.out.println("33. Testing SELECT with aggregates");
+        for (String storageEngine : Arrays.asList("csv", "lsm")) {
+            String tableName = "sales" + storageEngine;
+            CreateRequestDto createRequestDto = new CreateRequestDto();
+            createRequestDto.setStatement("CREATE TABLE " + tableName
+                    + " (id INT PRIMARY KEY, region VARCHAR(255), amount INT, price DOUBLE)");
+            createRequestDto.setDatabaseType("SQL");
+            createRequestDto.setReplicaCount(2);
+            createRequestDto.setPartitionType("horizontal");
+            createRequestDto.setNumPartitions(3);
+            createRequestDto.setStorageEngine(storageEngine);
+            assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+            InsertRequestDto insertRequestDto = new InsertRequestDto();
+            insertRequestDto.setDatabaseType("SQL");
+            insertRequestDto.setStatement("INSERT INTO " + tableName + " (id, region, amount, price) VALUES "
+                    + "(1, 'east', 10, 1.5), (2, 'west', 20, 2.5), (3, 'east', 30, 3.0), (4, 'north', 5, 0.5), "
+                    + "(5, 'west', 15, 2.0)");
+            assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+            // a row without amount, counted by COUNT(*) only
+            insertRequestDto.setStatement("INSERT INTO " + tableName + " (id, region, price) VALUES (6, 'east', 4.0)");
+            assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+
+            String totals = "SELECT COUNT(*), COUNT(amount), SUM(amount), AVG(amount), MIN(price), MAX(region) FROM "
+                    + tableName;
+            assertEquals("6,5,80,16.0,0.5,'west',\n", selectBody(totals));
+            String groups = "SELECT region, COUNT(*), SUM(amount), MAX(price) FROM " + tableName + " GROUP BY region";
+            String grouped = "'east',3,40,4.0,\n'north',1,5,0.5,\n'west',2,35,2.5,\n";
+            assertEquals(grouped, selectBody(groups));
+            assertEquals("1,30,\n", selectBody("SELECT COUNT(*), SUM(amount) FROM " + tableName
+                    + " WHERE region = 'east' AND amount > 10"));
+            // no matching row: one row without GROUP BY, none with it
+            assertEquals("0,,,\n", selectBody("SELECT COUNT(*), SUM(amount), MIN(region) FROM " + tableName
+                    + " WHERE id > 100"));
+            assertEquals("", selectBody(groups.replace(" GROUP BY", " WHERE id > 100 GROUP BY")));
+            // answered from the cached full results of the partitions
+            selectBody("SELECT * FROM " + tableName);
+            assertEquals(grouped, selectBody(groups));
+            assertEquals("6,5,80,16.0,0.5,'west',\n", selectBody(totals));
+
+            SelectRequestDto selectRequestDto = new SelectRequestDto();
+            selectRequestDto.setDatabaseType("SQL");
+            selectRequestDto.setStatement("SELECT SUM(region) FROM " + tableName);
+            assertEquals(400, sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto)).getStatusCode());
+            selectRequestDto.setStatement("SELECT region, COUNT(*) FROM " + tableName);
+            assertEquals(400, sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto)).getStatusCode());
+        }
+
+        CreateRequestDto createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE salesparts (id INT PRIMARY KEY, region VARCHAR(255), amount INT)");
+        createRequestDto.setDatabaseType("SQL");
+        createRequestDto.setReplicaCount(2);
+        createRequestDto.setPartitionType("vertical");
+        createRequestDto.setVerticalPartitionColumns(Arrays.asList(Arrays.asList("id", "region"),
+                Arrays.asList("amount")));
+        createRequestDto.setNumPartitions(2);
+        createRequestDto.setStorageEngine("columnar");
+        assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+        int rowCount = ColumnarStorageEngine.DEFAULT_BLOCK_ROWS + 10;
+        InsertRequestDto insertRequestDto = new InsertRequestDto();
+        insertRequestDto.setDatabaseType("SQL");
+        for (int from = 0; from < rowCount; from += 200) {
+            StringBuilder statement = new StringBuilder("INSERT INTO salesparts (id, region, amount) VALUES ");
+            for (int i = from; i < Math.min(rowCount, from + 200); i++) {
+                statement.append(i == from ? "" : ", ").append("(").append(i).append(", 'r").append(i % 2)
+                        .append("', ").append(i).append(")");
+            }
+            insertRequestDto.setStatement(statement.toString());
+            assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+        }
+        DatabaseNodeClient client = coordinator.getDatabases().get("salesparts-SQL");
+
+        // the columns of one group: that group alone aggregates its rows
+        long[] before = readsPerPartition(client, 2);
+        assertEquals(rowCount + ",\n", selectBody("SELECT COUNT(*) FROM salesparts"));
+        assertEquals("45,\n", selectBody("SELECT SUM(amount) FROM salesparts WHERE amount < 10"));
+        long[] after = readsPerPartition(client, 2);
+        assertArrayEquals(new long[]{before[0] + 1, before[1] + 1}, after);
+
+        // columns spanning groups are joined before being aggregated
+        assertEquals("'r0',517,266772,\n'r1',517,267289,\n",
+                selectBody("SELECT region, COUNT(*), SUM(amount) FROM salesparts GROUP BY region"));
+        results.setTestResult("Test_Select_Aggregate", true, 10);
+    }
+
+    /**
+     * TEST34: Tests SELECT with ORDER BY and LIMIT on horizontally partitioned tables, sorted by the replicas and from
+     * cached results, and on a vertically partitioned columnar table, sorted by a single column group or on the
+     * joined rows.
+     */
+    @Test
+    void testSelectOrderBy() throws Exception {
+        System.out.println("34. Testing SELECT with ORDER BY and LIMIT");
+        for (String storageEngine : Arrays.asList("csv", "btree")) {
+            String tableName = "scores" + storageEngine;
+            CreateRequestDto createRequestDto = new CreateRequestDto();
+            createRequestDto.setStatement("CREATE TABLE " + tableName
+                    + " (id INT PRIMARY KEY, name VARCHAR(255), score INT)");
+            createRequestDto.setDatabaseType("SQL");
+            createRequestDto.setReplicaCount(2);
+            createRequestDto.setPartitionType("horizontal");
+            createRequestDto.setNumPartitions(3);
+            createRequestDto.setStorageEngine(storageEngine);
+            assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+            StringBuilder statement = new StringBuilder("INSERT INTO " + tableName + " (id, name, score) VALUES ");
+            for (int i = 1; i <= 20; i++) {
+                statement.append(i == 1 ? "" : ", ").append("(").append(i).append(", 'p").append(i).append("', ")
+                        .append(i * 7 % 10).append(")");
+            }
+            InsertRequestDto insertRequestDto = new InsertRequestDto();
+            insertRequestDto.setDatabaseType("SQL");
+            insertRequestDto.setStatement(statement.toString());
+            assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+            // a row without score, first in ascending order and last in descending order
+            insertRequestDto.setStatement("INSERT INTO " + tableName + " (id, name) VALUES (21, 'p21')");
+            assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+
+            String top = "SELECT id, score FROM " + tableName + " ORDER BY score DESC, id LIMIT 5";
+            assertEquals("7,9,\n17,9,\n4,8,\n14,8,\n1,7,\n", selectBody(top));
+            assertEquals("21,,\n10,0,\n20,0,\n", selectBody("SELECT id, score FROM " + tableName
+                    + " ORDER BY score, id LIMIT 3"));
+            // sorted by id: read in the order of the primary key index
+            assertEquals("21,\n20,\n19,\n", selectBody("SELECT id FROM " + tableName + " ORDER BY id DESC LIMIT 3"));
+            assertEquals("1,\n4,\n", selectBody("SELECT id FROM " + tableName
+                    + " WHERE score > 5 ORDER BY id LIMIT 2"));
+            assertEquals("1,\n10,\n11,\n", selectBody("SELECT id FROM " + tableName + " ORDER BY name LIMIT 3"));
+            assertEquals(4, selectBody("SELECT id FROM " + tableName + " LIMIT 4").split("\n").length);
+            assertEquals("", selectBody("SELECT id FROM " + tableName + " ORDER BY id LIMIT 0"));
+            assertEquals(21, selectBody("SELECT * FROM " + tableName + " ORDER BY score").split("\n").length);
+            // answered from the cached full results of the partitions
+            selectBody("SELECT * FROM " + tableName);
+            assertEquals("7,9,\n17,9,\n4,8,\n14,8,\n1,7,\n", selectBody(top));
+
+            SelectRequestDto selectRequestDto = new SelectRequestDto();
+            selectRequestDto.setDatabaseType("SQL");
+            selectRequestDto.setStatement("SELECT id FROM " + tableName + " ORDER BY color LIMIT 5");
+            assertEquals(400, sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto)).getStatusCode());
+            selectRequestDto.setStatement("SELECT id FROM " + tableName + " ORDER BY id LIMIT 5 OFFSET 2");
+            assertEquals(400, sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto)).getStatusCode());
+            selectRequestDto.setStatement("SELECT COUNT(*) FROM " + tableName + " LIMIT 5");
+            assertEquals(400, sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto)).getStatusCode());
+        }
+
+        CreateRequestDto createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE ranks (id INT PRIMARY KEY, name VARCHAR(255), score INT)");
+        createRequestDto.setDatabaseType("SQL");
+        createRequestDto.setReplicaCount(2);
+        createRequestDto.setPartitionType("vertical");
+        createRequestDto.setVerticalPartitionColumns(Arrays.asList(Arrays.asList("id", "name"),
+                Arrays.asList("score")));
+        createRequestDto.setNumPartitions(2);
+        createRequestDto.setStorageEngine("columnar");
+        assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+        int rowCount = ColumnarStorageEngine.DEFAULT_BLOCK_ROWS + 10;
+        InsertRequestDto insertRequestDto = new InsertRequestDto();
+        insertRequestDto.setDatabaseType("SQL");
+        for (int from = 0; from < rowCount; from += 200) {
+            StringBuilder statement = new StringBuilder("INSERT INTO ranks (id, name, score) VALUES ");
+            for (int i = from; i < Math.min(rowCount, from + 200); i++) {
+                statement.append(i == from ? "" : ", ").append("(").append(i).append(", 'n").append(i).append("', ")
+                        .append(i % 100).append(")");
+            }
+            insertRequestDto.setStatement(statement.toString());
+            assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+        }
+        DatabaseNodeClient client = coordinator.getDatabases().get("ranks-SQL");
+
+        // the columns of one group: that group alone sorts its rows
+        long[] before = readsPerPartition(client, 2);
+        assertEquals("99,\n99,\n99,\n", selectBody("SELECT score FROM ranks ORDER BY score DESC LIMIT 3"));
+        long[] after = readsPerPartition(client, 2);
+        assertArrayEquals(new long[]{before[0], before[1] + 1}, after);
+
+        // columns spanning groups are joined before being sorted
+        assertEquals("'n99',99,\n'n199',99,\n",
+                selectBody("SELECT name, score FROM ranks ORDER BY score DESC, id LIMIT 2"));
+        assertEquals("'n1033',\n", selectBody("SELECT name FROM ranks WHERE score < 50 ORDER BY id DESC LIMIT 1"));
+
+        // a row without an id is not in the primary key index, sorting by id scans every row while it exists
+        createRequestDto.setStatement("CREATE TABLE nameless (id INT PRIMARY KEY, name VARCHAR(255))");
+        createRequestDto.setPartitionType("none");
+        createRequestDto.setNumPartitions(1);
+        createRequestDto.setVerticalPartitionColumns(null);
+        createRequestDto.setStorageEngine("btree");
+        assertEquals(200, sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto)).getStatusCode());
+        insertRequestDto.setStatement("INSERT INTO nameless (id, name) VALUES (5, 'e'), (3, 'c'), (9, 'i')");
+        assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+        insertRequestDto.setStatement("INSERT INTO nameless (name) VALUES ('x')");
+        assertEquals(200, sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto)).getStatusCode());
+        assertEquals(",'x',\n3,'c',\n", selectBody("SELECT * FROM nameless ORDER BY id LIMIT 2"));
+        assertEquals("9,'i',\n5,'e',\n", selectBody("SELECT * FROM nameless ORDER BY id DESC LIMIT 2"));
+        results.setTestResult("Test_Select_Order_By", true, 10);
+    }
+
+    /**
+     * Selects the rows of a SQL table matching a condition through the coordinator.
+     *
+     * @param tableName the table.
+     * @param where the condition.
+     * @return the ids of the matching rows, sorted.
+     */
+    private List<Integer> selectIds(String tableName, String where) throws Exception {
+        SelectRequestDto selectRequestDto = new SelectRequestDto();
+        selectRequestDto.setDatabaseType("SQL");
+        selectRequestDto.setStatement("SELECT * FROM " + tableName + " WHERE " + where);
+        HttpResponseData res = sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto));
+        assertEquals(200, res.getStatusCode(), where);
+        return Arrays.stream(res.getResponseBody().split("\n"))
+                .filter(line -> !line.isEmpty())
+                .map(line -> Integer.parseInt(line.split(",")[0]))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private String selectVertical(String where) throws Exception {
+        return selectBody("SELECT * FROM trackparts WHERE " + where);
+    }
+
+    /**
+     * Runs a SQL SELECT through the coordinator.
+     *
+     * @param statement the statement.
+     * @return the body of the response, which must be 200.
+     */
+    private String selectBody(String statement) throws Exception {
+        SelectRequestDto selectRequestDto = new SelectRequestDto();
+        selectRequestDto.setDatabaseType("SQL");
+        selectRequestDto.setStatement(statement);
+        HttpResponseData res = sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto));
+        assertEquals(200, res.getStatusCode(), statement);
+        return res.getResponseBody();
+    }
+
+    /**
+     * Sums the selects served by the replicas of each partition of a table.
+     *
+     * @param client the client of the table.
+     * @param partitions the number of partitions.
+     * @return the reads of each partition.
+     */
+    private static long[] readsPerPartition(DatabaseNodeClient client, int partitions) {
+        long[] reads = new long[partitions];
+        for (Map.Entry<String, Map<String, Long>> replica : client.getStorageStats().entrySet()) {
+            String[] name = replica.getKey().split("-");
+            reads[Integer.parseInt(name[name.length - 2])] += replica.getValue().get("reads");
+        }
+        return reads;
+    }
+
+    private static RowPredicate compile(DatabaseNodeClient client, String where) throws Exception {
+        return RowPredicate.compile(CCJSqlParserUtil.parseCondExpression(where), client.getColumns(),
+                client.typesOf(client.getColumns()));
+    }
+
+    /**
+     * Runs CRUD operations against a SQL and a NoSQL table stored with the given storage engine.
+     *
+     * @param storageEngine the storage engine of the tables.
+     */
+    private void testStorageEngineCRUD(String storageEngine) throws Exception {
+        // CREATE replica = 2, partition = 2, stored without any .csv file
+        CreateRequestDto createRequestDto = new CreateRequestDto();
+        createRequestDto.setStatement("CREATE TABLE students (id INT PRIMARY KEY, name VARCHAR(255), age INT)");
+        createRequestDto.setDatabaseType("SQL");
+        createRequestDto.setReplicaCount(2);
+        createRequestDto.setPartitionType("horizontal");
+        createRequestDto.setNumPartitions(2);
+        createRequestDto.setStorageEngine(storageEngine);
+        HttpResponseData res = sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto));
+        assertNotNull(res);
+        assertEquals(200, res.getStatusCode());
+        assertEquals(0, coordinator.listCsvFiles().size());
+
+        createRequestDto.setStatement("CREATE TABLE students");
+        createRequestDto.setDatabaseType("NoSQL");
+        res = sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto));
+        assertNotNull(res);
+        assertEquals(200, res.getStatusCode());
+
+        // unknown storage engines are rejected
+        createRequestDto.setStatement("CREATE TABLE teachers");
+        createRequestDto.setStorageEngine("unknown");
+        res = sendPostRequest("/create", objectMapper.writeValueAsString(createRequestDto));
+        assertNotNull(res);
+        assertEquals(400, res.getStatusCode());
+
+        InsertRequestDto insertRequestDto = new InsertRequestDto();
+        insertRequestDto.setDatabaseType("SQL");
+        for (String values : Arrays.asList("(1, 'Alice', 20)", "(2, 'Bob', 21)", "(3, 'Charlie', 22)")) {
+            insertRequestDto.setStatement("INSERT INTO students (id, name, age) VALUES " + values);
+            sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto));
+        }
+        insertRequestDto.setDatabaseType("NoSQL");
+        for (String values : Arrays.asList("id 1 name 'Alice' age 20", "id 2 name 'Bob' age 21", "id 3 name 'Charlie' age 22")) {
+            insertRequestDto.setStatement("INSERT students " + values);
+            sendPostRequest("/insert", objectMapper.writeValueAsString(insertRequestDto));
+        }
+
+        UpdateRequestDto updateRequestDto = new UpdateRequestDto();
+        updateRequestDto.setStatement("UPDATE students SET age = 32 WHERE id = 3");
+        updateRequestDto.setDatabaseType("SQL");
+        assertEquals(200, sendPostRequest("/update", objectMapper.writeValueAsString(updateRequestDto)).getStatusCode());
+        updateRequestDto.setStatement("UPDATE students age 32 WHERE id 3");
+        updateRequestDto.setDatabaseType("NoSQL");
+        assertEquals(200, sendPostRequest("/update", objectMapper.writeValueAsString(updateRequestDto)).getStatusCode());
+
+        DeleteRequestDto deleteRequestDto = new DeleteRequestDto();
+        deleteRequestDto.setStatement("DELETE FROM students WHERE id = 1");
+        deleteRequestDto.setDatabaseType("SQL");
+        assertEquals(200, sendPostRequest("/delete", objectMapper.writeValueAsString(deleteRequestDto)).getStatusCode());
+        deleteRequestDto.setStatement("DELETE students WHERE id 1");
+        deleteRequestDto.setDatabaseType("NoSQL");
+        assertEquals(200, sendPostRequest("/delete", objectMapper.writeValueAsString(deleteRequestDto)).getStatusCode());
+
+        SelectRequestDto selectRequestDto = new SelectRequestDto();
+        selectRequestDto.setStatement("SELECT * FROM students");
+        selectRequestDto.setDatabaseType("SQL");
+        res = sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto));
+        assertNotNull(res);
+        assertEquals(200, res.getStatusCode());
+        assertEquals("2,'Bob',21,\n3,'Charlie',32,\n", res.getResponseBody());
+
+        selectRequestDto.setStatement("SELECT students");
+        selectRequestDto.setDatabaseType("NoSQL");
+        res = sendPostRequest("/select", objectMapper.writeValueAsString(selectRequestDto));
+        assertNotNull(res);
+        assertEquals(200, res.getStatusCode());
+        assertEquals("id,2,name,'Bob',age,21,\nid,3,name,'Charlie',age,32,\n", res.getResponseBody());
+    }
     class InsertTask implements Runnable {
         private String insertRequestJson;
 
@@ -1129,7 +2842,7 @@ class CoordinatorTest {
             }
 
             System.out.println("Passed: " + passedTests + " / " + totalTests);
-            System.out.println("Score: " + totalPoints + " / " + 180.0 + " ( 100% ) ");
+            System.out.println("Score: " + totalPoints + " / " + 410.0 + " ( 100% ) ");
             System.out.println("******************************************");
         }
     }
@@ -0,0 +1,163 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.dto.CreateRequestDto;
+import org.example.dto.InsertRequestDto;
+import org.example.dto.SelectRequestDto;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of the Coordinator with requests run on a cached thread pool against requests run on virtual threads, at
+ * 1k, 5k and 10k concurrent clients. Every client sends a few INSERTs and a SELECT, one after the other, to a table of
+ * three partitions; the throughput, the peak number of platform threads and the peak heap usage of the process are
+ * reported for each run. Virtual threads need a Java 21 runtime, on older ones both runs use the cached pool. Not run
+ * by the test suite, run it with
+ * {@code mvn test-compile exec:java -Dexec.mainClass="org.example.ExecutorBenchmark" -Dexec.classpathScope=test},
+ * optionally with the client counts as arguments.
+ */
+public class ExecutorBenchmark {
+    private static final int PORT = 8091;
+    private static final int REQUESTS_PER_CLIENT = 4;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        int[] clientCounts = {1000, 5000, 10000};
+        if (args.length > 0) {
+            clientCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                clientCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%-8s %8s %12s %10s %14s %10s%n", "executor", "clients", "requests/s", "failed",
+                "peak threads", "peak heap");
+        for (int clients : clientCounts) {
+            for (String executorMode : List.of("cached", "virtual")) {
+                run(executorMode, clients);
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Starts a coordinator, loads it with concurrent clients and prints the results.
+     *
+     * @param executorMode the executor mode of the coordinator.
+     * @param clients the number of concurrent clients.
+     */
+    private static void run(String executorMode, int clients) throws Exception {
+        Coordinator coordinator = new Coordinator(executorMode, Coordinator.DEFAULT_MAX_CONCURRENT_REQUESTS);
+        coordinator.deleteCsvFiles();
+        coordinator.run(PORT);
+        // the clients share a few threads, so the threads of the process are mostly the coordinator's
+        ExecutorService clientThreads = Executors.newFixedThreadPool(4);
+        HttpClient client = HttpClient.newBuilder().executor(clientThreads).connectTimeout(Duration.ofSeconds(60))
+                .build();
+        try {
+            CreateRequestDto createRequestDto = new CreateRequestDto();
+            createRequestDto.setStatement("CREATE TABLE loadtest (id INT PRIMARY KEY, name VARCHAR(255))");
+            createRequestDto.setDatabaseType("SQL");
+            createRequestDto.setReplicaCount(1);
+            createRequestDto.setPartitionType("horizontal");
+            createRequestDto.setNumPartitions(3);
+            createRequestDto.setDurability("none");
+            client.send(post("/create", createRequestDto), HttpResponse.BodyHandlers.ofString());
+
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            System.gc();
+            threads.resetPeakThreadCount();
+            AtomicLong peakHeap = new AtomicLong();
+            Thread sampler = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            sampler.setDaemon(true);
+            sampler.start();
+
+            AtomicInteger failed = new AtomicInteger();
+            long start = System.nanoTime();
+            List<CompletableFuture<Void>> sessions = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                sessions.add(session(client, i, 0, failed));
+            }
+            CompletableFuture.allOf(sessions.toArray(new CompletableFuture<?>[0])).join();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            sampler.interrupt();
+            long requests = (long) clients * (REQUESTS_PER_CLIENT + 1);
+            System.out.printf("%-8s %8d %12.0f %10d %14d %8dMB%n", coordinator.getExecutorMode(), clients,
+                    requests / seconds, failed.get(), threads.getPeakThreadCount(), peakHeap.get() / (1024 * 1024));
+        } finally {
+            clientThreads.shutdownNow();
+            coordinator.stop();
+            coordinator.deleteCsvFiles();
+        }
+    }
+
+    /**
+     * Sends the requests of one client, each once the previous one is answered.
+     *
+     * @param client the HTTP client.
+     * @param clientId the id of the client.
+     * @param request the index of the next request.
+     * @param failed the number of requests not answered with 200.
+     * @return completes once every request of the client is answered.
+     */
+    private static CompletableFuture<Void> session(HttpClient client, int clientId, int request, AtomicInteger failed) {
+        if (request > REQUESTS_PER_CLIENT) {
+            return CompletableFuture.completedFuture(null);
+        }
+        HttpRequest httpRequest;
+        if (request < REQUESTS_PER_CLIENT) {
+            InsertRequestDto insertRequestDto = new InsertRequestDto();
+            int id = clientId * REQUESTS_PER_CLIENT + request;
+            insertRequestDto.setStatement("INSERT INTO loadtest (id, name) VALUES (" + id + ", 'client" + clientId + "')");
+            insertRequestDto.setDatabaseType("SQL");
+            httpRequest = post("/insert", insertRequestDto);
+        } else {
+            SelectRequestDto selectRequestDto = new SelectRequestDto();
+            selectRequestDto.setStatement("SELECT * FROM loadtest");
+            selectRequestDto.setDatabaseType("SQL");
+            httpRequest = post("/select", selectRequestDto);
+        }
+        return client.sendAsync(httpRequest, HttpResponse.BodyHandlers.discarding())
+                .handle((response, e) -> {
+                    if (e != null || response.statusCode() != 200) {
+                        failed.incrementAndGet();
+                    }
+                    return null;
+                })
+                .thenCompose(ignored -> session(client, clientId, request + 1, failed));
+    }
+
+    private static HttpRequest post(String endPoint, Object body) {
+        try {
+            return HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + endPoint))
+                    .timeout(Duration.ofSeconds(120))
+                    .POST(HttpRequest.BodyPublishers.ofString(MAPPER.writeValueAsString(body)))
+                    .build();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.example;
+
+import org.example.storage.ColumnType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the latency of a SELECT on a small table through {@link DatabaseNodeClient}, which reuses the cached RMI
+ * stub of the replica, against the same SELECT preceded by a registry lookup, as every operation did before stubs
+ * were cached. Not run by the test suite, run it with
+ * {@code mvn test-compile exec:java -Dexec.mainClass="org.example.StubCacheBenchmark" -Dexec.classpathScope=test}.
+ */
+public class StubCacheBenchmark {
+    private static final String TABLE = "stubbench";
+    private static final String REPLICA = TABLE + "-SQL-0-0";
+
+    /**
+     * Interface for one timed operation.
+     */
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        Registry registry = LocateRegistry.createRegistry(1099);
+        DatabaseNodeClient client = new DatabaseNodeClient(TABLE, Arrays.asList("id", "name"),
+                Arrays.asList(ColumnType.INT, ColumnType.VARCHAR), 1, null, null);
+        try {
+            for (int i = 0; i < 10; i++) {
+                client.insertSQL(Arrays.asList("id", "name"), Arrays.asList(String.valueOf(i), "'name" + i + "'"));
+            }
+            Operation lookupPerOperation = () -> {
+                DatabaseNodeInterface stub = (DatabaseNodeInterface) LocateRegistry.getRegistry(1099).lookup(REPLICA);
+                stub.selectSQL();
+            };
+            Operation cachedStub = client::selectSQL;
+            // warm up both paths before measuring
+            time(operations / 10, lookupPerOperation);
+            time(operations / 10, cachedStub);
+            double before = time(operations, lookupPerOperation);
+            double after = time(operations, cachedStub);
+            System.out.printf("registry lookup per operation: %.1f us/op%n", before);
+            System.out.printf("cached stub:                   %.1f us/op%n", after);
+            System.out.printf("speedup:                       %.2fx%n", before / after);
+        } finally {
+            client.close();
+            UnicastRemoteObject.unexportObject(registry, true);
+            deleteFiles();
+        }
+    }
+
+    /**
+     * Runs an operation repeatedly.
+     *
+     * @param operations the number of times to run it.
+     * @param operation the operation.
+     * @return the mean latency in microseconds.
+     */
+    private static double time(int operations, Operation operation) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            operation.run();
+        }
+        return (System.nanoTime() - start) / 1000.0 / operations;
+    }
+
+    private static void deleteFiles() throws IOException {
+        for (String suffix : List.of(".csv", ".csv.tomb", ".csv.rid", ".csv.ckpt", ".wal")) {
+            Files.deleteIfExists(Paths.get(REPLICA + suffix));
+        }
+    }
+}